@@ -15,6 +15,8 @@
 package com.google.enterprise.connector.notes.client.notes;
 
 import com.google.enterprise.connector.notes.client.NotesBase;
+import com.google.enterprise.connector.notes.client.NotesHandleArena;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
 
 import lotus.domino.Base;
 import lotus.domino.NotesException;
@@ -24,9 +26,16 @@ import java.util.Vector;
 class NotesBaseImpl<E extends Base> implements NotesBase {
 
   private final E notesObject;
+  private final Object trackingToken;
 
   NotesBaseImpl(E notesObject) {
     this.notesObject = notesObject;
+    if (notesObject != null) {
+      NotesHandleArena.track(this);
+      trackingToken = NotesHandleTracker.track(this);
+    } else {
+      trackingToken = null;
+    }
   }
 
   E getNotesObject() {
@@ -36,6 +45,7 @@ class NotesBaseImpl<E extends Base> implements NotesBase {
   /** {@inheritDoc} */
   @Override
   public void recycle() throws NotesConnectorExceptionImpl {
+    untrack();
     try {
       notesObject.recycle();
     } catch (NotesException e) {
@@ -56,6 +66,7 @@ class NotesBaseImpl<E extends Base> implements NotesBase {
         if (!(o instanceof NotesBaseImpl)) {
           continue;
         }
+        ((NotesBaseImpl) o).untrack();
         notesObjects.add(((NotesBaseImpl) o).getNotesObject());
       }
       notesObject.recycle(notesObjects);
@@ -64,6 +75,12 @@ class NotesBaseImpl<E extends Base> implements NotesBase {
     }
   }
 
+  /** Stops tracking this object when it is recycled. */
+  private void untrack() {
+    NotesHandleArena.untrack(this);
+    NotesHandleTracker.recycled(trackingToken);
+  }
+
   @Override
   public String toString() {
     return notesObject.toString();
@@ -22,11 +22,14 @@ import com.google.enterprise.connector.notes.client.NotesViewNavigator;
 import lotus.domino.Document;
 import lotus.domino.NotesException;
 import lotus.domino.View;
+import lotus.domino.ViewColumn;
 import lotus.domino.ViewEntryCollection;
 
 import java.util.Vector;
 
 class NotesViewImpl extends NotesBaseImpl<View> implements NotesView {
+  /** The column values index Domino reports for a constant column. */
+  private static final int CONSTANT_COLUMN_INDEX = 65535;
 
   NotesViewImpl(View view) {
     super(view);
@@ -157,6 +160,32 @@ class NotesViewImpl extends NotesBaseImpl<View> implements NotesView {
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public int getColumnValuesIndex(String itemName)
+      throws NotesConnectorExceptionImpl {
+    try {
+      Vector columns = getNotesObject().getColumns();
+      int index = -1;
+      try {
+        for (Object o : columns) {
+          ViewColumn column = (ViewColumn) o;
+          if (itemName.equalsIgnoreCase(column.getItemName())) {
+            index = column.getColumnValuesIndex();
+            break;
+          }
+        }
+      } finally {
+        // Each call returns new column objects.
+        getNotesObject().recycle(columns);
+      }
+      // Constant columns have no column value.
+      return (index == CONSTANT_COLUMN_INDEX) ? -1 : index;
+    } catch (NotesException e) {
+      throw new NotesConnectorExceptionImpl(e);
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public void refresh() throws NotesConnectorExceptionImpl {
@@ -90,6 +90,7 @@ public class NCCONST {
 
   // Person Items from Domino Directory
   public static final String PITM_FULLNAME = "FullName";
+  public static final String PITM_HTTPPASSWORD = "HTTPPassword";
 
   //Item names used by the connector for crawling documents
 
@@ -140,6 +141,18 @@ public class NCCONST {
   /** Groups with no database access */
   public static final String NCITM_DBNOACCESSGROUPS = "NC.DBNoAccessGroups";
 
+  /**
+   * The source document's last modified time, in milliseconds since
+   * the epoch. Set only for databases that had been polled before.
+   */
+  public static final String NCITM_SOURCEMODIFIED = "NC.SourceModified";
+
+  /** The time the crawl request was created, in milliseconds */
+  public static final String NCITM_ENQUEUED = "NC.Enqueued";
+
+  /** The time the crawl request was prefetched, in milliseconds */
+  public static final String NCITM_PREFETCHED = "NC.Prefetched";
+
   /** Possible States for documents */
   public static final String STATENEW = "New";
   public static final String STATEINCRAWL = "InCrawl";
@@ -226,10 +239,40 @@ public class NCCONST {
   public static final String SITM_DELETIONBATCHSIZE = "DeletionBatchSize";
   public static final String SITM_NUMCRAWLERTHREADS = "NumCrawlerThreads";
   public static final String SITM_CACHEUPDATEINTERVAL = "CacheUpdateInterval";
+
+  /** Number of threads reading the Domino directory in a cache update */
+  public static final String SITM_DIRECTORYTHREADS = "DirectoryThreads";
+
+  /** Minutes before a cache update is cancelled; negative for no limit */
+  public static final String SITM_DIRECTORYREFRESHTIMEOUT =
+      "DirectoryRefreshTimeout";
   public static final String SITM_LASTCACHEUPDATE = "LastCacheUpdate";
   public static final String SITM_RETAINMETADATA = "RetainMetaData";
   public static final String SITM_USERNAMETYPE = "UserNameType";
 
+  /** Minutes a pooled authN/authZ Notes session is kept before recycling */
+  public static final String SITM_SESSIONMAXAGE = "SessionMaxAge";
+
+  /** Seconds an authorization decision is cached; negative disables */
+  public static final String SITM_AUTHZCACHETTL = "AuthZCacheTTL";
+
+  /** Seconds a verified password is cached; negative disables */
+  public static final String SITM_CREDENTIALCACHETTL = "CredentialCacheTTL";
+
+  /** If 1, count live Notes objects and log those never recycled */
+  public static final String SITM_TRACKNOTESHANDLES = "TrackNotesHandles";
+
+  /** If 1, time the calls made through the Notes client interfaces */
+  public static final String SITM_INSTRUMENTNOTESCALLS =
+      "InstrumentNotesCalls";
+
+  /** Milliseconds before an operation is logged as slow; negative for never */
+  public static final String SITM_SLOWOPERATIONTHRESHOLD =
+      "SlowOperationThreshold";
+
+  /** Log one in this many traced operations; negative for none */
+  public static final String SITM_TRACESAMPLERATE = "TraceSampleRate";
+
   /** Path to the Domino directory on the server */
   public static final String SITM_DIRECTORY = "Directory";
 
@@ -262,6 +305,45 @@ public class NCCONST {
   public static final String DEFAULT_USERSELECTIONFORMULA =
       "Select Form = \"Person\"";
 
+  public static final int DEFAULT_DIRECTORY_THREADS = 1;
+  public static final int MAX_DIRECTORY_THREADS = 16;
+
+  /** In minutes */
+  public static final int DEFAULT_SESSION_MAX_AGE = 30;
+
+  /** In seconds */
+  public static final int DEFAULT_AUTHZ_CACHE_TTL = 30;
+
+  /** Maximum number of cached authorization decisions */
+  public static final int DEFAULT_AUTHZ_CACHE_SIZE = 10000;
+
+  /** In seconds */
+  public static final int DEFAULT_CREDENTIAL_CACHE_TTL = 300;
+
+  /** Maximum number of cached credentials */
+  public static final int DEFAULT_CREDENTIAL_CACHE_SIZE = 10000;
+
+  /** Default minutes before a cache update is cancelled */
+  public static final int DEFAULT_DIRECTORY_REFRESH_TIMEOUT = 720;
+
+  /** Default milliseconds before an operation is logged as slow */
+  public static final int DEFAULT_SLOW_OPERATION_THRESHOLD = 10000;
+
+  /** Default number of traced operations per sampled log message */
+  public static final int DEFAULT_TRACE_SAMPLE_RATE = 1000;
+
+  /** Minutes between checks for whether the cache update interval elapsed */
+  public static final int DIRECTORY_REFRESH_CHECK_MINUTES = 1;
+
+  /** Seconds to wait at shutdown for a cancelled cache update to stop */
+  public static final int DIRECTORY_REFRESH_SHUTDOWN_SECONDS = 30;
+
+  /** Directory entries written between saved cache update checkpoints */
+  public static final int DIRECTORY_CHECKPOINT_INTERVAL = 1000;
+
+  /** Minutes between reconciling the queue depth counts with the views */
+  public static final int QUEUE_DEPTH_RECONCILE_MINUTES = 10;
+
   // Domino properties
   public static final String PROPNAME_DESCRIPTION = "Description";
   public static final String PROPNAME_NCLASTUPDATE = "dom_lastmodified";
@@ -284,13 +366,17 @@ public class NCCONST {
   public static final String TABLE_INDEXED_PREFIX = "NCIndexed_";
   public static final String TABLE_READERS_PREFIX = "NCIndexedReaders_";
   public static final String TABLE_ATTACHMENTS_PREFIX = "NCIndexedAttachments_";
+  public static final String TABLE_DATABASEACL_PREFIX = "NCDatabaseAcl_";
+  public static final String TABLE_DATABASESTATS_PREFIX = "NCDatabaseStats_";
   public static final int COLUMN_SIZE_UNID = 40;
   public static final int COLUMN_SIZE_REPLICAID = 16;
   public static final int COLUMN_SIZE_READER = 100;
   public static final int COLUMN_SIZE_SERVER = 100;
   public static final int COLUMN_SIZE_HOST = 100;
   public static final int COLUMN_SIZE_PROTOCOL = 5;
+  public static final int COLUMN_SIZE_DBNAME = 255;
 
-  public static final int GC_INVOCATION_INTERVAL = 1000;
+  // The number of databases listed in the crawl statistics log summary
+  public static final int CRAWL_SUMMARY_DATABASES = 10;
 }
 
@@ -15,7 +15,6 @@
 package com.google.enterprise.connector.notes;
 
 import com.google.enterprise.connector.notes.NotesUserGroupManager.User;
-import com.google.enterprise.connector.notes.client.NotesDatabase;
 import com.google.enterprise.connector.notes.client.NotesDocument;
 import com.google.enterprise.connector.notes.client.NotesSession;
 import com.google.enterprise.connector.notes.client.NotesView;
@@ -44,9 +43,23 @@ class NotesAuthenticationManager implements AuthenticationManager {
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public AuthenticationResponse authenticate(AuthenticationIdentity id)
       throws RepositoryException {
+    long timeStart = System.currentTimeMillis();
+    boolean succeeded = false;
+    try {
+      AuthenticationResponse response = authenticateUser(id);
+      succeeded = true;
+      return response;
+    } finally {
+      connectorSession.getConnector().getMetrics().record(
+          NotesConnectorMetrics.Stage.AUTHENTICATION, timeStart, succeeded);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private AuthenticationResponse authenticateUser(AuthenticationIdentity id)
+      throws RepositoryException {
       String gsaName = connectorSession.getUsernameType().getUsername(id);
       LOGGER.log(Level.FINE, "Authenticating user: {0} using {1} username type",
           new Object[] { gsaName, connectorSession.getUsernameType() });
@@ -60,33 +73,25 @@ class NotesAuthenticationManager implements AuthenticationManager {
       }
       LOGGER.log(Level.FINE, "{0} user is authenticated", user.getNotesName());
 
-      // Find the user in Notes.
-      NotesSession notesSession = connectorSession.createNotesSession();
-      NotesDatabase notesDirectory = null;
-      NotesView notesUsersView = null;
-      NotesDocument notesUserDoc = null;
+      // Verify the password, first against the credentials that were
+      // recently verified, then in Notes. No password means the GSA
+      // only wants groups, which come from the connector cache.
       boolean hasValidPassword = false;
-      try {
-        notesDirectory = notesSession.getDatabase(
-            connectorSession.getServer(), connectorSession.getDirectory());
-        notesUsersView = notesDirectory.getView(NCCONST.DIRVIEW_USERS);
-        notesUserDoc =
-            notesUsersView.getDocumentByKey(user.getNotesName(), true);
-        if (notesUserDoc == null) {
-          LOGGER.log(Level.FINE, "Username not found in Notes directory");
-          return new AuthenticationResponse(false, null);
-        }
-        if (id.getPassword() != null) {
-          String hashedPassword =
-              notesUserDoc.getItemValueString("HTTPPassword");
-          hasValidPassword =
-              notesSession.verifyPassword(id.getPassword(), hashedPassword);
+      if (id.getPassword() != null) {
+        NotesCredentialCache credentialCache =
+            connectorSession.getCredentialCache();
+        hasValidPassword =
+            credentialCache.verify(user.getNotesName(), id.getPassword());
+        if (hasValidPassword) {
+          LOGGER.log(Level.FINEST, "Password verified from cache for {0}",
+              user.getNotesName());
+        } else {
+          Boolean verified = verifyPassword(user, id.getPassword());
+          if (verified == null) {
+            return new AuthenticationResponse(false, null);
+          }
+          hasValidPassword = verified;
         }
-      } finally {
-        Util.recycle(notesUserDoc);
-        Util.recycle(notesUsersView);
-        Util.recycle(notesDirectory);
-        connectorSession.closeNotesSession(notesSession);
       }
 
       Collection<String> groupsAndRoles = user.getGroupsAndRoles();
@@ -125,6 +130,44 @@ class NotesAuthenticationManager implements AuthenticationManager {
       }
   }
 
+  /**
+   * Verifies a password against the person's HTTPPassword item in the
+   * Domino directory, using a pooled session that already has the
+   * directory open, and caches the credential if it is valid.
+   *
+   * @return whether the password is valid, or null if the person is not
+   * in the directory
+   */
+  private Boolean verifyPassword(User user, String password)
+      throws RepositoryException {
+    NotesSessionPool sessionPool = connectorSession.getSessionPool();
+    NotesSessionPool.PooledSession pooledSession =
+        sessionPool.borrowSession();
+    NotesDocument notesUserDoc = null;
+    try {
+      NotesSession notesSession = pooledSession.getSession();
+      NotesView notesUsersView = pooledSession.getUsersView(
+          connectorSession.getServer(), connectorSession.getDirectory());
+      notesUserDoc =
+          notesUsersView.getDocumentByKey(user.getNotesName(), true);
+      if (notesUserDoc == null) {
+        LOGGER.log(Level.FINE, "Username not found in Notes directory");
+        return null;
+      }
+      String hashedPassword =
+          notesUserDoc.getItemValueString(NCCONST.PITM_HTTPPASSWORD);
+      boolean valid = notesSession.verifyPassword(password, hashedPassword);
+      if (valid) {
+        connectorSession.getCredentialCache().put(user.getNotesName(),
+            password, hashedPassword);
+      }
+      return valid;
+    } finally {
+      Util.recycle(notesUserDoc);
+      sessionPool.returnSession(pooledSession);
+    }
+  }
+
   private String getIdentityLog(String pvi, String notesName,
       Collection<String> groups, Collection<String> prefixedGroups) {
     return "pvi: " + pvi + "; Notes name: " + notesName
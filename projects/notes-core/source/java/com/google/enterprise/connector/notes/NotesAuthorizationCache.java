@@ -0,0 +1,260 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, short-lived cache of authorization decisions keyed by GSA
+ * user name and docid.
+ *
+ * Decisions are dropped when the user cache is refreshed, when the ACL
+ * of the document's database changes, or when the document is
+ * re-indexed or deleted. To avoid caching a decision that was computed
+ * from data invalidated while the request was running, callers take a
+ * stamp with {@link #getStamp} before computing decisions and pass it
+ * to {@link #put}.
+ */
+class NotesAuthorizationCache {
+  private static final String CLASS_NAME =
+      NotesAuthorizationCache.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static class Decision {
+    final boolean allow;
+    final String replicaId;
+    final String unid;
+    final long stamp;
+    final long expires;
+
+    Decision(boolean allow, String replicaId, String unid, long stamp,
+        long expires) {
+      this.allow = allow;
+      this.replicaId = replicaId;
+      this.unid = unid;
+      this.stamp = stamp;
+      this.expires = expires;
+    }
+  }
+
+  private static class Invalidation {
+    final long stamp;
+    final long time;
+
+    Invalidation(long stamp, long time) {
+      this.stamp = stamp;
+      this.time = time;
+    }
+  }
+
+  private final long ttlMillis;
+  private final int maxSize;
+  private final LinkedHashMap<String, Decision> decisions;
+
+  /**
+   * Recent database and document invalidations, oldest first. Entries
+   * older than the TTL are pruned, since every decision computed before
+   * them has expired.
+   */
+  private final LinkedHashMap<String, Invalidation> invalidations =
+      new LinkedHashMap<String, Invalidation>();
+  private long sequence = 0;
+  private long invalidatedAll = 0;
+  private long prunedThrough = 0;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long evictionCount = 0;
+  private long invalidationCount = 0;
+
+  /**
+   * @param ttlSeconds the lifetime of a cached decision; 0 disables
+   * the cache
+   * @param maxSize the maximum number of cached decisions
+   */
+  NotesAuthorizationCache(int ttlSeconds, final int maxSize) {
+    this.ttlMillis = ttlSeconds * 1000L;
+    this.maxSize = maxSize;
+    this.decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Decision> e) {
+          if (size() > maxSize) {
+            evictionCount++;
+            return true;
+          }
+          return false;
+        }
+      };
+  }
+
+  boolean isEnabled() {
+    return ttlMillis > 0 && maxSize > 0;
+  }
+
+  /**
+   * Gets a stamp to pass to {@link #put} for decisions computed after
+   * this call.
+   */
+  synchronized long getStamp() {
+    return sequence;
+  }
+
+  /**
+   * Gets a cached decision.
+   *
+   * @param gsaName the GSA user name
+   * @param docId the document id
+   * @return the cached decision, or null if there is none
+   */
+  synchronized Boolean get(String gsaName, String docId) {
+    if (!isEnabled()) {
+      return null;
+    }
+    String key = getKey(gsaName, docId);
+    Decision decision = decisions.get(key);
+    if (decision != null) {
+      if (isCurrent(decision, System.currentTimeMillis())) {
+        hitCount++;
+        return decision.allow;
+      }
+      decisions.remove(key);
+    }
+    missCount++;
+    return null;
+  }
+
+  /**
+   * Caches a decision, unless the data it was computed from has been
+   * invalidated since the stamp was taken.
+   *
+   * @param gsaName the GSA user name
+   * @param docId the document id
+   * @param replicaId the replica id of the document's database
+   * @param unid the UNID of the document
+   * @param allow the decision
+   * @param stamp the stamp from {@link #getStamp}
+   */
+  synchronized void put(String gsaName, String docId, String replicaId,
+      String unid, boolean allow, long stamp) {
+    if (!isEnabled()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Decision decision =
+        new Decision(allow, replicaId, unid, stamp, now + ttlMillis);
+    if (isCurrent(decision, now)) {
+      decisions.put(getKey(gsaName, docId), decision);
+    }
+  }
+
+  /** Drops all cached decisions. Called when the user cache is updated. */
+  synchronized void invalidateAll() {
+    invalidatedAll = ++sequence;
+    invalidations.clear();
+    prunedThrough = invalidatedAll;
+    decisions.clear();
+    invalidationCount++;
+    LOGGER.log(Level.FINE, "Authorization cache cleared");
+  }
+
+  /** Drops the decisions for documents in a database whose ACL changed. */
+  synchronized void invalidateDatabase(String replicaId) {
+    addInvalidation("db:" + replicaId);
+    LOGGER.log(Level.FINE,
+        "Authorization cache invalidated for database {0}", replicaId);
+  }
+
+  /** Drops the decisions for a document that was re-indexed or deleted. */
+  synchronized void invalidateDocument(String unid) {
+    addInvalidation("doc:" + unid);
+  }
+
+  synchronized int size() {
+    return decisions.size();
+  }
+
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  synchronized long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "size: " + decisions.size() + "; hits: " + hitCount
+        + "; misses: " + missCount + "; evictions: " + evictionCount
+        + "; invalidations: " + invalidationCount;
+  }
+
+  private String getKey(String gsaName, String docId) {
+    return gsaName + "\n" + docId;
+  }
+
+  private void addInvalidation(String key) {
+    if (!isEnabled()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    pruneInvalidations(now);
+    // Remove first so that the map stays in invalidation order.
+    invalidations.remove(key);
+    invalidations.put(key, new Invalidation(++sequence, now));
+    invalidationCount++;
+  }
+
+  private void pruneInvalidations(long now) {
+    Iterator<Invalidation> it = invalidations.values().iterator();
+    while (it.hasNext()) {
+      Invalidation invalidation = it.next();
+      if (now - invalidation.time <= ttlMillis) {
+        break;
+      }
+      prunedThrough = invalidation.stamp;
+      it.remove();
+    }
+  }
+
+  private boolean isCurrent(Decision decision, long now) {
+    if (now >= decision.expires) {
+      return false;
+    }
+    if (invalidatedAll > decision.stamp || prunedThrough > decision.stamp) {
+      return false;
+    }
+    if (isInvalidated("db:" + decision.replicaId, decision.stamp)) {
+      return false;
+    }
+    return !isInvalidated("doc:" + decision.unid, decision.stamp);
+  }
+
+  private boolean isInvalidated(String key, long stamp) {
+    Invalidation invalidation = invalidations.get(key);
+    return invalidation != null && invalidation.stamp > stamp;
+  }
+}
@@ -17,10 +17,7 @@ package com.google.enterprise.connector.notes;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.enterprise.connector.notes.NotesUserGroupManager.User;
-import com.google.enterprise.connector.notes.client.NotesDatabase;
 import com.google.enterprise.connector.notes.client.NotesDocument;
-import com.google.enterprise.connector.notes.client.NotesSession;
-import com.google.enterprise.connector.notes.client.NotesView;
 import com.google.enterprise.connector.notes.client.NotesViewNavigator;
 import com.google.enterprise.connector.spi.AuthenticationIdentity;
 import com.google.enterprise.connector.spi.AuthorizationManager;
@@ -29,6 +26,8 @@ import com.google.enterprise.connector.spi.RepositoryException;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -71,7 +70,6 @@ class NotesAuthorizationManager implements AuthorizationManager {
 
   // Explain Lotus Notes Authorization Rules
 
-  // TODO: Add LRU Cache for ALLOW/DENY
   @Override
   @SuppressWarnings("unchecked")
   public Collection<AuthorizationResponse> authorizeDocids(
@@ -79,18 +77,30 @@ class NotesAuthorizationManager implements AuthorizationManager {
     long elapsedTimeMillis = 0;
     long startTime = System.currentTimeMillis();
 
-    ArrayList<AuthorizationResponse> authorized =
-        new ArrayList<AuthorizationResponse>(docIds.size());
+    // Cached decisions are found before the others are checked, so the
+    // responses are collected by docid and returned in request order.
+    Map<String, AuthorizationResponse> responses =
+        new HashMap<String, AuthorizationResponse>();
+    boolean succeeded = false;
+    NotesTrace trace = NotesTrace.start("authorization");
     try {
+      // Take the cache stamp before reading any user or ACL data so
+      // that decisions invalidated while we work are not cached.
+      NotesAuthorizationCache authzCache = ncs.getAuthorizationCache();
+      long cacheStamp = authzCache.getStamp();
+
       // Find the user in the connector cache.
+      NotesTrace.enter("user");
       String gsaName = ncs.getUsernameType().getUsername(id);
+      trace.setSubject(gsaName + " (" + docIds.size() + " documents)");
       User user = ncs.getUserGroupManager().getUserByGsaName(gsaName);
+      NotesTrace.exit();
       if (user == null) {
         LOGGER.log(Level.FINE, "Person not found in connector user database:"
             + " {0} using {1} username type",
             new Object[] { gsaName, ncs.getUsernameType() });
         for (String docId : docIds) {
-          authorized.add(new AuthorizationResponse(false, docId));
+          responses.put(docId, new AuthorizationResponse(false, docId));
         }
       } else {
         LOGGER.log(Level.FINE,
@@ -100,15 +110,32 @@ class NotesAuthorizationManager implements AuthorizationManager {
         LOGGER.log(Level.FINE, "Groups for {0} are: {1}",
             new Object[] { gsaName, userGroups });
 
-        NotesSession ns = null;
+        // Answer what we can from recent decisions.
+        NotesTrace.enter("cache");
+        ArrayList<String> uncachedDocIds = new ArrayList<String>();
+        for (String docId : docIds) {
+          Boolean allow = authzCache.get(gsaName, docId);
+          if (allow == null) {
+            uncachedDocIds.add(docId);
+          } else {
+            LOGGER.log(Level.FINER, "Cached auth decision is {0} {1}",
+                new Object[] { allow, docId });
+            responses.put(docId, new AuthorizationResponse(allow, docId));
+          }
+        }
+        NotesTrace.exit();
+
+        // Database access is checked against the ACLs mirrored in H2.
+        // A Notes session is only used for databases whose ACL has not
+        // been mirrored yet.
+        NotesDocumentManager docManager = ncs.getNotesDocumentManager();
+        NotesSessionPool sessionPool = ncs.getSessionPool();
+        NotesSessionPool.PooledSession pooledSession = null;
         try {
-          ns = ncs.createNotesSession();
-          NotesDatabase cdb =
-              ns.getDatabase(ncs.getServer(), ncs.getDatabase());
-          NotesView securityView = cdb.getView(NCCONST.VIEWSECURITY);
-          for (String docId : docIds) {
+          for (String docId : uncachedDocIds) {
             NotesViewNavigator secVN = null;
             NotesDocument dbdoc = null;
+            NotesTrace document = NotesTrace.start("document");
             try {
               // Extract the database and UNID from the URL
               String repId = getRepIdFromDocId(docId);
@@ -116,13 +143,25 @@ class NotesAuthorizationManager implements AuthorizationManager {
               LOGGER.log(Level.FINER, "Authorizing document: {0} : {1}",
                   new Object[] { repId, unid });
 
-              // Get the category from the security view for this
-              // database. The first document in the category is
-              // ALWAYS the database document.
-              secVN = securityView.createViewNavFromCategory(repId);
-              dbdoc = secVN.getFirstDocument().getDocument();
-              boolean dballow =
-                  checkDatabaseAccess(dbdoc, user);
+              NotesTrace.enter("database");
+              boolean dballow;
+              NotesDocumentManager.DatabaseAcl dbAcl =
+                  docManager.getDatabaseAcl(repId);
+              if (dbAcl != null) {
+                dballow = checkDatabaseAccess(dbAcl, user);
+              } else {
+                if (pooledSession == null) {
+                  pooledSession = sessionPool.borrowSession();
+                }
+                // Get the category from the security view for this
+                // database. The first document in the category is
+                // ALWAYS the database document.
+                secVN = pooledSession.getSecurityView()
+                    .createViewNavFromCategory(repId);
+                dbdoc = secVN.getFirstDocument().getDocument();
+                dballow = checkDatabaseAccess(dbdoc, user);
+              }
+              NotesTrace.exit();
 
               // Only check document level security if we are
               // allowed at the database level. Assume we have
@@ -130,43 +169,60 @@ class NotesAuthorizationManager implements AuthorizationManager {
               // otherwise...
               boolean docallow = true;
               if (dballow) {
-                Collection<String> readers = 
-                    ncs.getNotesDocumentManager()
-                        .getDocumentReaders(unid, repId);
+                NotesTrace.enter("readers");
+                Collection<String> readers =
+                    docManager.getDocumentReaders(unid, repId);
                 if (readers.size() > 0) {
                   docallow = checkDocumentReaders(user, readers, repId);
                 } else {
                   LOGGER.log(Level.FINEST,
                       "No document level security for {0}", unid);
                 }
+                NotesTrace.exit();
               }
               boolean allow = docallow && dballow;
               LOGGER.log(Level.FINER, "Final auth decision is {0} {1}",
                   new Object[] { allow, unid });
-              authorized.add(new AuthorizationResponse(allow, docId));
+              responses.put(docId, new AuthorizationResponse(allow, docId));
+              authzCache.put(gsaName, docId, repId, unid, allow, cacheStamp);
             } catch (Throwable t) {
               LOGGER.log(Level.WARNING,
                   "Failed to complete check for: " + docId, t);
-              authorized.add(new AuthorizationResponse(
+              responses.put(docId, new AuthorizationResponse(
                       AuthorizationResponse.Status.INDETERMINATE, docId));
             } finally {
               Util.recycle(dbdoc);
               Util.recycle(secVN);
+              document.end();
               // Log timing for each document.
               if (LOGGER.isLoggable(Level.FINER)) {
                 elapsedTimeMillis = System.currentTimeMillis() - startTime;
                 LOGGER.log(Level.FINER, "ElapsedAuthorizationResponseTime: {0}"
                     + " Documents authorized: {1}",
-                    new Object[] { elapsedTimeMillis, authorized.size() });
+                    new Object[] { elapsedTimeMillis, responses.size() });
               }
             }
           }
         } finally {
-          ncs.closeNotesSession(ns);
+          sessionPool.returnSession(pooledSession);
         }
+        LOGGER.log(Level.FINE, "Authorization cache statistics: {0}",
+            authzCache);
       }
+      succeeded = true;
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
+    } finally {
+      trace.end();
+    }
+
+    ArrayList<AuthorizationResponse> authorized =
+        new ArrayList<AuthorizationResponse>(responses.size());
+    for (String docId : docIds) {
+      AuthorizationResponse response = responses.get(docId);
+      if (response != null) {
+        authorized.add(response);
+      }
     }
 
     // Get elapsed time in milliseconds
@@ -175,6 +231,9 @@ class NotesAuthorizationManager implements AuthorizationManager {
         "TotalAuthorizationResponseTime: {0} milliseconds."
         + " Documents in batch: {1} Documents authorized: {2}",
         new Object[] { elapsedTimeMillis, docIds.size(), authorized.size() });
+    ncs.getConnector().getMetrics().record(
+        NotesConnectorMetrics.Stage.AUTHORIZATION, startTime, succeeded,
+        docIds.size());
     return authorized;
   }
 
@@ -247,19 +306,31 @@ class NotesAuthorizationManager implements AuthorizationManager {
   @VisibleForTesting
   boolean checkDatabaseAccess(NotesDocument dbDoc, User user)
       throws RepositoryException {
+    return checkDatabaseAccess(new NotesDocumentManager.DatabaseAcl(
+        dbDoc.getItemValue(NCCONST.NCITM_DBPERMITUSERS),
+        dbDoc.getItemValue(NCCONST.NCITM_DBPERMITGROUPS),
+        dbDoc.getItemValue(NCCONST.NCITM_DBNOACCESSUSERS),
+        dbDoc.getItemValue(NCCONST.NCITM_DBNOACCESSGROUPS)), user);
+  }
+
+  @VisibleForTesting
+  boolean checkDatabaseAccess(NotesDocumentManager.DatabaseAcl dbAcl,
+      User user) {
     final String METHOD = "checkDatabaseAccess";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     try {
       String commonName = getCommonName(user.getNotesName());
-      if (checkDenyUser(dbDoc, user.getNotesName(), commonName)) {
+      if (checkDenyUser(dbAcl.getNoAccessUsers(), user.getNotesName(),
+          commonName)) {
         return false;
       }
       // TODO: why don't we check for deny-by-group?
-      if (checkAllowUser(dbDoc, user.getNotesName(), commonName)) {
+      if (checkAllowUser(dbAcl.getPermitUsers(), user.getNotesName(),
+          commonName)) {
         return true;
       }
-      if (checkAllowGroup(dbDoc, user.getGroups())) {
+      if (checkAllowGroup(dbAcl.getPermitGroups(), user.getGroups())) {
         return true;
       }
     } finally {
@@ -272,12 +343,17 @@ class NotesAuthorizationManager implements AuthorizationManager {
   @VisibleForTesting
   boolean checkAllowGroup(NotesDocument dbdoc, Collection<String> userGroups)
       throws RepositoryException {
+    return checkAllowGroup(
+        toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBPERMITGROUPS)),
+        userGroups);
+  }
+
+  private boolean checkAllowGroup(Collection<String> allowGroups,
+      Collection<String> userGroups) {
     final String METHOD = "checkAllowGroup";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     try {
-      ArrayList<String> allowGroups =
-          toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBPERMITGROUPS));
       LOGGER.log(Level.FINER, "Allow groups are: {0}", allowGroups);
 
       for (String group : userGroups) {
@@ -296,12 +372,17 @@ class NotesAuthorizationManager implements AuthorizationManager {
   @VisibleForTesting
   boolean checkAllowUser(NotesDocument dbdoc, String... userNames)
       throws RepositoryException {
+    return checkAllowUser(
+        toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBPERMITUSERS)),
+        userNames);
+  }
+
+  private boolean checkAllowUser(Collection<String> allowList,
+      String... userNames) {
     final String METHOD = "checkAllowUser";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     try {
-      ArrayList<String> allowList =
-          toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBPERMITUSERS));
       boolean result = false;
       if (allowList.contains("-default-")) {
         LOGGER.log(Level.FINEST, "ALLOWED: -Default- is allowed");
@@ -325,11 +406,16 @@ class NotesAuthorizationManager implements AuthorizationManager {
   @VisibleForTesting
   boolean checkDenyUser(NotesDocument dbdoc, String... userNames)
       throws RepositoryException {
+    return checkDenyUser(
+        toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBNOACCESSUSERS)),
+        userNames);
+  }
+
+  private boolean checkDenyUser(Collection<String> denyList,
+      String... userNames) {
     final String METHOD = "checkDenyUser";
     LOGGER.entering(CLASS_NAME, METHOD);
     try {
-      ArrayList<String> denyList =
-          toLowerCase(dbdoc.getItemValue(NCCONST.NCITM_DBNOACCESSUSERS));
       for (String userName : userNames) {
         if (denyList.contains(userName)) {
           LOGGER.log(Level.FINEST,
@@ -15,6 +15,7 @@
 package com.google.enterprise.connector.notes;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.notes.client.InstrumentedSessionFactory;
 import com.google.enterprise.connector.notes.client.SessionFactory;
 import com.google.enterprise.connector.spi.Connector;
 import com.google.enterprise.connector.spi.ConnectorPersistentStore;
@@ -45,11 +46,14 @@ public class NotesConnector implements Connector,
   private NotesConnectorSession ncs = null;
   private NotesPollerNotifier npn = null;
   @VisibleForTesting NotesMaintenanceThread maintThread = null;
+  @VisibleForTesting NotesDirectoryRefresher directoryRefresher = null;
   @VisibleForTesting Vector<NotesCrawlerThread> vecCrawlerThreads = null;
-  private SessionFactory sessionFactory;
+  private volatile SessionFactory sessionFactory;
   private final Object peopleCacheLock = new Object();
   private ConnectorPersistentStore connectorPersistentStore;
   private JdbcDatabase jdbcDatabase;
+  private final NotesConnectorMetrics metrics = new NotesConnectorMetrics();
+  private final NotesQueueDepth queueDepth = new NotesQueueDepth();
 
   NotesConnector() {
     this(
@@ -65,6 +69,7 @@ public class NotesConnector implements Connector,
       LOGGER.log(Level.SEVERE, e.getMessage(), e);
       throw new RuntimeException(e);
     }
+    metrics.setQueueDepth(queueDepth);
   }
 
   @Override
@@ -84,6 +89,7 @@ public class NotesConnector implements Connector,
     // If a session can't be created, the method below should
     // throw a RepositoryException
     ncs = new NotesConnectorSession(this, npn, password, server, database);
+    metrics.register(connectorName);
 
     // Start a crawler thread
     // Reset any documents before we start crawling
@@ -94,6 +100,12 @@ public class NotesConnector implements Connector,
       maintThread.start();
     }
 
+    if (null == directoryRefresher) {
+      directoryRefresher = new NotesDirectoryRefresher(
+          ncs.getUserGroupManager(), ncs.getDirectoryRefreshTimeout());
+      directoryRefresher.start();
+    }
+
     if (null == vecCrawlerThreads) {
       vecCrawlerThreads =
           new Vector<NotesCrawlerThread>(ncs.getNumCrawlerThreads());
@@ -233,6 +245,35 @@ public class NotesConnector implements Connector,
     return localNamespace;
   }
 
+  /**
+   * Enables or disables the timing of Notes calls. Sessions created
+   * while timing is enabled are instrumented.
+   */
+  void setInstrumentNotesCalls(boolean instrument) {
+    if (instrument) {
+      if (!(sessionFactory instanceof InstrumentedSessionFactory)) {
+        InstrumentedSessionFactory factory =
+            new InstrumentedSessionFactory(sessionFactory);
+        sessionFactory = factory;
+        metrics.setNotesCalls(factory);
+      }
+    } else if (sessionFactory instanceof InstrumentedSessionFactory) {
+      sessionFactory =
+          ((InstrumentedSessionFactory) sessionFactory).getDelegate();
+      metrics.setNotesCalls(null);
+    }
+  }
+
+  /** Gets the pipeline metrics, which are published over JMX. */
+  NotesConnectorMetrics getMetrics() {
+    return metrics;
+  }
+
+  /** Gets the counts of documents in the crawl and submit queues. */
+  NotesQueueDepth getQueueDepth() {
+    return queueDepth;
+  }
+
   /**
    * Gets the <code>SessionFactory</code> for this Connector.
    *
@@ -250,6 +291,7 @@ public class NotesConnector implements Connector,
   public void delete() {
     LOGGER.log(Level.INFO, "Connector is being DELETED!!!");
     releaseResources();
+    metrics.unregister();
     deleted = true;
   }
 
@@ -268,6 +310,9 @@ public class NotesConnector implements Connector,
     LOGGER.log(Level.INFO,
         "Connector is shutting down. Waking all threads!!!");
     shutdown = true;
+    if (null != directoryRefresher) {
+      directoryRefresher.shutdown();
+    }
     if (null != vecCrawlerThreads) {
       for (int i = 0; i < vecCrawlerThreads.size() + 1; i++)  {
         // Notify each CrawlerThread and the MaintenanceThread
@@ -280,6 +325,10 @@ public class NotesConnector implements Connector,
       }
       npn.wakeWorkers();
     }
+    if (null != ncs) {
+      ncs.getSessionPool().close();
+    }
+    metrics.unregister();
   }
 
   // TODO: consider renaming to isShutdown.
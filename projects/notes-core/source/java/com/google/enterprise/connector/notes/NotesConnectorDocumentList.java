@@ -26,8 +26,11 @@ import com.google.enterprise.connector.spi.SpiConstants.ActionType;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.sql.Connection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,6 +53,9 @@ class NotesConnectorDocumentList implements DocumentList {
   /** The list of UNIDs included in this document list */
   private final List<String> unidList;
 
+  /** The times the documents were returned, keyed by UNID */
+  private final Map<String, Long> fedTimes = new HashMap<String, Long>();
+
   public NotesConnectorDocumentList(NotesConnectorSession doclistncs,
       List<String> documents) {
     LOGGER.log(Level.FINEST,
@@ -63,6 +69,8 @@ class NotesConnectorDocumentList implements DocumentList {
   public Document nextDocument() {
     final String METHOD = "nextDocument";
     LOGGER.entering(CLASS_NAME, METHOD);
+    NotesConnectorMetrics metrics = ncs.getConnector().getMetrics();
+    long timeStart = System.currentTimeMillis();
     try {
       // The connector manager has finished last doc so recycle it
       Util.recycle(crawldoc);
@@ -87,8 +95,11 @@ class NotesConnectorDocumentList implements DocumentList {
         ncdoc = new NotesConnectorDocument(ncs, ns, db);
       }
       ncdoc.setCrawlDoc(unid, crawldoc);
+      fedTimes.put(unid, System.currentTimeMillis());
+      metrics.record(NotesConnectorMetrics.Stage.FEED, timeStart, true);
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
+      metrics.record(NotesConnectorMetrics.Stage.FEED, timeStart, false);
     } finally {
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
@@ -199,9 +210,72 @@ class NotesConnectorDocumentList implements DocumentList {
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
+  /** The freshness times of a document, read before it is checkpointed. */
+  private static class Freshness {
+    private final String database;
+    private final long modified;
+    private final long enqueued;
+    private final long prefetched;
+    private final long fed;
+
+    Freshness(String database, long modified, long enqueued,
+        long prefetched, long fed) {
+      this.database = database;
+      this.modified = modified;
+      this.enqueued = enqueued;
+      this.prefetched = prefetched;
+      this.fed = fed;
+    }
+  }
+
+  /**
+   * Reads the freshness times of a document whose crawl request was
+   * created with freshness times by the poller. The times are read
+   * before the checkpoint removes the indexed document.
+   *
+   * @return the times, or null if the document has none
+   */
+  private Freshness getFreshness(NotesDocument indexedDoc, String unid)
+      throws RepositoryException {
+    long modified = getTime(indexedDoc, NCCONST.NCITM_SOURCEMODIFIED);
+    if (modified == 0) {
+      return null;
+    }
+    Long fed = fedTimes.get(unid);
+    return new Freshness(
+        indexedDoc.getItemValueString(NCCONST.ITM_GMETADATABASE), modified,
+        getTime(indexedDoc, NCCONST.NCITM_ENQUEUED),
+        getTime(indexedDoc, NCCONST.NCITM_PREFETCHED),
+        (fed == null) ? 0 : fed);
+  }
+
+  /** Records the freshness lag of a document that was checkpointed. */
+  private void recordFreshness(Freshness freshness) {
+    if (freshness == null) {
+      return;
+    }
+    ncs.getConnector().getMetrics().recordFreshness(freshness.database,
+        freshness.modified, freshness.enqueued, freshness.prefetched,
+        freshness.fed, System.currentTimeMillis());
+  }
+
+  /** Gets a time stored as a number, or 0 if the item is missing. */
+  private long getTime(NotesDocument doc, String itemName)
+      throws RepositoryException {
+    Vector<?> values = doc.getItemValue(itemName);
+    if (values.size() > 0 && values.firstElement() instanceof Number) {
+      return ((Number) values.firstElement()).longValue();
+    }
+    return 0;
+  }
+
   @Override
   public String checkpoint() throws RepositoryException {
     String checkPointUnid = null;
+    long timeStart = System.currentTimeMillis();
+    boolean succeeded = true;
+    int checkpointed = 0;
+    NotesTrace trace = NotesTrace.start("checkpoint");
     try {
       // If we don't have a new checkpoint we return null
       if (ncdoc != null) {
@@ -226,23 +300,35 @@ class NotesConnectorDocumentList implements DocumentList {
             indexedDocUnid = ci.next();
             LOGGER.log(Level.FINER,
                 "Checkpointing document: {0}", indexedDocUnid);
+            NotesTrace document = NotesTrace.start("document");
             try {
               NotesDocument indexedDoc = db.getDocumentByUNID(indexedDocUnid);
               if (indexedDoc.getItemValueString(NCCONST.ITM_ACTION)
                   .equalsIgnoreCase(ActionType.ADD.toString())) {
                 // Handle ACL documents separately from content documents.
                 if (indexedDoc.hasItem(NCCONST.NCITM_DBACL)) {
+                  NotesTrace.enter("acl");
                   checkpointAcl(indexedDoc);
+                  NotesTrace.exit();
                 } else {
+                  Freshness freshness =
+                      getFreshness(indexedDoc, indexedDocUnid);
+                  NotesTrace.enter("add");
                   checkpointAdd(indexedDoc, docidvw);
+                  NotesTrace.exit();
+                  recordFreshness(freshness);
                 }
               } else if (indexedDoc.getItemValueString(NCCONST.ITM_ACTION)
                   .equalsIgnoreCase(ActionType.DELETE.toString())) {
+                NotesTrace.enter("delete");
                 checkpointDelete(indexedDoc, docidvw);
+                NotesTrace.exit();
               }
               Util.recycle(indexedDoc);
               // Remove from the document list
               ci.remove();
+              fedTimes.remove(indexedDocUnid);
+              checkpointed++;
               // Exit when we get to the checkpoint document
               if (indexedDocUnid.equals(checkPointUnid)) {
                 break;
@@ -250,11 +336,15 @@ class NotesConnectorDocumentList implements DocumentList {
             } catch (Exception e) {
               LOGGER.log(Level.FINEST,
                   "Error checkpointing document: " + indexedDocUnid, e);
+            } finally {
+              // Closes the spans left open by an exception.
+              document.end();
             }
           }
         } catch (RepositoryException re) {
           LOGGER.log(Level.FINEST,
               "Failed to update search index in database", re);
+          succeeded = false;
         } finally {
           //Release database connection
           ncs.getNotesDocumentManager()
@@ -264,6 +354,7 @@ class NotesConnectorDocumentList implements DocumentList {
         LOGGER.log(Level.FINE, "Checkpoint for empty document list.");
       }
       // Without lifecycle methods, use the checkpoint to clean up our session
+      NotesTrace.enter("cleanup");
       Util.recycle(crawldoc, db);
       if (this.ns != null) {
         ncs.closeNotesSession(ns);
@@ -271,9 +362,18 @@ class NotesConnectorDocumentList implements DocumentList {
       this.db = null;
       this.ns = null;
       this.crawldoc = null;
+      NotesTrace.exit();
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
+      succeeded = false;
+    } finally {
+      trace.setSubject(checkpointed + " documents");
+      trace.end();
     }
+    ncs.getConnector().getQueueDepth().removeSubmitted(checkpointed);
+    ncs.getConnector().getMetrics().record(
+        NotesConnectorMetrics.Stage.CHECKPOINT, timeStart, succeeded,
+        checkpointed);
 
     LOGGER.log(Level.FINE, CLASS_NAME, "Checkpoint: " + checkPointUnid);
     return checkPointUnid;
@@ -0,0 +1,771 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.notes.client.InstrumentedSessionFactory;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counts the operations of each stage of the connector's pipeline and
+ * publishes them as a JMX MBean.
+ *
+ * Callers note the time before an operation and record it when the
+ * operation ends:
+ *
+ * <pre>
+ *   long timeStart = System.currentTimeMillis();
+ *   ...
+ *   metrics.record(Stage.FEED, timeStart, true);
+ * </pre>
+ */
+class NotesConnectorMetrics implements NotesConnectorMetricsMXBean {
+  private static final String CLASS_NAME =
+      NotesConnectorMetrics.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /** The JMX domain of the connector MBeans. */
+  static final String JMX_DOMAIN = "com.google.enterprise.connector.notes";
+
+  /**
+   * The instance registered under each name. A new instance of a
+   * connector may register before the old instance is shut down, and
+   * the old instance must not unregister the new one's MBean.
+   */
+  private static final Map<ObjectName, NotesConnectorMetrics> owners =
+      new HashMap<ObjectName, NotesConnectorMetrics>();
+
+  /** The upper bounds of the latency histogram buckets. */
+  private static final long[] LATENCY_BUCKETS_MILLIS =
+      { 10, 100, 1000, 10000, 60000, 600000 };
+
+  /** The number of recent documents in the freshness percentiles. */
+  @VisibleForTesting
+  static final int FRESHNESS_WINDOW = 1024;
+
+  /** The stages of the connector's pipeline. */
+  enum Stage {
+    POLL,
+    CRAWL_QUEUE_CLAIM,
+    PREFETCH,
+    ATTACHMENT,
+    FEED,
+    CHECKPOINT,
+    DELETION_SWEEP,
+    DIRECTORY_REFRESH,
+    AUTHENTICATION,
+    AUTHORIZATION
+  }
+
+  private final Map<Stage, Statistics> stages =
+      new EnumMap<Stage, Statistics>(Stage.class);
+  private final ConcurrentMap<String, Statistics> databasePolls =
+      new ConcurrentHashMap<String, Statistics>();
+  private final ConcurrentMap<String, Freshness> freshness =
+      new ConcurrentHashMap<String, Freshness>();
+  private final ConcurrentMap<String, DatabaseCrawl> databaseCrawls =
+      new ConcurrentHashMap<String, DatabaseCrawl>();
+  private final AtomicBoolean crawlByDatabaseReset = new AtomicBoolean();
+  private volatile long startTime;
+  private volatile InstrumentedSessionFactory notesCalls;
+  private volatile NotesQueueDepth queueDepth;
+  private ObjectName objectName;
+
+  NotesConnectorMetrics() {
+    for (Stage stage : Stage.values()) {
+      stages.put(stage, new Statistics());
+    }
+    startTime = currentTimeMillis();
+  }
+
+  /**
+   * Records an operation that processed one item.
+   *
+   * @param stage the stage of the operation
+   * @param startMillis the time the operation started
+   * @param succeeded false if the operation failed with an error
+   */
+  void record(Stage stage, long startMillis, boolean succeeded) {
+    record(stage, startMillis, succeeded, 1);
+  }
+
+  /**
+   * Records an operation.
+   *
+   * @param stage the stage of the operation
+   * @param startMillis the time the operation started
+   * @param succeeded false if the operation failed with an error
+   * @param items the number of items processed
+   */
+  void record(Stage stage, long startMillis, boolean succeeded, long items) {
+    long now = currentTimeMillis();
+    stages.get(stage).record(now, now - startMillis, succeeded, items);
+  }
+
+  /**
+   * Records a poll of one source database. The poll of all databases
+   * is recorded separately as {@link Stage#POLL}.
+   *
+   * @param database the name of the source database
+   * @param startMillis the time the poll started
+   * @param succeeded false if the poll failed with an error
+   * @param queued the number of crawl requests created
+   */
+  void recordDatabasePoll(String database, long startMillis,
+      boolean succeeded, long queued) {
+    Statistics statistics = databasePolls.get(database);
+    if (statistics == null) {
+      databasePolls.putIfAbsent(database, new Statistics());
+      statistics = databasePolls.get(database);
+    }
+    long now = currentTimeMillis();
+    statistics.record(now, now - startMillis, succeeded, queued);
+  }
+
+  /**
+   * Records the crawl statistics of a poll of one source database.
+   *
+   * @param replicaId the replica ID of the source database
+   * @param database the name of the source database
+   * @param startMillis the time the poll started
+   * @param succeeded false if the poll failed with an error
+   * @param polled the number of changed documents found
+   * @param enqueued the number of crawl requests created
+   * @param skipped the number of documents skipped as already crawled
+   */
+  void recordDatabaseCrawlPoll(String replicaId, String database,
+      long startMillis, boolean succeeded, long polled, long enqueued,
+      long skipped) {
+    long now = currentTimeMillis();
+    getDatabaseCrawl(replicaId).recordPoll(database, now, now - startMillis,
+        succeeded, polled, enqueued, skipped);
+  }
+
+  /**
+   * Records the prefetch of a document for the crawl statistics of its
+   * source database.
+   *
+   * @param replicaId the replica ID of the source database
+   * @param startMillis the time the prefetch started
+   * @param succeeded false if the prefetch failed with an error
+   */
+  void recordDatabaseCrawlPrefetch(String replicaId, long startMillis,
+      boolean succeeded) {
+    getDatabaseCrawl(replicaId).recordPrefetch(
+        currentTimeMillis() - startMillis, succeeded);
+  }
+
+  /**
+   * Records an attachment whose content was extracted, for the crawl
+   * statistics of its source database.
+   *
+   * @param replicaId the replica ID of the source database
+   * @param bytes the size of the attachment
+   */
+  void recordDatabaseCrawlAttachment(String replicaId, long bytes) {
+    getDatabaseCrawl(replicaId).recordAttachment(bytes);
+  }
+
+  /**
+   * Adds crawl statistics saved by an earlier instance of the
+   * connector. Databases that already have statistics are unchanged.
+   *
+   * @param saved the saved statistics keyed by replica ID
+   */
+  void loadCrawlByDatabase(Map<String, NotesDatabaseCrawlMetrics> saved) {
+    for (Map.Entry<String, NotesDatabaseCrawlMetrics> entry
+             : saved.entrySet()) {
+      DatabaseCrawl statistics = new DatabaseCrawl();
+      statistics.load(entry.getValue());
+      databaseCrawls.putIfAbsent(entry.getKey(), statistics);
+    }
+  }
+
+  /**
+   * Gets the crawl statistics of the databases that have changed since
+   * the last call, and marks them as unchanged.
+   *
+   * @return the changed statistics keyed by replica ID
+   */
+  Map<String, NotesDatabaseCrawlMetrics> takeChangedCrawlByDatabase() {
+    Map<String, NotesDatabaseCrawlMetrics> snapshots =
+        new TreeMap<String, NotesDatabaseCrawlMetrics>();
+    for (Map.Entry<String, DatabaseCrawl> entry : databaseCrawls.entrySet()) {
+      NotesDatabaseCrawlMetrics snapshot = entry.getValue().takeChanges();
+      if (snapshot != null) {
+        snapshots.put(entry.getKey(), snapshot);
+      }
+    }
+    return snapshots;
+  }
+
+  /**
+   * Marks the crawl statistics of the given databases as changed, so
+   * that they are returned again by the next call to
+   * {@link #takeChangedCrawlByDatabase}.
+   *
+   * @param replicaIds the replica IDs of the databases
+   */
+  void markCrawlByDatabaseChanged(Collection<String> replicaIds) {
+    for (String replicaId : replicaIds) {
+      DatabaseCrawl statistics = databaseCrawls.get(replicaId);
+      if (statistics != null) {
+        statistics.markChanged();
+      }
+    }
+  }
+
+  /**
+   * Discards the crawl statistics of databases that are no longer
+   * crawled.
+   *
+   * @param currentReplicaIds the replica IDs of the crawled databases
+   */
+  void retainCrawlByDatabase(Set<String> currentReplicaIds) {
+    databaseCrawls.keySet().retainAll(currentReplicaIds);
+  }
+
+  /**
+   * Gets whether the crawl statistics have been reset since the last
+   * call. The saved statistics must be cleared before any statistics
+   * from {@link #takeChangedCrawlByDatabase} are saved, or the reset
+   * totals would overwrite the saved ones database by database.
+   *
+   * @return true if the statistics have been reset
+   */
+  boolean takeCrawlByDatabaseReset() {
+    return crawlByDatabaseReset.getAndSet(false);
+  }
+
+  /**
+   * Marks the crawl statistics as reset again, after the saved
+   * statistics could not be cleared.
+   */
+  void markCrawlByDatabaseReset() {
+    crawlByDatabaseReset.set(true);
+  }
+
+  private DatabaseCrawl getDatabaseCrawl(String replicaId) {
+    DatabaseCrawl statistics = databaseCrawls.get(replicaId);
+    if (statistics == null) {
+      databaseCrawls.putIfAbsent(replicaId, new DatabaseCrawl());
+      statistics = databaseCrawls.get(replicaId);
+    }
+    return statistics;
+  }
+
+  /**
+   * Records the freshness of a checkpointed document. A time of 0
+   * means the document skipped that stage, as attachments do when
+   * they are prefetched along with their parent, and the stage is
+   * counted as taking no time.
+   *
+   * @param database the name of the source database
+   * @param modified the document's last modified time in the source
+   * database
+   * @param enqueued the time the poller created the crawl request
+   * @param prefetched the time the crawl request was prefetched
+   * @param fed the time the document was returned to the connector
+   * manager
+   * @param checkpointed the time the document was checkpointed
+   */
+  void recordFreshness(String database, long modified, long enqueued,
+      long prefetched, long fed, long checkpointed) {
+    if (enqueued == 0) {
+      enqueued = modified;
+    }
+    if (prefetched == 0) {
+      prefetched = enqueued;
+    }
+    if (fed == 0) {
+      fed = prefetched;
+    }
+    Freshness statistics = freshness.get(database);
+    if (statistics == null) {
+      freshness.putIfAbsent(database, new Freshness());
+      statistics = freshness.get(database);
+    }
+    // The modified time comes from the Domino server's clock, so
+    // clock skew may make the first stage negative.
+    statistics.record(Math.max(0, checkpointed - modified),
+        Math.max(0, enqueued - modified), Math.max(0, prefetched - enqueued),
+        Math.max(0, fed - prefetched), Math.max(0, checkpointed - fed));
+  }
+
+  /**
+   * Registers the MBean with the platform MBean server, replacing an
+   * MBean left registered by an earlier instance of the connector.
+   * Failures are logged, since the connector works without JMX.
+   *
+   * @param connectorName the name of the connector instance
+   */
+  synchronized void register(String connectorName) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(JMX_DOMAIN
+          + ":type=NotesConnector,name="
+          + ObjectName.quote(String.valueOf(connectorName)));
+      synchronized (owners) {
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        owners.put(name, this);
+      }
+      objectName = name;
+      LOGGER.log(Level.INFO, "Registered connector metrics as {0}", name);
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Failed to register connector metrics", e);
+    }
+  }
+
+  /**
+   * Unregisters the MBean, if it was registered and has not since been
+   * replaced by another instance.
+   */
+  synchronized void unregister() {
+    if (objectName == null) {
+      return;
+    }
+    try {
+      synchronized (owners) {
+        if (owners.get(objectName) == this) {
+          owners.remove(objectName);
+          MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+          if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+          }
+        } else {
+          LOGGER.log(Level.FINE, "Connector metrics {0} were registered by "
+              + "another instance", objectName);
+        }
+      }
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Failed to unregister connector metrics", e);
+    }
+    objectName = null;
+  }
+
+  /** Gets the name the MBean is registered with, or null. */
+  synchronized ObjectName getObjectName() {
+    return objectName;
+  }
+
+  /**
+   * Sets the source of the Notes call timings.
+   *
+   * @param notesCalls the instrumented session factory, or null
+   */
+  void setNotesCalls(InstrumentedSessionFactory notesCalls) {
+    this.notesCalls = notesCalls;
+  }
+
+  /**
+   * Sets the source of the queue depth gauges.
+   *
+   * @param queueDepth the connector's queue depth counts, or null
+   */
+  void setQueueDepth(NotesQueueDepth queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  @VisibleForTesting
+  NotesStageMetrics getStage(Stage stage) {
+    return stages.get(stage).snapshot(currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  @Override
+  public NotesStageMetrics getPolling() {
+    return getStage(Stage.POLL);
+  }
+
+  @Override
+  public Map<String, NotesStageMetrics> getPollingByDatabase() {
+    long now = currentTimeMillis();
+    Map<String, NotesStageMetrics> snapshots =
+        new TreeMap<String, NotesStageMetrics>();
+    for (Map.Entry<String, Statistics> entry : databasePolls.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot(now));
+    }
+    return snapshots;
+  }
+
+  @Override
+  public NotesStageMetrics getCrawlQueueClaims() {
+    return getStage(Stage.CRAWL_QUEUE_CLAIM);
+  }
+
+  @Override
+  public NotesStageMetrics getPrefetch() {
+    return getStage(Stage.PREFETCH);
+  }
+
+  @Override
+  public NotesStageMetrics getAttachmentExtraction() {
+    return getStage(Stage.ATTACHMENT);
+  }
+
+  @Override
+  public NotesStageMetrics getFeed() {
+    return getStage(Stage.FEED);
+  }
+
+  @Override
+  public NotesStageMetrics getCheckpoint() {
+    return getStage(Stage.CHECKPOINT);
+  }
+
+  @Override
+  public NotesStageMetrics getDeletionSweep() {
+    return getStage(Stage.DELETION_SWEEP);
+  }
+
+  @Override
+  public NotesStageMetrics getDirectoryRefresh() {
+    return getStage(Stage.DIRECTORY_REFRESH);
+  }
+
+  @Override
+  public NotesStageMetrics getAuthentication() {
+    return getStage(Stage.AUTHENTICATION);
+  }
+
+  @Override
+  public NotesStageMetrics getAuthorization() {
+    return getStage(Stage.AUTHORIZATION);
+  }
+
+  @Override
+  public Map<String, NotesFreshnessMetrics> getFreshnessByDatabase() {
+    Map<String, NotesFreshnessMetrics> snapshots =
+        new TreeMap<String, NotesFreshnessMetrics>();
+    for (Map.Entry<String, Freshness> entry : freshness.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  @Override
+  public Map<String, NotesDatabaseCrawlMetrics> getCrawlByDatabase() {
+    Map<String, NotesDatabaseCrawlMetrics> snapshots =
+        new TreeMap<String, NotesDatabaseCrawlMetrics>();
+    for (Map.Entry<String, DatabaseCrawl> entry : databaseCrawls.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  @Override
+  public long getCrawlQueueDepth() {
+    NotesQueueDepth depth = queueDepth;
+    return (depth == null) ? 0 : depth.getCrawlQueueDepth();
+  }
+
+  @Override
+  public long getSubmitQueueDepth() {
+    NotesQueueDepth depth = queueDepth;
+    return (depth == null) ? 0 : depth.getSubmitQueueDepth();
+  }
+
+  @Override
+  public Map<String, InstrumentedSessionFactory.CallStatistics>
+      getNotesCalls() {
+    InstrumentedSessionFactory factory = notesCalls;
+    if (factory == null) {
+      return Collections.emptyMap();
+    }
+    return factory.getCallStatistics();
+  }
+
+  @Override
+  public int getLiveNotesObjects() {
+    return NotesHandleTracker.isEnabled()
+        ? NotesHandleTracker.getLiveCount() : 0;
+  }
+
+  @Override
+  public Map<String, Integer> getLiveNotesObjectsByType() {
+    if (!NotesHandleTracker.isEnabled()) {
+      return Collections.emptyMap();
+    }
+    return NotesHandleTracker.getLiveCountsByType();
+  }
+
+  @Override
+  public long getLeakedNotesObjects() {
+    return NotesHandleTracker.isEnabled()
+        ? NotesHandleTracker.getLeakCount() : 0;
+  }
+
+  @Override
+  public long[] getLatencyBucketsMillis() {
+    return LATENCY_BUCKETS_MILLIS.clone();
+  }
+
+  @Override
+  public Date getStatisticsStartTime() {
+    return new Date(startTime);
+  }
+
+  @Override
+  public void resetStatistics() {
+    LOGGER.log(Level.INFO, "Resetting connector metrics");
+    for (Statistics statistics : stages.values()) {
+      statistics.reset();
+    }
+    databasePolls.clear();
+    freshness.clear();
+    databaseCrawls.clear();
+    crawlByDatabaseReset.set(true);
+    InstrumentedSessionFactory factory = notesCalls;
+    if (factory != null) {
+      factory.resetStatistics();
+    }
+    startTime = currentTimeMillis();
+  }
+
+  /** The running totals for one stage. */
+  private static class Statistics {
+    private long count;
+    private long failures;
+    private long items;
+    private long totalMillis;
+    private long maxMillis;
+    private final long[] histogram =
+        new long[LATENCY_BUCKETS_MILLIS.length + 1];
+
+    /** The current minute, and the totals for it and the one before. */
+    private long minute;
+    private long countThisMinute;
+    private long itemsThisMinute;
+    private long countLastMinute;
+    private long itemsLastMinute;
+
+    synchronized void record(long now, long elapsedMillis, boolean succeeded,
+        long itemCount) {
+      roll(now);
+      count++;
+      countThisMinute++;
+      if (!succeeded) {
+        failures++;
+      }
+      items += itemCount;
+      itemsThisMinute += itemCount;
+      totalMillis += elapsedMillis;
+      maxMillis = Math.max(maxMillis, elapsedMillis);
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS_MILLIS.length
+          && elapsedMillis > LATENCY_BUCKETS_MILLIS[bucket]) {
+        bucket++;
+      }
+      histogram[bucket]++;
+    }
+
+    synchronized NotesStageMetrics snapshot(long now) {
+      roll(now);
+      return new NotesStageMetrics(count, failures, items, countLastMinute,
+          itemsLastMinute, (count == 0) ? 0.0 : (double) totalMillis / count,
+          maxMillis, histogram);
+    }
+
+    synchronized void reset() {
+      count = 0;
+      failures = 0;
+      items = 0;
+      totalMillis = 0;
+      maxMillis = 0;
+      for (int i = 0; i < histogram.length; i++) {
+        histogram[i] = 0;
+      }
+      countThisMinute = 0;
+      itemsThisMinute = 0;
+      countLastMinute = 0;
+      itemsLastMinute = 0;
+    }
+
+    /** Starts a new minute if the current one has ended. */
+    private void roll(long now) {
+      long nowMinute = now / 60000;
+      if (nowMinute == minute) {
+        return;
+      }
+      if (nowMinute == minute + 1) {
+        countLastMinute = countThisMinute;
+        itemsLastMinute = itemsThisMinute;
+      } else {
+        countLastMinute = 0;
+        itemsLastMinute = 0;
+      }
+      countThisMinute = 0;
+      itemsThisMinute = 0;
+      minute = nowMinute;
+    }
+  }
+
+  /** The lags of the recent documents from one source database. */
+  private static class Freshness {
+    private long count;
+    private final long[] lags = new long[FRESHNESS_WINDOW];
+    private long pollDelayMillis;
+    private long crawlQueueMillis;
+    private long feedQueueMillis;
+    private long checkpointDelayMillis;
+
+    synchronized void record(long lag, long pollDelay, long crawlQueue,
+        long feedQueue, long checkpointDelay) {
+      lags[(int) (count % lags.length)] = lag;
+      count++;
+      pollDelayMillis += pollDelay;
+      crawlQueueMillis += crawlQueue;
+      feedQueueMillis += feedQueue;
+      checkpointDelayMillis += checkpointDelay;
+    }
+
+    synchronized NotesFreshnessMetrics snapshot() {
+      int size = (int) Math.min(count, lags.length);
+      long[] sorted = Arrays.copyOf(lags, size);
+      Arrays.sort(sorted);
+      double total = (count == 0) ? 1 : count;
+      return new NotesFreshnessMetrics(count, percentile(sorted, 50),
+          percentile(sorted, 90), percentile(sorted, 99),
+          (size == 0) ? 0 : sorted[size - 1], pollDelayMillis / total,
+          crawlQueueMillis / total, feedQueueMillis / total,
+          checkpointDelayMillis / total);
+    }
+
+    /** Gets a nearest-rank percentile of the sorted values. */
+    private static long percentile(long[] sorted, int percent) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+    }
+  }
+
+  /** The crawl totals for one source database. */
+  private static class DatabaseCrawl {
+    private String databaseName;
+    private long polls;
+    private long documentsPolled;
+    private long documentsEnqueued;
+    private long documentsSkipped;
+    private long documentsPrefetched;
+    private long attachmentCount;
+    private long attachmentBytes;
+    private long errors;
+    private long pollMillis;
+    private long prefetchMillis;
+    private long lastPollMillis;
+    private long lastPollTime;
+    private boolean changed;
+
+    synchronized void recordPoll(String database, long now,
+        long elapsedMillis, boolean succeeded, long polled, long enqueued,
+        long skipped) {
+      databaseName = database;
+      polls++;
+      documentsPolled += polled;
+      documentsEnqueued += enqueued;
+      documentsSkipped += skipped;
+      if (!succeeded) {
+        errors++;
+      }
+      pollMillis += elapsedMillis;
+      lastPollMillis = elapsedMillis;
+      lastPollTime = now;
+      changed = true;
+    }
+
+    synchronized void recordPrefetch(long elapsedMillis, boolean succeeded) {
+      if (succeeded) {
+        documentsPrefetched++;
+      } else {
+        errors++;
+      }
+      prefetchMillis += elapsedMillis;
+      changed = true;
+    }
+
+    synchronized void recordAttachment(long bytes) {
+      attachmentCount++;
+      attachmentBytes += bytes;
+      changed = true;
+    }
+
+    synchronized void load(NotesDatabaseCrawlMetrics saved) {
+      databaseName = saved.getDatabaseName();
+      polls = saved.getPolls();
+      documentsPolled = saved.getDocumentsPolled();
+      documentsEnqueued = saved.getDocumentsEnqueued();
+      documentsSkipped = saved.getDocumentsSkipped();
+      documentsPrefetched = saved.getDocumentsPrefetched();
+      attachmentCount = saved.getAttachmentCount();
+      attachmentBytes = saved.getAttachmentBytes();
+      errors = saved.getErrors();
+      pollMillis = saved.getPollMillis();
+      prefetchMillis = saved.getPrefetchMillis();
+      lastPollMillis = saved.getLastPollMillis();
+      lastPollTime = (saved.getLastPollTime() == null)
+          ? 0 : saved.getLastPollTime().getTime();
+    }
+
+    synchronized void markChanged() {
+      changed = true;
+    }
+
+    /** Gets a snapshot if the totals have changed, or null if not. */
+    synchronized NotesDatabaseCrawlMetrics takeChanges() {
+      if (!changed) {
+        return null;
+      }
+      changed = false;
+      return snapshot();
+    }
+
+    synchronized NotesDatabaseCrawlMetrics snapshot() {
+      return new NotesDatabaseCrawlMetrics(databaseName, polls,
+          documentsPolled, documentsEnqueued, documentsSkipped,
+          documentsPrefetched, attachmentCount, attachmentBytes, errors,
+          pollMillis, prefetchMillis, lastPollMillis,
+          (lastPollTime == 0) ? null : new Date(lastPollTime));
+    }
+  }
+}
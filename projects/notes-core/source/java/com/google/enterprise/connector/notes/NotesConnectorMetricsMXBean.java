@@ -0,0 +1,128 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.InstrumentedSessionFactory;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The JMX management interface for the connector's pipeline metrics.
+ * Each stage is reported as the number of operations, failures and
+ * items processed since the statistics were reset, the operations and
+ * items in the last full minute, and a latency histogram.
+ */
+public interface NotesConnectorMetricsMXBean {
+  /** Polls of all source databases for changed documents. */
+  NotesStageMetrics getPolling();
+
+  /** Polls of each source database, keyed by database name. */
+  Map<String, NotesStageMetrics> getPollingByDatabase();
+
+  /** Crawl requests claimed from the crawl queue. */
+  NotesStageMetrics getCrawlQueueClaims();
+
+  /** Source documents prefetched by the crawler threads. */
+  NotesStageMetrics getPrefetch();
+
+  /** Attachments extracted from source documents. */
+  NotesStageMetrics getAttachmentExtraction();
+
+  /** Documents returned to the connector manager. */
+  NotesStageMetrics getFeed();
+
+  /** Document list checkpoints. */
+  NotesStageMetrics getCheckpoint();
+
+  /** Batches of indexed documents checked for deletion. */
+  NotesStageMetrics getDeletionSweep();
+
+  /** User and group cache updates. */
+  NotesStageMetrics getDirectoryRefresh();
+
+  /** Authentication requests. */
+  NotesStageMetrics getAuthentication();
+
+  /** Authorization requests. */
+  NotesStageMetrics getAuthorization();
+
+  /**
+   * The lag from source modification to checkpoint of the documents
+   * fed from each source database, keyed by database name. Only
+   * documents found by a poll after a database's first poll are
+   * measured.
+   */
+  Map<String, NotesFreshnessMetrics> getFreshnessByDatabase();
+
+  /**
+   * The documents, attachments and time consumed by each source
+   * database, keyed by replica ID. These totals are saved in the
+   * connector's database after each poll and restored when the
+   * connector starts.
+   */
+  Map<String, NotesDatabaseCrawlMetrics> getCrawlByDatabase();
+
+  /**
+   * The number of crawl requests waiting to be prefetched. This is
+   * counted as documents are queued and claimed, and periodically
+   * corrected from the crawl queue view.
+   */
+  long getCrawlQueueDepth();
+
+  /**
+   * The number of prefetched documents and deletion requests waiting
+   * to be fed and checkpointed. This is counted as documents are
+   * fetched and checkpointed, and periodically corrected from the
+   * submit queue view.
+   */
+  long getSubmitQueueDepth();
+
+  /**
+   * Notes calls keyed by the calling class and the client method, if
+   * Notes call timing is enabled.
+   */
+  Map<String, InstrumentedSessionFactory.CallStatistics> getNotesCalls();
+
+  /**
+   * The number of Notes objects that have been created and not yet
+   * recycled, if Notes handle tracking is enabled.
+   */
+  int getLiveNotesObjects();
+
+  /**
+   * The live Notes objects keyed by their client type, if Notes
+   * handle tracking is enabled.
+   */
+  Map<String, Integer> getLiveNotesObjectsByType();
+
+  /**
+   * The number of Notes objects garbage collected without being
+   * recycled, if Notes handle tracking is enabled.
+   */
+  long getLeakedNotesObjects();
+
+  /** The upper bounds of the latency histogram buckets. */
+  long[] getLatencyBucketsMillis();
+
+  /** The time the statistics were created or last reset. */
+  Date getStatisticsStartTime();
+
+  /**
+   * Clears all of the statistics. The saved crawl statistics of the
+   * databases are cleared too, at the next poll.
+   */
+  void resetStatistics();
+}
@@ -14,9 +14,11 @@
 
 package com.google.enterprise.connector.notes;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.enterprise.connector.notes.client.NotesDatabase;
 import com.google.enterprise.connector.notes.client.NotesDocument;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
 import com.google.enterprise.connector.notes.client.NotesSession;
 import com.google.enterprise.connector.notes.client.NotesView;
 import com.google.enterprise.connector.notes.client.NotesViewEntry;
@@ -53,6 +55,15 @@ public class NotesConnectorSession implements Session {
   private int deletionBatchSize;
   private int numCrawlerThreads;
   private int cacheUpdateInterval;
+  private int directoryThreads;
+  private int directoryRefreshTimeout;
+  private int sessionMaxAge;
+  private int authorizationCacheTtl;
+  private int credentialCacheTtl;
+  private boolean trackNotesHandles;
+  private boolean instrumentNotesCalls;
+  private int slowOperationThreshold;
+  private int traceSampleRate;
   private String directory = null;
   private String userNameFormula = null;
   private String userSelectionFormula = null;
@@ -60,6 +71,9 @@ public class NotesConnectorSession implements Session {
   private boolean retainMetaData = true;
   private final NotesDocumentManager notesDocManager;
   private NotesUsernameType usernameType = NotesUsernameType.USERNAME;
+  private final NotesSessionPool sessionPool;
+  private final NotesAuthorizationCache authorizationCache;
+  private final NotesCredentialCache credentialCache;
 
   public NotesConnectorSession(NotesConnector connector,
       NotesPollerNotifier connectorNpn, String password,
@@ -102,6 +116,13 @@ public class NotesConnectorSession implements Session {
 
       db.recycle();
       notesDocManager = new NotesDocumentManager(this);
+      connector.getMetrics().loadCrawlByDatabase(
+          notesDocManager.getDatabaseStatistics());
+      sessionPool = new NotesSessionPool(this, sessionMaxAge);
+      authorizationCache = new NotesAuthorizationCache(authorizationCacheTtl,
+          NCCONST.DEFAULT_AUTHZ_CACHE_SIZE);
+      credentialCache = new NotesCredentialCache(credentialCacheTtl,
+          NCCONST.DEFAULT_CREDENTIAL_CACHE_SIZE);
     } catch (Exception e) {
       throw new RepositoryException("NotesConnectorSession error", e);
     } finally {
@@ -198,6 +219,104 @@ public class NotesConnectorSession implements Session {
       LOGGER.log(Level.CONFIG,
           "cacheUpdateInterval is {0}", cacheUpdateInterval);
 
+      // Number of threads reading the directory. If 0, use the default.
+      directoryThreads = systemDoc.getItemValueInteger(
+          NCCONST.SITM_DIRECTORYTHREADS);
+      if (directoryThreads < 0
+          || directoryThreads > NCCONST.MAX_DIRECTORY_THREADS) {
+        LOGGER.log(Level.SEVERE,
+            "Invalid setting for directoryThreads: {0}", directoryThreads);
+        return false;
+      }
+      if (directoryThreads == 0) {
+        directoryThreads = NCCONST.DEFAULT_DIRECTORY_THREADS;
+      }
+      LOGGER.log(Level.CONFIG, "directoryThreads is {0}", directoryThreads);
+
+      // Maximum duration of a cache update. If 0, use the default;
+      // if negative, don't limit it.
+      directoryRefreshTimeout = systemDoc.getItemValueInteger(
+          NCCONST.SITM_DIRECTORYREFRESHTIMEOUT);
+      if (directoryRefreshTimeout == 0) {
+        directoryRefreshTimeout = NCCONST.DEFAULT_DIRECTORY_REFRESH_TIMEOUT;
+      } else if (directoryRefreshTimeout < 0) {
+        directoryRefreshTimeout = 0;
+      }
+      LOGGER.log(Level.CONFIG,
+          "directoryRefreshTimeout is {0}", directoryRefreshTimeout);
+
+      // Lifetime of pooled authN/authZ sessions. If 0, use the default.
+      sessionMaxAge = systemDoc.getItemValueInteger(
+          NCCONST.SITM_SESSIONMAXAGE);
+      if (sessionMaxAge < 0)  {
+        LOGGER.log(Level.SEVERE,
+            "Invalid setting for sessionMaxAge: {0}", sessionMaxAge);
+        return false;
+      }
+      if (sessionMaxAge == 0) {
+        sessionMaxAge = NCCONST.DEFAULT_SESSION_MAX_AGE;
+      }
+      LOGGER.log(Level.CONFIG, "sessionMaxAge is {0}", sessionMaxAge);
+
+      // Lifetime of cached authZ decisions. If 0, use the default;
+      // if negative, don't cache decisions.
+      authorizationCacheTtl = systemDoc.getItemValueInteger(
+          NCCONST.SITM_AUTHZCACHETTL);
+      if (authorizationCacheTtl == 0) {
+        authorizationCacheTtl = NCCONST.DEFAULT_AUTHZ_CACHE_TTL;
+      } else if (authorizationCacheTtl < 0) {
+        authorizationCacheTtl = 0;
+      }
+      LOGGER.log(Level.CONFIG,
+          "authorizationCacheTtl is {0}", authorizationCacheTtl);
+
+      // Lifetime of cached authN credentials. If 0, use the default;
+      // if negative, verify every password against the directory.
+      credentialCacheTtl = systemDoc.getItemValueInteger(
+          NCCONST.SITM_CREDENTIALCACHETTL);
+      if (credentialCacheTtl == 0) {
+        credentialCacheTtl = NCCONST.DEFAULT_CREDENTIAL_CACHE_TTL;
+      } else if (credentialCacheTtl < 0) {
+        credentialCacheTtl = 0;
+      }
+      LOGGER.log(Level.CONFIG,
+          "credentialCacheTtl is {0}", credentialCacheTtl);
+
+      // Accounting of Notes objects for finding handle leaks.
+      trackNotesHandles = systemDoc.getItemValueInteger(
+          NCCONST.SITM_TRACKNOTESHANDLES) == 1;
+      NotesHandleTracker.setEnabled(trackNotesHandles);
+      LOGGER.log(Level.CONFIG,
+          "trackNotesHandles is {0}", trackNotesHandles);
+
+      // Timing of the Notes calls made by each connector class.
+      instrumentNotesCalls = systemDoc.getItemValueInteger(
+          NCCONST.SITM_INSTRUMENTNOTESCALLS) == 1;
+      connector.setInstrumentNotesCalls(instrumentNotesCalls);
+      LOGGER.log(Level.CONFIG,
+          "instrumentNotesCalls is {0}", instrumentNotesCalls);
+
+      // Logging of slow and sampled traced operations. If 0, use the
+      // default; if negative, don't log them.
+      slowOperationThreshold = systemDoc.getItemValueInteger(
+          NCCONST.SITM_SLOWOPERATIONTHRESHOLD);
+      if (slowOperationThreshold == 0) {
+        slowOperationThreshold = NCCONST.DEFAULT_SLOW_OPERATION_THRESHOLD;
+      } else if (slowOperationThreshold < 0) {
+        slowOperationThreshold = 0;
+      }
+      traceSampleRate = systemDoc.getItemValueInteger(
+          NCCONST.SITM_TRACESAMPLERATE);
+      if (traceSampleRate == 0) {
+        traceSampleRate = NCCONST.DEFAULT_TRACE_SAMPLE_RATE;
+      } else if (traceSampleRate < 0) {
+        traceSampleRate = 0;
+      }
+      NotesTrace.configure(slowOperationThreshold, traceSampleRate);
+      LOGGER.log(Level.CONFIG,
+          "slowOperationThreshold is {0}", slowOperationThreshold);
+      LOGGER.log(Level.CONFIG, "traceSampleRate is {0}", traceSampleRate);
+
       // Get the directory and see if we can open it
       directory = systemDoc.getItemValueString(
           NCCONST.SITM_DIRECTORY);
@@ -388,6 +507,39 @@ public class NotesConnectorSession implements Session {
     return cacheUpdateInterval;
   }
 
+  public int getDirectoryThreads() {
+    return directoryThreads;
+  }
+
+  @VisibleForTesting
+  void setDirectoryThreads(int directoryThreads) {
+    this.directoryThreads = directoryThreads;
+  }
+
+  public int getDirectoryRefreshTimeout() {
+    return directoryRefreshTimeout;
+  }
+
+  public int getSessionMaxAge() {
+    return sessionMaxAge;
+  }
+
+  public int getAuthorizationCacheTtl() {
+    return authorizationCacheTtl;
+  }
+
+  public int getCredentialCacheTtl() {
+    return credentialCacheTtl;
+  }
+
+  public boolean isTrackNotesHandles() {
+    return trackNotesHandles;
+  }
+
+  public boolean isInstrumentNotesCalls() {
+    return instrumentNotesCalls;
+  }
+
   public String getDirectory() {
     return directory;
   }
@@ -404,6 +556,11 @@ public class NotesConnectorSession implements Session {
     return userSelectionFormula;
   }
 
+  @VisibleForTesting
+  void setUserSelectionFormula(String userSelectionFormula) {
+    this.userSelectionFormula = userSelectionFormula;
+  }
+
   public String getGsaGroupPrefix() {
     return gsaGroupPrefix;
   }
@@ -436,6 +593,28 @@ public class NotesConnectorSession implements Session {
     return notesDocManager;
   }
 
+  /**
+   * Gets the pool of Notes sessions used to serve authentication and
+   * authorization requests.
+   */
+  NotesSessionPool getSessionPool() {
+    return sessionPool;
+  }
+
+  /**
+   * Gets the cache of recent authorization decisions.
+   */
+  NotesAuthorizationCache getAuthorizationCache() {
+    return authorizationCache;
+  }
+
+  /**
+   * Gets the cache of recently verified passwords.
+   */
+  NotesCredentialCache getCredentialCache() {
+    return credentialCache;
+  }
+
   @Override
   public AuthenticationManager getAuthenticationManager() {
     //TODO: Should we always return the same AuthenticationManager?
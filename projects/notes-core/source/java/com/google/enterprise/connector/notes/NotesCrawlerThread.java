@@ -246,6 +246,7 @@ class NotesCrawlerThread extends Thread {
     LOGGER.entering(CLASS_NAME, METHOD);
 
     String result = null;
+    NotesTrace.enter("formula");
     try {
       LOGGER.log(Level.FINEST, "Evaluating formula for item {0} : src is: {1}",
           new Object[] { itemName, formula });
@@ -263,6 +264,7 @@ class NotesCrawlerThread extends Thread {
       LOGGER.log(Level.SEVERE, "Skipping {0}: Unable to evaluate formula: {1}",
           new Object[] { itemName, formula });
     } finally {
+      NotesTrace.exit();
       crawlDoc.replaceItemValue(itemName, result);
     }
     LOGGER.exiting(CLASS_NAME, METHOD);
@@ -474,16 +476,31 @@ class NotesCrawlerThread extends Thread {
     return content.toString();
   }
 
+  /**
+   * Records the prefetch time on crawl requests that carry freshness
+   * times from the poller.
+   */
+  private void setPrefetchedTime(NotesDocument doc)
+      throws RepositoryException {
+    if (doc.hasItem(NCCONST.NCITM_ENQUEUED)) {
+      doc.replaceItemValue(NCCONST.NCITM_PREFETCHED,
+          (double) System.currentTimeMillis());
+    }
+  }
+
   protected boolean prefetchDoc(NotesDocument crawlDoc) {
     final String METHOD = "prefetchDoc";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     String notesUrl = null;
+    NotesTrace trace = NotesTrace.start("prefetch");
     try {
       notesUrl = crawlDoc.getItemValueString(NCCONST.ITM_GMETANOTESLINK);
+      trace.setSubject(notesUrl);
       LOGGER.log(Level.FINER, "Prefetching document {0}", notesUrl);
 
       // Get the template for this document
+      NotesTrace.enter("open");
       loadTemplateDoc(crawlDoc.getItemValueString(NCCONST.NCITM_TEMPLATE));
       if (null == templateDoc) {
         LOGGER.log(Level.FINER, "No template found for document {0}",
@@ -518,17 +535,23 @@ class NotesCrawlerThread extends Thread {
             "No form definition found.  Using template definition "
             + "to process document {0}", notesUrl);
       }
+      NotesTrace.exit();
 
+      NotesTrace.enter("fields");
       setDocumentReaderNames(crawlDoc, srcDoc);
       setDocumentSecurity(crawlDoc);
 
       mapFields(crawlDoc, srcDoc);
       mapMetaFields(crawlDoc, srcDoc);
+      NotesTrace.exit();
 
       // Process the attachments associated with this document
       // When there are multiple attachments with the same name
       // Lotus Notes automatically generates unique names for next document
+      NotesTrace.enter("attachments");
+      NotesTrace.enter("formula");
       Vector<?> va = ns.evaluate("@AttachmentNames", srcDoc);
+      NotesTrace.exit();
       Vector<String> docIds = new Vector<String>();
 
       NotesItem attachItems = crawlDoc.replaceItemValue(
@@ -547,8 +570,11 @@ class NotesCrawlerThread extends Thread {
           xtn = attachName.substring(period + 1);
         }
         if (!ncs.isExcludedExtension(xtn.toLowerCase())) {
+          long timeStart = System.currentTimeMillis();
           String docId = createAttachmentDoc(crawlDoc, srcDoc,
               attachName, ncs.getMimeType(xtn));
+          nc.getMetrics().record(NotesConnectorMetrics.Stage.ATTACHMENT,
+              timeStart, docId != null);
           if (docId != null) {
             attachItems.appendToTextList(attachName);
             docIds.add(docId);
@@ -563,8 +589,10 @@ class NotesCrawlerThread extends Thread {
       }
       crawlDoc.replaceItemValue(NCCONST.ITM_GMETAALLATTACHMENTS, va);
       crawlDoc.replaceItemValue(NCCONST.ITM_GMETAATTACHMENTDOCIDS, docIds);
+      NotesTrace.exit();
 
       // Get our content after processing attachments
+      NotesTrace.enter("content");
       // We don't want the document content in the attachment docs
       // Our content must be stored as non-summary rich text to
       // avoid the 32/64K limits in Domino
@@ -573,6 +601,7 @@ class NotesCrawlerThread extends Thread {
       String content = getContentFields(srcDoc);
       contentItem.appendText(content);
       contentItem.setSummary(false);
+      NotesTrace.exit();
 
       // Update the status of the document to be fetched.
       crawlDoc.replaceItemValue(NCCONST.ITM_ACTION, ActionType.ADD.toString());
@@ -580,15 +609,18 @@ class NotesCrawlerThread extends Thread {
 
       // Check attachments against H2 database and create delete requests for
       // attachments which no longer exist in source document.
+      NotesTrace.enter("enqueue");
       NotesDocId notesDocId =
           new NotesDocId(crawlDoc.getItemValueString(NCCONST.ITM_DOCID));
       enqueue(notesDocId, docIds);
+      NotesTrace.exit();
 
       return true;
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, "Error prefetching document " + notesUrl, e);
       return false;
     } finally {
+      trace.end();
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
@@ -647,6 +679,7 @@ class NotesCrawlerThread extends Thread {
     deleteReq.replaceItemValue(NCCONST.NCITM_STATE, NCCONST.STATEFETCHED);
     deleteReq.save(true);
     deleteReq.recycle();
+    nc.getQueueDepth().addSubmitted(1);
   }
 
   /**
@@ -737,6 +770,9 @@ class NotesCrawlerThread extends Thread {
         String attachmentPath = getAttachmentFilePath(crawlDoc, attachNameHash);
         eo.extractFile(attachmentPath);
         attachDoc.replaceItemValue(NCCONST.ITM_CONTENTPATH, attachmentPath);
+        nc.getMetrics().recordDatabaseCrawlAttachment(
+            crawlDoc.getItemValueString(NCCONST.NCITM_REPLICAID),
+            eo.getFileSize());
       } else {
         // Not a supported attachment so sending meta data only
         // with the filename as content
@@ -749,8 +785,10 @@ class NotesCrawlerThread extends Thread {
       // Set the state of this document to be fetched
       attachDoc.replaceItemValue(NCCONST.ITM_ACTION, ActionType.ADD.toString());
       attachDoc.replaceItemValue(NCCONST.NCITM_STATE, NCCONST.STATEFETCHED);
+      setPrefetchedTime(attachDoc);
       attachDoc.save();
       attachDoc.recycle();
+      nc.getQueueDepth().addSubmitted(1);
       LOGGER.exiting(CLASS_NAME, METHOD);
       return attachNameHash;
     } catch (Exception e) {
@@ -851,6 +889,8 @@ class NotesCrawlerThread extends Thread {
         }
         LOGGER.log(Level.FINEST, "Connecting to crawl queue.");
         connectQueue();
+        NotesConnectorMetrics metrics = nc.getMetrics();
+        long timeStart = System.currentTimeMillis();
         NotesDocument crawlDoc = getNextFromCrawlQueue(ns, crawlQueue);
         if (crawlDoc == null) {
           LOGGER.log(Level.FINE, 
@@ -863,13 +903,28 @@ class NotesCrawlerThread extends Thread {
               getName());
           continue;
         }
-        if (prefetchDoc(crawlDoc)) {
+        metrics.record(NotesConnectorMetrics.Stage.CRAWL_QUEUE_CLAIM,
+            timeStart, true);
+        NotesQueueDepth queueDepth = nc.getQueueDepth();
+        queueDepth.claimCrawlRequest();
+        timeStart = System.currentTimeMillis();
+        boolean prefetched = prefetchDoc(crawlDoc);
+        metrics.record(NotesConnectorMetrics.Stage.PREFETCH, timeStart,
+            prefetched);
+        metrics.recordDatabaseCrawlPrefetch(
+            crawlDoc.getItemValueString(NCCONST.NCITM_REPLICAID), timeStart,
+            prefetched);
+        if (prefetched) {
           crawlDoc.replaceItemValue(NCCONST.NCITM_STATE, NCCONST.STATEFETCHED);
+          setPrefetchedTime(crawlDoc);
         } else  {
           crawlDoc.replaceItemValue(NCCONST.NCITM_STATE, NCCONST.STATEERROR);
         }
         crawlDoc.save(true);
         crawlDoc.recycle();
+        if (prefetched) {
+          queueDepth.addSubmitted(1);
+        }
       } catch (Exception e) {
         LOGGER.log(Level.SEVERE, CLASS_NAME, e);
         // Lets say the server we are connected to goes down
@@ -0,0 +1,235 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, short-lived cache of passwords that were recently verified
+ * against the Domino directory, keyed by Notes name.
+ *
+ * Passwords are never stored; each entry holds a salted SHA-256 hash
+ * of the password, along with a hash of the person's HTTPPassword item
+ * at the time it was verified. The directory refresh passes the current
+ * HTTPPassword item to {@link #checkHttpPassword}, which drops the
+ * entry if the password has been changed in Domino.
+ */
+class NotesCredentialCache {
+  private static final String CLASS_NAME =
+      NotesCredentialCache.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+  private static final int SALT_LENGTH = 16;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static class Credential {
+    final byte[] salt;
+    final byte[] passwordHash;
+    final byte[] httpPasswordHash;
+    final long expires;
+
+    Credential(byte[] salt, byte[] passwordHash, byte[] httpPasswordHash,
+        long expires) {
+      this.salt = salt;
+      this.passwordHash = passwordHash;
+      this.httpPasswordHash = httpPasswordHash;
+      this.expires = expires;
+    }
+  }
+
+  private final long ttlMillis;
+  private final int maxSize;
+  private final LinkedHashMap<String, Credential> credentials;
+  private final SecureRandom random = new SecureRandom();
+
+  private long hitCount = 0;
+  private long missCount = 0;
+  private long invalidationCount = 0;
+
+  /**
+   * @param ttlSeconds the lifetime of a cached credential; 0 disables
+   * the cache
+   * @param maxSize the maximum number of cached credentials
+   */
+  NotesCredentialCache(int ttlSeconds, final int maxSize) {
+    this.ttlMillis = ttlSeconds * 1000L;
+    this.maxSize = maxSize;
+    this.credentials =
+        new LinkedHashMap<String, Credential>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(
+              Map.Entry<String, Credential> e) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  boolean isEnabled() {
+    return ttlMillis > 0 && maxSize > 0;
+  }
+
+  /**
+   * Checks a password against the cached credential.
+   *
+   * @param notesName the canonical, lower-cased Notes name
+   * @param password the password to check
+   * @return true if the password matches a credential that was verified
+   * within the TTL, or false if it must be verified against Domino
+   */
+  boolean verify(String notesName, String password) {
+    if (!isEnabled()) {
+      return false;
+    }
+    Credential credential;
+    synchronized (this) {
+      credential = credentials.get(notesName);
+      if (credential != null
+          && System.currentTimeMillis() >= credential.expires) {
+        credentials.remove(notesName);
+        credential = null;
+      }
+    }
+    boolean matches = credential != null
+        && isEqual(credential.passwordHash, digest(credential.salt, password));
+    synchronized (this) {
+      if (matches) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Caches a password that Domino has verified.
+   *
+   * @param notesName the canonical, lower-cased Notes name
+   * @param password the verified password
+   * @param httpPassword the person's HTTPPassword item
+   */
+  void put(String notesName, String password, String httpPassword) {
+    if (!isEnabled()) {
+      return;
+    }
+    byte[] salt = new byte[SALT_LENGTH];
+    random.nextBytes(salt);
+    byte[] passwordHash = digest(salt, password);
+    byte[] httpPasswordHash = digest(salt, httpPassword);
+    if (passwordHash == null || httpPasswordHash == null) {
+      return;
+    }
+    Credential credential = new Credential(salt, passwordHash,
+        httpPasswordHash, System.currentTimeMillis() + ttlMillis);
+    synchronized (this) {
+      credentials.put(notesName, credential);
+    }
+  }
+
+  /**
+   * Drops the cached credential for a person whose HTTPPassword item
+   * no longer matches the one the credential was verified against.
+   *
+   * @param notesName the canonical, lower-cased Notes name
+   * @param httpPassword the person's current HTTPPassword item
+   */
+  void checkHttpPassword(String notesName, String httpPassword) {
+    if (!isEnabled()) {
+      return;
+    }
+    Credential credential;
+    synchronized (this) {
+      credential = credentials.get(notesName);
+    }
+    if (credential == null || isEqual(credential.httpPasswordHash,
+        digest(credential.salt, httpPassword))) {
+      return;
+    }
+    synchronized (this) {
+      if (credentials.get(notesName) == credential) {
+        credentials.remove(notesName);
+        invalidationCount++;
+      }
+    }
+    LOGGER.log(Level.FINE,
+        "Password changed; dropped cached credential for {0}", notesName);
+  }
+
+  /**
+   * Checks whether there is a cached credential for a person. The
+   * directory refresh only needs the HTTPPassword item of people for
+   * whom this returns true.
+   *
+   * @param notesName the canonical, lower-cased Notes name
+   * @return true if a credential is cached for the person
+   */
+  synchronized boolean contains(String notesName) {
+    return isEnabled() && credentials.containsKey(notesName);
+  }
+
+  /** Drops all cached credentials. */
+  synchronized void invalidateAll() {
+    credentials.clear();
+    invalidationCount++;
+  }
+
+  synchronized int size() {
+    return credentials.size();
+  }
+
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  synchronized long getInvalidationCount() {
+    return invalidationCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "size: " + credentials.size() + "; hits: " + hitCount
+        + "; misses: " + missCount + "; invalidations: " + invalidationCount;
+  }
+
+  private static boolean isEqual(byte[] expected, byte[] actual) {
+    return actual != null && MessageDigest.isEqual(expected, actual);
+  }
+
+  private static byte[] digest(byte[] salt, String value) {
+    if (value == null) {
+      value = "";
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      digest.update(salt);
+      return digest.digest(value.getBytes(UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      LOGGER.log(Level.WARNING, "Unable to cache credentials", e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.beans.ConstructorProperties;
+import java.util.Date;
+
+/**
+ * A snapshot of the crawl statistics of one source database, published
+ * over JMX by {@link NotesConnectorMetricsMXBean} and kept in the
+ * connector's H2 database so that they survive restarts.
+ *
+ * The poll counts come from {@link NotesDatabasePoller} and the
+ * prefetch and attachment counts from {@link NotesCrawlerThread}. The
+ * crawl time of a database is its poll time plus its prefetch time.
+ */
+public final class NotesDatabaseCrawlMetrics {
+  private final String databaseName;
+  private final long polls;
+  private final long documentsPolled;
+  private final long documentsEnqueued;
+  private final long documentsSkipped;
+  private final long documentsPrefetched;
+  private final long attachmentCount;
+  private final long attachmentBytes;
+  private final long errors;
+  private final long pollMillis;
+  private final long prefetchMillis;
+  private final long lastPollMillis;
+  private final Date lastPollTime;
+
+  @ConstructorProperties({ "databaseName", "polls", "documentsPolled",
+      "documentsEnqueued", "documentsSkipped", "documentsPrefetched",
+      "attachmentCount", "attachmentBytes", "errors", "pollMillis",
+      "prefetchMillis", "lastPollMillis", "lastPollTime" })
+  public NotesDatabaseCrawlMetrics(String databaseName, long polls,
+      long documentsPolled, long documentsEnqueued, long documentsSkipped,
+      long documentsPrefetched, long attachmentCount, long attachmentBytes,
+      long errors, long pollMillis, long prefetchMillis, long lastPollMillis,
+      Date lastPollTime) {
+    this.databaseName = databaseName;
+    this.polls = polls;
+    this.documentsPolled = documentsPolled;
+    this.documentsEnqueued = documentsEnqueued;
+    this.documentsSkipped = documentsSkipped;
+    this.documentsPrefetched = documentsPrefetched;
+    this.attachmentCount = attachmentCount;
+    this.attachmentBytes = attachmentBytes;
+    this.errors = errors;
+    this.pollMillis = pollMillis;
+    this.prefetchMillis = prefetchMillis;
+    this.lastPollMillis = lastPollMillis;
+    this.lastPollTime =
+        (lastPollTime == null) ? null : new Date(lastPollTime.getTime());
+  }
+
+  /** Gets the name of the database, or null if it hasn't been polled. */
+  public String getDatabaseName() {
+    return databaseName;
+  }
+
+  public long getPolls() {
+    return polls;
+  }
+
+  /** Gets the number of changed documents found by the polls. */
+  public long getDocumentsPolled() {
+    return documentsPolled;
+  }
+
+  /** Gets the number of crawl requests created. */
+  public long getDocumentsEnqueued() {
+    return documentsEnqueued;
+  }
+
+  /** Gets the number of documents skipped as already crawled. */
+  public long getDocumentsSkipped() {
+    return documentsSkipped;
+  }
+
+  public long getDocumentsPrefetched() {
+    return documentsPrefetched;
+  }
+
+  /** Gets the number of attachments whose content was extracted. */
+  public long getAttachmentCount() {
+    return attachmentCount;
+  }
+
+  public long getAttachmentBytes() {
+    return attachmentBytes;
+  }
+
+  /** Gets the number of failed polls and prefetches. */
+  public long getErrors() {
+    return errors;
+  }
+
+  public long getPollMillis() {
+    return pollMillis;
+  }
+
+  public long getPrefetchMillis() {
+    return prefetchMillis;
+  }
+
+  /** Gets the duration of the most recent poll. */
+  public long getLastPollMillis() {
+    return lastPollMillis;
+  }
+
+  /** Gets the time the most recent poll ended, or null. */
+  public Date getLastPollTime() {
+    return (lastPollTime == null) ? null : new Date(lastPollTime.getTime());
+  }
+
+  @Override
+  public String toString() {
+    return databaseName + ": polled: " + documentsPolled + "; enqueued: "
+        + documentsEnqueued + "; skipped: " + documentsSkipped
+        + "; prefetched: " + documentsPrefetched + "; attachment bytes: "
+        + attachmentBytes + "; errors: " + errors + "; poll: " + pollMillis
+        + "ms; prefetch: " + prefetchMillis + "ms; last poll: "
+        + lastPollMillis + "ms";
+  }
+}
@@ -30,6 +30,8 @@ import com.google.enterprise.connector.spi.SpiConstants.ActionType;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -45,6 +47,9 @@ class NotesDatabasePoller {
   private final NotesConnectorSession notesConnectorSession;
   private final Map<String, Date> lastCrawlCache;
 
+  /** The number of databases polled by the current pollDatabases call. */
+  private int databasesPolled;
+
   public static void resetDatabases(NotesConnectorSession ncs) {
     final String METHOD = "resetDatabases";
     NotesSession ns = null;
@@ -93,6 +98,9 @@ class NotesDatabasePoller {
       int maxDepth) {
     final String METHOD = "pollDatabases";
     LOGGER.entering(CLASS_NAME, METHOD);
+    long timeStart = System.currentTimeMillis();
+    boolean succeeded = false;
+    databasesPolled = 0;
     try {
       // TODO: use Date or Calendar to avoid the Notes library
       // dependency on the operating system's settings for date
@@ -103,20 +111,19 @@ class NotesDatabasePoller {
       NotesView templateView = cdb.getView(NCCONST.VIEWTEMPLATES);
       NotesView srcdbView = cdb.getView(NCCONST.VIEWDATABASES);
       srcdbView.refresh();
-      NotesView vwSubmitQ = cdb.getView(NCCONST.VIEWSUBMITQ);
-      NotesView vwCrawlQ = cdb.getView(NCCONST.VIEWCRAWLQ);
+      NotesQueueDepth queueDepth =
+          notesConnectorSession.getConnector().getQueueDepth();
+      queueDepth.reconcileIfDue(cdb);
 
       // TODO: Make this loop shutdown aware
 
       Map<String, Date> nextBatch = new HashMap<String, Date>();
       NotesDocument srcdbDoc = srcdbView.getFirstDocument();
       while (null != srcdbDoc) {
-        vwSubmitQ.refresh();
-        vwCrawlQ.refresh();
-        int qDepth = vwSubmitQ.getEntryCount() + vwCrawlQ.getEntryCount();
+        long qDepth = queueDepth.getTotalDepth();
         LOGGER.log(Level.FINER,
             "Total documents in crawl and submit queues is: {0}", qDepth);
-        if (vwSubmitQ.getEntryCount() + vwCrawlQ.getEntryCount() > maxDepth) {
+        if (qDepth > maxDepth) {
           LOGGER.log(Level.FINE,
               "Queue threshold reached.  Suspending polling. size/max={0}/{1}",
               new Object[] { qDepth, maxDepth });
@@ -138,18 +145,67 @@ class NotesDatabasePoller {
         lastCrawlCache.putAll(nextBatch);
       }
 
-      vwSubmitQ.recycle();
-      vwCrawlQ.recycle();
       pollTime.recycle();
       templateView.recycle();
       srcdbView.recycle();
+      succeeded = true;
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
     } finally {
+      NotesConnectorMetrics metrics =
+          notesConnectorSession.getConnector().getMetrics();
+      saveCrawlStatistics(metrics);
+      metrics.record(NotesConnectorMetrics.Stage.POLL, timeStart, succeeded);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
 
+  /**
+   * Saves the crawl statistics of the source databases that have
+   * changed since they were last saved, after clearing the saved
+   * statistics if the metrics have been reset. If any databases were
+   * polled, logs the databases that have consumed the most crawl time.
+   */
+  private void saveCrawlStatistics(NotesConnectorMetrics metrics) {
+    NotesDocumentManager docManager =
+        notesConnectorSession.getNotesDocumentManager();
+    if (metrics.takeCrawlByDatabaseReset()
+        && !docManager.clearDatabaseStatistics()) {
+      // Don't save the reset totals over the old ones. Try again with
+      // the next poll.
+      metrics.markCrawlByDatabaseReset();
+    } else {
+      Map<String, NotesDatabaseCrawlMetrics> changed =
+          metrics.takeChangedCrawlByDatabase();
+      if (!changed.isEmpty() && !docManager.setDatabaseStatistics(changed)) {
+        // Try again with the next poll.
+        metrics.markCrawlByDatabaseChanged(changed.keySet());
+      }
+    }
+    if (databasesPolled > 0 && LOGGER.isLoggable(Level.INFO)) {
+      Map<String, NotesDatabaseCrawlMetrics> statistics =
+          metrics.getCrawlByDatabase();
+      List<NotesDatabaseCrawlMetrics> databases =
+          new ArrayList<NotesDatabaseCrawlMetrics>(statistics.values());
+      Collections.sort(databases, new Comparator<NotesDatabaseCrawlMetrics>() {
+          @Override
+          public int compare(NotesDatabaseCrawlMetrics a,
+              NotesDatabaseCrawlMetrics b) {
+            long crawlA = a.getPollMillis() + a.getPrefetchMillis();
+            long crawlB = b.getPollMillis() + b.getPrefetchMillis();
+            return (crawlA < crawlB) ? 1 : ((crawlA == crawlB) ? 0 : -1);
+          }
+        });
+      StringBuilder summary = new StringBuilder();
+      int count = Math.min(databases.size(), NCCONST.CRAWL_SUMMARY_DATABASES);
+      for (NotesDatabaseCrawlMetrics database : databases.subList(0, count)) {
+        summary.append("\n  ").append(database);
+      }
+      LOGGER.log(Level.INFO, "Crawl statistics of {0} databases, most crawl "
+          + "time first:{1}", new Object[] { databases.size(), summary });
+    }
+  }
+
   @VisibleForTesting
   boolean processACL(NotesSession notesSession,
       NotesDatabase connectorDatabase, NotesDatabase srcdb,
@@ -165,6 +221,7 @@ class NotesDatabasePoller {
               dbdoc.getItemValueString(NCCONST.DITM_ACLTEXT))) {
         LOGGER.log(Level.FINER,
             "ACL has not changed. Skipping ACL processing.");
+        mirrorDatabaseAcl(dbdoc);
         return false;
       }
       LOGGER.log(Level.FINEST, "New ACL Text is. {0}", aclActivityText);
@@ -217,6 +274,12 @@ class NotesDatabasePoller {
       updateTextList(dbdoc, NCCONST.NCITM_DBPERMITUSERS, permitUsers);
       updateTextList(dbdoc, NCCONST.NCITM_DBPERMITGROUPS, permitGroups);
       updateTextList(dbdoc, NCCONST.NCITM_DBNOACCESSGROUPS, noAccessGroups);
+
+      // Mirror the lists in H2 for authorization.
+      notesConnectorSession.getNotesDocumentManager().setDatabaseAcl(
+          dbdoc.getItemValueString(NCCONST.DITM_REPLICAID),
+          new NotesDocumentManager.DatabaseAcl(permitUsers, permitGroups,
+              noAccessUsers, noAccessGroups));
     } catch (Exception e) {
       // TODO: should we return false here?
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
@@ -227,6 +290,29 @@ class NotesDatabasePoller {
     return true;
   }
 
+  /**
+   * Mirrors the ACL lists from the database document in H2 if they
+   * have not been mirrored yet, e.g., after an upgrade.
+   */
+  private void mirrorDatabaseAcl(NotesDocument dbdoc) {
+    NotesDocumentManager docManager =
+        notesConnectorSession.getNotesDocumentManager();
+    try {
+      String replicaId = dbdoc.getItemValueString(NCCONST.DITM_REPLICAID);
+      if (docManager.getDatabaseAcl(replicaId) == null) {
+        LOGGER.log(Level.FINE, "Mirroring ACL for {0} database", replicaId);
+        docManager.setDatabaseAcl(replicaId,
+            new NotesDocumentManager.DatabaseAcl(
+                dbdoc.getItemValue(NCCONST.NCITM_DBPERMITUSERS),
+                dbdoc.getItemValue(NCCONST.NCITM_DBPERMITGROUPS),
+                dbdoc.getItemValue(NCCONST.NCITM_DBNOACCESSUSERS),
+                dbdoc.getItemValue(NCCONST.NCITM_DBNOACCESSGROUPS)));
+      }
+    } catch (RepositoryException e) {
+      LOGGER.log(Level.WARNING, "Failed to mirror database ACL", e);
+    }
+  }
+
   private boolean createDatabaseAclDocuments(
       NotesDatabase connectorDatabase, NotesDocument dbdoc,
       Collection<String> gsaPermitUsers, Collection<String> gsaNoAccessUsers,
@@ -294,6 +380,7 @@ class NotesDatabasePoller {
                 gsaPermitGroups, gsaNoAccessUsers, gsaNoAccessGroups });
       }
       aclDoc.save();
+      notesConnectorSession.getConnector().getQueueDepth().addSubmitted(1);
     } finally {
       Util.recycle(aclDoc);
     }
@@ -394,6 +481,14 @@ class NotesDatabasePoller {
     NotesDateTime lastUpdated = null;
     NotesDateTime searchLastUpdated = null;
     Vector<?> lastUpdatedV = null;
+    String dbName = null;
+    String replicaId = null;
+    long timeStart = 0;
+    int polled = 0;
+    int queued = 0;
+    int skipped = 0;
+    boolean trackFreshness = false;
+    boolean succeeded = false;
     LOGGER.entering(CLASS_NAME, METHOD);
 
     try {
@@ -412,6 +507,9 @@ class NotesDatabasePoller {
       lastUpdatedV = srcdbDoc.getItemValue(NCCONST.DITM_LASTUPDATE);
       if (0 < lastUpdatedV.size()) {
         lastUpdated = (NotesDateTime) lastUpdatedV.firstElement();
+        // The first poll of a database queues documents of any age,
+        // so only later polls measure the freshness lag.
+        trackFreshness = true;
         LOGGER.log(Level.FINE, "Last processed time was {0}", lastUpdated);
         searchLastUpdated = ns.createDateTime(lastUpdated.toJavaDate());
         int replicationFreq = srcdbDoc.getItemValueInteger(
@@ -452,6 +550,9 @@ class NotesDatabasePoller {
       }
 
       // Get modified documents
+      dbName = srcdbDoc.getItemValueString(NCCONST.DITM_DBNAME);
+      replicaId = srcdbDoc.getItemValueString(NCCONST.DITM_REPLICAID);
+      timeStart = System.currentTimeMillis();
       NotesDatabase srcdb = ns.getDatabase(null, null);
       srcdb.openByReplicaID(
           srcdbDoc.getItemValueString(NCCONST.DITM_SERVER),
@@ -468,7 +569,6 @@ class NotesDatabasePoller {
         return;
       }
 
-      String dbName = srcdbDoc.getItemValueString(NCCONST.DITM_DBNAME);
       String authType = srcdbDoc.getItemValueString(NCCONST.DITM_AUTHTYPE);
       LOGGER.log(Level.FINE,
           "{0} database is configured using {1} authentication type",
@@ -478,6 +578,8 @@ class NotesDatabasePoller {
         LOGGER.log(Level.FINE, "Scan ACLs and update H2 for {0} replica",
             srcdb.getReplicaID());
         notesConnectorSession.getUserGroupManager().updateRoles(srcdb);
+        notesConnectorSession.getAuthorizationCache().invalidateDatabase(
+            srcdb.getReplicaID());
       }
 
       // From the template, we get the search string to determine
@@ -502,11 +604,13 @@ class NotesDatabasePoller {
         LOGGER.log(Level.FINER, "Processing document {0} last modified on {1}",
             new Object[] {notesUrl, lastModified});
         nextBatch.put(notesUrl, lastModified.toJavaDate());
+        polled++;
         Date prevLastModified = lastCrawlCache.get(notesUrl);
         if (prevLastModified != null
                 && prevLastModified.equals(lastModified.toJavaDate())) {
           LOGGER.log(Level.FINEST,
               "Skipping previously crawled document: {0}", notesUrl);
+          skipped++;
           curDoc = nextDocument(dc, curDoc);
           continue;
         }
@@ -551,10 +655,20 @@ class NotesDatabasePoller {
         crawlRequestDoc.appendItemValue(NCCONST.ITM_GMETADATABASE,
             srcdbDoc.getItemValueString(NCCONST.DITM_DBNAME));
         crawlRequestDoc.appendItemValue(NCCONST.ITM_GMETANOTESLINK, notesUrl);
+        if (trackFreshness) {
+          // Stored as numbers to avoid creating NotesDateTime objects.
+          crawlRequestDoc.appendItemValue(NCCONST.NCITM_SOURCEMODIFIED,
+              (double) lastModified.toJavaDate().getTime());
+          crawlRequestDoc.appendItemValue(NCCONST.NCITM_ENQUEUED,
+              (double) System.currentTimeMillis());
+        }
 
         crawlRequestDoc.save();
         crawlRequestDoc.recycle();  //TEST THIS
         crawlRequestDoc = null;
+        queued++;
+        notesConnectorSession.getConnector().getQueueDepth()
+            .addCrawlRequests(1);
         if (lastModified.timeDifference(lastUpdated) > 0) {
           lastUpdated = lastModified;
           LOGGER.log(Level.FINEST, "New last updated time: {0}", lastUpdated);
@@ -581,9 +695,19 @@ class NotesDatabasePoller {
       lastUpdated.recycle();
       searchLastUpdated.recycle();
       ns.recycle(lastUpdatedV);
+      succeeded = true;
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
     } finally {
+      // Only databases that were due to be polled are recorded.
+      if (dbName != null) {
+        NotesConnectorMetrics metrics =
+            notesConnectorSession.getConnector().getMetrics();
+        metrics.recordDatabasePoll(dbName, timeStart, succeeded, queued);
+        metrics.recordDatabaseCrawlPoll(replicaId, dbName, timeStart,
+            succeeded, polled, queued, skipped);
+        databasesPolled++;
+      }
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
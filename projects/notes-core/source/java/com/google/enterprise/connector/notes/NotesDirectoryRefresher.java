@@ -0,0 +1,141 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes the user and group cache on its own schedule, independent
+ * of the maintenance thread's deletion checks.
+ *
+ * The refresher checks every {@link NCCONST#DIRECTORY_REFRESH_CHECK_MINUTES}
+ * minutes whether the configured cache update interval has elapsed,
+ * and if so updates the cache. An update that runs longer than the
+ * refresh timeout is cancelled, leaving the cache as it was written
+ * so far; the next check starts a new update.
+ */
+class NotesDirectoryRefresher {
+  private static final String CLASS_NAME =
+      NotesDirectoryRefresher.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private final NotesUserGroupManager userGroupManager;
+  private final long timeoutMinutes;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param userGroupManager the user and group cache to refresh
+   * @param timeoutMinutes the maximum duration of a refresh; 0 for no
+   * limit
+   */
+  NotesDirectoryRefresher(NotesUserGroupManager userGroupManager,
+      int timeoutMinutes) {
+    this.userGroupManager = userGroupManager;
+    this.timeoutMinutes = timeoutMinutes;
+  }
+
+  /** Starts checking for refreshes, beginning immediately. */
+  synchronized void start() {
+    if (scheduler != null) {
+      return;
+    }
+    // One thread runs the refresh, the other its timeout.
+    scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r,
+              NotesDirectoryRefresher.class.getSimpleName() + count++);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          refresh();
+        }
+      }, 0, NCCONST.DIRECTORY_REFRESH_CHECK_MINUTES, TimeUnit.MINUTES);
+    LOGGER.log(Level.INFO, "Directory refresher started with timeout {0} "
+        + "minutes", timeoutMinutes);
+  }
+
+  /**
+   * Stops checking for refreshes and cancels a refresh that is in
+   * progress, waiting up to
+   * {@link NCCONST#DIRECTORY_REFRESH_SHUTDOWN_SECONDS} seconds for it
+   * to stop writing to the cache.
+   */
+  void shutdown() {
+    ScheduledExecutorService stopping;
+    synchronized (this) {
+      stopping = scheduler;
+      scheduler = null;
+    }
+    if (stopping == null) {
+      return;
+    }
+    LOGGER.log(Level.INFO, "Directory refresher shutting down");
+    stopping.shutdownNow();
+    userGroupManager.cancelUpdate();
+    try {
+      if (!stopping.awaitTermination(
+          NCCONST.DIRECTORY_REFRESH_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+        LOGGER.log(Level.WARNING, "Directory refresh did not stop within "
+            + "{0} seconds", NCCONST.DIRECTORY_REFRESH_SHUTDOWN_SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void refresh() {
+    final String METHOD = "refresh";
+    LOGGER.entering(CLASS_NAME, METHOD);
+    ScheduledFuture<?> timeout = null;
+    try {
+      ScheduledExecutorService current;
+      synchronized (this) {
+        current = scheduler;
+      }
+      if (current != null && timeoutMinutes > 0) {
+        timeout = current.schedule(new Runnable() {
+            @Override
+            public void run() {
+              LOGGER.log(Level.WARNING, "Directory refresh exceeded {0} "
+                  + "minutes and is being cancelled", timeoutMinutes);
+              userGroupManager.cancelUpdate();
+            }
+          }, timeoutMinutes, TimeUnit.MINUTES);
+      }
+      userGroupManager.updateUsersGroups();
+    } catch (Throwable t) {
+      // An exception would stop the scheduled checks.
+      LOGGER.log(Level.SEVERE, "Failure refreshing the directory cache", t);
+    } finally {
+      if (timeout != null) {
+        timeout.cancel(false);
+      }
+      LOGGER.exiting(CLASS_NAME, METHOD);
+    }
+  }
+}
@@ -28,11 +28,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +59,12 @@ import java.util.logging.Logger;
  *   docid (foreign key)
  *   reader (100 characters)
  *
+ * NCDatabaseAcl_<Connector> table, mirroring the database ACL lists
+ * kept in the connector database for use by authorization:
+ *   replicaid (primary key)
+ *   permitusers, permitgroups, noaccessusers, noaccessgroups
+ *     (newline-separated, lower-cased names)
+ *
  * Note: the <Connector> value will be assigned at runtime from the
  * Connector Manager to avoid table naming conflicts or duplicates.
  *
@@ -67,6 +80,53 @@ class NotesDocumentManager {
   @VisibleForTesting final String indexedTableName;
   @VisibleForTesting final String readersTableName;
   @VisibleForTesting final String attachmentsTableName;
+  @VisibleForTesting final String databaseAclTableName;
+  @VisibleForTesting final String databaseStatsTableName;
+  private final ConcurrentHashMap<String, DatabaseAcl> databaseAcls =
+      new ConcurrentHashMap<String, DatabaseAcl>();
+
+  /**
+   * The lower-cased names allowed and denied access to a database by
+   * its ACL.
+   */
+  static class DatabaseAcl {
+    private final Set<String> permitUsers;
+    private final Set<String> permitGroups;
+    private final Set<String> noAccessUsers;
+    private final Set<String> noAccessGroups;
+
+    DatabaseAcl(Collection<?> permitUsers, Collection<?> permitGroups,
+        Collection<?> noAccessUsers, Collection<?> noAccessGroups) {
+      this.permitUsers = toLowerCase(permitUsers);
+      this.permitGroups = toLowerCase(permitGroups);
+      this.noAccessUsers = toLowerCase(noAccessUsers);
+      this.noAccessGroups = toLowerCase(noAccessGroups);
+    }
+
+    Set<String> getPermitUsers() {
+      return permitUsers;
+    }
+
+    Set<String> getPermitGroups() {
+      return permitGroups;
+    }
+
+    Set<String> getNoAccessUsers() {
+      return noAccessUsers;
+    }
+
+    Set<String> getNoAccessGroups() {
+      return noAccessGroups;
+    }
+
+    private static Set<String> toLowerCase(Collection<?> names) {
+      Set<String> lcNames = new HashSet<String>();
+      for (Object name : names) {
+        lcNames.add(name.toString().toLowerCase());
+      }
+      return Collections.unmodifiableSet(lcNames);
+    }
+  }
 
   NotesDocumentManager(NotesConnectorSession ncs)
       throws RepositoryException {
@@ -80,6 +140,10 @@ class NotesDocumentManager {
         NCCONST.TABLE_READERS_PREFIX, connectorName);
     this.attachmentsTableName = jdbcDatabase.makeTableName(
         NCCONST.TABLE_ATTACHMENTS_PREFIX, connectorName);
+    this.databaseAclTableName = jdbcDatabase.makeTableName(
+        NCCONST.TABLE_DATABASEACL_PREFIX, connectorName);
+    this.databaseStatsTableName = jdbcDatabase.makeTableName(
+        NCCONST.TABLE_DATABASESTATS_PREFIX, connectorName);
     initializeDatabase();
   }
 
@@ -155,6 +219,38 @@ class NotesDocumentManager {
       }
     }
     LOGGER.log(Level.FINE, "Create/verify {0}", attachmentsTableName);
+
+    // Verify and create database ACL table
+    StringBuilder databaseAclDDL = new StringBuilder();
+    databaseAclDDL.append("create table ");
+    databaseAclDDL.append(databaseAclTableName).append("(");
+    databaseAclDDL.append("replicaid varchar(");
+    databaseAclDDL.append(NCCONST.COLUMN_SIZE_REPLICAID);
+    databaseAclDDL.append(") primary key, ");
+    databaseAclDDL.append("permitusers clob, permitgroups clob, ");
+    databaseAclDDL.append("noaccessusers clob, noaccessgroups clob)");
+    jdbcDatabase.verifyTableExists(databaseAclTableName,
+        new String[]{databaseAclDDL.toString()});
+    LOGGER.log(Level.FINE, "Create/verify {0}", databaseAclTableName);
+
+    // Verify and create database statistics table
+    StringBuilder databaseStatsDDL = new StringBuilder();
+    databaseStatsDDL.append("create table ");
+    databaseStatsDDL.append(databaseStatsTableName).append("(");
+    databaseStatsDDL.append("replicaid varchar(");
+    databaseStatsDDL.append(NCCONST.COLUMN_SIZE_REPLICAID);
+    databaseStatsDDL.append(") primary key, ");
+    databaseStatsDDL.append("dbname varchar(");
+    databaseStatsDDL.append(NCCONST.COLUMN_SIZE_DBNAME).append("), ");
+    databaseStatsDDL.append("polls long, polled long, enqueued long, ");
+    databaseStatsDDL.append("skipped long, prefetched long, ");
+    databaseStatsDDL.append("attachments long, attachmentbytes long, ");
+    databaseStatsDDL.append("errors long, pollmillis long, ");
+    databaseStatsDDL.append("prefetchmillis long, lastpollmillis long, ");
+    databaseStatsDDL.append("lastpolltime timestamp)");
+    jdbcDatabase.verifyTableExists(databaseStatsTableName,
+        new String[]{databaseStatsDDL.toString()});
+    LOGGER.log(Level.FINE, "Create/verify {0}", databaseStatsTableName);
   }
 
   /**
@@ -313,6 +409,7 @@ class NotesDocumentManager {
       }
       connection.commit();
       isUpdated = true;
+      ncSession.getAuthorizationCache().invalidateDocument(unid);
     } catch (SQLException sqle) {
       LOGGER.log(Level.FINE,
           "Unable to add indexed document to database (UNID: " + unid + ")",
@@ -450,6 +547,349 @@ class NotesDocumentManager {
     return readers;
   }
 
+  /**
+   * Gets the mirrored ACL of a database.
+   *
+   * @param replicaid the replica id of the database
+   * @return the ACL, or null if the ACL has not been mirrored
+   */
+  DatabaseAcl getDatabaseAcl(String replicaid) {
+    final String METHOD = "getDatabaseAcl";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    DatabaseAcl acl = databaseAcls.get(replicaid);
+    if (acl != null) {
+      LOGGER.exiting(CLASS_NAME, METHOD);
+      return acl;
+    }
+    Connection conn = null;
+    PreparedStatement pstmt = null;
+    ResultSet rs = null;
+    try {
+      conn = getDatabaseConnection();
+      pstmt = conn.prepareStatement(
+          "select permitusers, permitgroups, noaccessusers, noaccessgroups"
+          + " from " + databaseAclTableName + " where replicaid = ?");
+      pstmt.setString(1, replicaid);
+      rs = pstmt.executeQuery();
+      if (rs.next()) {
+        acl = new DatabaseAcl(splitNames(rs.getString(1)),
+            splitNames(rs.getString(2)), splitNames(rs.getString(3)),
+            splitNames(rs.getString(4)));
+        databaseAcls.put(replicaid, acl);
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.FINE,
+          "Failed to lookup ACL for " + replicaid + " database", e);
+    } finally {
+      Util.close(rs);
+      Util.close(pstmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return acl;
+  }
+
+  /**
+   * Mirrors the ACL of a database so that authorization can check
+   * database access without opening the connector database.
+   *
+   * @param replicaid the replica id of the database
+   * @param acl the database ACL
+   * @return true if the ACL was stored
+   */
+  boolean setDatabaseAcl(String replicaid, DatabaseAcl acl) {
+    final String METHOD = "setDatabaseAcl";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    boolean isUpdated = false;
+    Connection conn = null;
+    PreparedStatement pstmt = null;
+    try {
+      conn = getDatabaseConnection();
+      pstmt = conn.prepareStatement("merge into " + databaseAclTableName
+          + "(replicaid, permitusers, permitgroups, noaccessusers,"
+          + " noaccessgroups) key(replicaid) values(?,?,?,?,?)");
+      pstmt.setString(1, replicaid);
+      pstmt.setString(2, joinNames(acl.getPermitUsers()));
+      pstmt.setString(3, joinNames(acl.getPermitGroups()));
+      pstmt.setString(4, joinNames(acl.getNoAccessUsers()));
+      pstmt.setString(5, joinNames(acl.getNoAccessGroups()));
+      pstmt.executeUpdate();
+      if (!conn.getAutoCommit()) {
+        conn.commit();
+      }
+      databaseAcls.put(replicaid, acl);
+      isUpdated = true;
+      LOGGER.log(Level.FINE, "Updated ACL for {0} database", replicaid);
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING,
+          "Failed to update ACL for " + replicaid + " database", e);
+      databaseAcls.remove(replicaid);
+    } finally {
+      Util.close(pstmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return isUpdated;
+  }
+
+  /**
+   * Removes the mirrored ACLs of databases that are no longer in the
+   * connector's crawl list.
+   *
+   * @param currentReplicaIds the replica ids of the crawled databases
+   * @return the number of mirrored ACLs removed
+   */
+  int deleteDatabaseAcls(Set<String> currentReplicaIds) {
+    final String METHOD = "deleteDatabaseAcls";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    // Evict the cached ACLs first, so that a failure below can't leave
+    // authorization using them.
+    databaseAcls.keySet().retainAll(currentReplicaIds);
+
+    int deleted = deleteOtherReplicaIds(databaseAclTableName,
+        currentReplicaIds, "ACLs");
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return deleted;
+  }
+
+  /**
+   * Removes the saved crawl statistics of databases that are no longer
+   * in the connector's crawl list.
+   *
+   * @param currentReplicaIds the replica ids of the crawled databases
+   * @return the number of databases removed
+   */
+  int deleteDatabaseStatistics(Set<String> currentReplicaIds) {
+    final String METHOD = "deleteDatabaseStatistics";
+    LOGGER.entering(CLASS_NAME, METHOD);
+    int deleted = deleteOtherReplicaIds(databaseStatsTableName,
+        currentReplicaIds, "statistics");
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return deleted;
+  }
+
+  /**
+   * Removes the saved crawl statistics of all databases.
+   *
+   * @return true if the statistics were removed
+   */
+  boolean clearDatabaseStatistics() {
+    final String METHOD = "clearDatabaseStatistics";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    boolean isCleared = false;
+    Connection conn = null;
+    Statement stmt = null;
+    try {
+      conn = getDatabaseConnection();
+      stmt = conn.createStatement();
+      stmt.executeUpdate("delete from " + databaseStatsTableName);
+      if (!conn.getAutoCommit()) {
+        conn.commit();
+      }
+      isCleared = true;
+      LOGGER.log(Level.FINE, "Cleared the database statistics");
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to clear database statistics", e);
+    } finally {
+      Util.close(stmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return isCleared;
+  }
+
+  /**
+   * Removes the rows of a table keyed by replica ID for databases that
+   * are no longer in the connector's crawl list.
+   *
+   * @param tableName the table to remove rows from
+   * @param currentReplicaIds the replica ids of the crawled databases
+   * @param description what the rows hold, for logging
+   * @return the number of rows removed
+   */
+  private int deleteOtherReplicaIds(String tableName,
+      Set<String> currentReplicaIds, String description) {
+    int deleted = 0;
+    Connection conn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
+    PreparedStatement pstmt = null;
+    try {
+      conn = getDatabaseConnection();
+      stmt = conn.createStatement();
+      rs = stmt.executeQuery("select replicaid from " + tableName);
+      Set<String> replicaIdsToDelete = new LinkedHashSet<String>();
+      while (rs.next()) {
+        String replicaId = rs.getString(1);
+        if (!currentReplicaIds.contains(replicaId)) {
+          replicaIdsToDelete.add(replicaId);
+        }
+      }
+      if (replicaIdsToDelete.size() > 0) {
+        pstmt = conn.prepareStatement("delete from " + tableName
+            + " where replicaid = ?");
+        for (String replicaId : replicaIdsToDelete) {
+          pstmt.setString(1, replicaId);
+          pstmt.addBatch();
+        }
+        pstmt.executeBatch();
+        if (!conn.getAutoCommit()) {
+          conn.commit();
+        }
+        deleted = replicaIdsToDelete.size();
+        LOGGER.log(Level.FINE, "Removed {0} for database(s) that are not "
+            + "in the connector's crawl list any more: {1}",
+            new Object[] { description, replicaIdsToDelete });
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to remove database " + description,
+          e);
+    } finally {
+      Util.close(rs);
+      Util.close(stmt);
+      Util.close(pstmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Gets the saved crawl statistics of the source databases.
+   *
+   * @return the statistics keyed by replica ID, or an empty map if
+   * they could not be read
+   */
+  Map<String, NotesDatabaseCrawlMetrics> getDatabaseStatistics() {
+    final String METHOD = "getDatabaseStatistics";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    Map<String, NotesDatabaseCrawlMetrics> statistics =
+        new LinkedHashMap<String, NotesDatabaseCrawlMetrics>();
+    Connection conn = null;
+    Statement stmt = null;
+    ResultSet rs = null;
+    try {
+      conn = getDatabaseConnection();
+      stmt = conn.createStatement();
+      rs = stmt.executeQuery("select replicaid, dbname, polls, polled,"
+          + " enqueued, skipped, prefetched, attachments, attachmentbytes,"
+          + " errors, pollmillis, prefetchmillis, lastpollmillis,"
+          + " lastpolltime from " + databaseStatsTableName
+          + " order by replicaid");
+      while (rs.next()) {
+        statistics.put(rs.getString(1), new NotesDatabaseCrawlMetrics(
+            rs.getString(2), rs.getLong(3), rs.getLong(4), rs.getLong(5),
+            rs.getLong(6), rs.getLong(7), rs.getLong(8), rs.getLong(9),
+            rs.getLong(10), rs.getLong(11), rs.getLong(12), rs.getLong(13),
+            rs.getTimestamp(14)));
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to read database statistics", e);
+    } finally {
+      Util.close(rs);
+      Util.close(stmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return statistics;
+  }
+
+  /**
+   * Saves the crawl statistics of the source databases.
+   *
+   * @param statistics the statistics keyed by replica ID
+   * @return true if the statistics were saved
+   */
+  boolean setDatabaseStatistics(
+      Map<String, NotesDatabaseCrawlMetrics> statistics) {
+    final String METHOD = "setDatabaseStatistics";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    boolean isUpdated = false;
+    Connection conn = null;
+    PreparedStatement pstmt = null;
+    try {
+      conn = getDatabaseConnection();
+      pstmt = conn.prepareStatement("merge into " + databaseStatsTableName
+          + "(replicaid, dbname, polls, polled, enqueued, skipped,"
+          + " prefetched, attachments, attachmentbytes, errors, pollmillis,"
+          + " prefetchmillis, lastpollmillis, lastpolltime) key(replicaid)"
+          + " values(?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+      for (Map.Entry<String, NotesDatabaseCrawlMetrics> entry
+               : statistics.entrySet()) {
+        NotesDatabaseCrawlMetrics stats = entry.getValue();
+        String dbName = stats.getDatabaseName();
+        if (dbName != null && dbName.length() > NCCONST.COLUMN_SIZE_DBNAME) {
+          dbName = dbName.substring(0, NCCONST.COLUMN_SIZE_DBNAME);
+        }
+        pstmt.setString(1, entry.getKey());
+        pstmt.setString(2, dbName);
+        pstmt.setLong(3, stats.getPolls());
+        pstmt.setLong(4, stats.getDocumentsPolled());
+        pstmt.setLong(5, stats.getDocumentsEnqueued());
+        pstmt.setLong(6, stats.getDocumentsSkipped());
+        pstmt.setLong(7, stats.getDocumentsPrefetched());
+        pstmt.setLong(8, stats.getAttachmentCount());
+        pstmt.setLong(9, stats.getAttachmentBytes());
+        pstmt.setLong(10, stats.getErrors());
+        pstmt.setLong(11, stats.getPollMillis());
+        pstmt.setLong(12, stats.getPrefetchMillis());
+        pstmt.setLong(13, stats.getLastPollMillis());
+        pstmt.setTimestamp(14, (stats.getLastPollTime() == null) ? null
+            : new Timestamp(stats.getLastPollTime().getTime()));
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+      if (!conn.getAutoCommit()) {
+        conn.commit();
+      }
+      isUpdated = true;
+      LOGGER.log(Level.FINE, "Updated statistics for {0} databases",
+          statistics.size());
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to update database statistics", e);
+    } finally {
+      Util.close(pstmt);
+      if (conn != null) {
+        releaseDatabaseConnection(conn);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return isUpdated;
+  }
+
+  private static String joinNames(Collection<String> names) {
+    StringBuilder buf = new StringBuilder();
+    for (String name : names) {
+      if (buf.length() > 0) {
+        buf.append('\n');
+      }
+      buf.append(name);
+    }
+    return buf.toString();
+  }
+
+  private static List<String> splitNames(String names) {
+    if (Strings.isNullOrEmpty(names)) {
+      return Collections.emptyList();
+    }
+    return Arrays.asList(names.split("\n"));
+  }
+
   boolean hasIndexedDocument(String unid, String replicaid, Connection conn)
       throws RepositoryException {
     final String METHOD = "hasIndexedDocument";
@@ -576,6 +1016,7 @@ class NotesDocumentManager {
       try {
         conn.commit();
         isDeleted = true;
+        ncSession.getAuthorizationCache().invalidateDocument(unid);
         LOGGER.log(Level.FINE, "Document {0} is deleted", unid);
       } catch (SQLException sqle) {
         try {
@@ -668,9 +1109,12 @@ class NotesDocumentManager {
       String[] statements = {
           "delete from " + readersTableName,
           "delete from " + attachmentsTableName,
-          "delete from " + indexedTableName
+          "delete from " + indexedTableName,
+          "delete from " + databaseAclTableName,
+          "delete from " + databaseStatsTableName
       };
       executeUpdates(false, statements);
+      databaseAcls.clear();
       isClear = true;
       LOGGER.log(Level.FINE, "All data in {0} and {1} tables are purged",
           new Object[] { indexedTableName, readersTableName });
@@ -690,9 +1134,12 @@ class NotesDocumentManager {
           "drop index if exists idx_" + indexedTableName,
           "drop table " + readersTableName,
           "drop table " + attachmentsTableName,
-          "drop table " + indexedTableName
+          "drop table " + indexedTableName,
+          "drop table " + databaseAclTableName,
+          "drop table " + databaseStatsTableName
       };
       executeUpdates(false, statements);
+      databaseAcls.clear();
       isDropped = true;
       LOGGER.log(Level.FINE, "{0} and {1} tables were dropped",
           new Object[] { indexedTableName, readersTableName });
@@ -15,74 +15,130 @@
 package com.google.enterprise.connector.notes;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Cache of OU and wildcard group names and their group ids.
+ *
+ * Names are stored in a trie keyed by the lower-cased name components,
+ * organization first, so that "*&#47;ou=west/o=abc" is stored under
+ * o=abc, then ou=west, then *. Lookups walk the components of the name
+ * in place and readers never block, so the cache can be shared by the
+ * directory refresh and concurrent lookups.
+ */
 class NotesDomainNames {
   private static final String CLASS_NAME = NotesDomainNames.class.getName();
   private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
-  private final SortedMap<String, Long> domainTree;
+  private static final String WILDCARD = "*";
+
+  private static class Node {
+    /** The lower-cased name of this node, or null for the root. */
+    final String name;
+    final AtomicReference<Long> id = new AtomicReference<Long>();
+    final ConcurrentSkipListMap<String, Node> children =
+        new ConcurrentSkipListMap<String, Node>();
+
+    Node(String name) {
+      this.name = name;
+    }
+  }
+
+  private final Node root = new Node(null);
+  private final AtomicInteger size = new AtomicInteger();
 
   public NotesDomainNames() {
-    domainTree = Collections.synchronizedSortedMap(new TreeMap<String, Long>());
   }
 
   public void add(String name, Long id) {
-    domainTree.put(reverse(name.toLowerCase()), id);
+    Node node = getNode(name.toLowerCase(), true);
+    if (node.id.getAndSet(id) == null) {
+      size.incrementAndGet();
+    }
   }
 
   public Long get(String name) {
-    return domainTree.get(reverse(name.toLowerCase()));
+    Node node = getNode(name.toLowerCase(), false);
+    return (node == null) ? null : node.id.get();
   }
 
+  /**
+   * Gets the names below a domain. If the domain name starts with a
+   * '/', as in "/ou=west/o=abc", only the names below the domain are
+   * returned; otherwise the domain itself is included if it is cached.
+   *
+   * @param domainName an OU name
+   * @return the lower-cased names and their ids
+   */
   public LinkedHashMap<String, Long> getSubDomainNames(
       String domainName) {
     LinkedHashMap<String, Long> lmap = new LinkedHashMap<String, Long>();
-    String reversedName = reverse(domainName.toLowerCase());
-      SortedMap<String, Long> subs = domainTree.tailMap(reversedName);
-    for (String key : subs.keySet()) {
-      if (!key.startsWith(reversedName)) {
-        break;
-      }
-      lmap.put(reverse(key), subs.get(key));
+    String name = domainName.toLowerCase();
+    boolean includeDomain = true;
+    if (name.startsWith("/")) {
+      name = name.substring(1);
+      includeDomain = false;
+    }
+    Node node = getNode(name, false);
+    if (node != null) {
+      addNames(node, includeDomain, lmap);
     }
     LOGGER.log(Level.FINE, "Sub domain names for {0}: {1}",
         new Object[] { domainName, lmap.keySet() });
     return lmap;
   }
 
-  public int size() {
-    return domainTree.size();
-  }
-
   /**
-   * Reverse canonical or abbreviated name
-   * @param canonical or abbreviated name
-   * @param delimiter
-   * @return
+   * Gets the cached wildcard names, such as "*&#47;ou=west/o=abc", that
+   * cover a person, from the organization down.
+   *
+   * @param canonicalName a person's canonical name
+   * @return the lower-cased wildcard names and their ids
    */
-  private String reverse(String name, String delim) {
-    String[] ary = name.split(delim);
-    StringBuilder buf = new StringBuilder();
-    for (int i = ary.length - 1; i >= 0; i--) {
-      buf.append(ary[i]).append(delim);
+  public LinkedHashMap<String, Long> getWildcardDomainNames(
+      String canonicalName) {
+    LinkedHashMap<String, Long> lmap = new LinkedHashMap<String, Long>();
+    String name = canonicalName.toLowerCase();
+    // The first component is the person's common name.
+    int first = name.indexOf('/');
+    if (first == -1) {
+      return lmap;
     }
-    return buf.deleteCharAt(buf.length() - 1).toString();
+    Node node = root;
+    int end = name.length();
+    while (end > first) {
+      int start = name.lastIndexOf('/', end - 1);
+      node = node.children.get(name.substring(start + 1, end));
+      if (node == null) {
+        break;
+      }
+      Node wildcard = node.children.get(WILDCARD);
+      if (wildcard != null) {
+        Long id = wildcard.id.get();
+        if (id != null) {
+          lmap.put(wildcard.name, id);
+        }
+      }
+      end = start;
+    }
+    return lmap;
   }
 
-  private String reverse(String name) {
-    return reverse(name, "/");
+  public int size() {
+    return size.get();
   }
 
   @Override
   public String toString() {
-    return domainTree.toString();
+    LinkedHashMap<String, Long> lmap = new LinkedHashMap<String, Long>();
+    addNames(root, false, lmap);
+    return lmap.toString();
   }
 
   /**
@@ -90,14 +146,55 @@ class NotesDomainNames {
    */
   public List<String> computeExpandedWildcardDomainNames(String canonicalName) {
     List<String> ous = new ArrayList<String>();
-    for (int index = canonicalName.indexOf('/'); index != -1; 
-        index = canonicalName.indexOf('/')) {
-      String ou = canonicalName.substring(index + 1);
-      canonicalName = ou;
-      ous.add("*/" + ou);
+    for (int index = canonicalName.indexOf('/'); index != -1;
+        index = canonicalName.indexOf('/', index + 1)) {
+      ous.add("*/" + canonicalName.substring(index + 1));
     }
     LOGGER.log(Level.FINE, "Domains for {0}: {1}",
         new Object[] { canonicalName, ous });
     return ous;
   }
+
+  /**
+   * Walks the components of a lower-cased name, last component first.
+   *
+   * @return the node for the name, or null if it is not in the trie and
+   * {@code create} is false
+   */
+  private Node getNode(String name, boolean create) {
+    Node node = root;
+    int end = name.length();
+    while (end > 0) {
+      int start = name.lastIndexOf('/', end - 1);
+      String component = name.substring(start + 1, end);
+      Node child = node.children.get(component);
+      if (child == null) {
+        if (!create) {
+          return null;
+        }
+        Node newChild = new Node(
+            (node == root) ? component : component + "/" + node.name);
+        child = node.children.putIfAbsent(component, newChild);
+        if (child == null) {
+          child = newChild;
+        }
+      }
+      node = child;
+      end = start;
+    }
+    return node;
+  }
+
+  private void addNames(Node node, boolean includeNode,
+      LinkedHashMap<String, Long> lmap) {
+    if (includeNode) {
+      Long id = node.id.get();
+      if (id != null) {
+        lmap.put(node.name, id);
+      }
+    }
+    for (Node child : node.children.values()) {
+      addNames(child, true, lmap);
+    }
+  }
 }
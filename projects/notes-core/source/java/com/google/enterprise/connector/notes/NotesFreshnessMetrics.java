@@ -0,0 +1,105 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the freshness of the documents fed from one source
+ * database, published over JMX by {@link NotesConnectorMetricsMXBean}.
+ *
+ * The lag of a document is the time from its last modification in the
+ * source database to the checkpoint after it was fed. The percentiles
+ * are computed over the most recent documents; the stage means break
+ * the lag down into the time spent waiting for each stage.
+ */
+public final class NotesFreshnessMetrics {
+  private final long count;
+  private final long lagP50Millis;
+  private final long lagP90Millis;
+  private final long lagP99Millis;
+  private final long lagMaxMillis;
+  private final double meanPollDelayMillis;
+  private final double meanCrawlQueueMillis;
+  private final double meanFeedQueueMillis;
+  private final double meanCheckpointDelayMillis;
+
+  @ConstructorProperties({ "count", "lagP50Millis", "lagP90Millis",
+      "lagP99Millis", "lagMaxMillis", "meanPollDelayMillis",
+      "meanCrawlQueueMillis", "meanFeedQueueMillis",
+      "meanCheckpointDelayMillis" })
+  public NotesFreshnessMetrics(long count, long lagP50Millis,
+      long lagP90Millis, long lagP99Millis, long lagMaxMillis,
+      double meanPollDelayMillis, double meanCrawlQueueMillis,
+      double meanFeedQueueMillis, double meanCheckpointDelayMillis) {
+    this.count = count;
+    this.lagP50Millis = lagP50Millis;
+    this.lagP90Millis = lagP90Millis;
+    this.lagP99Millis = lagP99Millis;
+    this.lagMaxMillis = lagMaxMillis;
+    this.meanPollDelayMillis = meanPollDelayMillis;
+    this.meanCrawlQueueMillis = meanCrawlQueueMillis;
+    this.meanFeedQueueMillis = meanFeedQueueMillis;
+    this.meanCheckpointDelayMillis = meanCheckpointDelayMillis;
+  }
+
+  /** Gets the number of documents measured. */
+  public long getCount() {
+    return count;
+  }
+
+  public long getLagP50Millis() {
+    return lagP50Millis;
+  }
+
+  public long getLagP90Millis() {
+    return lagP90Millis;
+  }
+
+  public long getLagP99Millis() {
+    return lagP99Millis;
+  }
+
+  public long getLagMaxMillis() {
+    return lagMaxMillis;
+  }
+
+  /** Gets the mean time from modification until the poller queued it. */
+  public double getMeanPollDelayMillis() {
+    return meanPollDelayMillis;
+  }
+
+  /** Gets the mean time from being queued until it was prefetched. */
+  public double getMeanCrawlQueueMillis() {
+    return meanCrawlQueueMillis;
+  }
+
+  /** Gets the mean time from being prefetched until it was fed. */
+  public double getMeanFeedQueueMillis() {
+    return meanFeedQueueMillis;
+  }
+
+  /** Gets the mean time from being fed until it was checkpointed. */
+  public double getMeanCheckpointDelayMillis() {
+    return meanCheckpointDelayMillis;
+  }
+
+  @Override
+  public String toString() {
+    return "count: " + count + "; p50: " + lagP50Millis + "ms; p90: "
+        + lagP90Millis + "ms; p99: " + lagP99Millis + "ms; max: "
+        + lagMaxMillis + "ms";
+  }
+}
@@ -19,6 +19,7 @@ import com.google.enterprise.connector.logging.NDC;
 import com.google.enterprise.connector.notes.client.NotesDatabase;
 import com.google.enterprise.connector.notes.client.NotesDocument;
 import com.google.enterprise.connector.notes.client.NotesError;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
 import com.google.enterprise.connector.notes.client.NotesSession;
 import com.google.enterprise.connector.notes.client.NotesView;
 import com.google.enterprise.connector.spi.RepositoryException;
@@ -33,8 +34,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * This class checks for deletions of indexed documents and
- * updates the user and group cache.
+ * This class checks for deletions of indexed documents. The user
+ * and group cache is updated by {@link NotesDirectoryRefresher}.
  *
  * Documents should be deleted if they meet either of the
  * following criteria.
@@ -48,7 +49,6 @@ class NotesMaintenanceThread extends Thread {
 
   private final NotesConnector nc;
   private final NotesConnectorSession ncs;
-  private final NotesUserGroupManager nugm;
 
   NotesMaintenanceThread(NotesConnector connector,
       NotesConnectorSession session) throws RepositoryException {
@@ -56,7 +56,6 @@ class NotesMaintenanceThread extends Thread {
 
     nc = connector;
     ncs = session;
-    nugm = (session == null) ? null : session.getUserGroupManager();
   }
 
   @Override
@@ -71,13 +70,11 @@ class NotesMaintenanceThread extends Thread {
     NotesPollerNotifier npn = ncs.getNotifier();
     while (nc.getShutdown() == false) {
       try {
-        LOGGER.log(Level.FINE,
-            "Maintenance thread is updating User Group Cache.");
-        nugm.updateUsersGroups();
         LOGGER.log(Level.FINE,
             "Maintenance thread checking for deletions [Batch Size: {0}]",
             batchsize);
         lastdocid = checkForDeletions(lastdocid, batchsize);
+        logNotesHandles();
         LOGGER.log(Level.FINE,
             "Maintenance thread sleeping after checking for deletions.");
         npn.waitForWork();
@@ -104,6 +101,17 @@ class NotesMaintenanceThread extends Thread {
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
+  /** Logs the Notes object counts when handle tracking is enabled. */
+  private void logNotesHandles() {
+    if (!NotesHandleTracker.isEnabled()) {
+      return;
+    }
+    LOGGER.log(Level.INFO, "Notes objects: {0}",
+        NotesHandleTracker.getSummary());
+    LOGGER.log(Level.FINE, "Live Notes objects by creator: {0}",
+        NotesHandleTracker.getLiveCountsBySite());
+  }
+
   /*
    * Checks for documents which have been deleted in the INDEXED view
    * startdocid - id to start checking from
@@ -119,6 +127,9 @@ class NotesMaintenanceThread extends Thread {
     NotesDatabase cdb = null;
     DeletionHandler handler = null;
     NotesDocId notesId = null;
+    long timeStart = System.currentTimeMillis();
+    boolean succeeded = false;
+    int checked = 0;
     try {
       LOGGER.log(Level.INFO, "Checking for deletions");
       ns = ncs.createNotesSession();
@@ -129,7 +140,8 @@ class NotesMaintenanceThread extends Thread {
           databaseView.getEntryCount());
 
       NotesDocumentManager docMgr = ncs.getNotesDocumentManager();
-      handler = new DeletionHandler(docMgr, ns, cdb, databaseView);
+      handler = new DeletionHandler(docMgr, ns, cdb, databaseView,
+          nc.getQueueDepth());
       Map<String, NotesDocId> indexedDocuments;
       if (Strings.isNullOrEmpty(startdocid)) {
         indexedDocuments = docMgr.getIndexedDocuments(null, null, batchsize);
@@ -152,6 +164,7 @@ class NotesMaintenanceThread extends Thread {
         LOGGER.log(Level.FINER, "Checking deletion for document: {0}", notesId);
         try {
           lastdocid = notesId.toString();
+          checked++;
           handler.checkForDeletion(unid, notesId);
         } catch (RepositoryException e) {
           LOGGER.log(Level.WARNING,
@@ -159,10 +172,13 @@ class NotesMaintenanceThread extends Thread {
           // Skip current UNID and process next.
         }
       }
+      succeeded = true;
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE,
           "Aborting check for deletions at document: " + notesId, e);
     } finally {
+      nc.getMetrics().record(NotesConnectorMetrics.Stage.DELETION_SWEEP,
+          timeStart, succeeded, checked);
       Util.recycle(cdb);
       if (handler != null) {
         handler.recycleAll();
@@ -179,6 +195,7 @@ class NotesMaintenanceThread extends Thread {
     private final NotesSession ns;
     private final NotesDatabase cdb;
     private final NotesView databaseView;
+    private final NotesQueueDepth queueDepth;
 
     private NotesDocument dbConfigDoc = null;
     private String dbConfigDocRepId = "";
@@ -188,11 +205,13 @@ class NotesMaintenanceThread extends Thread {
     private NotesDocument sourceDocument = null;
 
     public DeletionHandler(NotesDocumentManager docMgr, NotesSession ns,
-        NotesDatabase cdb, NotesView databaseView) {
+        NotesDatabase cdb, NotesView databaseView,
+        NotesQueueDepth queueDepth) {
       this.docMgr = docMgr;
       this.ns = ns;
       this.cdb = cdb;
       this.databaseView = databaseView;
+      this.queueDepth = queueDepth;
     }
 
     public void recycleAll() {
@@ -415,6 +434,7 @@ class NotesMaintenanceThread extends Thread {
       deleteReq.replaceItemValue(NCCONST.NCITM_STATE, NCCONST.STATEFETCHED);
       deleteReq.save(true);
       deleteReq.recycle();
+      queueDepth.addSubmitted(1);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
 
@@ -0,0 +1,153 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.notes.client.NotesDatabase;
+import com.google.enterprise.connector.notes.client.NotesView;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the documents in the crawl and submit queues of the connector
+ * database, so that the poller can limit the queue depth without
+ * refreshing the queue views.
+ *
+ * The counts are updated as documents move through the queues:
+ * <ul>
+ * <li>the poller adds crawl requests to the crawl queue, and database
+ * ACL documents to the submit queue</li>
+ * <li>a crawler thread claims a crawl request from the crawl queue,
+ * and adds it to the submit queue when it has been prefetched, along
+ * with its attachments and deletion requests</li>
+ * <li>the maintenance thread adds deletion requests to the submit
+ * queue</li>
+ * <li>a checkpoint removes the fed documents from the submit
+ * queue</li>
+ * </ul>
+ *
+ * Documents changed outside of the connector, or left in progress by a
+ * restart, make the counts drift, so they are periodically reconciled
+ * against the entry counts of the queue views.
+ */
+class NotesQueueDepth {
+  private static final String CLASS_NAME = NotesQueueDepth.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private final AtomicLong crawlQueue = new AtomicLong();
+  private final AtomicLong submitQueue = new AtomicLong();
+  private final long reconcileMillis;
+  private volatile long lastReconciled = 0;
+
+  NotesQueueDepth() {
+    this(NCCONST.QUEUE_DEPTH_RECONCILE_MINUTES * 60L * 1000L);
+  }
+
+  /**
+   * @param reconcileMillis the time between reconciliations with the
+   * queue views
+   */
+  @VisibleForTesting
+  NotesQueueDepth(long reconcileMillis) {
+    this.reconcileMillis = reconcileMillis;
+  }
+
+  /** Records crawl requests added to the crawl queue. */
+  void addCrawlRequests(int count) {
+    crawlQueue.addAndGet(count);
+  }
+
+  /** Records a crawl request claimed by a crawler thread. */
+  void claimCrawlRequest() {
+    crawlQueue.decrementAndGet();
+  }
+
+  /** Records documents ready to be fed added to the submit queue. */
+  void addSubmitted(int count) {
+    submitQueue.addAndGet(count);
+  }
+
+  /** Records documents removed from the submit queue by a checkpoint. */
+  void removeSubmitted(int count) {
+    submitQueue.addAndGet(-count);
+  }
+
+  /** Gets the number of crawl requests waiting to be prefetched. */
+  long getCrawlQueueDepth() {
+    return Math.max(0, crawlQueue.get());
+  }
+
+  /** Gets the number of documents waiting to be fed. */
+  long getSubmitQueueDepth() {
+    return Math.max(0, submitQueue.get());
+  }
+
+  /** Gets the number of documents in both queues. */
+  long getTotalDepth() {
+    return getCrawlQueueDepth() + getSubmitQueueDepth();
+  }
+
+  /**
+   * Resets the counts from the queue views if they have never been
+   * reconciled, or if the reconciliation interval has elapsed.
+   *
+   * @param cdb the connector database
+   */
+  void reconcileIfDue(NotesDatabase cdb) throws RepositoryException {
+    if (System.currentTimeMillis() - lastReconciled < reconcileMillis
+        && lastReconciled != 0) {
+      return;
+    }
+    NotesView vwSubmitQ = cdb.getView(NCCONST.VIEWSUBMITQ);
+    NotesView vwCrawlQ = cdb.getView(NCCONST.VIEWCRAWLQ);
+    try {
+      vwSubmitQ.refresh();
+      vwCrawlQ.refresh();
+      reconcile(vwCrawlQ.getEntryCount(), vwSubmitQ.getEntryCount());
+    } finally {
+      Util.recycle(vwSubmitQ);
+      Util.recycle(vwCrawlQ);
+    }
+  }
+
+  /**
+   * Resets the counts to the numbers of entries in the queue views.
+   *
+   * @param crawlCount the entries in the crawl queue view
+   * @param submitCount the entries in the submit queue view
+   */
+  @VisibleForTesting
+  void reconcile(int crawlCount, int submitCount) {
+    long crawlDrift = crawlQueue.getAndSet(crawlCount) - crawlCount;
+    long submitDrift = submitQueue.getAndSet(submitCount) - submitCount;
+    if (lastReconciled != 0 && (crawlDrift != 0 || submitDrift != 0)) {
+      LOGGER.log(Level.FINE, "Queue depth counts were off by {0} crawl "
+          + "requests and {1} submitted documents",
+          new Object[] { crawlDrift, submitDrift });
+    }
+    lastReconciled = System.currentTimeMillis();
+    LOGGER.log(Level.FINER, "Reconciled queue depths: crawl {0}, submit {1}",
+        new Object[] { crawlCount, submitCount });
+  }
+
+  @Override
+  public String toString() {
+    return "crawl queue: " + getCrawlQueueDepth() + "; submit queue: "
+        + getSubmitQueueDepth();
+  }
+}
@@ -0,0 +1,355 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.notes.client.NotesDatabase;
+import com.google.enterprise.connector.notes.client.NotesSession;
+import com.google.enterprise.connector.notes.client.NotesView;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of long-lived Notes sessions used by the authentication and
+ * authorization managers.
+ *
+ * A Notes session is bound to the thread that initialized it with
+ * sinitThread, so sessions are pooled per serving thread. The first
+ * borrow on a thread creates the session and opens the connector
+ * database and its security view; later borrows on that thread reuse
+ * them. A session is health-checked when it is borrowed and is
+ * recycled once it is older than the configured maximum age.
+ *
+ * A session is normally recycled by its owner, which also terminates
+ * the owner's Notes thread initialization. When the pool is closed,
+ * idle sessions owned by other threads are recycled by the closing
+ * thread, and each owner terminates its thread initialization the
+ * next time it borrows from the pool. Sessions owned by threads that
+ * have exited are recycled the next time a session is created, but
+ * their thread initialization can't be terminated, since only the
+ * owner can call stermThread.
+ */
+class NotesSessionPool {
+  private static final String CLASS_NAME = NotesSessionPool.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private final NotesConnectorSession connectorSession;
+  private final long maxAgeMillis;
+  private final ThreadLocal<PooledSession> threadSession =
+      new ThreadLocal<PooledSession>();
+  private final Set<PooledSession> sessions = new HashSet<PooledSession>();
+  private boolean closed = false;
+
+  /**
+   * A Notes session with the connector database and security view
+   * opened. The directory and its ($Users) view are opened the first
+   * time they are requested.
+   */
+  static class PooledSession {
+    private final Thread owner;
+    private final long created;
+    private final NotesSession session;
+    private NotesDatabase connectorDatabase;
+    private NotesView securityView;
+    private NotesDatabase directoryDatabase;
+    private NotesView usersView;
+    /** Guarded by the pool's lock. */
+    private int borrowCount = 0;
+    private volatile boolean recycledByOther = false;
+    private boolean securityViewCurrent;
+    private boolean usersViewCurrent;
+
+    private PooledSession(NotesSession session) {
+      this.owner = Thread.currentThread();
+      this.created = System.currentTimeMillis();
+      this.session = session;
+    }
+
+    NotesSession getSession() {
+      return session;
+    }
+
+    NotesDatabase getConnectorDatabase() {
+      return connectorDatabase;
+    }
+
+    /**
+     * Gets the connector security view. The view is refreshed the
+     * first time it is requested by each borrower so that changes
+     * made by the database poller are seen.
+     */
+    NotesView getSecurityView() throws RepositoryException {
+      if (!securityViewCurrent) {
+        securityView.refresh();
+        securityViewCurrent = true;
+      }
+      return securityView;
+    }
+
+    /**
+     * Gets the ($Users) view in the Domino directory, opening the
+     * directory on first use.
+     */
+    NotesView getUsersView(String server, String directory)
+        throws RepositoryException {
+      if (usersView == null) {
+        directoryDatabase = session.getDatabase(server, directory);
+        usersView = directoryDatabase.getView(NCCONST.DIRVIEW_USERS);
+        usersViewCurrent = true;
+      } else if (!usersViewCurrent) {
+        usersView.refresh();
+        usersViewCurrent = true;
+      }
+      return usersView;
+    }
+
+    private void recycle() {
+      Util.recycle(usersView);
+      Util.recycle(directoryDatabase);
+      Util.recycle(securityView);
+      Util.recycle(connectorDatabase);
+      usersView = null;
+      directoryDatabase = null;
+      securityView = null;
+      connectorDatabase = null;
+    }
+  }
+
+  NotesSessionPool(NotesConnectorSession connectorSession, int maxAgeMinutes) {
+    this.connectorSession = connectorSession;
+    this.maxAgeMillis = maxAgeMinutes * 60L * 1000L;
+  }
+
+  /**
+   * Borrows the pooled session for the current thread, creating it if
+   * necessary. Each call must be matched by a call to
+   * {@link #returnSession}. Nested borrows on the same thread return
+   * the same session.
+   *
+   * @return the pooled session
+   * @throws RepositoryException if a session can't be created
+   */
+  PooledSession borrowSession() throws RepositoryException {
+    final String METHOD = "borrowSession";
+    LOGGER.entering(CLASS_NAME, METHOD);
+    try {
+      PooledSession pooled = threadSession.get();
+      if (pooled != null && pooled.recycledByOther) {
+        // The session was recycled by close; finish releasing it here.
+        threadSession.remove();
+        connectorSession.getConnector().getSessionFactory().getNotesThread()
+            .stermThread();
+        pooled = null;
+      }
+      if (pooled != null && !isBorrowed(pooled) && !isUsable(pooled)) {
+        destroySession(pooled);
+        pooled = null;
+      }
+      if (pooled == null) {
+        pooled = createSession();
+      }
+      int borrowCount = acquire(pooled);
+      if (borrowCount == 0) {
+        // The pool was closed and the idle session claimed by close.
+        destroySession(pooled);
+        throw new RepositoryException("Notes session pool is closed");
+      }
+      if (borrowCount == 1) {
+        pooled.securityViewCurrent = false;
+        pooled.usersViewCurrent = false;
+      }
+      return pooled;
+    } finally {
+      LOGGER.exiting(CLASS_NAME, METHOD);
+    }
+  }
+
+  /**
+   * Returns a session borrowed with {@link #borrowSession}. The session
+   * stays open for the next request on this thread unless the pool has
+   * been closed.
+   *
+   * @param pooled the borrowed session, may be null
+   */
+  void returnSession(PooledSession pooled) {
+    if (pooled == null) {
+      return;
+    }
+    if (release(pooled)) {
+      destroySession(pooled);
+    }
+  }
+
+  /**
+   * Recycles the sessions that are not in use. Sessions that are in use
+   * are recycled when they are returned. The Notes thread
+   * initialization of other threads is terminated when they next
+   * borrow a session.
+   */
+  void close() {
+    final String METHOD = "close";
+    LOGGER.entering(CLASS_NAME, METHOD);
+    List<PooledSession> idle = new ArrayList<PooledSession>();
+    synchronized (this) {
+      closed = true;
+      for (PooledSession pooled : sessions) {
+        if (pooled.borrowCount == 0) {
+          idle.add(pooled);
+        }
+      }
+    }
+    if (!idle.isEmpty()) {
+      // Sessions owned by other threads can only be recycled from a
+      // thread that has been initialized for Notes.
+      connectorSession.getConnector().getSessionFactory().getNotesThread()
+          .sinitThread();
+      try {
+        for (PooledSession pooled : idle) {
+          destroySession(pooled);
+        }
+      } finally {
+        connectorSession.getConnector().getSessionFactory().getNotesThread()
+            .stermThread();
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  @VisibleForTesting
+  synchronized int size() {
+    return sessions.size();
+  }
+
+  private synchronized boolean isBorrowed(PooledSession pooled) {
+    return pooled.borrowCount > 0;
+  }
+
+  /**
+   * Counts a borrow of a session, unless the session is idle and the
+   * pool has been closed, since close recycles the idle sessions.
+   *
+   * @return the new borrow count, or 0 if the session can't be borrowed
+   */
+  private synchronized int acquire(PooledSession pooled) {
+    if (closed && pooled.borrowCount == 0) {
+      return 0;
+    }
+    return ++pooled.borrowCount;
+  }
+
+  /**
+   * Counts the return of a borrowed session.
+   *
+   * @return true if the session is now idle and the pool has been
+   * closed, so the session should be recycled
+   */
+  private synchronized boolean release(PooledSession pooled) {
+    if (pooled.borrowCount > 0) {
+      pooled.borrowCount--;
+    }
+    return pooled.borrowCount == 0 && closed;
+  }
+
+  private synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private boolean isUsable(PooledSession pooled) {
+    if (isClosed()) {
+      return false;
+    }
+    if (System.currentTimeMillis() - pooled.created > maxAgeMillis) {
+      LOGGER.log(Level.FINE, "Recycling pooled Notes session older than {0}ms",
+          maxAgeMillis);
+      return false;
+    }
+    try {
+      return pooled.connectorDatabase.isOpen();
+    } catch (RepositoryException e) {
+      LOGGER.log(Level.WARNING, "Pooled Notes session failed health check", e);
+      return false;
+    }
+  }
+
+  private PooledSession createSession() throws RepositoryException {
+    if (isClosed()) {
+      throw new RepositoryException("Notes session pool is closed");
+    }
+    NotesSession ns = connectorSession.createNotesSession();
+    PooledSession pooled = new PooledSession(ns);
+    try {
+      pooled.connectorDatabase = ns.getDatabase(
+          connectorSession.getServer(), connectorSession.getDatabase());
+      pooled.securityView =
+          pooled.connectorDatabase.getView(NCCONST.VIEWSECURITY);
+    } catch (RepositoryException e) {
+      pooled.recycle();
+      connectorSession.closeNotesSession(ns);
+      throw e;
+    }
+    threadSession.set(pooled);
+    synchronized (this) {
+      sessions.add(pooled);
+    }
+    LOGGER.log(Level.FINE, "Created pooled Notes session for thread {0}",
+        pooled.owner.getName());
+    recycleAbandonedSessions();
+    return pooled;
+  }
+
+  /**
+   * Recycles the sessions of threads that have exited. This thread has
+   * been initialized for Notes by creating its own session.
+   */
+  private void recycleAbandonedSessions() {
+    List<PooledSession> abandoned = new ArrayList<PooledSession>();
+    synchronized (this) {
+      for (PooledSession pooled : sessions) {
+        if (!pooled.owner.isAlive()) {
+          abandoned.add(pooled);
+        }
+      }
+    }
+    for (PooledSession pooled : abandoned) {
+      LOGGER.log(Level.FINE, "Thread {0} exited without releasing its pooled "
+          + "Notes session", pooled.owner.getName());
+      destroySession(pooled);
+    }
+  }
+
+  private void destroySession(PooledSession pooled) {
+    synchronized (this) {
+      if (!sessions.remove(pooled)) {
+        return;
+      }
+    }
+    LOGGER.log(Level.FINE, "Recycling pooled Notes session for thread {0}",
+        pooled.owner.getName());
+    pooled.recycle();
+    if (pooled.owner == Thread.currentThread()) {
+      threadSession.remove();
+      connectorSession.closeNotesSession(pooled.session);
+    } else {
+      Util.recycle(pooled.session);
+      pooled.recycledByOther = true;
+    }
+  }
+}
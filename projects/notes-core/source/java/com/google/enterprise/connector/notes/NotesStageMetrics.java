@@ -0,0 +1,95 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the metrics for one stage of the connector, published
+ * over JMX by {@link NotesConnectorMetricsMXBean}.
+ */
+public final class NotesStageMetrics {
+  private final long count;
+  private final long failures;
+  private final long items;
+  private final long countLastMinute;
+  private final long itemsLastMinute;
+  private final double meanMillis;
+  private final long maxMillis;
+  private final long[] latencyHistogram;
+
+  @ConstructorProperties({ "count", "failures", "items", "countLastMinute",
+      "itemsLastMinute", "meanMillis", "maxMillis", "latencyHistogram" })
+  public NotesStageMetrics(long count, long failures, long items,
+      long countLastMinute, long itemsLastMinute, double meanMillis,
+      long maxMillis, long[] latencyHistogram) {
+    this.count = count;
+    this.failures = failures;
+    this.items = items;
+    this.countLastMinute = countLastMinute;
+    this.itemsLastMinute = itemsLastMinute;
+    this.meanMillis = meanMillis;
+    this.maxMillis = maxMillis;
+    this.latencyHistogram = latencyHistogram.clone();
+  }
+
+  /** Gets the number of operations. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Gets the number of operations that failed with an error. */
+  public long getFailures() {
+    return failures;
+  }
+
+  /** Gets the number of items, such as documents, processed. */
+  public long getItems() {
+    return items;
+  }
+
+  /** Gets the number of operations in the last full minute. */
+  public long getCountLastMinute() {
+    return countLastMinute;
+  }
+
+  /** Gets the number of items processed in the last full minute. */
+  public long getItemsLastMinute() {
+    return itemsLastMinute;
+  }
+
+  public double getMeanMillis() {
+    return meanMillis;
+  }
+
+  public long getMaxMillis() {
+    return maxMillis;
+  }
+
+  /**
+   * Gets the number of operations in each latency bucket. The last
+   * bucket counts the operations longer than the largest bound in
+   * {@link NotesConnectorMetricsMXBean#getLatencyBucketsMillis}.
+   */
+  public long[] getLatencyHistogram() {
+    return latencyHistogram.clone();
+  }
+
+  @Override
+  public String toString() {
+    return "count: " + count + "; failures: " + failures + "; items: "
+        + items + "; mean: " + meanMillis + "ms; max: " + maxMillis + "ms";
+  }
+}
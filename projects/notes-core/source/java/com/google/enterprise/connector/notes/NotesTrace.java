@@ -0,0 +1,294 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Times the parts of an operation, such as prefetching one document,
+ * and logs the breakdown of operations that are slow.
+ *
+ * An operation is traced on the thread that performs it. The code that
+ * performs it, and the methods it calls, mark their parts as spans:
+ *
+ * <pre>
+ *   NotesTrace trace = NotesTrace.start("prefetch");
+ *   try {
+ *     trace.setSubject(notesUrl);
+ *     NotesTrace.enter("content");
+ *     ...
+ *     NotesTrace.exit();
+ *   } finally {
+ *     trace.end();
+ *   }
+ * </pre>
+ *
+ * Spans may be nested, and each span is charged only the time not
+ * spent in the spans nested in it, so the breakdown adds up to the
+ * operation's duration. Time outside of any span is reported as
+ * "other". Spans left open by an exception are closed when the
+ * operation ends. An operation started while another is being traced
+ * on the same thread becomes a span of the outer operation.
+ *
+ * Timing a span costs two clock reads, so spans are always timed. An
+ * operation that takes at least the slow operation threshold is
+ * logged as a warning; one in every sample rate of the other
+ * operations is logged at FINE to show what normal operations cost.
+ */
+final class NotesTrace {
+  private static final String CLASS_NAME = NotesTrace.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static final ThreadLocal<NotesTrace> current =
+      new ThreadLocal<NotesTrace>();
+
+  private static volatile long slowThresholdMillis =
+      NCCONST.DEFAULT_SLOW_OPERATION_THRESHOLD;
+  private static volatile int sampleRate = NCCONST.DEFAULT_TRACE_SAMPLE_RATE;
+  private static final AtomicLong operationCount = new AtomicLong();
+
+  /** The source of span times, which tests replace. */
+  @VisibleForTesting
+  interface Clock {
+    long nanoTime();
+  }
+
+  private static final Clock SYSTEM_CLOCK = new Clock() {
+      @Override
+      public long nanoTime() {
+        return System.nanoTime();
+      }
+    };
+
+  private static volatile Clock clock = SYSTEM_CLOCK;
+
+  /** An open span and the time spent in the spans nested in it. */
+  private static class Span {
+    final String name;
+    final long startNanos;
+    long nestedNanos;
+
+    Span(String name, long startNanos) {
+      this.name = name;
+      this.startNanos = startNanos;
+    }
+  }
+
+  private final String operation;
+  private final NotesTrace root;
+  private final int depth;
+  private String subject;
+  private long durationNanos;
+
+  /** The open spans of a root trace, starting with the operation. */
+  private final List<Span> stack;
+
+  /** The time charged to and the count of each span of a root trace. */
+  private final Map<String, long[]> spans;
+
+  private NotesTrace(String operation, NotesTrace root) {
+    this.operation = operation;
+    if (root == null) {
+      this.root = this;
+      this.stack = new ArrayList<Span>();
+      this.spans = new LinkedHashMap<String, long[]>();
+      stack.add(new Span(operation, clock.nanoTime()));
+    } else {
+      this.root = root;
+      this.stack = null;
+      this.spans = null;
+    }
+    this.depth = this.root.stack.size();
+  }
+
+  /**
+   * Sets the thresholds for logging operations.
+   *
+   * @param slowThresholdMillis the duration of operations that are
+   * logged as slow; 0 to not log slow operations
+   * @param sampleRate log one of every this many other operations;
+   * 0 to not log them
+   */
+  static void configure(long slowThresholdMillis, int sampleRate) {
+    NotesTrace.slowThresholdMillis = slowThresholdMillis;
+    NotesTrace.sampleRate = sampleRate;
+  }
+
+  /**
+   * Sets the clock used to time spans.
+   *
+   * @param clock the clock, or null for the system clock
+   */
+  @VisibleForTesting
+  static void setClock(Clock clock) {
+    NotesTrace.clock = (clock == null) ? SYSTEM_CLOCK : clock;
+  }
+
+  /**
+   * Starts tracing an operation on the current thread.
+   *
+   * @param operation the name of the operation
+   * @return the trace, which must be ended in a finally block
+   */
+  static NotesTrace start(String operation) {
+    NotesTrace outer = current.get();
+    if (outer != null) {
+      enter(operation);
+      return new NotesTrace(operation, outer);
+    }
+    NotesTrace trace = new NotesTrace(operation, null);
+    current.set(trace);
+    return trace;
+  }
+
+  /**
+   * Starts a span of the operation traced on the current thread, if
+   * there is one.
+   *
+   * @param span the name of the span
+   */
+  static void enter(String span) {
+    NotesTrace trace = current.get();
+    if (trace != null) {
+      // List the spans in the order they were first entered.
+      if (!trace.spans.containsKey(span)) {
+        trace.spans.put(span, new long[2]);
+      }
+      trace.stack.add(new Span(span, clock.nanoTime()));
+    }
+  }
+
+  /** Ends the innermost open span on the current thread, if any. */
+  static void exit() {
+    NotesTrace trace = current.get();
+    if (trace != null && trace.stack.size() > 1) {
+      trace.exitSpan(clock.nanoTime());
+    }
+  }
+
+  /**
+   * Sets what the operation was performed on, such as a document URL
+   * or a user name, for the log message.
+   */
+  void setSubject(String subject) {
+    this.subject = subject;
+  }
+
+  /**
+   * Ends the operation. A root operation is logged if it was slow or
+   * sampled.
+   */
+  void end() {
+    if (root != this) {
+      // Close the spans of this operation and the operation itself.
+      long now = clock.nanoTime();
+      while (root.stack.size() >= depth && root.stack.size() > 1) {
+        root.exitSpan(now);
+      }
+      return;
+    }
+    if (current.get() != this) {
+      return;
+    }
+    long now = clock.nanoTime();
+    while (stack.size() > 1) {
+      exitSpan(now);
+    }
+    Span operationSpan = stack.remove(0);
+    durationNanos = now - operationSpan.startNanos;
+    charge("other", durationNanos - operationSpan.nestedNanos);
+    current.remove();
+    log();
+  }
+
+  /** Gets the duration of an ended operation. */
+  long getDurationMillis() {
+    return durationNanos / 1000000;
+  }
+
+  /** Gets the milliseconds charged to each span of an ended operation. */
+  @VisibleForTesting
+  Map<String, Long> getSpanMillis() {
+    Map<String, Long> millis = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, long[]> entry : root.spans.entrySet()) {
+      millis.put(entry.getKey(), entry.getValue()[0] / 1000000);
+    }
+    return millis;
+  }
+
+  /** Gets the breakdown of an ended operation for logging. */
+  String getBreakdown() {
+    StringBuilder buf = new StringBuilder();
+    for (Map.Entry<String, long[]> entry : root.spans.entrySet()) {
+      if (buf.length() > 0) {
+        buf.append(", ");
+      }
+      long[] span = entry.getValue();
+      buf.append(entry.getKey()).append('=').append(span[0] / 1000000)
+          .append("ms");
+      if (span[1] > 1) {
+        buf.append(" x").append(span[1]);
+      }
+    }
+    return buf.toString();
+  }
+
+  private void exitSpan(long now) {
+    Span span = stack.remove(stack.size() - 1);
+    long elapsed = now - span.startNanos;
+    charge(span.name, elapsed - span.nestedNanos);
+    stack.get(stack.size() - 1).nestedNanos += elapsed;
+  }
+
+  private void charge(String name, long nanos) {
+    long[] span = spans.get(name);
+    if (span == null) {
+      span = new long[2];
+      spans.put(name, span);
+    }
+    span[0] += Math.max(0, nanos);
+    span[1]++;
+  }
+
+  private void log() {
+    long threshold = slowThresholdMillis;
+    long millis = getDurationMillis();
+    if (threshold > 0 && millis >= threshold) {
+      LOGGER.log(Level.WARNING, "Slow {0} took {1}ms{2}: {3}",
+          new Object[] { operation, millis, getSubjectText(),
+              getBreakdown() });
+      return;
+    }
+    int rate = sampleRate;
+    if (rate > 0 && operationCount.incrementAndGet() % rate == 0
+        && LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.log(Level.FINE, "Sampled {0} took {1}ms{2}: {3}",
+          new Object[] { operation, millis, getSubjectText(),
+              getBreakdown() });
+    }
+  }
+
+  private String getSubjectText() {
+    return (subject == null) ? "" : " for " + subject;
+  }
+}
@@ -24,6 +24,7 @@ import com.google.enterprise.connector.notes.client.NotesACLEntry;
 import com.google.enterprise.connector.notes.client.NotesDatabase;
 import com.google.enterprise.connector.notes.client.NotesDateTime;
 import com.google.enterprise.connector.notes.client.NotesDocument;
+import com.google.enterprise.connector.notes.client.NotesHandleArena;
 import com.google.enterprise.connector.notes.client.NotesName;
 import com.google.enterprise.connector.notes.client.NotesSession;
 import com.google.enterprise.connector.notes.client.NotesView;
@@ -42,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -49,8 +51,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * Creates a cache of user, group, and role data.
@@ -128,6 +136,13 @@ class NotesUserGroupManager {
       NotesUserGroupManager.class.getName();
   private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
+  /** Matches a formula that is a single item name, such as ShortName. */
+  private static final Pattern ITEM_NAME_PATTERN =
+      Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+  /** The number of users or groups removed in each transaction. */
+  private static final int DELETE_BATCH_SIZE = 500;
+
   private final NotesConnectorSession connectorSession;
   private NotesSession notesSession;
   private NotesDatabase connectorDatabase;
@@ -139,6 +154,67 @@ class NotesUserGroupManager {
   private int originalTransactionIsolation;
   private final NotesDomainNames notesDomainNames;
   private Connection conn;
+
+  /**
+   * The group ids resolved for each OU during updateUsers, keyed by the
+   * lower-cased OU or "*". Most people share a handful of OUs, so this
+   * avoids repeating the H2 and ($ServerAccess) lookups for each person.
+   * Null outside of updateUsers.
+   */
+  private Map<String, Set<Long>> ouGroupsMemo;
+
+  /**
+   * Prepared statements reused while the connection is held, keyed by
+   * SQL. They are closed when the connection is released.
+   */
+  private final Map<String, PreparedStatement> statements =
+      new HashMap<String, PreparedStatement>();
+  private Connection statementConnection;
+
+  /**
+   * Group ids and user records keyed by lower-cased name. Each is
+   * loaded with one query the first time it is needed while the
+   * connection is held, and dropped whenever cached rows may have been
+   * removed or a transaction is rolled back.
+   */
+  private Map<String, Long> groupIdCache;
+  private Map<String, CachedUser> userCache;
+
+  /** Set to stop the cache update in progress. */
+  private volatile boolean updateCancelled = false;
+
+  /**
+   * The time of the last cache update read from or saved to the
+   * system configuration document, or 0 if it is not known. Used to
+   * check the update interval without opening a Notes session.
+   */
+  private volatile long lastCacheUpdateMillis = 0;
+
+  /**
+   * The passes of a cache update that are checkpointed. The domain
+   * cache pass isn't, since the domain cache is only held in memory.
+   * The deletion passes compare the cache with the whole view, so they
+   * are only checkpointed as started, and are always read from the
+   * first entry; see {@link #isResumable}.
+   */
+  @VisibleForTesting static final int PASS_GROUPS = 1;
+  @VisibleForTesting static final int PASS_USERS = 2;
+  @VisibleForTesting static final int PASS_USER_DELETIONS = 4;
+  @VisibleForTesting static final int PASS_GROUP_DELETIONS = 5;
+
+  /**
+   * The progress of the cache update in progress, or null if the
+   * current pass isn't checkpointed.
+   */
+  private Checkpoint checkpoint;
+  private int entriesSinceCheckpoint;
+
+  /** Set when a pass failed to read all of the directory entries. */
+  private boolean directoryReadFailed;
+
+  /** True once the domain cache has been built by this process. */
+  private boolean domainNamesInitialized = false;
+
   @VisibleForTesting final String userTableName;
   @VisibleForTesting final String groupTableName;
   @VisibleForTesting final String roleTableName;
@@ -146,6 +222,7 @@ class NotesUserGroupManager {
   @VisibleForTesting final String userRolesTableName;
   @VisibleForTesting final String groupRolesTableName;
   @VisibleForTesting final String groupChildrenTableName;
+  @VisibleForTesting final String checkpointTableName;
 
   NotesUserGroupManager(NotesConnectorSession connectorSession)
       throws RepositoryException {
@@ -166,6 +243,8 @@ class NotesUserGroupManager {
         jdbcDatabase.makeTableName("grouproles_", connectorName);
     groupChildrenTableName =
         jdbcDatabase.makeTableName("groupchildren_", connectorName);
+    checkpointTableName =
+        jdbcDatabase.makeTableName("cachecheckpoint_", connectorName);
     if (LOGGER.isLoggable(Level.FINEST)) {
       LOGGER.log(Level.FINEST, "Tables:"
           + "\nuser: " + userTableName
@@ -174,7 +253,8 @@ class NotesUserGroupManager {
           + "\nuserGroups: " + userGroupsTableName
           + "\nuserRoles: " + userRolesTableName
           + "\ngroupRoles: " + groupRolesTableName
-          + "\ngroupChildren: " + groupChildrenTableName);
+          + "\ngroupChildren: " + groupChildrenTableName
+          + "\ncheckpoint: " + checkpointTableName);
     }
     initializeUserCache();
   }
@@ -537,48 +617,137 @@ class NotesUserGroupManager {
   synchronized void updateUsersGroups(boolean force) {
     final String METHOD = "updateUsersGroups";
     LOGGER.entering(CLASS_NAME, METHOD);
+    boolean isUpdating = false;
+    boolean isUpdated = false;
+    long timeStart = System.currentTimeMillis();
+    updateCancelled = false;
+    directoryReadFailed = false;
     try {
       LOGGER.log(Level.FINE, "Forcing cache update: {0}", force);
       if (!setUpResources(force)) {
         return;
       }
+      isUpdating = true;
+
+      // A single directory thread streams the directory views. More
+      // threads need the UNIDs up front to partition them.
+      boolean stream = connectorSession.getDirectoryThreads() <= 1;
+
+      // An earlier update that failed or was cancelled resumes after
+      // the last entry it wrote.
+      Checkpoint resume = loadCheckpoint();
+      if (resume != null) {
+        LOGGER.log(Level.INFO, "Resuming user/group cache update at pass "
+            + "{0} after entry [{1}]", new Object[] { resume.pass,
+                resume.lastUnid });
+      }
 
       // Pass 0 - Reset domain cache
-      List<String> userUnids =
-          getViewUnids(directoryDatabase, NCCONST.DIRVIEW_VIMUSERS);
-      updateNotesDomainNames(userUnids);
+      List<String> userUnids = stream ? null
+          : getViewUnids(directoryDatabase, NCCONST.DIRVIEW_VIMUSERS);
+      if (resume == null || !domainNamesInitialized) {
+        updateNotesDomainNames(userUnids);
+        checkPassCompleted();
+        domainNamesInitialized = true;
+      }
 
       // Pass 1 - Update groups
-      List<String> groupUnids =
-          getViewUnids(directoryDatabase, NCCONST.DIRVIEW_VIMGROUPS);
-      updateGroups(groupUnids);
+      if (startPass(PASS_GROUPS, resume)) {
+        updateGroups(stream ? null
+            : getViewUnids(directoryDatabase, NCCONST.DIRVIEW_VIMGROUPS));
+        checkPassCompleted();
+      }
 
       // Pass 2 - Update people
-      updateUsers(userUnids);
+      if (startPass(PASS_USERS, resume)) {
+        updateUsers(userUnids);
+        checkPassCompleted();
+      }
 
       // Pass 3 - Update roles
       // Role update is moved from the maintenance thread to the traversal
       // thread so that the update only occurs when the database ACL is updated.
 
       // Pass 4 - Delete any users that no longer exist
-      checkUserDeletions();
+      if (startPass(PASS_USER_DELETIONS, resume)) {
+        checkUserDeletions();
+        checkPassCompleted();
+      }
 
       // Pass 5 - Delete any groups that no longer exist
-      checkGroupDeletions();
+      if (startPass(PASS_GROUP_DELETIONS, resume)) {
+        checkGroupDeletions();
+        checkPassCompleted();
+      }
 
+      clearCheckpoint();
       setLastCacheUpdate();
       setCacheInitialized();
+      isUpdated = true;
+    } catch (UpdateCancelledException e) {
+      LOGGER.log(Level.WARNING, e.getMessage());
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, "Failure updating user/group cache", e);
     } finally {
+      checkpoint = null;
+      if (isUpdating) {
+        // Cached decisions may depend on the old group memberships.
+        connectorSession.getAuthorizationCache().invalidateAll();
+        connectorSession.getConnector().getMetrics().record(
+            NotesConnectorMetrics.Stage.DIRECTORY_REFRESH, timeStart,
+            isUpdated);
+      }
       releaseResources();
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
 
+  /** Thrown to stop a cache update that was cancelled. */
+  private static class UpdateCancelledException extends RepositoryException {
+    UpdateCancelledException() {
+      super("User/group cache update was cancelled");
+    }
+  }
+
+  /**
+   * Cancels the cache update in progress, if any. The update stops
+   * after the directory entry it is reading, and the records already
+   * written are kept.
+   */
+  void cancelUpdate() {
+    LOGGER.log(Level.INFO, "Cancelling user/group cache update");
+    updateCancelled = true;
+  }
+
+  private boolean isUpdateCancelled() {
+    return updateCancelled || connectorSession.getConnector().getShutdown();
+  }
+
+  private void checkCancelled() throws UpdateCancelledException {
+    if (isUpdateCancelled()) {
+      throw new UpdateCancelledException();
+    }
+  }
+
+  /**
+   * Stops the cache update if it was cancelled or if the pass failed
+   * to read the directory, so that the next update resumes from the
+   * last checkpoint rather than completing with a partial pass.
+   */
+  private void checkPassCompleted() throws RepositoryException {
+    checkCancelled();
+    if (directoryReadFailed) {
+      throw new RepositoryException("Failed to read the directory during "
+          + "pass " + (checkpoint == null ? 0 : checkpoint.pass));
+    }
+  }
+
   @VisibleForTesting
   synchronized boolean setUpResources(boolean force)
       throws RepositoryException {
+    if (!force && isUpdateIntervalPending()) {
+      return false;
+    }
     notesSession = connectorSession.createNotesSession();
     connectorDatabase = notesSession.getDatabase(
         connectorSession.getServer(), connectorSession.getDatabase());
@@ -591,6 +760,8 @@ class NotesUserGroupManager {
     peopleGroupsView = directoryDatabase.getView(
         NCCONST.DIRVIEW_PEOPLEGROUPFLAT);
     peopleGroupsView.refresh();
+    closeStatements();
+    resetIdCaches();
     try {
       connectionPool = connectorSession.getConnector().getJdbcDatabase()
           .getConnectionPool();
@@ -606,6 +777,8 @@ class NotesUserGroupManager {
   }
 
   synchronized void releaseResources() {
+    closeStatements();
+    resetIdCaches();
     Util.recycle(peopleGroupsView);
     peopleGroupsView = null;
     Util.recycle(directoryDatabase);
@@ -638,306 +811,892 @@ class NotesUserGroupManager {
     return notesSession;
   }
   
-  // Update groups
+  // Read the directory
 
-  /**
-   * Loop over the groups in NCCONST.DIRVIEW_PEOPLEGROUPFLAT. For
-   * each group, create a group record and compute nested group
-   * membership (all groups which are contained within this group
-   * via 0 or more intermediate groups).
-   */
-  @VisibleForTesting
-  void updateGroups(List<String> groupUnids) {
-    final String METHOD = "updateGroups";
-    LOGGER.entering(CLASS_NAME, METHOD);
+  /** A group read from the directory. */
+  private static class GroupRecord {
+    final String groupName;
+    final Set<String> nestedGroups;
 
-    long timeStart = System.currentTimeMillis();
-    int count = 0;
-    for (String unid : groupUnids) {
-      if (count++ % NCCONST.GC_INVOCATION_INTERVAL == 0) {
-        Util.invokeGC();
-      }
-      NotesDocument groupDoc = getDocumentByUnid(directoryDatabase, unid);
-      if (groupDoc == null) {
-        LOGGER.log(Level.FINEST, "Group document [{0}] is not found", unid);
-      } else {
-        String groupName = null;
-        try {
-          groupName = groupDoc.getItemValueString(NCCONST.GITM_LISTNAME);
-          if (Strings.isNullOrEmpty(groupName)) {
-            continue;
-          }
-          // Only process groups
-          if (!isAccessControlGroup(groupDoc)) {
-            LOGGER.log(Level.FINEST,
-                "Not a group/access control group: '{0}'", groupName);
-            continue;
-          }
-          updateGroup(groupDoc, groupName);
-        } catch (RepositoryException e) {
-          LOGGER.log(Level.WARNING, "Failed to update group cache"
-              + (groupName != null ? " for " + groupName : ""), e);
-        } finally {
-          Util.recycle(groupDoc);
-        }
-      }
+    GroupRecord(String groupName, Set<String> nestedGroups) {
+      this.groupName = groupName;
+      this.nestedGroups = nestedGroups;
     }
-    long timeFinish = System.currentTimeMillis();
-    LOGGER.log(Level.FINE, "Update groups: {0}ms", timeFinish - timeStart);
   }
 
-  private void updateGroup(NotesDocument groupDoc, String groupName) {
-    LOGGER.log(Level.FINEST, "Processing group {0}", groupName);
-    // Update the group record and the parent/descendent group records.
-    LinkedHashSet<String> processedGroups = new LinkedHashSet<String>();
-    LinkedHashSet<String> nestedGroups = new LinkedHashSet<String>();
-    try {
-      // Find the nested groups.
-      getNestedGroups(groupDoc, groupName, processedGroups, nestedGroups);
-      LOGGER.log(Level.FINEST, "Nested groups for {0} are: {1}",
-          new Object[] { groupName, nestedGroups });
-    } catch (Exception e) {
-      LOGGER.log(Level.WARNING,
-          "Failed to find nested group information for group: " + groupName
-          + "; not updating", e);
-      return;
+  /** A user record in the connector database. */
+  private static class CachedUser {
+    final long userId;
+    String gsaName;
+
+    CachedUser(long userId, String gsaName) {
+      this.userId = userId;
+      this.gsaName = gsaName;
     }
-    try {
-      conn.setAutoCommit(false);
-      long groupid = verifyGroupExists(groupName, true);
-      if (groupid != -1L) {
-        // Delete previous parent/child records for this group.
-        PreparedStatement pstmt = conn.prepareStatement(
-            "delete from " + groupChildrenTableName
-            + " where parentgroupid = ?");
-        pstmt.setLong(1, groupid);
-        pstmt.executeUpdate();
+  }
 
-        // Add new parent/child records for this group.
-        if (nestedGroups.size() > 0) {
-          pstmt = conn.prepareStatement("insert into "
-              + groupChildrenTableName + " (parentgroupid, childgroupid)"
-              + " values (?, ?)");
-          pstmt.setLong(1, groupid);
-          for (String childGroupName : nestedGroups) {
-            long childGroupId = verifyGroupExists(childGroupName, true);
-            if (childGroupId == -1L) {
-              throw new RepositoryException("Missing group record for "
-                  + "child group: " + childGroupName);
-            }
-            pstmt.setLong(2, childGroupId);
-            pstmt.executeUpdate();
+  /** The role ids of users or groups in one database. */
+  private static class RoleMembers {
+    private final Map<Long, Set<Long>> roleIds =
+        new HashMap<Long, Set<Long>>();
+
+    void add(long memberId, long roleId) {
+      Set<Long> memberRoleIds = roleIds.get(memberId);
+      if (memberRoleIds == null) {
+        memberRoleIds = new HashSet<Long>();
+        roleIds.put(memberId, memberRoleIds);
+      }
+      memberRoleIds.add(roleId);
+    }
+
+    boolean contains(long memberId, long roleId) {
+      Set<Long> memberRoleIds = roleIds.get(memberId);
+      return memberRoleIds != null && memberRoleIds.contains(roleId);
+    }
+
+    /** Gets the (member id, role id) pairs that are not in other. */
+    List<long[]> minus(RoleMembers other) {
+      List<long[]> pairs = new ArrayList<long[]>();
+      for (Map.Entry<Long, Set<Long>> entry : roleIds.entrySet()) {
+        long memberId = entry.getKey();
+        for (long roleId : entry.getValue()) {
+          if (!other.contains(memberId, roleId)) {
+            pairs.add(new long[] { memberId, roleId });
           }
         }
-        conn.commit();
       }
-    } catch (Exception e) {
-      LOGGER.log(Level.WARNING, "Failed to update group information for group: "
-          + groupName + "; not updating", e);
-      try {
-        conn.rollback();
-      } catch (SQLException e1) {
-        LOGGER.log(Level.WARNING, "Rollback failed", e1);
+      return pairs;
+    }
+
+    Set<Long> getRoleIds() {
+      Set<Long> all = new HashSet<Long>();
+      for (Set<Long> memberRoleIds : roleIds.values()) {
+        all.addAll(memberRoleIds);
       }
-    } finally {
-      try {
-        conn.setAutoCommit(true);
-      } catch (SQLException e1) {
-        LOGGER.log(Level.WARNING, "AutoCommit reset failed", e1);
+      return all;
+    }
+
+    int size() {
+      int size = 0;
+      for (Set<Long> memberRoleIds : roleIds.values()) {
+        size += memberRoleIds.size();
       }
+      return size;
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private void getNestedGroups(NotesDocument groupDoc, String groupName,
-      Set<String> processedGroups, Set<String> nestedGroups)
-      throws RepositoryException {
-    final String METHOD = "getNestedGroups";
-    LOGGER.entering(CLASS_NAME, METHOD);
+  /** A selected person read from the directory. */
+  private static class PersonRecord {
+    final String notesName;
+    final String pvi;
 
-    // Check for already processed groups to avoid cycles.
-    if (!processedGroups.add(groupName.toLowerCase())) {
-      return;
-    }
-    Vector<String> groupMembers = groupDoc.getItemValue(NCCONST.GITM_MEMBERS);
-    for (String member : groupMembers) {
-      // Check for wildcard configuration in group membership
-      if (member.startsWith("*/")) {
-        nestedGroups.add(member.toLowerCase());
-        LinkedHashMap<String, Long> subdomains = 
-            notesDomainNames.getSubDomainNames(member.toLowerCase().substring(1));
-        nestedGroups.addAll(subdomains.keySet());
-        continue;
-      }
-      NotesDocument memberDoc = peopleGroupsView.getDocumentByKey(member);
-      if (memberDoc == null) {
-        continue;
-      }
-      try {
-        if (!isAccessControlGroup(memberDoc)) {
-          continue;
-        }
-        nestedGroups.add(member.toLowerCase());
-        getNestedGroups(memberDoc, member, processedGroups, nestedGroups);
-      } finally {
-        Util.recycle(memberDoc);
-      }
+    PersonRecord(String notesName, String pvi) {
+      this.notesName = notesName;
+      this.pvi = pvi;
     }
-    LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
-  /**
-   * Store all wildcard domains in H2 and build a domain cache.
-   */
-  private void updateNotesDomainNames(List<String> userUnids) {
-    final String METHOD = "updateNotesDomainNames";
-    LOGGER.entering(CLASS_NAME, METHOD);
+  private interface DirectoryTask<T> {
+    /** Reads a directory entry, returning null to skip it. */
+    T read(DirectoryReader reader, DirectoryEntry entry);
 
-    long timeStart = System.currentTimeMillis();
+    /**
+     * Writes a record to the connector database. Records are written
+     * on the refresh thread in directory order.
+     */
+    void write(T record);
+  }
 
-    int count = 0;
-    for (String unid : userUnids) {
-      if (count++ % NCCONST.GC_INVOCATION_INTERVAL == 0) {
-        Util.invokeGC();
-      }
+  /** The column value indexes of the items displayed in a view. */
+  private static class DirectoryColumns {
+    private final NotesView view;
+    private final Map<String, Integer> indexes =
+        new HashMap<String, Integer>();
 
-      NotesDocument doc = getDocumentByUnid(directoryDatabase, unid);
-      if (doc == null) {
-        LOGGER.log(Level.FINEST, "Document [{0}] is not found in {1} database",
-            new Object[] {unid, getDatabaseFilePath(directoryDatabase)});
-      } else {
-        try {
-          Vector fullNames = doc.getItemValue(NCCONST.PITM_FULLNAME);
-          if (fullNames.size() == 0) {
-            continue;
-          }
-          // Create domains/OUs as groups in H2 if not existed and 
-          // update domain cache
-          List<String> canonicalOUs = notesDomainNames
-              .computeExpandedWildcardDomainNames((String) fullNames.get(0));
-          verifyMultiDomainsExist(canonicalOUs, true);
-        } catch (RepositoryException re) {
-          LOGGER.log(Level.WARNING, 
-              "Failed to update Notes domain names for person document ["
-              + unid + "]", re);
-        } finally {
-          Util.recycle(doc);
-        }
-      }
+    DirectoryColumns(NotesView view) {
+      this.view = view;
     }
 
-    long timeFinish = System.currentTimeMillis();
-    LOGGER.log(Level.FINEST, "Update Notes domain cache [{0}ms]: {1}",
-        new Object[] {(timeFinish - timeStart), notesDomainNames});
-    LOGGER.exiting(CLASS_NAME, METHOD);
-  }
-
-  /*
-   * Helper method to lookup document by UNID.
-   */
-  private NotesDocument getDocumentByUnid(NotesDatabase db, String unid) {
-    try {
-      return db.getDocumentByUNID(unid);
-    } catch (RepositoryException e) {
-      LOGGER.warning("Cannot find document [" + unid + "] in "
-          + getDatabaseFilePath(db) + " database");
-      return null;
+    int getIndex(String itemName) throws RepositoryException {
+      Integer index = indexes.get(itemName);
+      if (index == null) {
+        index = view.getColumnValuesIndex(itemName);
+        indexes.put(itemName, index);
+      }
+      return index;
     }
   }
 
-  /*
-   * Helper method to lookup database's file path.
+  /**
+   * A directory document being read. Items displayed in a column of
+   * the view are read from the view entry's column values; other items
+   * are read from the document, which is opened the first time it is
+   * needed.
    */
-  private String getDatabaseFilePath(NotesDatabase db) {
-    try {
-      return db.getFilePath();
-    } catch (RepositoryException ex) {
-      LOGGER.log(Level.WARNING, "Unable to retrieve database's file path", ex);
-      return null;
+  private static class DirectoryEntry {
+    private final NotesViewEntry viewEntry;
+    private final DirectoryColumns columns;
+    private Vector<?> columnValues;
+    private NotesDocument document;
+
+    /** Creates an entry that reads the items from a view entry. */
+    DirectoryEntry(NotesViewEntry viewEntry, DirectoryColumns columns) {
+      this.viewEntry = viewEntry;
+      this.columns = columns;
     }
-  }
 
-  public Set<String> getSubDomains(String domainName) {
-    return notesDomainNames.getSubDomainNames(domainName).keySet();
-  }
+    /** Creates an entry that reads the items from an open document. */
+    DirectoryEntry(NotesDocument document) {
+      this.viewEntry = null;
+      this.columns = null;
+      this.document = document;
+    }
 
-  private long verifyDomainExists(String ou, boolean createIfNotExists) {
-    final String METHOD = "verifyDomainExists";
-    LOGGER.entering(CLASS_NAME, METHOD);
-    Long groupId = this.notesDomainNames.get(ou);
-    if (groupId instanceof Long) {
-      LOGGER.log(Level.FINE, "Found {0} domain in cache [ID# {1}]",
-          new Object[] { ou, groupId });
-      return groupId.longValue();
+    boolean hasColumn(String itemName) throws RepositoryException {
+      return columns != null && columns.getIndex(itemName) != -1;
     }
-    long id = verifyGroupExists(ou, createIfNotExists);
-    if (id != -1L) {
-      LOGGER.log(Level.FINE, "Verify {0} domain in database [ID# {1}]",
-          new Object[] { ou, id });
-      this.notesDomainNames.add(ou, new Long(id));
+
+    NotesDocument getDocument() throws RepositoryException {
+      if (document == null) {
+        document = viewEntry.getDocument();
+        if (document == null) {
+          throw new RepositoryException(
+              "View entry has no directory document");
+        }
+      }
+      return document;
     }
-    LOGGER.exiting(CLASS_NAME, METHOD);
-    return id;
-  }
 
-  private void verifyMultiDomainsExist(List<String> personOUs, 
-      boolean createIfNotExists) throws RepositoryException {
-    final String METHOD = "verifyDomainsExists";
-    LOGGER.entering(CLASS_NAME, METHOD);
+    Vector<?> getItemValue(String itemName) throws RepositoryException {
+      if (!hasColumn(itemName)) {
+        return getDocument().getItemValue(itemName);
+      }
+      // A multi-valued item is returned as a Vector, and an empty
+      // or missing item as an empty string.
+      Object value = getColumnValue(itemName);
+      if (value instanceof Vector) {
+        return (Vector<?>) value;
+      }
+      Vector<Object> values = new Vector<Object>();
+      if (value != null && value.toString().length() > 0) {
+        values.add(value);
+      }
+      return values;
+    }
 
-    boolean origAutoCommit = true;
-    // Verify database connection which is used within verifyGroupExists
-    try {
-      if (conn == null) {
-        connectionPool = connectorSession.getConnector().getJdbcDatabase()
-            .getConnectionPool();
-        conn = connectionPool.getConnection();
+    String getItemValueString(String itemName) throws RepositoryException {
+      if (!hasColumn(itemName)) {
+        return getDocument().getItemValueString(itemName);
       }
-      origAutoCommit = conn.getAutoCommit();
-      conn.setAutoCommit(true);
-    } catch (SQLException e) {
-      throw new RepositoryException("Failed to connect to H2 database", e);
+      Object value = getColumnValue(itemName);
+      if (value instanceof Vector) {
+        Vector<?> values = (Vector<?>) value;
+        value = values.isEmpty() ? null : values.firstElement();
+      }
+      return (value == null) ? "" : value.toString();
     }
-    // Loop thru each person's OU and add to notesDomainNames cache
-    for (String ou : personOUs) {
-      verifyDomainExists(ou, createIfNotExists);
+
+    private Object getColumnValue(String itemName)
+        throws RepositoryException {
+      if (columnValues == null) {
+        columnValues = viewEntry.getColumnValues();
+      }
+      return columnValues.elementAt(columns.getIndex(itemName));
     }
-    // Release connection
-    try {
-      conn.setAutoCommit(origAutoCommit);
-    } catch (SQLException e) {
-      LOGGER.log(Level.FINE, "Failed to reset original auto commit");
-    } finally {
-      connectionPool.releaseConnection(conn);
+
+    void recycle() {
+      Util.recycle(document);
     }
-    LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
-  private long verifyGroupExists(String groupName,
+  /**
+   * Reads directory entries with one Notes session. The connector
+   * database is only written to by the refresh thread, so a reader
+   * only touches Notes and the shared domain cache.
+   */
+  private class DirectoryReader {
+    private final NotesSession session;
+    private final NotesDatabase directory;
+    private final NotesView peopleGroupsView;
+
+    DirectoryReader(NotesSession session, NotesDatabase directory,
+        NotesView peopleGroupsView) {
+      this.session = session;
+      this.directory = directory;
+      this.peopleGroupsView = peopleGroupsView;
+    }
+
+    /**
+     * Opens and reads the documents with the given UNIDs. The Notes
+     * objects created while reading each document are recycled before
+     * the next one is read.
+     */
+    <T> List<T> read(List<String> unids, DirectoryTask<T> task) {
+      List<T> results = new ArrayList<T>(unids.size());
+      for (String unid : unids) {
+        if (isUpdateCancelled()) {
+          break;
+        }
+        NotesHandleArena arena = NotesHandleArena.open();
+        try {
+          NotesDocument doc = getDocumentByUnid(directory, unid);
+          if (doc == null) {
+            LOGGER.log(Level.FINEST, "Document [{0}] is not found in {1}",
+                new Object[] { unid, getDatabaseFilePath(directory) });
+            continue;
+          }
+          DirectoryEntry entry = new DirectoryEntry(doc);
+          try {
+            T result = task.read(this, entry);
+            if (result != null) {
+              results.add(result);
+            }
+          } finally {
+            entry.recycle();
+          }
+        } finally {
+          arena.close();
+        }
+      }
+      return results;
+    }
+
+    /**
+     * Reads the entries of a directory view in order, writing each
+     * record as soon as it is read.
+     *
+     * @return the number of entries read
+     */
+    <T> int stream(String viewName, DirectoryTask<T> task, String resumeUnid)
+        throws RepositoryException {
+      NotesView view = null;
+      NotesViewNavigator viewNav = null;
+      NotesViewEntry viewEntry = null;
+      int count = 0;
+      try {
+        view = directory.getView(viewName);
+        view.refresh();
+        DirectoryColumns columns = new DirectoryColumns(view);
+        viewNav = view.createViewNav();
+        viewEntry = viewNav.getFirst();
+        if (resumeUnid != null) {
+          viewEntry = skipTo(viewNav, viewEntry, resumeUnid);
+        }
+        while (viewEntry != null && !isUpdateCancelled()) {
+          count++;
+          // The next entry is created outside the arena, since it
+          // must outlive the objects used to read this one.
+          NotesHandleArena arena = NotesHandleArena.open();
+          DirectoryEntry entry = new DirectoryEntry(viewEntry, columns);
+          try {
+            T result = task.read(this, entry);
+            if (result != null) {
+              task.write(result);
+            }
+          } finally {
+            entry.recycle();
+            arena.close();
+          }
+          if (checkpoint != null && isResumable(checkpoint.pass)
+              && ++entriesSinceCheckpoint
+              >= NCCONST.DIRECTORY_CHECKPOINT_INTERVAL) {
+            saveCheckpoint(checkpoint.pass, viewEntry.getUniversalID());
+          }
+          NotesViewEntry nextEntry = viewNav.getNext();
+          Util.recycle(viewEntry);
+          viewEntry = nextEntry;
+        }
+      } finally {
+        Util.recycle(viewEntry);
+        Util.recycle(viewNav);
+        Util.recycle(view);
+      }
+      return count;
+    }
+
+    /**
+     * Skips the view entries up to and including the entry with the
+     * given UNID. If the entry is no longer in the view, the view is
+     * read from the start.
+     *
+     * @return the entry after the given one, or the first entry
+     */
+    private NotesViewEntry skipTo(NotesViewNavigator viewNav,
+        NotesViewEntry firstEntry, String unid) throws RepositoryException {
+      NotesViewEntry viewEntry = firstEntry;
+      int skipped = 0;
+      while (viewEntry != null && !isUpdateCancelled()) {
+        boolean found = unid.equals(viewEntry.getUniversalID());
+        NotesViewEntry nextEntry = viewNav.getNext();
+        Util.recycle(viewEntry);
+        viewEntry = nextEntry;
+        skipped++;
+        if (found) {
+          LOGGER.log(Level.FINE, "Skipped {0} entries to resume after [{1}]",
+              new Object[] { skipped, unid });
+          return viewEntry;
+        }
+      }
+      Util.recycle(viewEntry);
+      LOGGER.log(Level.FINE, "Resume entry [{0}] is not in the view; "
+          + "reading all entries", unid);
+      return viewNav.getFirst();
+    }
+
+    /** Reads the first FullName of a person. */
+    String readFullName(DirectoryEntry entry) {
+      try {
+        Vector<?> fullNames = entry.getItemValue(NCCONST.PITM_FULLNAME);
+        if (fullNames.size() == 0) {
+          return null;
+        }
+        return fullNames.firstElement().toString();
+      } catch (RepositoryException e) {
+        LOGGER.log(Level.WARNING,
+            "Failed to read the name from a person document", e);
+        return null;
+      }
+    }
+
+    /**
+     * Reads an access control group and computes its nested group
+     * membership (all groups which are contained within this group
+     * via 0 or more intermediate groups).
+     */
+    GroupRecord readGroup(DirectoryEntry entry) {
+      String groupName = null;
+      try {
+        groupName = entry.getItemValueString(NCCONST.GITM_LISTNAME);
+        if (Strings.isNullOrEmpty(groupName)) {
+          return null;
+        }
+        // Only process groups
+        if (!isAccessControlGroup(entry.getItemValueString(NCCONST.ITMFORM),
+                entry.getItemValueString(NCCONST.GITM_GROUPTYPE))) {
+          LOGGER.log(Level.FINEST,
+              "Not a group/access control group: '{0}'", groupName);
+          return null;
+        }
+        LOGGER.log(Level.FINEST, "Processing group {0}", groupName);
+        LinkedHashSet<String> processedGroups = new LinkedHashSet<String>();
+        LinkedHashSet<String> nestedGroups = new LinkedHashSet<String>();
+        try {
+          // Find the nested groups.
+          getNestedGroups(peopleGroupsView, groupName,
+              entry.getItemValue(NCCONST.GITM_MEMBERS), processedGroups,
+              nestedGroups);
+          LOGGER.log(Level.FINEST, "Nested groups for {0} are: {1}",
+              new Object[] { groupName, nestedGroups });
+        } catch (Exception e) {
+          LOGGER.log(Level.WARNING,
+              "Failed to find nested group information for group: "
+              + groupName + "; not updating", e);
+          return null;
+        }
+        return new GroupRecord(groupName, nestedGroups);
+      } catch (RepositoryException e) {
+        LOGGER.log(Level.WARNING, "Failed to update group cache"
+            + (groupName != null ? " for " + groupName : ""), e);
+        return null;
+      }
+    }
+
+    /**
+     * Reads the canonical, lower-cased Notes name of a person.
+     *
+     * @return the Notes name, or null if the entry isn't a person
+     */
+    String readNotesName(DirectoryEntry entry) throws RepositoryException {
+      if (!entry.getItemValueString(NCCONST.ITMFORM).contentEquals(
+              NCCONST.DIRFORM_PERSON)) {
+        return null;
+      }
+      // The first value in this field is the Notes name; other
+      // names may be present.
+      Vector<?> fullNames = entry.getItemValue(NCCONST.PITM_FULLNAME);
+      if (fullNames.size() == 0) {
+        return null;
+      }
+      return session.createName(fullNames.firstElement().toString())
+          .getCanonical().toLowerCase();
+    }
+
+    /**
+     * Reads the Notes name of a person who meets the configured
+     * selection formula. A person whose selection can't be evaluated
+     * is treated as selected, so that they are not deleted.
+     *
+     * @return the Notes name, or null if the entry isn't a selected
+     * person
+     * @throws RepositoryException if the name can't be read
+     */
+    String readSelectedNotesName(DirectoryEntry entry,
+        String userSelectionFormula) throws RepositoryException {
+      String notesName = readNotesName(entry);
+      if (notesName == null) {
+        return null;
+      }
+      try {
+        if (!isSelected(entry, userSelectionFormula)) {
+          LOGGER.log(Level.FINEST, "User not selected: {0}", notesName);
+          return null;
+        }
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING,
+            "Failure checking user deletion: " + notesName, e);
+      }
+      return notesName;
+    }
+
+    /**
+     * Reads a person, constructs their GSA user name, and verifies
+     * that they should be included using the configured selection
+     * formula. The person document is only opened for items and
+     * formulas that can't be read from the view's columns.
+     */
+    PersonRecord readPerson(DirectoryEntry entry, String userSelectionFormula,
+        String userNameFormula) {
+      String notesName = null;
+      try {
+        notesName = readNotesName(entry);
+        if (notesName == null) {
+          return null;
+        }
+        LOGGER.log(Level.FINEST, "Processing user: {0}", notesName);
+        NotesCredentialCache credentialCache =
+            connectorSession.getCredentialCache();
+        if (credentialCache.contains(notesName)) {
+          credentialCache.checkHttpPassword(notesName,
+              entry.getItemValueString(NCCONST.PITM_HTTPPASSWORD));
+        }
+        // Get their PVI. A formula that is just an item name can be
+        // read from a column.
+        String pvi;
+        if (isItemName(userNameFormula) && entry.hasColumn(userNameFormula)) {
+          pvi = entry.getItemValueString(userNameFormula);
+        } else {
+          pvi = evaluatePvi(session, userNameFormula, entry.getDocument());
+        }
+        if (0 == pvi.length()) {
+          LOGGER.log(Level.WARNING,
+              "Could not evaluate PVI username for: {0}", notesName);
+          return null;
+        }
+        LOGGER.log(Level.FINEST, "PVI: {0}", pvi);
+        // Does this person match the selection formula?
+        if (!isSelected(entry, userSelectionFormula)) {
+          LOGGER.log(Level.FINEST, "User not selected: {0}", notesName);
+          return null;
+        }
+        return new PersonRecord(notesName, pvi);
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, "Failed to update user cache"
+            + (notesName != null ? " for " + notesName : ""), e);
+        return null;
+      }
+    }
+
+    /**
+     * Checks a person against the selection formula. The default
+     * formula only checks the form, which the directory view has
+     * already done, so the person document is not opened for it.
+     */
+    private boolean isSelected(DirectoryEntry entry,
+        String userSelectionFormula) throws RepositoryException {
+      return NCCONST.DEFAULT_USERSELECTIONFORMULA.equals(
+          userSelectionFormula.trim())
+          || checkPersonSelectionFormula(session, userSelectionFormula,
+              entry.getDocument());
+    }
+  }
+
+  /**
+   * Reads and writes directory entries. If no UNIDs are given, the
+   * view is streamed with a view navigator on this thread, taking
+   * values from the view's columns where possible, and each record is
+   * written as it is read. Otherwise the documents are read with
+   * {@link #readDirectory} and written in the order of the UNIDs.
+   *
+   * @param viewName the directory view to stream
+   * @param unids the UNIDs of the documents to read, or null
+   * @param task the task to read and write each entry
+   */
+  private <T> void processDirectory(String viewName, List<String> unids,
+      DirectoryTask<T> task) throws RepositoryException {
+    String resumeUnid = (checkpoint == null || !isResumable(checkpoint.pass))
+        ? null : checkpoint.lastUnid;
+    try {
+      if (unids == null) {
+        long timeStart = System.currentTimeMillis();
+        int count = new DirectoryReader(notesSession, directoryDatabase,
+            peopleGroupsView).stream(viewName, task, resumeUnid);
+        LOGGER.log(Level.FINEST, "Read {0} entries from {1} view: {2}ms",
+            new Object[] { count, viewName,
+                (System.currentTimeMillis() - timeStart) });
+        checkCancelled();
+      } else {
+        if (resumeUnid != null) {
+          int index = unids.indexOf(resumeUnid);
+          if (index == -1) {
+            LOGGER.log(Level.FINE, "Resume entry [{0}] is not in the {1} "
+                + "view; reading all entries", new Object[] { resumeUnid,
+                    viewName });
+          } else {
+            unids = unids.subList(index + 1, unids.size());
+          }
+        }
+        // Read and write the documents in chunks, saving a checkpoint
+        // after each one.
+        for (List<String> chunk :
+                 Lists.partition(unids, NCCONST.DIRECTORY_CHECKPOINT_INTERVAL)) {
+          List<T> records = readDirectory(chunk, task);
+          checkCancelled();
+          for (T record : records) {
+            task.write(record);
+          }
+          if (checkpoint != null && isResumable(checkpoint.pass)) {
+            saveCheckpoint(checkpoint.pass, chunk.get(chunk.size() - 1));
+          }
+        }
+      }
+    } catch (RepositoryException e) {
+      directoryReadFailed = true;
+      throw e;
+    }
+  }
+
+  /**
+   * Reads directory documents. The UNIDs are split into contiguous
+   * partitions across up to the configured number of directory
+   * threads, each with its own Notes session, and the results are
+   * returned in the order of the UNIDs.
+   *
+   * @throws RepositoryException if a partition can't be read
+   */
+  private <T> List<T> readDirectory(List<String> unids,
+      final DirectoryTask<T> task) throws RepositoryException {
+    int threads = Math.min(connectorSession.getDirectoryThreads(),
+        unids.size());
+    if (threads <= 1) {
+      return new DirectoryReader(notesSession, directoryDatabase,
+          peopleGroupsView).read(unids, task);
+    }
+    List<List<String>> partitions =
+        Lists.partition(unids, (unids.size() + threads - 1) / threads);
+    LOGGER.log(Level.FINE, "Reading {0} directory documents with {1} threads",
+        new Object[] { unids.size(), partitions.size() });
+    ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+    try {
+      List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>();
+      for (final List<String> partition : partitions) {
+        futures.add(executor.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws RepositoryException {
+              return readPartition(partition, task);
+            }
+          }));
+      }
+      List<T> results = new ArrayList<T>(unids.size());
+      for (Future<List<T>> future : futures) {
+        results.addAll(future.get());
+      }
+      return results;
+    } catch (ExecutionException e) {
+      throw new RepositoryException("Failed to read directory documents",
+          e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepositoryException(
+          "Interrupted reading directory documents", e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private <T> List<T> readPartition(List<String> unids,
+      DirectoryTask<T> task) throws RepositoryException {
+    NotesSession session = connectorSession.createNotesSession();
+    NotesDatabase directory = null;
+    NotesView view = null;
+    try {
+      directory = session.getDatabase(connectorSession.getServer(),
+          connectorSession.getDirectory());
+      view = directory.getView(NCCONST.DIRVIEW_PEOPLEGROUPFLAT);
+      return new DirectoryReader(session, directory, view).read(unids, task);
+    } finally {
+      Util.recycle(view);
+      Util.recycle(directory);
+      connectorSession.closeNotesSession(session);
+    }
+  }
+
+  // Update groups
+
+  /**
+   * Loop over the groups in NCCONST.DIRVIEW_VIMGROUPS. For each
+   * group, create a group record and compute nested group membership
+   * (all groups which are contained within this group via 0 or more
+   * intermediate groups).
+   *
+   * @param groupUnids the group UNIDs, or null to stream the view
+   */
+  @VisibleForTesting
+  void updateGroups(List<String> groupUnids) {
+    final String METHOD = "updateGroups";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    long timeStart = System.currentTimeMillis();
+    DirectoryTask<GroupRecord> task = new DirectoryTask<GroupRecord>() {
+        @Override
+        public GroupRecord read(DirectoryReader reader, DirectoryEntry entry) {
+          return reader.readGroup(entry);
+        }
+
+        @Override
+        public void write(GroupRecord group) {
+          updateGroup(group.groupName, group.nestedGroups);
+        }
+      };
+    try {
+      processDirectory(NCCONST.DIRVIEW_VIMGROUPS, groupUnids, task);
+    } catch (RepositoryException e) {
+      LOGGER.log(Level.WARNING, "Error processing groups", e);
+    }
+    long timeFinish = System.currentTimeMillis();
+    LOGGER.log(Level.FINE, "Update groups: {0}ms", timeFinish - timeStart);
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  private void updateGroup(String groupName, Set<String> nestedGroups) {
+    // Update the group record and the parent/descendent group records.
+    try {
+      conn.setAutoCommit(false);
+      long groupid = verifyGroupExists(groupName, true);
+      if (groupid != -1L) {
+        // Delete previous parent/child records for this group.
+        PreparedStatement pstmt = getStatement(
+            "delete from " + groupChildrenTableName
+            + " where parentgroupid = ?");
+        pstmt.setLong(1, groupid);
+        pstmt.executeUpdate();
+
+        // Add new parent/child records for this group.
+        if (nestedGroups.size() > 0) {
+          List<Long> childGroupIds = new ArrayList<Long>();
+          for (String childGroupName : nestedGroups) {
+            long childGroupId = verifyGroupExists(childGroupName, true);
+            if (childGroupId == -1L) {
+              throw new RepositoryException("Missing group record for "
+                  + "child group: " + childGroupName);
+            }
+            childGroupIds.add(childGroupId);
+          }
+          executeBatchWithIds("insert into " + groupChildrenTableName
+              + " (parentgroupid, childgroupid) values (?, ?)", groupid,
+              childGroupIds);
+        }
+        conn.commit();
+      }
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Failed to update group information for group: "
+          + groupName + "; not updating", e);
+      try {
+        rollback();
+      } catch (SQLException e1) {
+        LOGGER.log(Level.WARNING, "Rollback failed", e1);
+      }
+    } finally {
+      try {
+        conn.setAutoCommit(true);
+      } catch (SQLException e1) {
+        LOGGER.log(Level.WARNING, "AutoCommit reset failed", e1);
+      }
+    }
+  }
+
+  private void getNestedGroups(NotesView peopleGroupsView, String groupName,
+      Vector<?> groupMembers, Set<String> processedGroups,
+      Set<String> nestedGroups) throws RepositoryException {
+    final String METHOD = "getNestedGroups";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    // Check for already processed groups to avoid cycles.
+    if (!processedGroups.add(groupName.toLowerCase())) {
+      return;
+    }
+    for (Object memberValue : groupMembers) {
+      String member = memberValue.toString();
+      // Check for wildcard configuration in group membership
+      if (member.startsWith("*/")) {
+        nestedGroups.add(member.toLowerCase());
+        LinkedHashMap<String, Long> subdomains = 
+            notesDomainNames.getSubDomainNames(member.toLowerCase().substring(1));
+        nestedGroups.addAll(subdomains.keySet());
+        continue;
+      }
+      NotesDocument memberDoc = peopleGroupsView.getDocumentByKey(member);
+      if (memberDoc == null) {
+        continue;
+      }
+      try {
+        if (!isAccessControlGroup(memberDoc)) {
+          continue;
+        }
+        nestedGroups.add(member.toLowerCase());
+        getNestedGroups(peopleGroupsView, member,
+            memberDoc.getItemValue(NCCONST.GITM_MEMBERS), processedGroups,
+            nestedGroups);
+      } finally {
+        Util.recycle(memberDoc);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  /**
+   * Store all wildcard domains in H2 and build a domain cache.
+   *
+   * @param userUnids the person UNIDs, or null to stream the view
+   */
+  private void updateNotesDomainNames(List<String> userUnids)
+      throws RepositoryException {
+    final String METHOD = "updateNotesDomainNames";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    long timeStart = System.currentTimeMillis();
+    processDirectory(NCCONST.DIRVIEW_VIMUSERS, userUnids,
+        new DirectoryTask<String>() {
+          @Override
+          public String read(DirectoryReader reader, DirectoryEntry entry) {
+            return reader.readFullName(entry);
+          }
+
+          @Override
+          public void write(String fullName) {
+            // Create domains/OUs as groups in H2 if not existed and
+            // update domain cache. Most people share their OUs with
+            // someone already processed, so skip the database when all
+            // of them are cached.
+            List<String> canonicalOUs = notesDomainNames
+                .computeExpandedWildcardDomainNames(fullName);
+            if (notesDomainNames.getWildcardDomainNames(fullName).size()
+                < canonicalOUs.size()) {
+              try {
+                verifyMultiDomainsExist(canonicalOUs, true);
+              } catch (RepositoryException re) {
+                LOGGER.log(Level.WARNING,
+                    "Failed to update Notes domain names for " + fullName, re);
+              }
+            }
+          }
+        });
+
+    long timeFinish = System.currentTimeMillis();
+    LOGGER.log(Level.FINEST, "Update Notes domain cache [{0}ms]: {1}",
+        new Object[] {(timeFinish - timeStart), notesDomainNames});
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  /*
+   * Helper method to lookup document by UNID.
+   */
+  private NotesDocument getDocumentByUnid(NotesDatabase db, String unid) {
+    try {
+      return db.getDocumentByUNID(unid);
+    } catch (RepositoryException e) {
+      LOGGER.warning("Cannot find document [" + unid + "] in "
+          + getDatabaseFilePath(db) + " database");
+      return null;
+    }
+  }
+
+  /*
+   * Helper method to lookup database's file path.
+   */
+  private String getDatabaseFilePath(NotesDatabase db) {
+    try {
+      return db.getFilePath();
+    } catch (RepositoryException ex) {
+      LOGGER.log(Level.WARNING, "Unable to retrieve database's file path", ex);
+      return null;
+    }
+  }
+
+  public Set<String> getSubDomains(String domainName) {
+    return notesDomainNames.getSubDomainNames(domainName).keySet();
+  }
+
+  private long verifyDomainExists(String ou, boolean createIfNotExists) {
+    final String METHOD = "verifyDomainExists";
+    LOGGER.entering(CLASS_NAME, METHOD);
+    Long groupId = this.notesDomainNames.get(ou);
+    if (groupId instanceof Long) {
+      LOGGER.log(Level.FINE, "Found {0} domain in cache [ID# {1}]",
+          new Object[] { ou, groupId });
+      return groupId.longValue();
+    }
+    long id = verifyGroupExists(ou, createIfNotExists);
+    if (id != -1L) {
+      LOGGER.log(Level.FINE, "Verify {0} domain in database [ID# {1}]",
+          new Object[] { ou, id });
+      this.notesDomainNames.add(ou, new Long(id));
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+    return id;
+  }
+
+  private void verifyMultiDomainsExist(List<String> personOUs, 
+      boolean createIfNotExists) throws RepositoryException {
+    final String METHOD = "verifyDomainsExists";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    boolean origAutoCommit = true;
+    // Verify database connection which is used within verifyGroupExists
+    try {
+      if (conn == null) {
+        connectionPool = connectorSession.getConnector().getJdbcDatabase()
+            .getConnectionPool();
+        conn = connectionPool.getConnection();
+      }
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(true);
+    } catch (SQLException e) {
+      throw new RepositoryException("Failed to connect to H2 database", e);
+    }
+    // Loop thru each person's OU and add to notesDomainNames cache
+    for (String ou : personOUs) {
+      verifyDomainExists(ou, createIfNotExists);
+    }
+    // Release connection
+    try {
+      conn.setAutoCommit(origAutoCommit);
+    } catch (SQLException e) {
+      LOGGER.log(Level.FINE, "Failed to reset original auto commit");
+    } finally {
+      connectionPool.releaseConnection(conn);
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  private long verifyGroupExists(String groupName,
       boolean createIfNotExists) {
     final String METHOD = "verifyGroupExists";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    PreparedStatement pstmt = null;
     ResultSet generatedKeys = null;
     try {
-      pstmt = conn.prepareStatement(
-          "select * from " + groupTableName + " where groupname = ?",
-          ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-      pstmt.setString(1, groupName.toLowerCase());
-      ResultSet rs = pstmt.executeQuery();
-      if (rs.next()) {
-        return rs.getLong("groupid");
+      String key = groupName.toLowerCase();
+      Long groupId = getGroupIdCache().get(key);
+      if (groupId != null) {
+        return groupId;
       }
       if (!createIfNotExists) {
         return -1L;
       }
-      rs.close();
-      pstmt.close();
-      pstmt = conn.prepareStatement("insert into " + groupTableName
+      PreparedStatement pstmt = getStatement("insert into " + groupTableName
           + "(groupname, pseudogroup) values (?, false)",
           Statement.RETURN_GENERATED_KEYS);
-      pstmt.setString(1, groupName.toLowerCase());
+      pstmt.setString(1, key);
       int rows = pstmt.executeUpdate();
       if (rows == 0) {
         throw new RepositoryException(
@@ -946,7 +1705,9 @@ class NotesUserGroupManager {
       generatedKeys = pstmt.getGeneratedKeys();
       if (generatedKeys.next()) {
         LOGGER.log(Level.FINE, "New {0} group is added to cache", groupName);
-        return generatedKeys.getLong(1);
+        groupId = generatedKeys.getLong(1);
+        groupIdCache.put(key, groupId);
+        return groupId;
       } else {
         throw new RepositoryException(
             "Failed to retrieve key for " + groupName);
@@ -957,20 +1718,46 @@ class NotesUserGroupManager {
       return -1L;
     } finally {
       Util.close(generatedKeys);
-      Util.close(pstmt);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
 
+  /**
+   * Gets the group ids keyed by group name, loading every group record
+   * the first time it is needed.
+   */
+  private Map<String, Long> getGroupIdCache() throws SQLException {
+    if (groupIdCache == null) {
+      Map<String, Long> groupIds = new HashMap<String, Long>();
+      Statement stmt = conn.createStatement();
+      try {
+        ResultSet rs = stmt.executeQuery("select groupid, groupname from "
+            + groupTableName + " order by groupid");
+        while (rs.next()) {
+          String groupName = rs.getString(2);
+          if (!groupIds.containsKey(groupName)) {
+            groupIds.put(groupName, rs.getLong(1));
+          }
+        }
+      } finally {
+        Util.close(stmt);
+      }
+      LOGGER.log(Level.FINE, "Loaded {0} group ids", groupIds.size());
+      groupIdCache = groupIds;
+    }
+    return groupIdCache;
+  }
+
   // Update users
 
   /**
-   * Loop over the users in NCCONST.DIRVIEW_PEOPLEGROUPFLAT. For
-   * each user, retrieve their Notes user name, construct their
-   * GSA user name, and verify that they should be included using
-   * the configured selection formula. Construct a user
-   * record. Compute group membership and create user/group
-   * records.
+   * Loop over the users in NCCONST.DIRVIEW_VIMUSERS. For each user,
+   * retrieve their Notes user name, construct their GSA user name,
+   * and verify that they should be included using the configured
+   * selection formula. Construct a user record. Compute group
+   * membership and create user/group records.
+   *
+   * @param userUnids the person UNIDs, or null to stream the view
    */
   @VisibleForTesting
   void updateUsers(List<String> userUnids) {
@@ -979,76 +1766,50 @@ class NotesUserGroupManager {
 
     long timeStart = System.currentTimeMillis();
     NotesView serverAccessView = null;
+    ouGroupsMemo = new HashMap<String, Set<Long>>();
     try {
-      String userSelectionFormula = connectorSession.getUserSelectionFormula();
-      String userNameFormula = connectorSession.getUserNameFormula();
+      final String userSelectionFormula =
+          connectorSession.getUserSelectionFormula();
+      final String userNameFormula = connectorSession.getUserNameFormula();
       LOGGER.log(Level.FINEST,
           "User selection formula is: {0}\nUser name formula is: {1}",
           new Object[] { userSelectionFormula, userNameFormula });
+
       serverAccessView = directoryDatabase.getView(
           NCCONST.DIRVIEW_SERVERACCESS);
       serverAccessView.refresh();
+      final NotesView accessView = serverAccessView;
+      DirectoryTask<PersonRecord> task = new DirectoryTask<PersonRecord>() {
+          @Override
+          public PersonRecord read(DirectoryReader reader,
+              DirectoryEntry entry) {
+            return reader.readPerson(entry, userSelectionFormula,
+                userNameFormula);
+          }
 
-      int count = 0;
-      for (String unid : userUnids) {
-        NotesDocument personDoc = getDocumentByUnid(directoryDatabase, unid);
-        if (personDoc == null) {
-          LOGGER.log(Level.FINEST, "Person document [{0}] is not found", unid);
-        } else {
-          String notesName = null;
-          try {
-            if (count++ % NCCONST.GC_INVOCATION_INTERVAL == 0) {
-              Util.invokeGC();
-            }
-            if (!personDoc.getItemValueString(NCCONST.ITMFORM).contentEquals(
-                    NCCONST.DIRFORM_PERSON)) {
-              continue;
-            }
-            // The first value in this field is the Notes name; other
-            // names may be present.
-            Vector nameVector = personDoc.getItemValue(NCCONST.PITM_FULLNAME);
-            if (nameVector.size() == 0) {
-              continue;
-            }
-            String storedName = nameVector.firstElement().toString();
-            notesName = notesSession.createName(storedName)
-                .getCanonical().toLowerCase();
-            LOGGER.log(Level.FINEST,
-                "Processing user: {0}; name from directory was: {1}",
-                new Object[] { notesName, storedName});
-            // Get their PVI
-            String pvi = evaluatePvi(userNameFormula, personDoc);
-            if (0 == pvi.length()) {
-              LOGGER.log(Level.WARNING,
-                  "Could not evaluate PVI username for: {0}", notesName);
-              continue;
-            }
-            LOGGER.log(Level.FINEST, "PVI: {0}", pvi);
-            // Does this person match the selection formula?
-            boolean selected = checkPersonSelectionFormula(userSelectionFormula,
-                personDoc);
-            if (!selected) {
-              LOGGER.log(Level.FINEST, "User not selected: {0}", notesName);
-              continue;
-            }
-            updateUser(personDoc, notesName, pvi, serverAccessView);
-            // Log user info
-            if (LOGGER.isLoggable(Level.FINE)) {
-              User user = getUser("gsaname", pvi);
-              LOGGER.log(Level.FINE, "All groups for {0}: {1}",
-                  new Object[] { user, user.getGroups() });
+          @Override
+          public void write(PersonRecord person) {
+            try {
+              updateUser(person.notesName, person.pvi, accessView);
+              // Log user info
+              if (LOGGER.isLoggable(Level.FINE)) {
+                User user = getUser("gsaname", person.pvi);
+                LOGGER.log(Level.FINE, "All groups for {0}: {1}",
+                    new Object[] { user, user.getGroups() });
+              }
+            } catch (Exception e) {
+              LOGGER.log(Level.WARNING, "Failed to update user cache for "
+                  + person.notesName, e);
             }
-          } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Failed to update user cache"
-                + (notesName != null ? " for " + notesName : ""), e);
-          } finally {
-            Util.recycle(personDoc);
           }
-        }
-      }
+        };
+      processDirectory(NCCONST.DIRVIEW_VIMUSERS, userUnids, task);
     } catch (Exception e) {
       LOGGER.log(Level.WARNING, "Error processing users", e);
     } finally {
+      LOGGER.log(Level.FINE, "Resolved groups for {0} OUs",
+          ouGroupsMemo.size());
+      ouGroupsMemo = null;
       Util.recycle(serverAccessView);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
@@ -1056,12 +1817,11 @@ class NotesUserGroupManager {
     LOGGER.log(Level.FINE, "Update users: {0}ms", timeFinish - timeStart);
   }
 
-  private void updateUser(NotesDocument personDoc,
-      String notesName, String pvi, NotesView serverAccessView) {
+  private void updateUser(String notesName, String pvi,
+      NotesView serverAccessView) {
     final String METHOD = "updateUser";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    PreparedStatement pstmt = null;
     try {
       conn.setAutoCommit(false);
 
@@ -1074,31 +1834,32 @@ class NotesUserGroupManager {
       // getGroupsFromDN will add the DN-based groups to the
       // group cache if they don't exist, so we want it in the
       // transaction.
-      getGroupsFromDN(notesName, parentGroups, serverAccessView);
+      Map<String, Set<Long>> resolvedGroups = new HashMap<String, Set<Long>>();
+      getGroupsFromDN(notesName, parentGroups, serverAccessView,
+          resolvedGroups);
       // Delete previous user/group records for this user.
-      pstmt = conn.prepareStatement(
+      PreparedStatement pstmt = getStatement(
           "delete from " + userGroupsTableName
           + " where userid = ?");
       pstmt.setLong(1, userId);
       pstmt.executeUpdate();
       // Update user/group records.
-      pstmt = conn.prepareStatement("insert into " + userGroupsTableName
-          + " (userid, groupid) values(?, ?)");
-      pstmt.setLong(1, userId);
-      for (Long groupId : parentGroups) {
-        pstmt.setLong(2, groupId);
-        pstmt.executeUpdate();
-      }
+      executeBatchWithIds("insert into " + userGroupsTableName
+          + " (userid, groupid) values(?, ?)", userId, parentGroups);
       conn.commit();
+      // Groups created in a rolled back transaction must not be
+      // reused, so only remember the OUs once they are committed.
+      if (ouGroupsMemo != null) {
+        ouGroupsMemo.putAll(resolvedGroups);
+      }
     } catch (Exception e) {
       LOGGER.log(Level.WARNING,
           "Error updating user data for: " + notesName, e);
       try {
-        conn.rollback();
+        rollback();
       } catch (SQLException e1) {
         LOGGER.log(Level.WARNING, "Rollback failed", e1);
       }
-      Util.close(pstmt);
     } finally {
       try {
         conn.setAutoCommit(true);
@@ -1131,14 +1892,9 @@ class NotesUserGroupManager {
           accessdoc = nveAccessEntry.getDocument();
           String groupName =
               accessdoc.getItemValueString(NCCONST.GITM_LISTNAME);
-          PreparedStatement pstmt = null;
           try {
-            pstmt = conn.prepareStatement("select groupId from "
-                + groupTableName + " where groupName = ?");
-            pstmt.setString(1, groupName.toLowerCase());
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-              long id = rs.getLong(1);
+            long id = verifyGroupExists(groupName, false);
+            if (id != -1L) {
               parentGroups.add(id);
               getParentGroupsForGroup(id, parentGroups);
             } else {
@@ -1148,8 +1904,6 @@ class NotesUserGroupManager {
           } catch (Exception e) {
             LOGGER.log(Level.WARNING,
                 "Failure looking up group record for " + groupName, e);
-          } finally {
-            Util.close(pstmt);
           }
         } finally {
           Util.recycle(accessdoc);
@@ -1167,54 +1921,94 @@ class NotesUserGroupManager {
     final String METHOD = "getParentGroupsForGroup";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    PreparedStatement pstmt = null;
     try {
-      pstmt = conn.prepareStatement("select parentgroupid from "
-          + groupChildrenTableName + " where childgroupid = ?");
-      pstmt.setLong(1, groupId);
-      ResultSet rs = pstmt.executeQuery();
-      while (rs.next()) {
-        long id = rs.getLong(1);
+      // Read all the parents before recursing, since the recursive
+      // calls reuse the same statement.
+      List<Long> parentIds = new ArrayList<Long>();
+      ResultSet rs = null;
+      try {
+        PreparedStatement pstmt = getStatement("select parentgroupid from "
+            + groupChildrenTableName + " where childgroupid = ?");
+        pstmt.setLong(1, groupId);
+        rs = pstmt.executeQuery();
+        while (rs.next()) {
+          parentIds.add(rs.getLong(1));
+        }
+      } catch (SQLException e) {
+        LOGGER.log(Level.WARNING,
+            "Failure getting parent groups for " + groupId, e);
+        throw new RepositoryException(e);
+      } finally {
+        Util.close(rs);
+      }
+      for (long id : parentIds) {
         if (parentGroups.add(id)) {
           getParentGroupsForGroup(id, parentGroups);
         }
       }
-    } catch (SQLException e) {
-      LOGGER.log(Level.WARNING,
-          "Failure getting parent groups for " + groupId, e);
-      throw new RepositoryException(e);
     } finally {
-      Util.close(pstmt);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
 
-  private void getGroupsFromDN(String dn, Set<Long> groups, 
-      NotesView serverAccessView) {
+  /**
+   * Adds the groups for each OU in a DN, and the wildcard groups that
+   * match the DN.
+   *
+   * @param resolvedGroups the groups for each OU that were not already
+   * in {@link #ouGroupsMemo} are added to this map
+   */
+  private void getGroupsFromDN(String dn, Set<Long> groups,
+      NotesView serverAccessView, Map<String, Set<Long>> resolvedGroups) {
     final String METHOD = "getGroupsFromDN";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     // TODO: use the Name class to parse the name?
     for (int index = dn.indexOf('/'); index != -1; index = dn.indexOf('/')) {
+      String ou = dn.substring(index + 1);
       try {
-        String ou = dn.substring(index + 1);
         LOGGER.log(Level.FINER, "Group list adding OU {0}", ou);
-        long groupId = verifyDomainExists(ou, true);
-        if (groupId != -1L) {
-          markAsPseudoGroup(groupId, ou);
-          groups.add(groupId);
-        }
-        // Prepend wildcard to each OU
-        mapWildcardGroup("*/" + ou, groups, serverAccessView);
-        dn = ou;
+        groups.addAll(getGroupsForOU(ou, serverAccessView, resolvedGroups));
       } catch (Exception e) {
         LOGGER.log(Level.WARNING, "Error creating group from dn: " + dn, e);
       }
+      dn = ou;
     }
-    mapWildcardGroup("*", groups, serverAccessView);
+    groups.addAll(getGroupsForOU("*", serverAccessView, resolvedGroups));
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
+  /**
+   * Gets the OU's pseudo-group, the OU's wildcard group, and the groups
+   * with the wildcard as a member. For "*", gets the "*" group and the
+   * groups with "*" as a member.
+   */
+  private Set<Long> getGroupsForOU(String ou, NotesView serverAccessView,
+      Map<String, Set<Long>> resolvedGroups) {
+    String key = ou.toLowerCase();
+    Set<Long> ouGroups = (ouGroupsMemo == null) ? null : ouGroupsMemo.get(key);
+    if (ouGroups == null) {
+      ouGroups = resolvedGroups.get(key);
+    }
+    if (ouGroups != null) {
+      return ouGroups;
+    }
+    ouGroups = new LinkedHashSet<Long>();
+    if (ou.equals("*")) {
+      mapWildcardGroup(ou, ouGroups, serverAccessView);
+    } else {
+      long groupId = verifyDomainExists(ou, true);
+      if (groupId != -1L) {
+        markAsPseudoGroup(groupId, ou);
+        ouGroups.add(groupId);
+      }
+      // Prepend wildcard to each OU
+      mapWildcardGroup("*/" + ou, ouGroups, serverAccessView);
+    }
+    resolvedGroups.put(key, ouGroups);
+    return ouGroups;
+  }
+
   private void mapWildcardGroup(String wildcardName, Set<Long> groups,
       NotesView serverAccessView) {
     long wildcardGroupId = verifyDomainExists(wildcardName, true);
@@ -1266,13 +2060,13 @@ class NotesUserGroupManager {
     final String METHOD = "markAsPseudoGroup";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    Statement stmt = null;
     try {
       LOGGER.log(Level.FINEST, "Marking group as pseudo-group: {0}/{1}",
           new Object[] { groupName, groupId});
-      stmt = conn.createStatement();
-      int result = stmt.executeUpdate("update " + groupTableName
-          + " set pseudogroup = true where groupid = " + groupId);
+      PreparedStatement pstmt = getStatement("update " + groupTableName
+          + " set pseudogroup = true where groupid = ?");
+      pstmt.setLong(1, groupId);
+      int result = pstmt.executeUpdate();
       if (result != 1) {
         LOGGER.log(Level.WARNING,
             "Failed to flag group as pseudo-group: {0}", groupName);
@@ -1281,7 +2075,6 @@ class NotesUserGroupManager {
       LOGGER.log(Level.WARNING,
           "Failed to flag group as pseudo-group: " + groupName, e);
     } finally {
-      Util.close(stmt);
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
@@ -1291,71 +2084,94 @@ class NotesUserGroupManager {
     final String METHOD = "verifyUserExists";
     LOGGER.entering(CLASS_NAME, METHOD);
 
+    ResultSet rs = null;
+    ResultSet generatedKeys = null;
     try {
-      String userLookupSql;
-      String key;
       if (notesName != null) {
-        userLookupSql = "select * from " + userTableName
-            + " where notesname = ?";
-        key = notesName;
+        CachedUser user = getUserCache().get(notesName.toLowerCase());
+        if (user != null) {
+          // See if we need to update the pvi
+          if (pvi != null && !pvi.toLowerCase().equals(user.gsaName)) {
+            PreparedStatement pstmt = getStatement("update " + userTableName
+                + " set gsaname = ? where userid = ?");
+            pstmt.setString(1, pvi.toLowerCase());
+            pstmt.setLong(2, user.userId);
+            pstmt.executeUpdate();
+            user.gsaName = pvi.toLowerCase();
+          }
+          LOGGER.log(Level.FINEST, "Found user {0} from cache", notesName);
+          return user.userId;
+        }
       } else if (pvi != null) {
-        userLookupSql = "select * from " + userTableName
-            + " where gsaname = ?";
-        key = pvi;
+        PreparedStatement pstmt = getStatement("select userid from "
+            + userTableName + " where gsaname = ?");
+        pstmt.setString(1, pvi.toLowerCase());
+        rs = pstmt.executeQuery();
+        if (rs.next()) {
+          LOGGER.log(Level.FINEST, "Found user {0} from cache", pvi);
+          return rs.getLong(1);
+        }
       } else {
         throw new RepositoryException("Attempted user lookup without a key");
       }
-      LOGGER.log(Level.FINEST, "Looking up user with SQL: [{0}] and key: {1}",
-          new Object[] { userLookupSql, key });
-      PreparedStatement pstmt = conn.prepareStatement(userLookupSql,
-          ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_UPDATABLE);
-      ResultSet rs = null;
-      ResultSet generatedKeys = null;
+      if (!createIfNotExists) {
+        return -1L;
+      }
+      PreparedStatement pstmt = getStatement(
+          "insert into " + userTableName
+          + "(notesname, gsaname) values (?, ?)",
+          Statement.RETURN_GENERATED_KEYS);
+      pstmt.setString(1, notesName.toLowerCase());
+      pstmt.setString(2, pvi.toLowerCase());
+      int rows = pstmt.executeUpdate();
+      if (rows == 0) {
+        throw new RepositoryException(
+            "Failed to create user record for " + notesName);
+      }
+      generatedKeys = pstmt.getGeneratedKeys();
+      if (generatedKeys.next()) {
+        LOGGER.log(Level.FINE, "New user {0} [{1}] is added to cache",
+            new Object[] { notesName.toLowerCase(), pvi.toLowerCase() });
+        long userId = generatedKeys.getLong(1);
+        userCache.put(notesName.toLowerCase(),
+            new CachedUser(userId, pvi.toLowerCase()));
+        return userId;
+      } else {
+        throw new RepositoryException(
+            "Failed to retrieve key for " + notesName);
+      }
+    } finally {
+      Util.close(generatedKeys);
+      Util.close(rs);
+      LOGGER.exiting(CLASS_NAME, METHOD);
+    }
+  }
+
+  /**
+   * Gets the user records keyed by Notes name, loading every user
+   * record the first time it is needed.
+   */
+  private Map<String, CachedUser> getUserCache() throws SQLException {
+    if (userCache == null) {
+      Map<String, CachedUser> users = new HashMap<String, CachedUser>();
+      Statement stmt = conn.createStatement();
       try {
-        pstmt.setString(1, key.toLowerCase());
-        rs = pstmt.executeQuery();
-        if (rs.next()) {
-          // See if we need to update the pvi
-          if (pvi != null && !pvi.equals(rs.getString("gsaname"))) {
-            rs.updateString("gsaname", pvi.toLowerCase());
-            rs.updateRow();
+        ResultSet rs = stmt.executeQuery("select userid, notesname, gsaname"
+            + " from " + userTableName + " order by userid");
+        while (rs.next()) {
+          String notesName = rs.getString(2);
+          if (!users.containsKey(notesName)) {
+            users.put(notesName, new CachedUser(rs.getLong(1),
+                rs.getString(3)));
           }
-          LOGGER.log(Level.FINEST, "Found user {0} from cache", key);
-          return rs.getLong("userid");
-        }
-        if (!createIfNotExists) {
-          return -1L;
-        }
-        Util.close(pstmt);
-        rs = null;
-        pstmt = conn.prepareStatement(
-            "insert into " + userTableName
-            + "(notesname, gsaname) values (?, ?)",
-            Statement.RETURN_GENERATED_KEYS);
-        pstmt.setString(1, notesName.toLowerCase());
-        pstmt.setString(2, pvi.toLowerCase());
-        int rows = pstmt.executeUpdate();
-        if (rows == 0) {
-          throw new RepositoryException(
-              "Failed to create user record for " + notesName);
-        }
-        generatedKeys = pstmt.getGeneratedKeys();
-        if (generatedKeys.next()) {
-          LOGGER.log(Level.FINE, "New user {0} [{1}] is added to cache",
-              new Object[] { notesName.toLowerCase(), pvi.toLowerCase() });
-          return generatedKeys.getLong(1);
-        } else {
-          throw new RepositoryException(
-              "Failed to retrieve key for " + notesName);
         }
       } finally {
-        Util.close(generatedKeys);
-        Util.close(rs);
-        Util.close(pstmt);
+        Util.close(stmt);
       }
-    } finally {
-      LOGGER.exiting(CLASS_NAME, METHOD);
+      LOGGER.log(Level.FINE, "Loaded {0} user records", users.size());
+      userCache = users;
     }
+    return userCache;
   }
 
   // Update roles
@@ -1448,7 +2264,13 @@ class NotesUserGroupManager {
     NotesACLEntry aclEntry = null;
     try {
       conn.setAutoCommit(false);
-      deleteRolesForDatabase(databaseReplicaId);
+      Map<String, Long> roleIds = getRoleIds(databaseReplicaId);
+      RoleMembers cachedUserRoles = getRoleMembers(userRolesTableName,
+          "userid", databaseReplicaId);
+      RoleMembers cachedGroupRoles = getRoleMembers(groupRolesTableName,
+          "groupid", databaseReplicaId);
+      RoleMembers userRoles = new RoleMembers();
+      RoleMembers groupRoles = new RoleMembers();
       acl = crawlDatabase.getACL();
       for (aclEntry = acl.getFirstEntry();
            aclEntry != null;
@@ -1459,20 +2281,44 @@ class NotesUserGroupManager {
         int roleType = aclEntry.getUserType();
         switch (roleType) {
           case NotesACLEntry.TYPE_PERSON:
-            updateRolesForUser(aclEntry.getName(), databaseReplicaId, roles);
+            updateRolesForUser(aclEntry.getName(), databaseReplicaId, roles,
+                roleIds, userRoles);
             break;
           case NotesACLEntry.TYPE_SERVER:
           case NotesACLEntry.TYPE_SERVER_GROUP:
             break;
           default: // Treat all other cases as groups.
-            updateRolesForGroup(aclEntry.getName(), databaseReplicaId, roles);
+            updateRolesForGroup(aclEntry.getName(), databaseReplicaId, roles,
+                roleIds, groupRoles);
             break;
         }
       }
+
+      // Apply only the differences from the cached role records.
+      executeBatchWithIdPairs("delete from " + userRolesTableName
+          + " where userid = ? and roleid = ?",
+          cachedUserRoles.minus(userRoles));
+      executeBatchWithIdPairs("delete from " + groupRolesTableName
+          + " where groupid = ? and roleid = ?",
+          cachedGroupRoles.minus(groupRoles));
+      executeBatchWithIdPairs("insert into " + userRolesTableName
+          + " (userid, roleid) values(?, ?)", userRoles.minus(cachedUserRoles));
+      executeBatchWithIdPairs("insert into " + groupRolesTableName
+          + " (groupid, roleid) values(?, ?)",
+          groupRoles.minus(cachedGroupRoles));
+      Set<Long> unusedRoleIds = getRoleIdSet(databaseReplicaId);
+      unusedRoleIds.removeAll(userRoles.getRoleIds());
+      unusedRoleIds.removeAll(groupRoles.getRoleIds());
+      executeBatchWithIds("delete from " + roleTableName
+          + " where roleid = ?", unusedRoleIds);
       conn.commit();
+      LOGGER.log(Level.FINE, "Updated roles for database {0}: {1} user roles,"
+          + " {2} group roles, {3} unused roles deleted", new Object[] {
+          databaseReplicaId, userRoles.size(), groupRoles.size(),
+          unusedRoleIds.size() });
     } catch (Exception e) {
       try {
-        conn.rollback();
+        rollback();
       } catch (SQLException e1) {
         LOGGER.log(Level.WARNING, "Rollback failed", e1);
       }
@@ -1490,39 +2336,105 @@ class NotesUserGroupManager {
     }
   }
 
-  private void deleteRolesForDatabase(String databaseReplicaId)
-      throws SQLException {
-    final String METHOD = "deleteRolesForDatabase";
-    LOGGER.entering(CLASS_NAME, METHOD);
-
-    PreparedStatement pstmt1 = null;
-    PreparedStatement pstmt2 = null;
-    PreparedStatement pstmt3 = null;
+  private void deleteRolesForDatabase(String databaseReplicaId)
+      throws SQLException {
+    final String METHOD = "deleteRolesForDatabase";
+    LOGGER.entering(CLASS_NAME, METHOD);
+
+    try {
+      PreparedStatement pstmt1 = getStatement("delete from "
+          + userRolesTableName + " where roleid in (select roleid from "
+          + roleTableName + " where replicaid = ?)");
+      PreparedStatement pstmt2 = getStatement("delete from "
+          + groupRolesTableName + " where roleid in (select roleid from "
+          + roleTableName + " where replicaid = ?)");
+      PreparedStatement pstmt3 = getStatement("delete from " + roleTableName
+          + " where replicaid = ?");
+      pstmt1.setString(1, databaseReplicaId);
+      pstmt1.executeUpdate();
+      pstmt2.setString(1, databaseReplicaId);
+      pstmt2.executeUpdate();
+      pstmt3.setString(1, databaseReplicaId);
+      pstmt3.executeUpdate();
+    } finally {
+      LOGGER.exiting(CLASS_NAME, METHOD);
+    }
+  }
+
+  /**
+   * Gets the ids of the roles of a database, keyed by role name.
+   */
+  private Map<String, Long> getRoleIds(String databaseReplicaId)
+      throws SQLException {
+    Map<String, Long> roleIds = new HashMap<String, Long>();
+    ResultSet rs = null;
+    try {
+      PreparedStatement pstmt = getStatement("select roleid, rolename from "
+          + roleTableName + " where replicaid = ? order by roleid");
+      pstmt.setString(1, databaseReplicaId);
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        String roleName = rs.getString(2);
+        if (!roleIds.containsKey(roleName)) {
+          roleIds.put(roleName, rs.getLong(1));
+        }
+      }
+    } finally {
+      Util.close(rs);
+    }
+    return roleIds;
+  }
+
+  /**
+   * Gets the ids of all the role records of a database, including
+   * any duplicates of a role name.
+   */
+  private Set<Long> getRoleIdSet(String databaseReplicaId)
+      throws SQLException {
+    Set<Long> roleIds = new HashSet<Long>();
+    ResultSet rs = null;
+    try {
+      PreparedStatement pstmt = getStatement("select roleid from "
+          + roleTableName + " where replicaid = ?");
+      pstmt.setString(1, databaseReplicaId);
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        roleIds.add(rs.getLong(1));
+      }
+    } finally {
+      Util.close(rs);
+    }
+    return roleIds;
+  }
+
+  /**
+   * Gets the user or group role records of a database.
+   *
+   * @param tableName the user roles or group roles table
+   * @param idColumn the user or group id column of the table
+   */
+  private RoleMembers getRoleMembers(String tableName, String idColumn,
+      String databaseReplicaId) throws SQLException {
+    RoleMembers members = new RoleMembers();
+    ResultSet rs = null;
     try {
-      pstmt1 = conn.prepareStatement("delete from " + userRolesTableName
-          + " where roleid in (select roleid from " + roleTableName
-          + " where replicaid = ?)");
-      pstmt2 = conn.prepareStatement("delete from " + groupRolesTableName
-          + " where roleid in (select roleid from " + roleTableName
-          + " where replicaid = ?)");
-      pstmt3 = conn.prepareStatement("delete from " + roleTableName
-          + " where replicaid = ?");
-      pstmt1.setString(1, databaseReplicaId);
-      pstmt1.executeUpdate();
-      pstmt2.setString(1, databaseReplicaId);
-      pstmt2.executeUpdate();
-      pstmt3.setString(1, databaseReplicaId);
-      pstmt3.executeUpdate();
+      PreparedStatement pstmt = getStatement("select " + idColumn
+          + ", roleid from " + tableName + " where roleid in (select roleid"
+          + " from " + roleTableName + " where replicaid = ?)");
+      pstmt.setString(1, databaseReplicaId);
+      rs = pstmt.executeQuery();
+      while (rs.next()) {
+        members.add(rs.getLong(1), rs.getLong(2));
+      }
     } finally {
-      Util.close(pstmt1);
-      Util.close(pstmt2);
-      Util.close(pstmt3);
-      LOGGER.exiting(CLASS_NAME, METHOD);
+      Util.close(rs);
     }
+    return members;
   }
 
   private void updateRolesForUser(String notesName, String databaseReplicaId,
-      Vector roles) throws SQLException, RepositoryException {
+      Vector roles, Map<String, Long> roleIds, RoleMembers userRoles)
+      throws SQLException, RepositoryException {
     final String METHOD = "updateRolesForUser";
     LOGGER.entering(CLASS_NAME, METHOD);
 
@@ -1535,25 +2447,16 @@ class NotesUserGroupManager {
         return;
       }
       long userId = users.get(notesName).getUserId();
-      PreparedStatement pstmt = null;
-      try {
-        pstmt = conn.prepareStatement("insert into " + userRolesTableName
-            + " (userid, roleid) values(?, ?)");
-        pstmt.setLong(1, userId);
-        for (Object role : roles) {
-          String roleName = role.toString();
-          long roleId = verifyRoleExists(roleName, databaseReplicaId, true);
-          if (roleId != -1L) {
-            pstmt.setLong(2, roleId);
-            pstmt.executeUpdate();
-          } else {
-            throw new RepositoryException("Failed to update user role: "
-                + databaseReplicaId + "/" + roleName + " for user "
-                + notesName);
-          }
+      for (Object role : roles) {
+        String roleName = role.toString();
+        long roleId = getRoleId(roleName, databaseReplicaId, roleIds);
+        if (roleId != -1L) {
+          userRoles.add(userId, roleId);
+        } else {
+          throw new RepositoryException("Failed to update user role: "
+              + databaseReplicaId + "/" + roleName + " for user "
+              + notesName);
         }
-      } finally {
-        Util.close(pstmt);
       }
     } finally {
       LOGGER.exiting(CLASS_NAME, METHOD);
@@ -1561,7 +2464,8 @@ class NotesUserGroupManager {
   }
 
   private void updateRolesForGroup(String groupName, String databaseReplicaId,
-      Vector roles) throws SQLException, RepositoryException {
+      Vector roles, Map<String, Long> roleIds, RoleMembers groupRoles)
+      throws SQLException, RepositoryException {
     final String METHOD = "updateRolesForGroup";
     LOGGER.entering(CLASS_NAME, METHOD);
 
@@ -1572,55 +2476,61 @@ class NotesUserGroupManager {
             "ACL group not in connector group cache: {0}", groupName);
         return;
       }
-      PreparedStatement pstmt = null;
-      try {
-        pstmt = conn.prepareStatement("insert into " + groupRolesTableName
-            + " (groupid, roleid) values(?, ?)");
-        pstmt.setLong(1, groupId);
-        for (Object role : roles) {
-          String roleName = role.toString();
-          long roleId = verifyRoleExists(roleName, databaseReplicaId, true);
-          if (roleId != -1L) {
-            pstmt.setLong(2, roleId);
-            pstmt.executeUpdate();
-          } else {
-            throw new RepositoryException("Failed to update user role: "
-                + databaseReplicaId + "/" + roleName + " for group "
-                + groupName);
-          }
+      for (Object role : roles) {
+        String roleName = role.toString();
+        long roleId = getRoleId(roleName, databaseReplicaId, roleIds);
+        if (roleId != -1L) {
+          groupRoles.add(groupId, roleId);
+        } else {
+          throw new RepositoryException("Failed to update user role: "
+              + databaseReplicaId + "/" + roleName + " for group "
+              + groupName);
         }
-      } finally {
-        Util.close(pstmt);
       }
     } finally {
       LOGGER.exiting(CLASS_NAME, METHOD);
     }
   }
 
+  /**
+   * Gets a role id from the database's role ids, creating the role
+   * record if it is new.
+   */
+  private long getRoleId(String roleName, String databaseReplicaId,
+      Map<String, Long> roleIds) {
+    String key = roleName.toLowerCase();
+    Long roleId = roleIds.get(key);
+    if (roleId == null) {
+      roleId = verifyRoleExists(roleName, databaseReplicaId, true);
+      if (roleId != -1L) {
+        roleIds.put(key, roleId);
+      }
+    }
+    return roleId;
+  }
+
   private long verifyRoleExists(String roleName, String databaseReplicaId,
       boolean createIfNotExists) {
     final String METHOD = "verifyRoleExists";
     LOGGER.entering(CLASS_NAME, METHOD);
 
     try {
-      PreparedStatement pstmt = conn.prepareStatement(
-          "select * from " + roleTableName + " where rolename = ?"
-          + " and replicaid = ?",
-          ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+      PreparedStatement pstmt = getStatement(
+          "select roleid from " + roleTableName + " where rolename = ?"
+          + " and replicaid = ?");
+      ResultSet rs = null;
       ResultSet generatedKeys = null;
       try {
         pstmt.setString(1, roleName.toLowerCase());
         pstmt.setString(2, databaseReplicaId);
-        ResultSet rs = pstmt.executeQuery();
+        rs = pstmt.executeQuery();
         if (rs.next()) {
-          return rs.getLong("roleid");
+          return rs.getLong(1);
         }
         if (!createIfNotExists) {
           return -1L;
         }
-        rs.close();
-        pstmt.close();
-        pstmt = conn.prepareStatement("insert into " + roleTableName
+        pstmt = getStatement("insert into " + roleTableName
             + "(rolename, replicaId) values (?, ?)",
             Statement.RETURN_GENERATED_KEYS);
         pstmt.setString(1, roleName.toLowerCase());
@@ -1639,7 +2549,7 @@ class NotesUserGroupManager {
         }
       } finally {
         Util.close(generatedKeys);
-        Util.close(pstmt);
+        Util.close(rs);
       }
     } catch (Exception e) {
       LOGGER.log(Level.WARNING, "Error in lookup/creation of role: "
@@ -1651,14 +2561,25 @@ class NotesUserGroupManager {
   }
 
   /**
-   * Remove any role records with a replica id not in the
-   * parameter list.
+   * Remove any role records, mirrored database ACLs and crawl
+   * statistics with a replica id not in the parameter list.
    */
   @VisibleForTesting
-  void checkDatabaseDeletions(Set currentReplicaIds) {
+  void checkDatabaseDeletions(Set<String> currentReplicaIds) {
     final String METHOD = "checkDatabaseDeletions";
     LOGGER.entering(CLASS_NAME, METHOD);
 
+    NotesDocumentManager docManager =
+        connectorSession.getNotesDocumentManager();
+    if (docManager != null) {
+      docManager.deleteDatabaseAcls(currentReplicaIds);
+      // Discard the in-memory statistics first, so they aren't saved
+      // again after the rows are deleted.
+      connectorSession.getConnector().getMetrics()
+          .retainCrawlByDatabase(currentReplicaIds);
+      docManager.deleteDatabaseStatistics(currentReplicaIds);
+    }
+
     Statement stmt = null;
     try {
       Set<String> replicaIdsToDelete = new LinkedHashSet<String>();
@@ -1685,7 +2606,7 @@ class NotesUserGroupManager {
         } catch (SQLException e) {
           LOGGER.log(Level.WARNING,
               "Failure deleting roles for database(s)", e);
-          conn.rollback();
+          rollback();
         } finally {
           conn.setAutoCommit(true);
         }
@@ -1700,156 +2621,163 @@ class NotesUserGroupManager {
 
   // Delete data
 
+  /** Collects the keys read from a directory view. */
+  private abstract static class DirectoryKeys implements DirectoryTask<String> {
+    final Set<String> keys = new HashSet<String>();
+    int failures = 0;
+
+    @Override
+    public void write(String key) {
+      keys.add(key);
+    }
+  }
+
   /**
-   * Check each user in the cache against the view
-   * NCCONST.DIRVIEW_VIMUSERS. If the cached user is not in the
-   * Notes view, delete them from the cache.
+   * Check each user in the cache against the people in the view
+   * NCCONST.DIRVIEW_VIMUSERS. The view is read once, and the cached
+   * users that are not in the view or no longer meet the selection
+   * criteria are deleted from the cache.
    */
   @VisibleForTesting
   void checkUserDeletions() {
     final String METHOD = "checkUserDeletions";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    NotesView usersView = null;
+    final String userSelectionFormula =
+        connectorSession.getUserSelectionFormula();
+    DirectoryKeys currentUsers = new DirectoryKeys() {
+        @Override
+        public String read(DirectoryReader reader, DirectoryEntry entry) {
+          try {
+            return reader.readSelectedNotesName(entry, userSelectionFormula);
+          } catch (RepositoryException e) {
+            LOGGER.log(Level.WARNING, "Failure reading person entry", e);
+            failures++;
+            return null;
+          }
+        }
+      };
+    List<Long> usersToDelete = new ArrayList<Long>();
     Statement stmt = null;
-    ArrayList<Long> usersToDelete = new ArrayList<Long>();
     try {
-      String userSelectionFormula = connectorSession.getUserSelectionFormula();
-
-      // TODO: why do we have to use this view and an abbreviated
-      // full name as opposed to just using the people/groups view
-      // we use elsewhere?
-      usersView = directoryDatabase.getView(NCCONST.DIRVIEW_VIMUSERS);
-      usersView.refresh();
-      stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+      processDirectory(NCCONST.DIRVIEW_VIMUSERS, null, currentUsers);
+      // A person who couldn't be read might still exist.
+      if (currentUsers.failures > 0) {
+        LOGGER.log(Level.WARNING, "Skipping user deletions: {0} person "
+            + "entries could not be read", currentUsers.failures);
+        return;
+      }
+      stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
           ResultSet.CONCUR_READ_ONLY);
       ResultSet rs = stmt.executeQuery("select userid,notesname from "
           + userTableName);
       while (rs.next()) {
-        long userId;
-        String fullName;
-        try {
-          userId = rs.getLong(1);
-          fullName = rs.getString(2);
-        } catch (SQLException e) {
-          LOGGER.log(Level.WARNING, "Failure reading user table data", e);
-          continue;
-        }
-        try {
-          String abbrevFormula = String.format("@Name([ABBREVIATE];\"%s\")",
-              fullName);
-          String key = notesSession.evaluate(abbrevFormula).elementAt(0)
-              .toString();
-          NotesDocument notesUserDoc = usersView.getDocumentByKey(key);
-          if (notesUserDoc == null) {
-            // This person or group no longer exists. Remove them
-            LOGGER.log(Level.INFO, "User no longer exists in source directory"
-                + " and will be deleted: {0}", key);
-            usersToDelete.add(userId);
-          } else {
-            // Do an additional check for Persons to make sure they
-            // still meet the selection criteria
-            if (!checkPersonSelectionFormula(userSelectionFormula,
-                    notesUserDoc)) {
-              LOGGER.log(Level.INFO, "User no longer meets selection criteria"
-                  + " and will be deleted: {0}", key);
-              usersToDelete.add(userId);
-            }
-            Util.recycle(notesUserDoc);
-          }
-        } catch (Exception e) {
-          LOGGER.log(Level.WARNING,
-              "Failure checking user deletion: " + fullName, e);
+        long userId = rs.getLong(1);
+        String notesName = rs.getString(2);
+        if (!currentUsers.keys.contains(notesName)) {
+          LOGGER.log(Level.INFO, "User no longer exists in source directory"
+              + " or no longer meets selection criteria and will be deleted:"
+              + " {0}", notesName);
+          usersToDelete.add(userId);
         }
       }
     } catch (Exception e) {
       LOGGER.log(Level.WARNING, "Error checking deletions", e);
+      return;
     } finally {
-      Util.recycle(usersView);
       Util.close(stmt);
+      LOGGER.exiting(CLASS_NAME, METHOD);
     }
 
-    for (Long userId : usersToDelete) {
-      try {
-        removeUser(userId);
-      } catch (SQLException e) {
-        LOGGER.log(Level.WARNING, "Error removing user: " + userId, e);
-      }
+    try {
+      removeUsers(usersToDelete);
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Error removing users: " + usersToDelete, e);
     }
-    LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
   /**
-   * Check each group in the cache against the view
-   * NCCONST.DIRVIEW_VIMGROUPS. If the cached group is not in the
-   * Notes view, delete it from the cache.
+   * Check each group in the cache against the groups in the view
+   * NCCONST.DIRVIEW_VIMGROUPS. The view is read once, and the cached
+   * groups that are not in the view are deleted from the cache.
    */
   @VisibleForTesting
   void checkGroupDeletions() {
     final String METHOD = "checkGroupDeletions";
     LOGGER.entering(CLASS_NAME, METHOD);
 
-    NotesView groupView = null;
-    ArrayList<Long> groupsToDelete = new ArrayList<Long>();
+    DirectoryKeys currentGroups = new DirectoryKeys() {
+        @Override
+        public String read(DirectoryReader reader, DirectoryEntry entry) {
+          try {
+            String groupName =
+                entry.getItemValueString(NCCONST.GITM_LISTNAME);
+            return Strings.isNullOrEmpty(groupName)
+                ? null : groupName.toLowerCase();
+          } catch (RepositoryException e) {
+            LOGGER.log(Level.WARNING, "Failure reading group entry", e);
+            failures++;
+            return null;
+          }
+        }
+      };
+    List<Long> groupsToDelete = new ArrayList<Long>();
     Statement stmt = null;
     try {
-      groupView = directoryDatabase.getView(NCCONST.DIRVIEW_VIMGROUPS);
-      groupView.refresh();
-      stmt = conn.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
+      processDirectory(NCCONST.DIRVIEW_VIMGROUPS, null, currentGroups);
+      // A group that couldn't be read might still exist.
+      if (currentGroups.failures > 0) {
+        LOGGER.log(Level.WARNING, "Skipping group deletions: {0} group "
+            + "entries could not be read", currentGroups.failures);
+        return;
+      }
+      stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY,
           ResultSet.CONCUR_READ_ONLY);
       ResultSet rs = stmt.executeQuery(
           "select groupid,groupname,pseudogroup from " + groupTableName);
       while (rs.next()) {
-        long groupId;
-        String groupName;
-        boolean pseudoGroup = false;
-        try {
-          groupId = rs.getLong(1);
-          groupName = rs.getString(2);
-          pseudoGroup = rs.getBoolean(3);
-        } catch (SQLException e) {
-          LOGGER.log(Level.WARNING, "Failure reading group table data", e);
-          continue;
-        }
-
-        if (pseudoGroup) {
+        long groupId = rs.getLong(1);
+        String groupName = rs.getString(2);
+        if (rs.getBoolean(3)) {
           LOGGER.log(Level.FINEST,
               "Skipping deletion check for pseudo-group: {0}", groupName);
           continue;
         }
+        if (currentGroups.keys.contains(groupName)) {
+          continue;
+        }
+        // Nested groups are cached by their member name, which may be
+        // canonical while the view has the abbreviated name.
         try {
-          if (Util.isCanonical(groupName)) {
-            NotesName notesGroupName = notesSession.createName(groupName);
-            groupName = notesGroupName.getAbbreviated();
-          }
-          NotesDocument notesGroupDoc = groupView.getDocumentByKey(groupName);
-          if (notesGroupDoc == null) {
-            // This group no longer exists.
-            LOGGER.log(Level.INFO, "Group no longer exists in source directory"
-                + " and will be deleted: {0}", groupName);
-            groupsToDelete.add(groupId);
+          if (Util.isCanonical(groupName) && currentGroups.keys.contains(
+                  notesSession.createName(groupName).getAbbreviated()
+                  .toLowerCase())) {
+            continue;
           }
-          Util.recycle(notesGroupDoc);
-        } catch (Exception e) {
+        } catch (RepositoryException e) {
           LOGGER.log(Level.WARNING,
               "Error checking deletions for group: " + groupName, e);
+          continue;
         }
+        // This group no longer exists.
+        LOGGER.log(Level.INFO, "Group no longer exists in source directory"
+            + " and will be deleted: {0}", groupName);
+        groupsToDelete.add(groupId);
       }
     } catch (Exception e) {
       LOGGER.log(Level.WARNING, "Error checking deletions", e);
+      return;
     } finally {
-      Util.recycle(groupView);
       Util.close(stmt);
+      LOGGER.exiting(CLASS_NAME, METHOD);
     }
 
-    for (Long groupId : groupsToDelete) {
-      try {
-        removeGroup(groupId);
-      } catch (SQLException e) {
-        LOGGER.log(Level.WARNING, "Error removing group: " + groupId, e);
-      }
+    try {
+      removeGroups(groupsToDelete);
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Error removing groups: " + groupsToDelete,
+          e);
     }
-    LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
   private void removeUser(String notesName) throws SQLException {
@@ -1872,7 +2800,7 @@ class NotesUserGroupManager {
       Util.close(pstmt);
     }
     if (userId != -1) {
-      removeUser(userId);
+      removeUsers(Collections.singletonList(userId));
     } else {
       LOGGER.log(Level.FINE,
           "Unable to find user data to remove: {0}", notesName);
@@ -1880,64 +2808,285 @@ class NotesUserGroupManager {
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
-  private void removeUser(long userId) throws SQLException {
-    final String METHOD = "removeUser";
+  /**
+   * Removes users and their group and role records with batched
+   * deletes, committing every DELETE_BATCH_SIZE users.
+   */
+  private void removeUsers(List<Long> userIds) throws SQLException {
+    final String METHOD = "removeUsers";
     LOGGER.entering(CLASS_NAME, METHOD);
-    LOGGER.log(Level.FINE, "Removing user: {0}", userId);
+    LOGGER.log(Level.FINE, "Removing users: {0}", userIds);
 
-    try {
-      conn.setAutoCommit(false);
-      executeUpdateWithIds("delete from " + userGroupsTableName
-          + " where userid = ?", userId);
-      executeUpdateWithIds("delete from " + userRolesTableName
-          + " where userid = ?", userId);
-      executeUpdateWithIds("delete from " + userTableName
-          + " where userid = ?", userId);
-      conn.commit();
-    } catch (SQLException e) {
-      LOGGER.log(Level.WARNING, "Caught exception", e);
-      conn.rollback();
-    } finally {
-      conn.setAutoCommit(true);
+    for (List<Long> batch : Lists.partition(userIds, DELETE_BATCH_SIZE)) {
+      try {
+        conn.setAutoCommit(false);
+        executeBatchWithIds("delete from " + userGroupsTableName
+            + " where userid = ?", batch);
+        executeBatchWithIds("delete from " + userRolesTableName
+            + " where userid = ?", batch);
+        executeBatchWithIds("delete from " + userTableName
+            + " where userid = ?", batch);
+        conn.commit();
+        resetIdCaches();
+      } catch (SQLException e) {
+        LOGGER.log(Level.WARNING, "Caught exception", e);
+        rollback();
+      } finally {
+        conn.setAutoCommit(true);
+      }
     }
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
-  private void removeGroup(long groupId) throws SQLException {
-    final String METHOD = "removeGroup";
+  /**
+   * Removes groups and their child, role and user records with
+   * batched deletes, committing every DELETE_BATCH_SIZE groups.
+   */
+  private void removeGroups(List<Long> groupIds) throws SQLException {
+    final String METHOD = "removeGroups";
     LOGGER.entering(CLASS_NAME, METHOD);
 
+    for (List<Long> batch : Lists.partition(groupIds, DELETE_BATCH_SIZE)) {
+      try {
+        conn.setAutoCommit(false);
+        executeBatchWithIds("delete from " + groupChildrenTableName
+            + " where parentgroupid = ?", batch);
+        executeBatchWithIds("delete from " + groupChildrenTableName
+            + " where childgroupid = ?", batch);
+        executeBatchWithIds("delete from " + groupRolesTableName
+            + " where groupid = ?", batch);
+        executeBatchWithIds("delete from " + userGroupsTableName
+            + " where groupid = ?", batch);
+        executeBatchWithIds("delete from " + groupTableName
+            + " where groupid = ?", batch);
+        conn.commit();
+        resetIdCaches();
+      } catch (SQLException e) {
+        LOGGER.log(Level.WARNING, "Caught exception", e);
+        rollback();
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    }
+    LOGGER.exiting(CLASS_NAME, METHOD);
+  }
+
+  /** Executes a statement with one id parameter as a batch of ids. */
+  private void executeBatchWithIds(String sql, Collection<Long> ids)
+      throws SQLException {
+    PreparedStatement pstmt = getStatement(sql);
     try {
-      conn.setAutoCommit(false);
-      executeUpdateWithIds("delete from " + groupChildrenTableName
-          + " where parentgroupid = ? or childgroupid = ?",
-          groupId, groupId);
-      executeUpdateWithIds("delete from " + groupRolesTableName
-          + " where groupid = ?", groupId);
-      executeUpdateWithIds("delete from " + userGroupsTableName
-          + " where groupid = ?", groupId);
-      executeUpdateWithIds("delete from " + groupTableName
-          + " where groupid = ?", groupId);
-      conn.commit();
-    } catch (SQLException e) {
-      LOGGER.log(Level.WARNING, "Caught exception", e);
-      conn.rollback();
+      for (long id : ids) {
+        pstmt.setLong(1, id);
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
     } finally {
-      conn.setAutoCommit(true);
+      pstmt.clearBatch();
+    }
+  }
+
+  /**
+   * Executes a statement with two id parameters as a batch, pairing
+   * the first id with each of the others.
+   */
+  private void executeBatchWithIds(String sql, long firstId,
+      Collection<Long> ids) throws SQLException {
+    if (ids.isEmpty()) {
+      return;
+    }
+    PreparedStatement pstmt = getStatement(sql);
+    try {
+      pstmt.setLong(1, firstId);
+      for (long id : ids) {
+        pstmt.setLong(2, id);
+        pstmt.addBatch();
+      }
+      pstmt.executeBatch();
+    } finally {
+      pstmt.clearBatch();
     }
   }
 
-  private int executeUpdateWithIds(String sql, long... ids)
+  /** Executes a statement with two id parameters as a batch of pairs. */
+  private void executeBatchWithIdPairs(String sql, List<long[]> pairs)
       throws SQLException {
-    PreparedStatement pstmt = conn.prepareStatement(sql);
+    if (pairs.isEmpty()) {
+      return;
+    }
+    PreparedStatement pstmt = getStatement(sql);
     try {
-      for (int i = 0; i < ids.length; i++) {
-        pstmt.setLong(i + 1, ids[i]);
+      for (long[] pair : pairs) {
+        pstmt.setLong(1, pair[0]);
+        pstmt.setLong(2, pair[1]);
+        pstmt.addBatch();
       }
-      return pstmt.executeUpdate();
+      pstmt.executeBatch();
     } finally {
+      pstmt.clearBatch();
+    }
+  }
+
+  /**
+   * Gets a prepared statement that is kept open and reused until the
+   * connection is released.
+   */
+  private PreparedStatement getStatement(String sql) throws SQLException {
+    return getStatement(sql, Statement.NO_GENERATED_KEYS);
+  }
+
+  private PreparedStatement getStatement(String sql, int autoGeneratedKeys)
+      throws SQLException {
+    if (statementConnection != conn) {
+      closeStatements();
+      statementConnection = conn;
+    }
+    PreparedStatement pstmt = statements.get(sql);
+    if (pstmt == null) {
+      pstmt = conn.prepareStatement(sql, autoGeneratedKeys);
+      statements.put(sql, pstmt);
+    }
+    return pstmt;
+  }
+
+  private void closeStatements() {
+    for (PreparedStatement pstmt : statements.values()) {
       Util.close(pstmt);
     }
+    statements.clear();
+    statementConnection = null;
+  }
+
+  /**
+   * Drops the cached group ids and user records. Called when records
+   * may have been deleted or a transaction is rolled back.
+   */
+  private void resetIdCaches() {
+    groupIdCache = null;
+    userCache = null;
+  }
+
+  /** Rolls back the transaction and the cached ids created in it. */
+  private void rollback() throws SQLException {
+    resetIdCaches();
+    conn.rollback();
+  }
+
+  // Manage update checkpoints.
+
+  /** The pass of a cache update and the last directory entry written. */
+  @VisibleForTesting
+  static class Checkpoint {
+    final int pass;
+    final String lastUnid;
+
+    Checkpoint(int pass, String lastUnid) {
+      this.pass = pass;
+      this.lastUnid = lastUnid;
+    }
+  }
+
+  /**
+   * Starts a checkpointed pass of the cache update, unless a resumed
+   * update has already completed it.
+   *
+   * @param pass the pass to start
+   * @param resume the checkpoint being resumed from, or null
+   * @return true if the pass should be run
+   */
+  private boolean startPass(int pass, Checkpoint resume)
+      throws RepositoryException {
+    checkCancelled();
+    if (resume != null && resume.pass > pass) {
+      LOGGER.log(Level.FINE, "Skipping completed pass {0}", pass);
+      return false;
+    }
+    if (resume != null && resume.pass == pass && isResumable(pass)) {
+      checkpoint = resume;
+      entriesSinceCheckpoint = 0;
+    } else {
+      saveCheckpoint(pass, null);
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether a pass can resume after the last entry it wrote.
+   * The deletion passes can't: a deletion pass that resumed partway
+   * through its view would delete every cached entry before that
+   * point.
+   */
+  private static boolean isResumable(int pass) {
+    return pass == PASS_GROUPS || pass == PASS_USERS;
+  }
+
+  /**
+   * Gets the checkpoint saved by an earlier cache update that did not
+   * complete.
+   *
+   * @return the checkpoint, or null if there is none
+   */
+  @VisibleForTesting
+  Checkpoint loadCheckpoint() {
+    ResultSet rs = null;
+    try {
+      rs = getStatement("select pass, lastunid from " + checkpointTableName)
+          .executeQuery();
+      if (rs.next()) {
+        return new Checkpoint(rs.getInt(1), rs.getString(2));
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING,
+          "Failed to load the user/group cache update checkpoint", e);
+    } finally {
+      Util.close(rs);
+    }
+    return null;
+  }
+
+  /**
+   * Saves the progress of the cache update. A checkpoint that can't be
+   * saved is logged, and the update continues.
+   *
+   * @param pass the current pass
+   * @param lastUnid the UNID of the last directory entry written in
+   * the pass, or null if none has been
+   */
+  @VisibleForTesting
+  void saveCheckpoint(int pass, String lastUnid) {
+    checkpoint = new Checkpoint(pass, lastUnid);
+    entriesSinceCheckpoint = 0;
+    try {
+      conn.setAutoCommit(false);
+      getStatement("delete from " + checkpointTableName).executeUpdate();
+      PreparedStatement pstmt = getStatement("insert into "
+          + checkpointTableName + " (pass, lastunid) values (?, ?)");
+      pstmt.setInt(1, pass);
+      pstmt.setString(2, lastUnid);
+      pstmt.executeUpdate();
+      conn.commit();
+      LOGGER.log(Level.FINEST, "Saved checkpoint at pass {0} after [{1}]",
+          new Object[] { pass, lastUnid });
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING,
+          "Failed to save the user/group cache update checkpoint", e);
+      try {
+        rollback();
+      } catch (SQLException e1) {
+        LOGGER.log(Level.WARNING, "Rollback failed", e1);
+      }
+    } finally {
+      try {
+        conn.setAutoCommit(true);
+      } catch (SQLException e1) {
+        LOGGER.log(Level.WARNING, "AutoCommit reset failed", e1);
+      }
+    }
+  }
+
+  /** Removes the checkpoint once the cache update completes. */
+  private void clearCheckpoint() throws SQLException {
+    getStatement("delete from " + checkpointTableName).executeUpdate();
   }
 
   // Manage update interval.
@@ -1970,6 +3119,7 @@ class NotesUserGroupManager {
       }
       docConfig.replaceItemValue(NCCONST.SITM_LASTCACHEUPDATE, dtTarget);
       docConfig.save(true);
+      lastCacheUpdateMillis = 0;
       isReset = true;
     } catch (RepositoryException e) {
       LOGGER.log(Level.SEVERE, CLASS_NAME, e);
@@ -2003,6 +3153,7 @@ class NotesUserGroupManager {
       }
       systemDoc.replaceItemValue(NCCONST.SITM_LASTCACHEUPDATE, now);
       systemDoc.save(true);
+      lastCacheUpdateMillis = now.toJavaDate().getTime();
       LOGGER.log(Level.INFO,
           "Directory Cache last update time set to {0}", now);
     } catch (RepositoryException e) {
@@ -2015,6 +3166,22 @@ class NotesUserGroupManager {
     LOGGER.exiting(CLASS_NAME, METHOD);
   }
 
+  /**
+   * Checks the update interval against the last cache update time
+   * known to this process. Once the interval may have elapsed,
+   * {@link #shouldUpdate} reads the saved time, which another
+   * connector instance or a reset may have changed.
+   */
+  private boolean isUpdateIntervalPending() {
+    long lastUpdate = lastCacheUpdateMillis;
+    if (lastUpdate == 0) {
+      return false;
+    }
+    long elapsedMillis = System.currentTimeMillis() - lastUpdate;
+    return elapsedMillis >= 0 && elapsedMillis
+        < connectorSession.getCacheUpdateInterval() * 60000L;
+  }
+
   private boolean shouldUpdate(NotesDatabase connectorDatabase)
       throws RepositoryException {
     final String METHOD = "shouldUpdate";
@@ -2048,6 +3215,7 @@ class NotesUserGroupManager {
         lastCacheUpdate = (NotesDateTime) vecLastCacheUpdate.firstElement();
         LOGGER.log(Level.FINE,
             "Last directory cache update time is: {0}", lastCacheUpdate);
+        lastCacheUpdateMillis = lastCacheUpdate.toJavaDate().getTime();
       }
 
       double elapsedMinutes = now.timeDifference(lastCacheUpdate) / 60;
@@ -2076,9 +3244,9 @@ class NotesUserGroupManager {
    * Use the given formula to construct a PVI from the Notes user
    * document.
    */
-  private String evaluatePvi(String userNameFormula, NotesDocument doc)
-      throws RepositoryException {
-    Vector<?> vecEvalResult = notesSession.evaluate(userNameFormula, doc);
+  private String evaluatePvi(NotesSession session, String userNameFormula,
+      NotesDocument doc) throws RepositoryException {
+    Vector<?> vecEvalResult = session.evaluate(userNameFormula, doc);
     // Make sure we don't get an empty vector.
     if (vecEvalResult != null && vecEvalResult.size() > 0) {
       return (vecEvalResult.elementAt(0).toString());
@@ -2094,9 +3262,10 @@ class NotesUserGroupManager {
    * should return 1 or 0.
    */
   @SuppressWarnings("unchecked")
-  private boolean checkPersonSelectionFormula(String userSelectionFormula,
-      NotesDocument personDoc) throws RepositoryException {
-    Vector<Double> vecEvalResult = (Vector<Double>) notesSession.evaluate(
+  private boolean checkPersonSelectionFormula(NotesSession session,
+      String userSelectionFormula, NotesDocument personDoc)
+      throws RepositoryException {
+    Vector<Double> vecEvalResult = (Vector<Double>) session.evaluate(
         userSelectionFormula, personDoc);
     // A Selection formula will return a vector of doubles.
     return (1 == vecEvalResult.elementAt(0).intValue());
@@ -2104,15 +3273,28 @@ class NotesUserGroupManager {
 
   private boolean isAccessControlGroup(NotesDocument groupDoc)
       throws RepositoryException {
-    if (!groupDoc.getItemValueString(NCCONST.ITMFORM).contentEquals(
-        NCCONST.DIRFORM_GROUP)) {
+    return isAccessControlGroup(
+        groupDoc.getItemValueString(NCCONST.ITMFORM),
+        groupDoc.getItemValueString(NCCONST.GITM_GROUPTYPE));
+  }
+
+  private boolean isAccessControlGroup(String form, String groupType) {
+    if (!form.contentEquals(NCCONST.DIRFORM_GROUP)) {
       return false;
     }
     // Only process access control type groups
-    String groupType = groupDoc.getItemValueString(NCCONST.GITM_GROUPTYPE);
     return NCCONST.DIR_ACCESSCONTROLGROUPTYPES.contains(groupType);
   }
 
+  /**
+   * Checks whether a formula is just an item name, so that it
+   * evaluates to the item's value.
+   */
+  @VisibleForTesting
+  static boolean isItemName(String formula) {
+    return ITEM_NAME_PATTERN.matcher(formula).matches();
+  }
+
   // Helpers
   private NotesDocument getNextDocument(NotesView view, NotesDocument doc)
       throws RepositoryException {
@@ -2246,6 +3428,12 @@ class NotesUserGroupManager {
       LOGGER.log(Level.INFO, "Created/verified indexes: "
           + "idx_parentgroupid_groupchildren and idx_childgroupid_groupchildren"
           + " on {0}", groupChildrenTableName);
+
+      jdbcDatabase.verifyTableExists(checkpointTableName, new String[] {
+          "create table " + checkpointTableName + " (pass int,"
+          + " lastunid varchar(32))"});
+      LOGGER.log(Level.INFO,
+          "Created/verified table: {0}", checkpointTableName);
     } catch (Exception e) {
       LOGGER.log(Level.SEVERE, "Failed to initialize user cache", e);
       throw new RepositoryException("Failed to initialize user cache", e);
@@ -2257,10 +3445,11 @@ class NotesUserGroupManager {
   }
 
   void clearTables(Connection conn) {
+    resetIdCaches();
     try {
       String[] tables = { userTableName, groupTableName, roleTableName,
          userGroupsTableName, userRolesTableName, groupRolesTableName,
-         groupChildrenTableName
+         groupChildrenTableName, checkpointTableName
       };
       Statement stmt = conn.createStatement();
       for (String table : tables) {
@@ -2277,6 +3466,8 @@ class NotesUserGroupManager {
     Connection conn = null;
     Statement stmt = null;
     boolean isReadOnly = false;
+    closeStatements();
+    resetIdCaches();
     try {
       connectionPool = connectorSession.getConnector().getJdbcDatabase()
           .getConnectionPool();
@@ -2286,7 +3477,7 @@ class NotesUserGroupManager {
 
       String[] tables = { userGroupsTableName, userRolesTableName,
          groupRolesTableName, groupChildrenTableName,
-         userTableName, groupTableName, roleTableName
+         userTableName, groupTableName, roleTableName, checkpointTableName
       };
       stmt = conn.createStatement();
       for (String table : tables) {
@@ -132,17 +132,6 @@ public class Util {
     return url != null && url.toLowerCase().contains("/$file/");
   }
 
-  static void invokeGC() {
-    Runtime rt = Runtime.getRuntime();
-    LOGGER.log(Level.FINEST, "Memory free [before GC invocation]: "
-        + (rt.freeMemory() / 1024) + "kb" + ", Total: "
-        + (rt.totalMemory() / 1024) + "kb");
-    rt.gc();
-    LOGGER.log(Level.FINEST, "Memory free [after GC invocation ]: "
-        + (rt.freeMemory() / 1024) + "kb" + ", Total: "
-        + (rt.totalMemory() / 1024) + "kb");
-  }
-
   static String hash(String word) {
     try {
       MessageDigest digest = MessageDigest.getInstance(DEFAULT_ALGORITHM);
@@ -0,0 +1,140 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Vector;
+
+/**
+ * Wraps client objects in proxies that pass each call through
+ * {@link #intercept}. Every client object returned by a wrapped object
+ * is wrapped in turn. Client objects returned inside a Vector, such as
+ * item values, are not wrapped.
+ *
+ * Wrapped objects passed as arguments are replaced with the objects
+ * they wrap, since client implementations expect their own objects.
+ * Only the proxies created by this factory are unwrapped, so factories
+ * can be stacked: each layer sees the objects of the layer below it.
+ */
+public abstract class ClientProxyFactory {
+  /** A call on a wrapped object. */
+  protected interface Call {
+    /** Makes the call on the wrapped object. */
+    Object proceed() throws Throwable;
+  }
+
+  /**
+   * Makes a call on a wrapped object.
+   *
+   * @param type the simple name of the client interface
+   * @param method the method being called
+   * @param call makes the call on the wrapped object
+   * @return the result of the call
+   */
+  protected abstract Object intercept(String type, Method method, Call call)
+      throws Throwable;
+
+  /**
+   * Wraps a client object returned as the given type. Other objects,
+   * and objects already wrapped by this factory, are returned as they
+   * are.
+   */
+  public Object wrap(Object target, Class<?> type) {
+    if (target == null || !type.isInterface()
+        || !NotesBase.class.isAssignableFrom(type)
+        || getHandler(target) != null) {
+      return target;
+    }
+    return Proxy.newProxyInstance(type.getClassLoader(),
+        new Class<?>[] { type }, new Handler(target, type.getSimpleName()));
+  }
+
+  /**
+   * Replaces objects wrapped by this factory with the objects they
+   * wrap.
+   */
+  private Object unwrap(Object arg) {
+    if (arg instanceof Vector) {
+      Vector<?> values = (Vector<?>) arg;
+      Vector<Object> unwrapped = new Vector<Object>(values.size());
+      boolean changed = false;
+      for (Object value : values) {
+        Object target = unwrap(value);
+        changed |= (target != value);
+        unwrapped.add(target);
+      }
+      return changed ? unwrapped : arg;
+    }
+    Handler handler = getHandler(arg);
+    return (handler == null) ? arg : handler.target;
+  }
+
+  /** Gets the handler of a proxy created by this factory, or null. */
+  private Handler getHandler(Object arg) {
+    if (arg != null && Proxy.isProxyClass(arg.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(arg);
+      if (handler instanceof Handler && ((Handler) handler).owner() == this) {
+        return (Handler) handler;
+      }
+    }
+    return null;
+  }
+
+  private class Handler implements InvocationHandler {
+    private final Object target;
+    private final String type;
+
+    Handler(Object target, String type) {
+      this.target = target;
+      this.type = type;
+    }
+
+    ClientProxyFactory owner() {
+      return ClientProxyFactory.this;
+    }
+
+    @Override
+    public Object invoke(Object proxy, final Method method, Object[] args)
+        throws Throwable {
+      if (method.getDeclaringClass() == Object.class) {
+        if (method.getName().equals("equals")) {
+          return target.equals(unwrap(args[0]));
+        }
+        return method.invoke(target, args);
+      }
+      if (args != null) {
+        args = args.clone();
+        for (int i = 0; i < args.length; i++) {
+          args[i] = unwrap(args[i]);
+        }
+      }
+      final Object[] targetArgs = args;
+      Object result = intercept(type, method, new Call() {
+          @Override
+          public Object proceed() throws Throwable {
+            try {
+              return method.invoke(target, targetArgs);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        });
+      return wrap(result, method.getReturnType());
+    }
+  }
+}
@@ -0,0 +1,210 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.beans.ConstructorProperties;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A session factory that times the calls made through the client
+ * interfaces, for finding the Domino calls that dominate the
+ * connector's latency.
+ *
+ * Sessions are wrapped in proxies that record the count, failures and
+ * time of each call, keyed by the connector class that made it and the
+ * interface method, such as "NotesDatabasePoller NotesView.refresh".
+ * The proxies are created by a {@link ClientProxyFactory}, so the
+ * sessions may themselves be proxies, such as those of a mock client
+ * that injects latency.
+ *
+ * Finding the calling class takes a stack trace for every call, so
+ * this is meant for diagnosis rather than for normal operation.
+ */
+public final class InstrumentedSessionFactory implements SessionFactory {
+  private static final String CLIENT_PACKAGE =
+      NotesBase.class.getPackage().getName() + ".";
+
+  private final SessionFactory delegate;
+  private final ConcurrentMap<String, Counter> counters =
+      new ConcurrentHashMap<String, Counter>();
+  private final ClientProxyFactory proxies = new ClientProxyFactory() {
+      @Override
+      protected Object intercept(String type, Method method, Call call)
+          throws Throwable {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+          Object result = call.proceed();
+          succeeded = true;
+          return result;
+        } finally {
+          // Finding the caller isn't included in the time.
+          long elapsed = System.nanoTime() - start;
+          record(getCaller() + " " + type + "." + method.getName(), elapsed,
+              succeeded);
+        }
+      }
+    };
+
+  /**
+   * @param delegate the factory that creates the sessions
+   */
+  public InstrumentedSessionFactory(SessionFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Gets the factory that creates the sessions. */
+  public SessionFactory getDelegate() {
+    return delegate;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public NotesSession createSessionWithFullAccess(String password)
+      throws RepositoryException {
+    long start = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      NotesSession session = delegate.createSessionWithFullAccess(password);
+      succeeded = true;
+      return (NotesSession) proxies.wrap(session, NotesSession.class);
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      record(getCaller() + " SessionFactory.createSessionWithFullAccess",
+          elapsed, succeeded);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public NotesThread getNotesThread() {
+    return delegate.getNotesThread();
+  }
+
+  /**
+   * Gets the statistics for each caller and method, keyed by the
+   * caller's class name and the method.
+   */
+  public Map<String, CallStatistics> getCallStatistics() {
+    Map<String, CallStatistics> statistics =
+        new TreeMap<String, CallStatistics>();
+    for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+      statistics.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return statistics;
+  }
+
+  /** Clears the statistics. */
+  public void resetStatistics() {
+    counters.clear();
+  }
+
+  /** The statistics for the calls of one method by one caller. */
+  public static final class CallStatistics {
+    private final long count;
+    private final long failures;
+    private final long totalMillis;
+    private final long maxMillis;
+
+    @ConstructorProperties({ "count", "failures", "totalMillis", "maxMillis" })
+    public CallStatistics(long count, long failures, long totalMillis,
+        long maxMillis) {
+      this.count = count;
+      this.failures = failures;
+      this.totalMillis = totalMillis;
+      this.maxMillis = maxMillis;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /** Gets the number of calls that threw an exception. */
+    public long getFailures() {
+      return failures;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    public long getMaxMillis() {
+      return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "count: " + count + "; failures: " + failures + "; total: "
+          + totalMillis + "ms; max: " + maxMillis + "ms";
+    }
+  }
+
+  private static class Counter {
+    private long count;
+    private long failures;
+    private long totalNanos;
+    private long maxNanos;
+
+    synchronized void record(long elapsedNanos, boolean succeeded) {
+      count++;
+      if (!succeeded) {
+        failures++;
+      }
+      totalNanos += elapsedNanos;
+      maxNanos = Math.max(maxNanos, elapsedNanos);
+    }
+
+    synchronized CallStatistics snapshot() {
+      return new CallStatistics(count, failures, totalNanos / 1000000,
+          maxNanos / 1000000);
+    }
+  }
+
+  private void record(String key, long elapsedNanos, boolean succeeded) {
+    Counter counter = counters.get(key);
+    if (counter == null) {
+      counters.putIfAbsent(key, new Counter());
+      counter = counters.get(key);
+    }
+    counter.record(elapsedNanos, succeeded);
+  }
+
+  /** Gets the top-level class of the first caller outside the client. */
+  private static String getCaller() {
+    for (StackTraceElement frame : new Throwable().getStackTrace()) {
+      String className = frame.getClassName();
+      if (className.startsWith(CLIENT_PACKAGE)
+          || className.startsWith("java.")
+          || className.startsWith("sun.")
+          || className.startsWith("jdk.")
+          || className.startsWith("com.sun.proxy.")
+          || className.contains("$Proxy")) {
+        continue;
+      }
+      int nested = className.indexOf('$');
+      if (nested != -1) {
+        className = className.substring(0, nested);
+      }
+      return className.substring(className.lastIndexOf('.') + 1);
+    }
+    return "unknown";
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the Notes objects created by the current thread within a unit
+ * of work, and recycles them when the unit of work ends.
+ *
+ * Client implementations call {@link #track} when they wrap a new
+ * Notes object and {@link #untrack} when it is recycled. Callers open
+ * an arena around a unit of work, such as reading one directory
+ * document, and close it in a finally block:
+ *
+ * <pre>
+ *   NotesHandleArena arena = NotesHandleArena.open();
+ *   try {
+ *     ...
+ *   } finally {
+ *     arena.close();
+ *   }
+ * </pre>
+ *
+ * Objects created in the arena must not be used after it is closed.
+ * Objects created before the arena was opened are not affected.
+ * Arenas may be nested, in which case objects belong to the innermost
+ * open arena.
+ */
+public final class NotesHandleArena {
+  private static final String CLASS_NAME = NotesHandleArena.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static final ThreadLocal<NotesHandleArena> current =
+      new ThreadLocal<NotesHandleArena>();
+
+  private final NotesHandleArena parent;
+  private final List<NotesBase> handles = new ArrayList<NotesBase>();
+  private boolean closed = false;
+
+  private NotesHandleArena(NotesHandleArena parent) {
+    this.parent = parent;
+  }
+
+  /**
+   * Opens an arena on the current thread.
+   *
+   * @return the new arena
+   */
+  public static NotesHandleArena open() {
+    NotesHandleArena arena = new NotesHandleArena(current.get());
+    current.set(arena);
+    return arena;
+  }
+
+  /**
+   * Adds a newly created object to the current thread's innermost
+   * arena, if one is open.
+   */
+  public static void track(NotesBase handle) {
+    NotesHandleArena arena = current.get();
+    if (arena != null) {
+      arena.handles.add(handle);
+    }
+  }
+
+  /**
+   * Removes an object that has been recycled from the current
+   * thread's open arenas.
+   */
+  public static void untrack(NotesBase handle) {
+    for (NotesHandleArena arena = current.get(); arena != null;
+         arena = arena.parent) {
+      if (arena.remove(handle)) {
+        return;
+      }
+    }
+  }
+
+  /** Gets the number of objects waiting to be recycled. */
+  public int size() {
+    return handles.size();
+  }
+
+  /**
+   * Recycles the objects created in this arena, newest first, and
+   * closes any arenas nested in it that are still open.
+   */
+  public void close() {
+    if (closed) {
+      return;
+    }
+    List<NotesHandleArena> arenas = new ArrayList<NotesHandleArena>();
+    for (NotesHandleArena arena = current.get(); arena != null;
+         arena = arena.parent) {
+      arenas.add(arena);
+      if (arena == this) {
+        // Pop the arenas before recycling so that the objects aren't
+        // untracked from the lists being recycled.
+        if (parent == null) {
+          current.remove();
+        } else {
+          current.set(parent);
+        }
+        break;
+      }
+    }
+    if (!arenas.contains(this)) {
+      throw new IllegalStateException(
+          "Notes handle arena closed by another thread");
+    }
+    for (NotesHandleArena arena : arenas) {
+      arena.recycleAll();
+    }
+  }
+
+  private void recycleAll() {
+    closed = true;
+    int count = handles.size();
+    // Children are recycled before the objects that created them.
+    for (int i = count - 1; i >= 0; i--) {
+      try {
+        handles.get(i).recycle();
+      } catch (RepositoryException e) {
+        LOGGER.log(Level.FINEST, "Error recycling Notes object", e);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.FINEST, "Error recycling Notes object", e);
+      }
+    }
+    handles.clear();
+    if (count > 0) {
+      LOGGER.log(Level.FINEST, "Recycled {0} Notes objects", count);
+    }
+  }
+
+  /** Removes a handle, searching from the newest. */
+  private boolean remove(NotesBase handle) {
+    for (int i = handles.size() - 1; i >= 0; i--) {
+      if (handles.get(i) == handle) {
+        handles.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Optional accounting of the Notes objects wrapped by the client
+ * layer, used to find code that doesn't recycle them.
+ *
+ * When tracking is enabled, client implementations call {@link #track}
+ * when they wrap a new Notes object and {@link #recycled} when it is
+ * recycled. The tracker counts the live objects by type and by the
+ * connector method that created them, and logs the allocation stack
+ * of each object that is garbage collected without having been
+ * recycled. Objects that were only recycled through their parent,
+ * such as the documents of a recycled database, are reported too.
+ *
+ * Tracking records a stack trace for every object, so it is meant for
+ * diagnosing leaks rather than for normal operation.
+ */
+public final class NotesHandleTracker {
+  private static final String CLASS_NAME = NotesHandleTracker.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  private static final String CLIENT_PACKAGE =
+      NotesBase.class.getPackage().getName() + ".";
+
+  private static volatile boolean enabled = false;
+
+  private static final ReferenceQueue<NotesBase> queue =
+      new ReferenceQueue<NotesBase>();
+  private static final Set<Handle> live = new HashSet<Handle>();
+  private static final Map<String, Integer> liveByType =
+      new TreeMap<String, Integer>();
+  private static final Map<String, Integer> liveBySite =
+      new TreeMap<String, Integer>();
+  private static long createdCount = 0;
+  private static long recycledCount = 0;
+  private static long leakCount = 0;
+
+  /** A tracked object, cleared when the object is garbage collected. */
+  private static class Handle extends WeakReference<NotesBase> {
+    final String type;
+    final String site;
+    final Throwable allocation;
+
+    Handle(NotesBase handle, String type, String site,
+        Throwable allocation) {
+      super(handle, queue);
+      this.type = type;
+      this.site = site;
+      this.allocation = allocation;
+    }
+  }
+
+  private NotesHandleTracker() {
+  }
+
+  /**
+   * Enables or disables tracking. Objects created while tracking was
+   * disabled are never counted.
+   */
+  public static void setEnabled(boolean enable) {
+    enabled = enable;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Starts tracking a newly created object.
+   *
+   * @param handle the new object
+   * @return a token to pass to {@link #recycled}, or null if tracking
+   * is disabled
+   */
+  public static Object track(NotesBase handle) {
+    if (!enabled) {
+      return null;
+    }
+    Throwable allocation = new Throwable("Notes object allocation");
+    Handle token = new Handle(handle, handle.getClass().getSimpleName(),
+        getSite(allocation), allocation);
+    synchronized (NotesHandleTracker.class) {
+      expungeLeaks();
+      live.add(token);
+      increment(liveByType, token.type, 1);
+      increment(liveBySite, token.site, 1);
+      createdCount++;
+    }
+    return token;
+  }
+
+  /**
+   * Stops tracking an object that has been recycled.
+   *
+   * @param token the token returned by {@link #track}, may be null
+   */
+  public static void recycled(Object token) {
+    if (token == null) {
+      return;
+    }
+    Handle handle = (Handle) token;
+    synchronized (NotesHandleTracker.class) {
+      if (live.remove(handle)) {
+        handle.clear();
+        increment(liveByType, handle.type, -1);
+        increment(liveBySite, handle.site, -1);
+        recycledCount++;
+      }
+    }
+  }
+
+  /**
+   * Reports a tracked object as garbage collected, as the reference
+   * queue would, without waiting for the garbage collector.
+   *
+   * @param token the token returned by {@link #track}
+   */
+  @VisibleForTesting
+  static void reportCollected(Object token) {
+    ((Handle) token).enqueue();
+  }
+
+  /** Gets the number of live objects by type. */
+  public static synchronized Map<String, Integer> getLiveCountsByType() {
+    expungeLeaks();
+    return new TreeMap<String, Integer>(liveByType);
+  }
+
+  /** Gets the number of live objects by the method that created them. */
+  public static synchronized Map<String, Integer> getLiveCountsBySite() {
+    expungeLeaks();
+    return new TreeMap<String, Integer>(liveBySite);
+  }
+
+  public static synchronized int getLiveCount() {
+    expungeLeaks();
+    return live.size();
+  }
+
+  public static synchronized long getCreatedCount() {
+    return createdCount;
+  }
+
+  public static synchronized long getRecycledCount() {
+    return recycledCount;
+  }
+
+  /** Gets the number of objects collected without being recycled. */
+  public static synchronized long getLeakCount() {
+    expungeLeaks();
+    return leakCount;
+  }
+
+  /** Gets a one-line summary of the counts for logging. */
+  public static synchronized String getSummary() {
+    expungeLeaks();
+    return "live: " + live.size() + "; created: " + createdCount
+        + "; recycled: " + recycledCount + "; leaked: " + leakCount
+        + "; live by type: " + liveByType;
+  }
+
+  /** Logs and uncounts the objects collected without being recycled. */
+  private static void expungeLeaks() {
+    Reference<? extends NotesBase> ref;
+    while ((ref = queue.poll()) != null) {
+      Handle handle = (Handle) ref;
+      if (live.remove(handle)) {
+        increment(liveByType, handle.type, -1);
+        increment(liveBySite, handle.site, -1);
+        leakCount++;
+        LOGGER.log(Level.WARNING, "Notes " + handle.type + " created by "
+            + handle.site + " was not recycled", handle.allocation);
+      }
+    }
+  }
+
+  /** Gets the first caller outside the client layer. */
+  private static String getSite(Throwable allocation) {
+    for (StackTraceElement frame : allocation.getStackTrace()) {
+      if (!frame.getClassName().startsWith(CLIENT_PACKAGE)) {
+        return frame.getClassName() + "." + frame.getMethodName() + ":"
+            + frame.getLineNumber();
+      }
+    }
+    return "unknown";
+  }
+
+  private static void increment(Map<String, Integer> counts, String key,
+      int delta) {
+    Integer count = counts.get(key);
+    int value = (count == null ? 0 : count) + delta;
+    if (value == 0) {
+      counts.remove(key);
+    } else {
+      counts.put(key, value);
+    }
+  }
+}
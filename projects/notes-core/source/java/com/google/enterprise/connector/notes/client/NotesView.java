@@ -108,6 +108,16 @@ public interface NotesView extends NotesBase {
    */
   NotesViewNavigator createViewNav() throws RepositoryException;
 
+  /**
+   * Gets the index in {@link NotesViewEntry#getColumnValues} of the
+   * column that displays the given item.
+   *
+   * @param itemName the item name
+   * @return the index, or -1 if no column displays the item
+   * @throws RepositoryException
+   */
+  int getColumnValuesIndex(String itemName) throws RepositoryException;
+
   /**
    * Updates the view.
    *
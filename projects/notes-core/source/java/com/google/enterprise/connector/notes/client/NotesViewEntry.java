@@ -35,4 +35,12 @@ public interface NotesViewEntry extends NotesBase {
    * @throws RepositoryException
    */
   NotesDocument getDocument() throws RepositoryException;
+
+  /**
+   * Returns the universal ID of the entry's document.
+   *
+   * @return the universal ID
+   * @throws RepositoryException
+   */
+  String getUniversalID() throws RepositoryException;
 }
@@ -158,6 +158,25 @@ public class NotesAuthenticationManagerTest extends TestCase {
     verifyGroups(connectorSession, response);
   }
 
+  public void testAuthenticateKnownUserCachedPassword() throws Exception {
+    NotesCredentialCache cache = connectorSession.getCredentialCache();
+    cache.invalidateAll();
+    assertTrue(authenticationManager.authenticate(
+        new SimpleAuthenticationIdentity("anakin", "password")).isValid());
+    long hits = cache.getHitCount();
+
+    AuthenticationResponse response = authenticationManager.authenticate(
+        new SimpleAuthenticationIdentity("anakin", "password"));
+    assertTrue("known user not valid", response.isValid());
+    verifyGroups(connectorSession, response);
+    assertEquals(hits + 1, cache.getHitCount());
+
+    response = authenticationManager.authenticate(
+        new SimpleAuthenticationIdentity("anakin", "foo"));
+    assertFalse("valid with bad password", response.isValid());
+    assertEquals(hits + 1, cache.getHitCount());
+  }
+
   private void verifyGroups(NotesConnectorSession connectorSession,
       AuthenticationResponse response) throws Exception {
     @SuppressWarnings("unchecked")
@@ -0,0 +1,98 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import junit.framework.TestCase;
+
+public class NotesAuthorizationCacheTest extends TestCase {
+  private static final String DOCID1 =
+      "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223B";
+  private static final String DOCID2 =
+      "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223C";
+  private static final String REPLICAID = "jtmreplicaid0123";
+  private static final String UNID1 = "E54902C71C28594F852578CE004B223B";
+  private static final String UNID2 = "E54902C71C28594F852578CE004B223C";
+
+  private NotesAuthorizationCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new NotesAuthorizationCache(60, 10);
+  }
+
+  public void testPutGet() {
+    assertNull(cache.get("anakin", DOCID1));
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    cache.put("anakin", DOCID2, REPLICAID, UNID2, false, cache.getStamp());
+    assertEquals(Boolean.TRUE, cache.get("anakin", DOCID1));
+    assertEquals(Boolean.FALSE, cache.get("anakin", DOCID2));
+    assertNull(cache.get("obiwan", DOCID1));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testDisabled() {
+    cache = new NotesAuthorizationCache(0, 10);
+    assertFalse(cache.isEnabled());
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    assertNull(cache.get("anakin", DOCID1));
+    assertEquals(0, cache.size());
+  }
+
+  public void testEviction() {
+    cache = new NotesAuthorizationCache(60, 1);
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    cache.put("anakin", DOCID2, REPLICAID, UNID2, true, cache.getStamp());
+    assertEquals(1, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertNull(cache.get("anakin", DOCID1));
+    assertEquals(Boolean.TRUE, cache.get("anakin", DOCID2));
+  }
+
+  public void testInvalidateAll() {
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    cache.invalidateAll();
+    assertNull(cache.get("anakin", DOCID1));
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  public void testInvalidateDatabase() {
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    cache.invalidateDatabase("otherreplica0123");
+    assertEquals(Boolean.TRUE, cache.get("anakin", DOCID1));
+    cache.invalidateDatabase(REPLICAID);
+    assertNull(cache.get("anakin", DOCID1));
+
+    // Decisions made after the invalidation are cached.
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, false, cache.getStamp());
+    assertEquals(Boolean.FALSE, cache.get("anakin", DOCID1));
+  }
+
+  public void testInvalidateDocument() {
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, cache.getStamp());
+    cache.put("anakin", DOCID2, REPLICAID, UNID2, true, cache.getStamp());
+    cache.invalidateDocument(UNID1);
+    assertNull(cache.get("anakin", DOCID1));
+    assertEquals(Boolean.TRUE, cache.get("anakin", DOCID2));
+  }
+
+  public void testInvalidationDuringRequest() {
+    long stamp = cache.getStamp();
+    cache.invalidateDocument(UNID1);
+    cache.put("anakin", DOCID1, REPLICAID, UNID1, true, stamp);
+    assertNull(cache.get("anakin", DOCID1));
+  }
+}
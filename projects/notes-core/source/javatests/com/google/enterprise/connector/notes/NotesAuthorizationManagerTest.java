@@ -412,4 +412,84 @@ public class NotesAuthorizationManagerTest extends TestCase {
       assertTrue(r.isValid());
     }
   }
+
+  public void testAuthorizeDocidsUsesCache() throws Exception {
+    SimpleAuthenticationIdentity id =
+        new SimpleAuthenticationIdentity("anakin");
+    ArrayList<String> docids = Lists.newArrayList(
+        "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223B",
+        "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223C");
+    NotesAuthorizationCache cache = connectorSession.getAuthorizationCache();
+    cache.invalidateAll();
+    authorizationManager.authorizeDocids(docids, id);
+    long hits = cache.getHitCount();
+
+    Collection<AuthorizationResponse> response =
+        authorizationManager.authorizeDocids(docids, id);
+    assertEquals(docids.size(), response.size());
+    for (AuthorizationResponse r : response) {
+      assertTrue(r.isValid());
+    }
+    assertEquals(hits + docids.size(), cache.getHitCount());
+  }
+
+  public void testAuthorizeDocidsKeepsOrderWithCache() throws Exception {
+    SimpleAuthenticationIdentity id =
+        new SimpleAuthenticationIdentity("anakin");
+    String cached =
+        "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223D";
+    connectorSession.getAuthorizationCache().invalidateAll();
+    authorizationManager.authorizeDocids(Lists.newArrayList(cached), id);
+
+    // The last docid is answered from the cache, and the others aren't.
+    ArrayList<String> docids = Lists.newArrayList(
+        "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223B",
+        "http://host:80/jtmreplicaid0123/0/E54902C71C28594F852578CE004B223C",
+        cached);
+    Collection<AuthorizationResponse> response =
+        authorizationManager.authorizeDocids(docids, id);
+    ArrayList<String> responseDocids = new ArrayList<String>();
+    for (AuthorizationResponse r : response) {
+      responseDocids.add(r.getDocid());
+    }
+    assertEquals(docids, responseDocids);
+  }
+
+  public void testAuthorizeDocidsUsesMirroredAcl() throws Exception {
+    // This database is not in the security view, so access can only be
+    // decided from the mirrored ACL.
+    connectorSession.getNotesDocumentManager().setDatabaseAcl(
+        "mirroredacl00001", new NotesDocumentManager.DatabaseAcl(
+            Lists.newArrayList("CN=Anakin Skywalker/OU=Tests/O=Tests"),
+            new ArrayList<String>(), new ArrayList<String>(),
+            new ArrayList<String>()));
+    connectorSession.getAuthorizationCache().invalidateAll();
+    ArrayList<String> docids = Lists.newArrayList(
+        "http://host:80/mirroredacl00001/0/E54902C71C28594F852578CE004B223B");
+
+    Collection<AuthorizationResponse> response =
+        authorizationManager.authorizeDocids(docids,
+            new SimpleAuthenticationIdentity("anakin"));
+    assertEquals(1, response.size());
+    assertTrue(response.iterator().next().isValid());
+  }
+
+  public void testCheckDatabaseAccessMirroredAcl() throws Exception {
+    NotesDocumentManager.DatabaseAcl acl =
+        new NotesDocumentManager.DatabaseAcl(
+            Lists.newArrayList("CN=Anakin Skywalker/OU=Tests/O=Tests"),
+            Lists.newArrayList("Masters"), Lists.newArrayList("Grievous"),
+            Lists.newArrayList("Separatists"));
+
+    User user = new User(1L, "cn=anakin skywalker/ou=tests/o=tests", "anakin");
+    assertTrue(authorizationManager.checkDatabaseAccess(acl, user));
+    user = new User(1L, "cn=grievous/ou=tests", "g");
+    user.addGroup("masters");
+    assertFalse(authorizationManager.checkDatabaseAccess(acl, user));
+    user = new User(1L, "cn=foo/ou=tests", "g");
+    user.addGroup("masters");
+    assertTrue(authorizationManager.checkDatabaseAccess(acl, user));
+    user = new User(1L, "cn=foo/ou=tests", "g");
+    assertFalse(authorizationManager.checkDatabaseAccess(acl, user));
+  }
 }
@@ -0,0 +1,395 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.spi.AuthenticationManager;
+import com.google.enterprise.connector.spi.AuthenticationResponse;
+import com.google.enterprise.connector.spi.AuthorizationManager;
+import com.google.enterprise.connector.spi.AuthorizationResponse;
+import com.google.enterprise.connector.spi.SimpleAuthenticationIdentity;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Issues concurrent authentication and authorization requests for
+ * many simulated users, for sizing connector hosts for peak search
+ * traffic.
+ *
+ * Each worker thread repeatedly picks a random user and either
+ * authenticates them or authorizes them for a random set of document
+ * IDs. The driver reports the throughput and latency percentiles, and
+ * samples the workers to find the locks they were blocked on, keyed by
+ * the class of the lock object, such as NotesUserGroupManager.
+ *
+ * A request fails if it throws an exception, if an authentication
+ * response is invalid, or if an authorization response does not hold
+ * exactly one result for each requested document. If an
+ * {@link Expectation} is set, a result that it does not expect also
+ * fails the request.
+ *
+ * <pre>
+ *   NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+ *       session.getAuthenticationManager(),
+ *       session.getAuthorizationManager(), 1)
+ *       .setUsers(users, "password").setDocIds(docIds, 20)
+ *       .setThreads(50).run(10000, 0);
+ * </pre>
+ */
+public class NotesAuthzLoadDriver {
+  private static final String CLASS_NAME =
+      NotesAuthzLoadDriver.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /** The interval between samples of the worker threads' states. */
+  private static final long SAMPLE_MILLIS = 10;
+
+  /** The outcome of a load run. */
+  public static class Result {
+    public final long requests;
+    public final long failures;
+    public final long elapsedMillis;
+    public final double p50Millis;
+    public final double p99Millis;
+    public final double p999Millis;
+    public final double maxMillis;
+    public final long blockedCount;
+    public final long blockedMillis;
+    public final Map<String, Integer> blockedOnLocks;
+
+    Result(long requests, long failures, long elapsedMillis,
+        long[] sortedNanos, long blockedCount, long blockedMillis,
+        Map<String, Integer> blockedOnLocks) {
+      this.requests = requests;
+      this.failures = failures;
+      this.elapsedMillis = elapsedMillis;
+      this.p50Millis = percentile(sortedNanos, 50.0);
+      this.p99Millis = percentile(sortedNanos, 99.0);
+      this.p999Millis = percentile(sortedNanos, 99.9);
+      this.maxMillis = (sortedNanos.length == 0) ? 0
+          : sortedNanos[sortedNanos.length - 1] / 1e6;
+      this.blockedCount = blockedCount;
+      this.blockedMillis = blockedMillis;
+      this.blockedOnLocks = blockedOnLocks;
+    }
+
+    /** Gets the requests completed per second. */
+    public double getThroughput() {
+      return (elapsedMillis == 0) ? 0 : requests * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("requests: %d; failures: %d; throughput: %.1f/s;"
+          + " p50: %.2fms; p99: %.2fms; p999: %.2fms; max: %.2fms;"
+          + " blocked: %d times, %dms; blocked on: %s", requests, failures,
+          getThroughput(), p50Millis, p99Millis, p999Millis, maxMillis,
+          blockedCount, blockedMillis, blockedOnLocks);
+    }
+  }
+
+  /** Decides which documents each simulated user may see. */
+  public interface Expectation {
+    boolean isPermitted(String user, String docId);
+  }
+
+  private final AuthenticationManager authenticationManager;
+  private final AuthorizationManager authorizationManager;
+  private final long seed;
+
+  private List<String> users = Collections.emptyList();
+  private String password;
+  private List<String> docIds = Collections.emptyList();
+  private int docsPerRequest = 10;
+  private int threads = 10;
+  private double authenticationRate = 0.1;
+  private Expectation expectation;
+
+  /**
+   * @param authenticationManager the connector's authentication manager
+   * @param authorizationManager the connector's authorization manager
+   * @param seed the seed for choosing users and documents
+   */
+  public NotesAuthzLoadDriver(AuthenticationManager authenticationManager,
+      AuthorizationManager authorizationManager, long seed) {
+    this.authenticationManager = authenticationManager;
+    this.authorizationManager = authorizationManager;
+    this.seed = seed;
+  }
+
+  /** Sets the simulated users and the password they authenticate with. */
+  public NotesAuthzLoadDriver setUsers(List<String> users, String password) {
+    this.users = users;
+    this.password = password;
+    return this;
+  }
+
+  /** Sets the documents to authorize and the number per request. */
+  public NotesAuthzLoadDriver setDocIds(List<String> docIds,
+      int docsPerRequest) {
+    this.docIds = docIds;
+    this.docsPerRequest = docsPerRequest;
+    return this;
+  }
+
+  public NotesAuthzLoadDriver setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  /** Sets the fraction of requests that are authentication requests. */
+  public NotesAuthzLoadDriver setAuthenticationRate(double rate) {
+    this.authenticationRate = rate;
+    return this;
+  }
+
+  /**
+   * Sets the expected authorization results. By default only the
+   * number of results and their document IDs are checked.
+   */
+  public NotesAuthzLoadDriver setExpectation(Expectation expectation) {
+    this.expectation = expectation;
+    return this;
+  }
+
+  /**
+   * Runs the workers until they have made the given number of requests
+   * or the time limit has passed.
+   *
+   * @param maxRequests the total number of requests
+   * @param maxMillis the time limit, or 0 for none
+   */
+  public Result run(long maxRequests, long maxMillis)
+      throws InterruptedException {
+    if (users.isEmpty()) {
+      throw new IllegalStateException("No users to simulate");
+    }
+    final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    boolean wasMonitoring = threadBean.isThreadContentionMonitoringSupported()
+        && threadBean.isThreadContentionMonitoringEnabled();
+    if (threadBean.isThreadContentionMonitoringSupported()) {
+      threadBean.setThreadContentionMonitoringEnabled(true);
+    }
+
+    final AtomicLong remaining = new AtomicLong(maxRequests);
+    final long timeEnd = (maxMillis > 0)
+        ? System.currentTimeMillis() + maxMillis : Long.MAX_VALUE;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Worker> workers = new ArrayList<Worker>(threads);
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker(new Random(seed + i), remaining, timeEnd,
+          start);
+      worker.setName(NotesAuthzLoadDriver.class.getSimpleName() + i);
+      worker.setDaemon(true);
+      workers.add(worker);
+      worker.start();
+    }
+
+    Map<String, Integer> blockedOnLocks = new TreeMap<String, Integer>();
+    long[] threadIds = new long[workers.size()];
+    for (int i = 0; i < threadIds.length; i++) {
+      threadIds[i] = workers.get(i).getId();
+    }
+    long timeStart = System.currentTimeMillis();
+    start.countDown();
+    try {
+      while (isAlive(workers)) {
+        sampleBlockedThreads(threadBean, threadIds, blockedOnLocks);
+        Thread.sleep(SAMPLE_MILLIS);
+      }
+    } finally {
+      remaining.set(0);
+    }
+    long elapsed = System.currentTimeMillis() - timeStart;
+
+    long requests = 0;
+    long failures = 0;
+    long blockedCount = 0;
+    long blockedMillis = 0;
+    for (Worker worker : workers) {
+      worker.join();
+      requests += worker.count;
+      failures += worker.failures;
+      blockedCount += worker.blockedCount;
+      blockedMillis += worker.blockedMillis;
+    }
+    long[] latencies = new long[(int) requests];
+    int offset = 0;
+    for (Worker worker : workers) {
+      System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+      offset += worker.count;
+    }
+    Arrays.sort(latencies);
+
+    if (threadBean.isThreadContentionMonitoringSupported()) {
+      threadBean.setThreadContentionMonitoringEnabled(wasMonitoring);
+    }
+    Result result = new Result(requests, failures, elapsed, latencies,
+        blockedCount, blockedMillis, blockedOnLocks);
+    LOGGER.log(Level.INFO, "Authorization load: {0}", result);
+    return result;
+  }
+
+  private static boolean isAlive(List<Worker> workers) {
+    for (Worker worker : workers) {
+      if (worker.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Counts the workers blocked on each class of lock. */
+  private static void sampleBlockedThreads(ThreadMXBean threadBean,
+      long[] threadIds, Map<String, Integer> blockedOnLocks) {
+    for (ThreadInfo info : threadBean.getThreadInfo(threadIds)) {
+      if (info == null || info.getThreadState() != Thread.State.BLOCKED
+          || info.getLockInfo() == null) {
+        continue;
+      }
+      String lockClass = info.getLockInfo().getClassName();
+      lockClass = lockClass.substring(lockClass.lastIndexOf('.') + 1);
+      Integer count = blockedOnLocks.get(lockClass);
+      blockedOnLocks.put(lockClass, (count == null) ? 1 : count + 1);
+    }
+  }
+
+  /** Gets a nearest-rank percentile, in milliseconds. */
+  private static double percentile(long[] sortedNanos, double percent) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percent / 100.0 * sortedNanos.length);
+    return sortedNanos[Math.max(rank, 1) - 1] / 1e6;
+  }
+
+  private class Worker extends Thread {
+    private final Random random;
+    private final AtomicLong remaining;
+    private final long timeEnd;
+    private final CountDownLatch start;
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long failures;
+    private long blockedCount;
+    private long blockedMillis;
+
+    Worker(Random random, AtomicLong remaining, long timeEnd,
+        CountDownLatch start) {
+      this.random = random;
+      this.remaining = remaining;
+      this.timeEnd = timeEnd;
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+      } catch (InterruptedException e) {
+        return;
+      }
+      while (remaining.getAndDecrement() > 0
+          && System.currentTimeMillis() < timeEnd) {
+        String user = users.get(random.nextInt(users.size()));
+        long timeStart = System.nanoTime();
+        try {
+          if (random.nextDouble() < authenticationRate) {
+            AuthenticationResponse response =
+                authenticationManager.authenticate(
+                    new SimpleAuthenticationIdentity(user, password));
+            if (response == null || !response.isValid()) {
+              failures++;
+              LOGGER.log(Level.FINEST, "Authentication failed for {0}",
+                  user);
+            }
+          } else {
+            Set<String> ids = pickDocIds();
+            Collection<AuthorizationResponse> responses =
+                authorizationManager.authorizeDocids(ids,
+                    new SimpleAuthenticationIdentity(user));
+            if (!isExpected(user, ids, responses)) {
+              failures++;
+              LOGGER.log(Level.FINEST, "Unexpected authorization for {0}: "
+                  + "{1}", new Object[] { user, responses });
+            }
+          }
+        } catch (Exception e) {
+          failures++;
+          LOGGER.log(Level.FINEST, "Request failed for " + user, e);
+        }
+        record(System.nanoTime() - timeStart);
+      }
+      ThreadInfo info = ManagementFactory.getThreadMXBean()
+          .getThreadInfo(getId());
+      if (info != null) {
+        blockedCount = info.getBlockedCount();
+        blockedMillis = Math.max(0, info.getBlockedTime());
+      }
+    }
+
+    /** Picks distinct document IDs, so each should get one result. */
+    private Set<String> pickDocIds() {
+      int count = Math.min(docsPerRequest, docIds.size());
+      Set<String> picked = new LinkedHashSet<String>(count);
+      while (picked.size() < count) {
+        picked.add(docIds.get(random.nextInt(docIds.size())));
+      }
+      return picked;
+    }
+
+    private boolean isExpected(String user, Set<String> ids,
+        Collection<AuthorizationResponse> responses) {
+      if (responses == null || responses.size() != ids.size()) {
+        return false;
+      }
+      Set<String> answered = new LinkedHashSet<String>();
+      for (AuthorizationResponse response : responses) {
+        String docId = response.getDocid();
+        if (!ids.contains(docId) || !answered.add(docId)) {
+          return false;
+        }
+        if (expectation != null
+            && expectation.isPermitted(user, docId) != response.isValid()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void record(long elapsedNanos) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = elapsedNanos;
+    }
+  }
+}
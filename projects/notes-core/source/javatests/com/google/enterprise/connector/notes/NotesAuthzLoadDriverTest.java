@@ -0,0 +1,244 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.NotesDocument;
+import com.google.enterprise.connector.notes.client.NotesDocumentCollection;
+import com.google.enterprise.connector.notes.client.mock.LatencyProfile;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+import com.google.enterprise.connector.spi.AuthenticationIdentity;
+import com.google.enterprise.connector.spi.AuthenticationManager;
+import com.google.enterprise.connector.spi.AuthenticationResponse;
+import com.google.enterprise.connector.spi.AuthorizationManager;
+import com.google.enterprise.connector.spi.AuthorizationResponse;
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.google.enterprise.connector.spi.SimpleAuthenticationIdentity;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NotesAuthzLoadDriverTest extends TestCase {
+  /**
+   * How long each contended request holds the shared lock, long
+   * enough that the workers are still queued on it when sampled.
+   */
+  private static final long LOCK_MILLIS = 20;
+
+  private final AtomicInteger authenticateCount = new AtomicInteger();
+  private final AtomicInteger authorizeCount = new AtomicInteger();
+  private final List<String> users = new ArrayList<String>();
+  private final List<String> docIds = new ArrayList<String>();
+
+  /** Stands in for a cache lock shared by all requests. */
+  private static class SharedLock {
+  }
+
+  private final SharedLock lock = new SharedLock();
+
+  private final AuthenticationManager authenticationManager =
+      new AuthenticationManager() {
+        @Override
+        public AuthenticationResponse authenticate(
+            AuthenticationIdentity identity) {
+          authenticateCount.incrementAndGet();
+          return new AuthenticationResponse(true, null);
+        }
+      };
+
+  /** Permits every document, holding the shared lock while it does. */
+  private final AuthorizationManager contendedManager =
+      new AuthorizationManager() {
+        @Override
+        public Collection<AuthorizationResponse> authorizeDocids(
+            Collection<String> ids, AuthenticationIdentity identity)
+            throws RepositoryException {
+          authorizeCount.incrementAndGet();
+          synchronized (lock) {
+            try {
+              Thread.sleep(LOCK_MILLIS);
+            } catch (InterruptedException e) {
+              throw new RepositoryException(e);
+            }
+          }
+          List<AuthorizationResponse> responses =
+              new ArrayList<AuthorizationResponse>();
+          for (String id : ids) {
+            responses.add(new AuthorizationResponse(true, id));
+          }
+          return responses;
+        }
+      };
+
+  @Override
+  protected void setUp() {
+    for (int i = 0; i < 1000; i++) {
+      users.add("user" + i);
+      docIds.add("doc" + i);
+    }
+  }
+
+  public void testRequestCount() throws Exception {
+    AuthorizationManager failing = new AuthorizationManager() {
+        @Override
+        public Collection<AuthorizationResponse> authorizeDocids(
+            Collection<String> ids, AuthenticationIdentity identity)
+            throws RepositoryException {
+          authorizeCount.incrementAndGet();
+          assertEquals(5, ids.size());
+          throw new RepositoryException("expected");
+        }
+      };
+    NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+        authenticationManager, failing, 1)
+        .setUsers(users, "password").setDocIds(docIds, 5)
+        .setThreads(8).setAuthenticationRate(0.25).run(2000, 0);
+
+    assertEquals(2000, result.requests);
+    assertEquals(2000, authenticateCount.get() + authorizeCount.get());
+    assertEquals(authorizeCount.get(), result.failures);
+    assertTrue(String.valueOf(authenticateCount.get()),
+        authenticateCount.get() > 300 && authenticateCount.get() < 700);
+    assertTrue(result.p50Millis <= result.p99Millis);
+    assertTrue(result.p99Millis <= result.p999Millis);
+    assertTrue(result.p999Millis <= result.maxMillis);
+  }
+
+  public void testInvalidResponses() throws Exception {
+    AuthenticationManager denying = new AuthenticationManager() {
+        @Override
+        public AuthenticationResponse authenticate(
+            AuthenticationIdentity identity) {
+          return new AuthenticationResponse(false, null);
+        }
+      };
+    NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+        denying, contendedManager, 1).setUsers(users, "password")
+        .setThreads(2).setAuthenticationRate(1.0).run(20, 0);
+    assertEquals(20, result.failures);
+
+    // Results missing for a requested document.
+    AuthorizationManager incomplete = new AuthorizationManager() {
+        @Override
+        public Collection<AuthorizationResponse> authorizeDocids(
+            Collection<String> ids, AuthenticationIdentity identity) {
+          List<AuthorizationResponse> responses =
+              new ArrayList<AuthorizationResponse>();
+          for (String id : ids) {
+            responses.add(new AuthorizationResponse(true, id));
+          }
+          responses.remove(0);
+          return responses;
+        }
+      };
+    result = new NotesAuthzLoadDriver(authenticationManager, incomplete, 1)
+        .setUsers(users, "password").setDocIds(docIds, 5)
+        .setThreads(2).setAuthenticationRate(0).run(20, 0);
+    assertEquals(20, result.failures);
+
+    // Every request includes doc0, which is expected to be denied.
+    NotesAuthzLoadDriver.Expectation denyFirst =
+        new NotesAuthzLoadDriver.Expectation() {
+          @Override
+          public boolean isPermitted(String user, String docId) {
+            return !docId.equals("doc0");
+          }
+        };
+    result = new NotesAuthzLoadDriver(authenticationManager,
+        contendedManager, 1)
+        .setUsers(users, "password").setDocIds(docIds.subList(0, 2), 2)
+        .setThreads(2).setAuthenticationRate(0).setExpectation(denyFirst)
+        .run(10, 0);
+    assertEquals(10, result.failures);
+  }
+
+  public void testContention() throws Exception {
+    NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+        authenticationManager, contendedManager, 1)
+        .setUsers(users, "password").setDocIds(docIds, 10)
+        .setThreads(4).setAuthenticationRate(0).run(40, 0);
+
+    assertEquals(40, result.requests);
+    assertEquals(0, result.failures);
+    assertEquals(40, authorizeCount.get());
+    // The workers serialize on the lock, so while one holds it the
+    // others are blocked on it for many sampling intervals.
+    assertTrue(result.toString(), result.blockedOnLocks.containsKey(
+        "NotesAuthzLoadDriverTest$SharedLock"));
+  }
+
+  public void testConnectorManagers() throws Exception {
+    NotesConnector connector = NotesConnectorTest.getConnector();
+    SessionFactoryMock factory =
+        (SessionFactoryMock) connector.getSessionFactory();
+    NotesConnectorSessionTest.configureFactoryForSession(factory);
+    NotesScenarioRunner runner =
+        new NotesScenarioRunner(connector, new LatencyProfile(1));
+    runner.login();
+    try {
+      NotesConnectorSession session = runner.getSession();
+      SyntheticDataGenerator generator = new SyntheticDataGenerator(1)
+          .setPersons(50).setGroups(10, 2, 5).setDatabases(2, 20);
+      generator.generateDirectory(factory.getDatabase("testnames.nsf"),
+          session);
+      List<NotesDatabaseMock> databases = generator.generateDatabases(
+          factory, factory.getDatabase("testconfig.nsf"));
+      session.getUserGroupManager().updateUsersGroups(true);
+      runner.traverse(100, 5);
+
+      // The directory maps each person to the short name "user<n>".
+      List<String> gsaNames = new ArrayList<String>();
+      for (int i = 0; i < generator.getPersonNames().size(); i++) {
+        gsaNames.add("user" + i);
+      }
+      List<String> gsaDocIds = new ArrayList<String>();
+      for (NotesDatabaseMock database : databases) {
+        NotesDocumentCollection documents = database.search(null);
+        for (NotesDocument document = documents.getFirstDocument();
+             document != null; document = documents.getNextDocument()) {
+          gsaDocIds.add("http://" + TESTCONST.SERVER_DOMINO_WEB
+              + TESTCONST.DOMAIN + "/" + database.getReplicaID() + "/0/"
+              + document.getUniversalID());
+        }
+      }
+      assertTrue(session.getAuthenticationManager().authenticate(
+          new SimpleAuthenticationIdentity("user0", "password")).isValid());
+
+      NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+          session.getAuthenticationManager(),
+          session.getAuthorizationManager(), 1)
+          .setUsers(gsaNames, "password").setDocIds(gsaDocIds, 10)
+          .setThreads(4).setAuthenticationRate(0.2).run(400, 0);
+      assertEquals(result.toString(), 400, result.requests);
+      assertEquals(result.toString(), 0, result.failures);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  public void testTimeLimit() throws Exception {
+    long timeStart = System.currentTimeMillis();
+    NotesAuthzLoadDriver.Result result = new NotesAuthzLoadDriver(
+        authenticationManager, contendedManager, 1)
+        .setUsers(users, "password").setDocIds(docIds, 10)
+        .setThreads(2).setAuthenticationRate(0).run(Long.MAX_VALUE, 100);
+    assertTrue(System.currentTimeMillis() - timeStart < 1000);
+    assertTrue(result.toString(), result.requests > 0);
+  }
+}
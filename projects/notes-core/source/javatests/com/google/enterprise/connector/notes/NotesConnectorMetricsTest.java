@@ -0,0 +1,337 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.NotesConnectorMetrics.Stage;
+import com.google.enterprise.connector.notes.client.NotesBase;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
+
+import junit.framework.TestCase;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+public class NotesConnectorMetricsTest extends TestCase {
+  private static class TrackedObject implements NotesBase {
+    @Override
+    public void recycle() {
+    }
+
+    @Override
+    public void recycle(Vector objects) {
+    }
+  }
+
+  private long now;
+  private NotesConnectorMetrics metrics;
+
+  @Override
+  protected void setUp() {
+    now = 10 * 60000L;
+    metrics = new NotesConnectorMetrics() {
+        @Override
+        long currentTimeMillis() {
+          return now;
+        }
+      };
+  }
+
+  public void testRecord() {
+    metrics.record(Stage.FEED, now - 5, true);
+    metrics.record(Stage.FEED, now - 50, true);
+    metrics.record(Stage.FEED, now - 5000, false, 3);
+
+    NotesStageMetrics feed = metrics.getFeed();
+    assertEquals(3, feed.getCount());
+    assertEquals(1, feed.getFailures());
+    assertEquals(5, feed.getItems());
+    assertEquals(5055 / 3.0, feed.getMeanMillis(), 0.001);
+    assertEquals(5000, feed.getMaxMillis());
+    assertEquals("[1, 1, 0, 1, 0, 0, 0]",
+        Arrays.toString(feed.getLatencyHistogram()));
+    assertEquals(0, metrics.getCheckpoint().getCount());
+  }
+
+  public void testLastMinute() {
+    metrics.record(Stage.AUTHORIZATION, now, true, 10);
+    metrics.record(Stage.AUTHORIZATION, now, true, 20);
+    assertEquals(0, metrics.getAuthorization().getCountLastMinute());
+
+    now += 60000;
+    metrics.record(Stage.AUTHORIZATION, now, true, 5);
+    NotesStageMetrics authz = metrics.getAuthorization();
+    assertEquals(2, authz.getCountLastMinute());
+    assertEquals(30, authz.getItemsLastMinute());
+    assertEquals(3, authz.getCount());
+
+    // A minute without operations.
+    now += 120000;
+    assertEquals(0, metrics.getAuthorization().getCountLastMinute());
+    assertEquals(3, metrics.getAuthorization().getCount());
+  }
+
+  public void testDatabasePolls() {
+    metrics.recordDatabasePoll("Mail", now - 20, true, 7);
+    metrics.recordDatabasePoll("Mail", now - 20, true, 3);
+    metrics.recordDatabasePoll("Discussion", now - 20, false, 0);
+
+    Map<String, NotesStageMetrics> polls = metrics.getPollingByDatabase();
+    assertEquals("[Discussion, Mail]", polls.keySet().toString());
+    assertEquals(2, polls.get("Mail").getCount());
+    assertEquals(10, polls.get("Mail").getItems());
+    assertEquals(1, polls.get("Discussion").getFailures());
+  }
+
+  public void testCrawlByDatabase() {
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now - 20, true, 10,
+        7, 3);
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now - 30, false, 0,
+        0, 0);
+    metrics.recordDatabaseCrawlPrefetch("REPLICA1", now - 100, true);
+    metrics.recordDatabaseCrawlPrefetch("REPLICA1", now - 50, false);
+    metrics.recordDatabaseCrawlAttachment("REPLICA1", 1000);
+    metrics.recordDatabaseCrawlAttachment("REPLICA1", 24);
+    // The crawler may prefetch documents polled by an earlier instance.
+    metrics.recordDatabaseCrawlPrefetch("REPLICA2", now - 5, true);
+
+    Map<String, NotesDatabaseCrawlMetrics> crawls =
+        metrics.getCrawlByDatabase();
+    assertEquals("[REPLICA1, REPLICA2]", crawls.keySet().toString());
+    NotesDatabaseCrawlMetrics mail = crawls.get("REPLICA1");
+    assertEquals("Mail", mail.getDatabaseName());
+    assertEquals(2, mail.getPolls());
+    assertEquals(10, mail.getDocumentsPolled());
+    assertEquals(7, mail.getDocumentsEnqueued());
+    assertEquals(3, mail.getDocumentsSkipped());
+    assertEquals(1, mail.getDocumentsPrefetched());
+    assertEquals(2, mail.getAttachmentCount());
+    assertEquals(1024, mail.getAttachmentBytes());
+    assertEquals(2, mail.getErrors());
+    assertEquals(50, mail.getPollMillis());
+    assertEquals(150, mail.getPrefetchMillis());
+    assertEquals(30, mail.getLastPollMillis());
+    assertEquals(now, mail.getLastPollTime().getTime());
+
+    NotesDatabaseCrawlMetrics other = crawls.get("REPLICA2");
+    assertNull(other.getDatabaseName());
+    assertNull(other.getLastPollTime());
+    assertEquals(5, other.getPrefetchMillis());
+  }
+
+  public void testLoadCrawlByDatabase() {
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now, true, 1, 1, 0);
+    Map<String, NotesDatabaseCrawlMetrics> saved =
+        new TreeMap<String, NotesDatabaseCrawlMetrics>();
+    saved.put("REPLICA1", new NotesDatabaseCrawlMetrics("Old Mail", 9, 9, 9,
+        9, 9, 9, 9, 9, 9, 9, 9, null));
+    saved.put("REPLICA2", new NotesDatabaseCrawlMetrics("Discussion", 4,
+        100, 60, 40, 60, 2, 2048, 1, 500, 700, 120, new Date(now - 1000)));
+    metrics.loadCrawlByDatabase(saved);
+
+    // Statistics gathered since the start aren't overwritten.
+    Map<String, NotesDatabaseCrawlMetrics> crawls =
+        metrics.getCrawlByDatabase();
+    assertEquals("Mail", crawls.get("REPLICA1").getDatabaseName());
+    assertEquals(1, crawls.get("REPLICA1").getPolls());
+
+    metrics.recordDatabaseCrawlPoll("REPLICA2", "Discussion", now - 80, true,
+        10, 5, 5);
+    NotesDatabaseCrawlMetrics discussion =
+        metrics.getCrawlByDatabase().get("REPLICA2");
+    assertEquals(5, discussion.getPolls());
+    assertEquals(110, discussion.getDocumentsPolled());
+    assertEquals(65, discussion.getDocumentsEnqueued());
+    assertEquals(45, discussion.getDocumentsSkipped());
+    assertEquals(2048, discussion.getAttachmentBytes());
+    assertEquals(580, discussion.getPollMillis());
+    assertEquals(80, discussion.getLastPollMillis());
+    assertEquals(now, discussion.getLastPollTime().getTime());
+  }
+
+  public void testTakeChangedCrawlByDatabase() {
+    Map<String, NotesDatabaseCrawlMetrics> saved =
+        new TreeMap<String, NotesDatabaseCrawlMetrics>();
+    saved.put("REPLICA3", new NotesDatabaseCrawlMetrics("Old Mail", 9, 9, 9,
+        9, 9, 9, 9, 9, 9, 9, 9, null));
+    metrics.loadCrawlByDatabase(saved);
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now, true, 1, 1, 0);
+    metrics.recordDatabaseCrawlPrefetch("REPLICA2", now - 5, true);
+
+    // Loaded statistics were saved already.
+    Map<String, NotesDatabaseCrawlMetrics> changed =
+        metrics.takeChangedCrawlByDatabase();
+    assertEquals("[REPLICA1, REPLICA2]", changed.keySet().toString());
+    assertEquals(1, changed.get("REPLICA1").getPolls());
+    assertTrue(metrics.takeChangedCrawlByDatabase().isEmpty());
+
+    metrics.recordDatabaseCrawlAttachment("REPLICA2", 1024);
+    metrics.markCrawlByDatabaseChanged(Arrays.asList("REPLICA3", "UNKNOWN"));
+    changed = metrics.takeChangedCrawlByDatabase();
+    assertEquals("[REPLICA2, REPLICA3]", changed.keySet().toString());
+    assertEquals(1024, changed.get("REPLICA2").getAttachmentBytes());
+    assertEquals(3, metrics.getCrawlByDatabase().size());
+  }
+
+  public void testFreshness() {
+    for (int i = 1; i <= 100; i++) {
+      metrics.recordFreshness("Mail", 0, 10, 20, 30, i * 100);
+    }
+    // Missing stage times count as taking no time.
+    metrics.recordFreshness("Discussion", 0, 0, 0, 0, 500);
+
+    Map<String, NotesFreshnessMetrics> freshness =
+        metrics.getFreshnessByDatabase();
+    assertEquals("[Discussion, Mail]", freshness.keySet().toString());
+    NotesFreshnessMetrics mail = freshness.get("Mail");
+    assertEquals(100, mail.getCount());
+    assertEquals(5000, mail.getLagP50Millis());
+    assertEquals(9000, mail.getLagP90Millis());
+    assertEquals(9900, mail.getLagP99Millis());
+    assertEquals(10000, mail.getLagMaxMillis());
+    assertEquals(10.0, mail.getMeanPollDelayMillis(), 0.001);
+    assertEquals(10.0, mail.getMeanCrawlQueueMillis(), 0.001);
+    assertEquals(10.0, mail.getMeanFeedQueueMillis(), 0.001);
+    assertEquals(5020.0, mail.getMeanCheckpointDelayMillis(), 0.001);
+
+    NotesFreshnessMetrics discussion = freshness.get("Discussion");
+    assertEquals(500, discussion.getLagP50Millis());
+    assertEquals(0.0, discussion.getMeanPollDelayMillis(), 0.001);
+    assertEquals(500.0, discussion.getMeanCheckpointDelayMillis(), 0.001);
+  }
+
+  public void testFreshnessWindow() {
+    for (int i = 0; i < NotesConnectorMetrics.FRESHNESS_WINDOW; i++) {
+      metrics.recordFreshness("Mail", 0, 0, 0, 0, 100000);
+    }
+    for (int i = 0; i < NotesConnectorMetrics.FRESHNESS_WINDOW; i++) {
+      metrics.recordFreshness("Mail", 0, 0, 0, 0, 10);
+    }
+    NotesFreshnessMetrics mail = metrics.getFreshnessByDatabase().get("Mail");
+    assertEquals(2 * NotesConnectorMetrics.FRESHNESS_WINDOW, mail.getCount());
+    assertEquals(10, mail.getLagMaxMillis());
+  }
+
+  public void testResetStatistics() {
+    metrics.record(Stage.PREFETCH, now, true);
+    metrics.recordDatabasePoll("Mail", now, true, 1);
+    metrics.recordFreshness("Mail", 0, 0, 0, 0, now);
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now, true, 1, 1, 0);
+    now += 1000;
+    metrics.resetStatistics();
+    assertEquals(0, metrics.getPrefetch().getCount());
+    assertEquals(0, metrics.getPrefetch().getMaxMillis());
+    assertTrue(metrics.getPollingByDatabase().isEmpty());
+    assertTrue(metrics.getFreshnessByDatabase().isEmpty());
+    assertTrue(metrics.getCrawlByDatabase().isEmpty());
+    assertEquals(now, metrics.getStatisticsStartTime().getTime());
+
+    // The saved statistics have to be cleared once.
+    assertTrue(metrics.takeCrawlByDatabaseReset());
+    assertFalse(metrics.takeCrawlByDatabaseReset());
+    metrics.markCrawlByDatabaseReset();
+    assertTrue(metrics.takeCrawlByDatabaseReset());
+  }
+
+  public void testRetainCrawlByDatabase() {
+    assertFalse(metrics.takeCrawlByDatabaseReset());
+    metrics.recordDatabaseCrawlPoll("REPLICA1", "Mail", now, true, 1, 1, 0);
+    metrics.recordDatabaseCrawlPoll("REPLICA2", "News", now, true, 1, 1, 0);
+    metrics.retainCrawlByDatabase(Collections.singleton("REPLICA2"));
+    assertEquals(Collections.singleton("REPLICA2"),
+        metrics.getCrawlByDatabase().keySet());
+    assertEquals(Collections.singleton("REPLICA2"),
+        metrics.takeChangedCrawlByDatabase().keySet());
+  }
+
+  public void testNotesObjects() throws Exception {
+    NotesHandleTracker.setEnabled(false);
+    assertEquals(0, metrics.getLiveNotesObjects());
+    assertEquals(0, metrics.getLeakedNotesObjects());
+    assertTrue(metrics.getLiveNotesObjectsByType().isEmpty());
+
+    NotesHandleTracker.setEnabled(true);
+    metrics.register("notestest-handles");
+    try {
+      int live = NotesHandleTracker.getLiveCount();
+      Object token = NotesHandleTracker.track(new TrackedObject());
+      assertEquals(live + 1, metrics.getLiveNotesObjects());
+      assertEquals(NotesHandleTracker.getLeakCount(),
+          metrics.getLeakedNotesObjects());
+      assertTrue(metrics.getLiveNotesObjectsByType().toString(),
+          metrics.getLiveNotesObjectsByType().get("TrackedObject") >= 1);
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(live + 1, server.getAttribute(metrics.getObjectName(),
+          "LiveNotesObjects"));
+      assertNotNull(server.getAttribute(metrics.getObjectName(),
+          "LeakedNotesObjects"));
+      assertNotNull(server.getAttribute(metrics.getObjectName(),
+          "LiveNotesObjectsByType"));
+
+      NotesHandleTracker.recycled(token);
+      assertEquals(live, metrics.getLiveNotesObjects());
+    } finally {
+      metrics.unregister();
+      NotesHandleTracker.setEnabled(false);
+    }
+  }
+
+  public void testRegister() throws Exception {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    metrics.register("notestest");
+    ObjectName name = metrics.getObjectName();
+    assertNotNull(name);
+    try {
+      metrics.record(Stage.AUTHENTICATION, now - 15, true);
+      CompositeData authn =
+          (CompositeData) server.getAttribute(name, "Authentication");
+      assertEquals(1L, authn.get("count"));
+      assertEquals(15L, authn.get("maxMillis"));
+
+      // A second instance replaces the first.
+      NotesConnectorMetrics other = new NotesConnectorMetrics();
+      other.register("notestest");
+      try {
+        assertEquals(name, other.getObjectName());
+        authn = (CompositeData) server.getAttribute(name, "Authentication");
+        assertEquals(0L, authn.get("count"));
+
+        // Shutting down the first instance leaves the second registered.
+        metrics.unregister();
+        assertNull(metrics.getObjectName());
+        assertTrue(server.isRegistered(name));
+        other.record(Stage.AUTHENTICATION, System.currentTimeMillis(), true);
+        authn = (CompositeData) server.getAttribute(name, "Authentication");
+        assertEquals(1L, authn.get("count"));
+      } finally {
+        other.unregister();
+      }
+      assertFalse(server.isRegistered(name));
+      assertNull(other.getObjectName());
+    } finally {
+      metrics.unregister();
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
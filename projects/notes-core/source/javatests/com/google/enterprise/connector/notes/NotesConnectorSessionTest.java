@@ -185,6 +185,15 @@ public class NotesConnectorSessionTest extends TestCase {
     assertEquals("text/plain", session.getMimeType("txt"));
     assertEquals("text/html", session.getMimeType("html"));
     assertEquals(1024, session.getCacheUpdateInterval());
+    assertEquals(NCCONST.DEFAULT_DIRECTORY_THREADS,
+        session.getDirectoryThreads());
+    assertEquals(NCCONST.DEFAULT_DIRECTORY_REFRESH_TIMEOUT,
+        session.getDirectoryRefreshTimeout());
+    assertEquals(NCCONST.DEFAULT_SESSION_MAX_AGE, session.getSessionMaxAge());
+    assertEquals(NCCONST.DEFAULT_CREDENTIAL_CACHE_TTL,
+        session.getCredentialCacheTtl());
+    assertFalse(session.isTrackNotesHandles());
+    assertFalse(session.isInstrumentNotesCalls());
     assertEquals("testnames.nsf", session.getDirectory());
     assertEquals(NCCONST.DEFAULT_USERNAMEFORMULA,
         session.getUserNameFormula());
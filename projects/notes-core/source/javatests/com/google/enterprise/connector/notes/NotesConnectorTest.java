@@ -34,8 +34,9 @@ public class NotesConnectorTest extends TestCase {
     connector.setGoogleLocalNamespace("LocalNamespace");
     connector.setGoogleGlobalNamespace("GlobalNamespace");
 
-    // Initialize this to prevent NotesConnector from creating one.
+    // Initialize these to prevent NotesConnector from creating them.
     connector.maintThread = new NotesMaintenanceThread(null, null);
+    connector.directoryRefresher = new NotesDirectoryRefresher(null, 0);
     connector.setGoogleConnectorName("notestest");
     connector.setDatabaseAccess(new ConnectorPersistentStore() {
         @Deprecated @Override
@@ -0,0 +1,82 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import junit.framework.TestCase;
+
+public class NotesCredentialCacheTest extends TestCase {
+  private static final String ANAKIN = "cn=anakin skywalker/ou=tests/o=tests";
+  private static final String OBIWAN = "cn=obiwan kenobi/ou=tests/o=tests";
+  private static final String HTTPPASSWORD = "(GHASHEDPASSWORD)";
+
+  private NotesCredentialCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = new NotesCredentialCache(60, 10);
+  }
+
+  public void testVerify() {
+    assertFalse(cache.verify(ANAKIN, "password"));
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    assertTrue(cache.verify(ANAKIN, "password"));
+    assertFalse(cache.verify(ANAKIN, "Password"));
+    assertFalse(cache.verify(OBIWAN, "password"));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(3, cache.getMissCount());
+  }
+
+  public void testDisabled() {
+    cache = new NotesCredentialCache(0, 10);
+    assertFalse(cache.isEnabled());
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    assertFalse(cache.verify(ANAKIN, "password"));
+    assertEquals(0, cache.size());
+  }
+
+  public void testEviction() {
+    cache = new NotesCredentialCache(60, 1);
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    cache.put(OBIWAN, "password", HTTPPASSWORD);
+    assertEquals(1, cache.size());
+    assertFalse(cache.verify(ANAKIN, "password"));
+    assertTrue(cache.verify(OBIWAN, "password"));
+  }
+
+  public void testCheckHttpPasswordUnchanged() {
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    cache.checkHttpPassword(ANAKIN, HTTPPASSWORD);
+    cache.checkHttpPassword(OBIWAN, "(GOTHERPASSWORD)");
+    assertTrue(cache.verify(ANAKIN, "password"));
+    assertEquals(0, cache.getInvalidationCount());
+  }
+
+  public void testCheckHttpPasswordChanged() {
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    cache.put(OBIWAN, "password", HTTPPASSWORD);
+    cache.checkHttpPassword(ANAKIN, "(GNEWHASHEDPASSWORD)");
+    assertFalse(cache.verify(ANAKIN, "password"));
+    assertTrue(cache.verify(OBIWAN, "password"));
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  public void testInvalidateAll() {
+    cache.put(ANAKIN, "password", HTTPPASSWORD);
+    cache.invalidateAll();
+    assertEquals(0, cache.size());
+    assertFalse(cache.verify(ANAKIN, "password"));
+  }
+}
@@ -32,9 +32,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
 
 /*
@@ -72,6 +77,8 @@ public class NotesDocumentManagerTest extends TestCase {
   public void testTableNames() {
     assertNotNull(notesDocManager.indexedTableName);
     assertNotNull(notesDocManager.readersTableName);
+    assertNotNull(notesDocManager.databaseAclTableName);
+    assertNotNull(notesDocManager.databaseStatsTableName);
   }
 
   public void testDatabaseConnection() throws SQLException {
@@ -157,6 +164,81 @@ public class NotesDocumentManagerTest extends TestCase {
     assertEquals(0, reader2.size());
   }
   
+  public void testDatabaseAcl() throws RepositoryException {
+    String replicaId = "ACLTESTREPLICA1";
+    assertNull(notesDocManager.getDatabaseAcl(replicaId));
+
+    NotesDocumentManager.DatabaseAcl acl = new NotesDocumentManager.DatabaseAcl(
+        Arrays.asList("CN=Test User/O=Tests", "-default-"),
+        Arrays.asList("Readers"), new ArrayList<String>(),
+        Arrays.asList("Blocked Group"));
+    assertTrue(notesDocManager.setDatabaseAcl(replicaId, acl));
+
+    // Read the ACL back through a new manager to skip the memory cache.
+    NotesDocumentManager.DatabaseAcl stored =
+        new NotesDocumentManager(connectorSession).getDatabaseAcl(replicaId);
+    assertNotNull(stored);
+    assertEquals(
+        new HashSet<String>(Arrays.asList("cn=test user/o=tests", "-default-")),
+        stored.getPermitUsers());
+    assertEquals(Collections.singleton("readers"), stored.getPermitGroups());
+    assertTrue(stored.getNoAccessUsers().isEmpty());
+    assertEquals(Collections.singleton("blocked group"),
+        stored.getNoAccessGroups());
+
+    // Replace the ACL.
+    acl = new NotesDocumentManager.DatabaseAcl(new ArrayList<String>(),
+        new ArrayList<String>(), Arrays.asList("CN=Test User/O=Tests"),
+        new ArrayList<String>());
+    assertTrue(notesDocManager.setDatabaseAcl(replicaId, acl));
+    stored =
+        new NotesDocumentManager(connectorSession).getDatabaseAcl(replicaId);
+    assertTrue(stored.getPermitUsers().isEmpty());
+    assertEquals(Collections.singleton("cn=test user/o=tests"),
+        stored.getNoAccessUsers());
+  }
+
+  public void testDatabaseStatistics() throws RepositoryException {
+    Map<String, NotesDatabaseCrawlMetrics> statistics =
+        new TreeMap<String, NotesDatabaseCrawlMetrics>();
+    statistics.put("STATSREPLICA1", new NotesDatabaseCrawlMetrics("Mail", 2,
+        10, 7, 3, 7, 1, 1024, 1, 50, 150, 30, new Date(1000000)));
+    statistics.put("STATSREPLICA2", new NotesDatabaseCrawlMetrics(null, 0, 0,
+        0, 0, 1, 0, 0, 0, 0, 5, 0, null));
+    assertTrue(notesDocManager.setDatabaseStatistics(statistics));
+
+    Map<String, NotesDatabaseCrawlMetrics> stored =
+        notesDocManager.getDatabaseStatistics();
+    NotesDatabaseCrawlMetrics mail = stored.get("STATSREPLICA1");
+    assertEquals("Mail", mail.getDatabaseName());
+    assertEquals(2, mail.getPolls());
+    assertEquals(10, mail.getDocumentsPolled());
+    assertEquals(7, mail.getDocumentsEnqueued());
+    assertEquals(3, mail.getDocumentsSkipped());
+    assertEquals(1024, mail.getAttachmentBytes());
+    assertEquals(150, mail.getPrefetchMillis());
+    assertEquals(1000000, mail.getLastPollTime().getTime());
+    assertNull(stored.get("STATSREPLICA2").getLastPollTime());
+
+    // Replace the statistics.
+    statistics.put("STATSREPLICA1", new NotesDatabaseCrawlMetrics("Mail", 3,
+        12, 8, 4, 8, 1, 1024, 1, 60, 160, 10, new Date(2000000)));
+    assertTrue(notesDocManager.setDatabaseStatistics(statistics));
+    mail = notesDocManager.getDatabaseStatistics().get("STATSREPLICA1");
+    assertEquals(3, mail.getPolls());
+    assertEquals(10, mail.getLastPollMillis());
+
+    // Remove the databases that are no longer crawled.
+    assertEquals(1, notesDocManager.deleteDatabaseStatistics(
+        Collections.singleton("STATSREPLICA1")));
+    stored = notesDocManager.getDatabaseStatistics();
+    assertTrue(stored.containsKey("STATSREPLICA1"));
+    assertFalse(stored.containsKey("STATSREPLICA2"));
+
+    assertTrue(notesDocManager.clearDatabaseStatistics());
+    assertTrue(notesDocManager.getDatabaseStatistics().isEmpty());
+  }
+
   public void testDeleteDocument() throws RepositoryException {
     NotesDocument doc = null;
     String unid = null;
@@ -96,4 +96,58 @@ public class NotesDomainNamesTest extends TestCase {
         dns.computeExpandedWildcardDomainNames(names[0]);
     assertEquals(2, expandedDomains.size());
   }
+
+  public void testGet() {
+    assertNotNull(dns.get("*/ou=west/o=abc"));
+    assertEquals(dns.get("*/ou=west/o=abc"), dns.get("*/OU=West/O=ABC"));
+    assertNull(dns.get("*/ou=wes/o=abc"));
+    assertNull(dns.get("ou=west/o=abc"));
+  }
+
+  public void testSubdomainsIncludingDomain() {
+    dns.add("OU=West/O=ABC", new Long(100));
+    LinkedHashMap<String, Long> westDomains =
+        dns.getSubDomainNames("OU=West/O=ABC");
+    assertEquals(4, westDomains.size());
+    assertEquals(new Long(100), westDomains.get("ou=west/o=abc"));
+
+    assertEquals(3, dns.getSubDomainNames("/OU=West/O=ABC").size());
+  }
+
+  public void testWildcardDomainNames() {
+    LinkedHashMap<String, Long> wildcards =
+        dns.getWildcardDomainNames("CN=Pop Corn/OU=North/OU=West/O=ABC");
+    assertEquals(3, wildcards.size());
+    assertTrue(wildcards.containsKey("*/ou=north/ou=west/o=abc"));
+    assertTrue(wildcards.containsKey("*/ou=west/o=abc"));
+    assertTrue(wildcards.containsKey("*/o=abc"));
+
+    wildcards = dns.getWildcardDomainNames("cn=pop corn/ou=new/ou=west/o=abc");
+    assertEquals(2, wildcards.size());
+    assertTrue(wildcards.containsKey("*/ou=west/o=abc"));
+
+    assertEquals(0, dns.getWildcardDomainNames("CN=Pop Corn/O=XYZ").size());
+    assertEquals(0, dns.getWildcardDomainNames("Pop Corn").size());
+  }
+
+  public void testConcurrentAdd() throws Exception {
+    final NotesDomainNames names = new NotesDomainNames();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+          @Override
+          public void run() {
+            for (int i = 0; i < 100; i++) {
+              names.add("*/ou=" + i + "/o=abc", new Long(i));
+            }
+          }
+        };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(100, names.size());
+    assertEquals(100, names.getSubDomainNames("/o=abc").size());
+  }
 }
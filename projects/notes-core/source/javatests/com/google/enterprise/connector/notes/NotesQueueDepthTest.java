@@ -0,0 +1,89 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+
+import junit.framework.TestCase;
+
+public class NotesQueueDepthTest extends TestCase {
+  public void testCounts() {
+    NotesQueueDepth queueDepth = new NotesQueueDepth();
+    queueDepth.addCrawlRequests(3);
+    queueDepth.claimCrawlRequest();
+    queueDepth.addSubmitted(1);
+    queueDepth.addSubmitted(2);
+    assertEquals(2, queueDepth.getCrawlQueueDepth());
+    assertEquals(3, queueDepth.getSubmitQueueDepth());
+    assertEquals(5, queueDepth.getTotalDepth());
+
+    queueDepth.removeSubmitted(3);
+    assertEquals(0, queueDepth.getSubmitQueueDepth());
+    assertEquals(2, queueDepth.getTotalDepth());
+  }
+
+  public void testCountsAreNeverNegative() {
+    NotesQueueDepth queueDepth = new NotesQueueDepth();
+    queueDepth.claimCrawlRequest();
+    queueDepth.removeSubmitted(2);
+    assertEquals(0, queueDepth.getCrawlQueueDepth());
+    assertEquals(0, queueDepth.getSubmitQueueDepth());
+    assertEquals(0, queueDepth.getTotalDepth());
+  }
+
+  public void testReconcile() {
+    NotesQueueDepth queueDepth = new NotesQueueDepth();
+    queueDepth.addCrawlRequests(5);
+    queueDepth.removeSubmitted(1);
+    queueDepth.reconcile(2, 4);
+    assertEquals(2, queueDepth.getCrawlQueueDepth());
+    assertEquals(4, queueDepth.getSubmitQueueDepth());
+
+    queueDepth.claimCrawlRequest();
+    queueDepth.addSubmitted(1);
+    assertEquals(1, queueDepth.getCrawlQueueDepth());
+    assertEquals(5, queueDepth.getSubmitQueueDepth());
+  }
+
+  public void testReconcileIfDue() throws Exception {
+    NotesDatabaseMock cdb = new NotesDatabaseMock("server", "config.nsf");
+    cdb.addDocument(MockFixture.createNotesDocumentWithoutReaders("XYZ1"),
+        NCCONST.VIEWCRAWLQ);
+    cdb.addDocument(MockFixture.createNotesDocumentWithoutReaders("XYZ2"),
+        NCCONST.VIEWSUBMITQ);
+    cdb.addDocument(MockFixture.createNotesDocumentWithoutReaders("XYZ3"),
+        NCCONST.VIEWSUBMITQ);
+
+    // The first call always reads the views.
+    NotesQueueDepth queueDepth = new NotesQueueDepth(60 * 60 * 1000L);
+    queueDepth.reconcileIfDue(cdb);
+    assertEquals(1, queueDepth.getCrawlQueueDepth());
+    assertEquals(2, queueDepth.getSubmitQueueDepth());
+
+    // Later calls within the interval use the counts.
+    queueDepth.addCrawlRequests(4);
+    queueDepth.reconcileIfDue(cdb);
+    assertEquals(5, queueDepth.getCrawlQueueDepth());
+    assertEquals(2, queueDepth.getSubmitQueueDepth());
+
+    queueDepth = new NotesQueueDepth(0);
+    queueDepth.addCrawlRequests(4);
+    queueDepth.reconcileIfDue(cdb);
+    queueDepth.addCrawlRequests(4);
+    queueDepth.reconcileIfDue(cdb);
+    assertEquals(1, queueDepth.getCrawlQueueDepth());
+    assertEquals(2, queueDepth.getSubmitQueueDepth());
+  }
+}
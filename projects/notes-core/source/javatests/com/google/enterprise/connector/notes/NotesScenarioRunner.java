@@ -0,0 +1,262 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.mock.LatencyProfile;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+import com.google.enterprise.connector.spi.AuthenticationResponse;
+import com.google.enterprise.connector.spi.AuthorizationResponse;
+import com.google.enterprise.connector.spi.Document;
+import com.google.enterprise.connector.spi.DocumentList;
+import com.google.enterprise.connector.spi.Property;
+import com.google.enterprise.connector.spi.RepositoryException;
+import com.google.enterprise.connector.spi.SimpleAuthenticationIdentity;
+import com.google.enterprise.connector.spi.SpiConstants;
+import com.google.enterprise.connector.spi.SpiConstants.ActionType;
+import com.google.enterprise.connector.spi.TraversalManager;
+import com.google.enterprise.connector.spi.Value;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Drives a connector through the work the connector manager and the
+ * search appliance would give it, for measuring the connector against
+ * the mock client with a {@link LatencyProfile}.
+ *
+ * Logging in starts the crawler threads, the maintenance thread and
+ * the directory refresher, if the connector has not been given
+ * replacements for them. The runner then runs traversal batches and
+ * authentication and authorization requests on the calling thread.
+ * The connector's metrics and the profile's call counts show where
+ * the time went:
+ *
+ * <pre>
+ *   NotesScenarioRunner runner = new NotesScenarioRunner(connector,
+ *       new LatencyProfile(1).setLatency("*", 1, 2));
+ *   runner.login();
+ *   try {
+ *     runner.traverse(100, 10);
+ *     runner.authorize("anakin", docIds, 50);
+ *   } finally {
+ *     runner.shutdown();
+ *   }
+ *   System.out.println(runner.getReport());
+ * </pre>
+ */
+public class NotesScenarioRunner {
+  private final NotesConnector connector;
+  private final LatencyProfile profile;
+  private NotesConnectorSession session;
+  private String checkpoint;
+
+  private int batches;
+  private int documentsFed;
+  private int deletionsFed;
+  private long traversalMillis;
+  private int authenticationRequests;
+  private long authenticationMillis;
+  private int authorizationRequests;
+  private int authorizationResults;
+  private long authorizationMillis;
+
+  /**
+   * @param connector a connector using a {@link SessionFactoryMock}
+   * that has been configured with the scenario's databases
+   * @param profile the latency and failures to inject
+   */
+  public NotesScenarioRunner(NotesConnector connector,
+      LatencyProfile profile) {
+    this.connector = connector;
+    this.profile = profile;
+    ((SessionFactoryMock) connector.getSessionFactory())
+        .setLatencyProfile(profile);
+  }
+
+  public void login() throws RepositoryException {
+    session = (NotesConnectorSession) connector.login();
+  }
+
+  public NotesConnector getConnector() {
+    return connector;
+  }
+
+  public NotesConnectorSession getSession() {
+    return session;
+  }
+
+  public LatencyProfile getProfile() {
+    return profile;
+  }
+
+  /**
+   * Runs traversal batches until a batch returns no documents or the
+   * maximum number of batches is reached. Later calls resume from the
+   * last checkpoint.
+   *
+   * @param batchHint the batch hint given to the traversal manager
+   * @param maxBatches the maximum number of batches to run
+   * @return the number of documents fed
+   */
+  public int traverse(int batchHint, int maxBatches)
+      throws RepositoryException {
+    TraversalManager traversalManager = session.getTraversalManager();
+    traversalManager.setBatchHint(batchHint);
+    int fed = 0;
+    long timeStart = System.currentTimeMillis();
+    try {
+      for (int i = 0; i < maxBatches; i++) {
+        DocumentList documentList;
+        if (checkpoint == null) {
+          documentList = traversalManager.startTraversal();
+          checkpoint = "0";
+        } else {
+          documentList = traversalManager.resumeTraversal(checkpoint);
+        }
+        batches++;
+        if (documentList == null) {
+          break;
+        }
+        Document document;
+        while ((document = documentList.nextDocument()) != null) {
+          fed++;
+          if (isDelete(document)) {
+            deletionsFed++;
+          }
+        }
+        String next = documentList.checkpoint();
+        if (next != null) {
+          checkpoint = next;
+        }
+      }
+    } finally {
+      documentsFed += fed;
+      traversalMillis += System.currentTimeMillis() - timeStart;
+    }
+    return fed;
+  }
+
+  /**
+   * Authenticates a user repeatedly.
+   *
+   * @return the number of successful responses
+   */
+  public int authenticate(String username, String password, int requests)
+      throws RepositoryException {
+    int valid = 0;
+    long timeStart = System.currentTimeMillis();
+    try {
+      for (int i = 0; i < requests; i++) {
+        AuthenticationResponse response =
+            session.getAuthenticationManager().authenticate(
+                new SimpleAuthenticationIdentity(username, password));
+        authenticationRequests++;
+        if (response.isValid()) {
+          valid++;
+        }
+      }
+    } finally {
+      authenticationMillis += System.currentTimeMillis() - timeStart;
+    }
+    return valid;
+  }
+
+  /**
+   * Authorizes a user for a set of documents repeatedly.
+   *
+   * @return the number of permitted documents in the last response
+   */
+  public int authorize(String username, Collection<String> docIds,
+      int requests) throws RepositoryException {
+    int permitted = 0;
+    long timeStart = System.currentTimeMillis();
+    try {
+      for (int i = 0; i < requests; i++) {
+        Collection<AuthorizationResponse> responses =
+            session.getAuthorizationManager().authorizeDocids(docIds,
+                new SimpleAuthenticationIdentity(username));
+        authorizationRequests++;
+        authorizationResults += responses.size();
+        permitted = 0;
+        for (AuthorizationResponse response : responses) {
+          if (response.isValid()) {
+            permitted++;
+          }
+        }
+      }
+    } finally {
+      authorizationMillis += System.currentTimeMillis() - timeStart;
+    }
+    return permitted;
+  }
+
+  /** Shuts down the connector and its background threads. */
+  public void shutdown() throws RepositoryException {
+    connector.shutdown();
+  }
+
+  public int getDocumentsFed() {
+    return documentsFed;
+  }
+
+  /** Gets the number of results in all authorization responses. */
+  public int getAuthorizationResults() {
+    return authorizationResults;
+  }
+
+  /** Gets the number of the fed documents that were deletions. */
+  public int getDeletionsFed() {
+    return deletionsFed;
+  }
+
+  private static boolean isDelete(Document document)
+      throws RepositoryException {
+    Property action = document.findProperty(SpiConstants.PROPNAME_ACTION);
+    Value value = (action == null) ? null : action.nextValue();
+    return value != null
+        && ActionType.DELETE.toString().equals(value.toString());
+  }
+
+  /** Gets a summary of the scenario, the pipeline and the Notes calls. */
+  public String getReport() {
+    NotesConnectorMetrics metrics = connector.getMetrics();
+    StringBuilder report = new StringBuilder();
+    report.append("traversal: ").append(batches).append(" batches, ")
+        .append(documentsFed).append(" documents, ")
+        .append(traversalMillis).append("ms\n");
+    report.append("authentication: ").append(authenticationRequests)
+        .append(" requests, ").append(authenticationMillis).append("ms\n");
+    report.append("authorization: ").append(authorizationRequests)
+        .append(" requests, ").append(authorizationMillis).append("ms\n");
+    report.append("polling: ").append(metrics.getPolling()).append('\n');
+    report.append("prefetch: ").append(metrics.getPrefetch()).append('\n');
+    report.append("feed: ").append(metrics.getFeed()).append('\n');
+    report.append("checkpoint: ").append(metrics.getCheckpoint())
+        .append('\n');
+    report.append("deletion sweep: ").append(metrics.getDeletionSweep())
+        .append('\n');
+    report.append("directory refresh: ")
+        .append(metrics.getDirectoryRefresh()).append('\n');
+    report.append("injected: ").append(profile.getInjectedDelayMillis())
+        .append("ms delay, ").append(profile.getInjectedFailureCount())
+        .append(" failures\n");
+    for (Map.Entry<String, Long> entry
+             : profile.getCallCounts().entrySet()) {
+      report.append("  ").append(entry.getKey()).append(": ")
+          .append(entry.getValue()).append('\n');
+    }
+    return report.toString();
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.NotesDatabase;
+import com.google.enterprise.connector.notes.client.NotesDocument;
+import com.google.enterprise.connector.notes.client.NotesSession;
+import com.google.enterprise.connector.notes.client.NotesView;
+import com.google.enterprise.connector.notes.client.mock.LatencyProfile;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.NotesDocumentMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+public class NotesScenarioRunnerTest extends TestCase {
+  private SessionFactoryMock factory;
+
+  @Override
+  protected void setUp() throws Exception {
+    factory = new SessionFactoryMock();
+    NotesDatabaseMock database = new NotesDatabaseMock("testserver",
+        "test.nsf");
+    for (String name : new String[] { "first", "second" }) {
+      NotesDocumentMock document = new NotesDocumentMock();
+      document.replaceItemValue("name", name);
+      database.addDocument(document, "documents");
+    }
+    factory.addDatabase(database);
+  }
+
+  public void testLatency() throws Exception {
+    LatencyProfile profile = new LatencyProfile(1)
+        .setLatency("*", 0, 0)
+        .setLatency("NotesSession.*", 20, 10);
+    factory.setLatencyProfile(profile);
+    NotesSession session = factory.createSessionWithFullAccess("password");
+
+    long timeStart = System.currentTimeMillis();
+    NotesDatabase database = session.getDatabase("testserver", "test.nsf");
+    assertTrue(System.currentTimeMillis() - timeStart >= 20);
+    assertFalse(database instanceof NotesDatabaseMock);
+    assertEquals("test.nsf", database.getFilePath());
+
+    assertEquals(1, profile.getCallCount("NotesSession.getDatabase"));
+    assertEquals(1, profile.getCallCount("NotesDatabase.getFilePath"));
+    assertTrue(profile.getInjectedDelayMillis() >= 20);
+  }
+
+  public void testFailureRate() throws Exception {
+    LatencyProfile profile = new LatencyProfile(1)
+        .setFailureRate("NotesSession.getDatabase", 1.0);
+    factory.setLatencyProfile(profile);
+    NotesSession session = factory.createSessionWithFullAccess("password");
+    try {
+      session.getDatabase("testserver", "test.nsf");
+      fail("Expected an injected failure");
+    } catch (RepositoryException expected) {
+      assertTrue(expected.getMessage(),
+          expected.getMessage().contains("NotesSession.getDatabase"));
+    }
+    assertEquals(1, profile.getInjectedFailureCount());
+  }
+
+  /** The mocks are given the objects wrapped by the profile. */
+  public void testWrappedArguments() throws Exception {
+    factory.setLatencyProfile(new LatencyProfile(1));
+    NotesSession session = factory.createSessionWithFullAccess("password");
+    NotesView view =
+        session.getDatabase("testserver", "test.nsf").getView("documents");
+    NotesDocument first = view.getFirstDocument();
+    NotesDocument second = view.getNextDocument(first);
+    assertEquals("second", second.getItemValueString("name"));
+    assertNull(view.getNextDocument(second));
+    session.recycle(new Vector<Object>(Arrays.asList(first)));
+  }
+
+  public void testScenario() throws Exception {
+    NotesConnector connector = NotesConnectorTest.getConnector();
+    SessionFactoryMock connectorFactory =
+        (SessionFactoryMock) connector.getSessionFactory();
+    NotesConnectorSessionTest.configureFactoryForSession(connectorFactory);
+    LatencyProfile profile = new LatencyProfile(1)
+        .setLatency("*", 0, 1)
+        .setLatency("NotesView.*", 1, 2);
+    NotesScenarioRunner runner = new NotesScenarioRunner(connector, profile);
+    runner.login();
+    try {
+      SyntheticDataGenerator generator = new SyntheticDataGenerator(1)
+          .setPersons(10).setGroups(2, 1, 2).setDatabases(1, 10);
+      generator.generateDirectory(
+          connectorFactory.getDatabase("testnames.nsf"), runner.getSession());
+      List<NotesDatabaseMock> databases = generator.generateDatabases(
+          connectorFactory, connectorFactory.getDatabase("testconfig.nsf"));
+      NotesDatabaseMock database = databases.get(0);
+      String unid = database.search(null).getFirstDocument()
+          .getUniversalID();
+
+      assertTrue(runner.traverse(10, 2) > 0);
+      runner.authorize("user0",
+          Arrays.asList("http://" + TESTCONST.SERVER_DOMINO_WEB
+              + TESTCONST.DOMAIN + "/" + database.getReplicaID()
+              + "/0/" + unid), 5);
+    } finally {
+      runner.shutdown();
+    }
+    assertTrue(runner.getDocumentsFed() > 0);
+    assertEquals(5, runner.getAuthorizationResults());
+
+    assertTrue(
+        profile.getCallCount("SessionFactory.createSessionWithFullAccess")
+        > 0);
+    assertTrue(profile.getInjectedDelayMillis() > 0);
+    String report = runner.getReport();
+    assertTrue(report, report.contains("authorization: 5 requests"));
+  }
+}
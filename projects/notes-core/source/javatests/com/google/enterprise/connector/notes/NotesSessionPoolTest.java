@@ -0,0 +1,193 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+
+public class NotesSessionPoolTest extends TestCase {
+
+  private NotesConnector connector;
+  private NotesConnectorSession connectorSession;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    connector = NotesConnectorTest.getConnector();
+    SessionFactoryMock factory =
+        (SessionFactoryMock) connector.getSessionFactory();
+    NotesConnectorSessionTest.configureFactoryForSession(factory);
+    connectorSession = (NotesConnectorSession) connector.login();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    connector.shutdown();
+    super.tearDown();
+  }
+
+  public void testBorrowReusesSessionOnThread() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession first = pool.borrowSession();
+    assertNotNull(first.getSession());
+    assertNotNull(first.getConnectorDatabase());
+    assertNotNull(first.getSecurityView());
+    pool.returnSession(first);
+
+    NotesSessionPool.PooledSession second = pool.borrowSession();
+    assertSame(first, second);
+    pool.returnSession(second);
+    assertEquals(1, pool.size());
+  }
+
+  public void testNestedBorrow() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession outer = pool.borrowSession();
+    NotesSessionPool.PooledSession inner = pool.borrowSession();
+    assertSame(outer, inner);
+    pool.returnSession(inner);
+    pool.returnSession(outer);
+    assertEquals(1, pool.size());
+  }
+
+  public void testSessionPerThread() throws Exception {
+    final NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession local = pool.borrowSession();
+    pool.returnSession(local);
+
+    final NotesSessionPool.PooledSession[] other =
+        new NotesSessionPool.PooledSession[1];
+    Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            other[0] = pool.borrowSession();
+            pool.returnSession(other[0]);
+          } catch (RepositoryException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    thread.start();
+    thread.join();
+
+    assertNotNull(other[0]);
+    assertNotSame(local, other[0]);
+    assertEquals(2, pool.size());
+  }
+
+  public void testAbandonedSessionIsRecycled() throws Exception {
+    final NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            pool.returnSession(pool.borrowSession());
+          } catch (RepositoryException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    thread.start();
+    thread.join();
+    assertEquals(1, pool.size());
+
+    // Creating a session recycles the one left by the exited thread.
+    NotesSessionPool.PooledSession local = pool.borrowSession();
+    pool.returnSession(local);
+    assertEquals(1, pool.size());
+  }
+
+  public void testCloseReleasesOtherThreads() throws Exception {
+    final NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    final CountDownLatch borrowed = new CountDownLatch(1);
+    final CountDownLatch closed = new CountDownLatch(1);
+    final RepositoryException[] error = new RepositoryException[1];
+    Thread thread = new Thread() {
+        @Override public void run() {
+          try {
+            pool.returnSession(pool.borrowSession());
+            borrowed.countDown();
+            closed.await();
+            pool.borrowSession();
+          } catch (RepositoryException e) {
+            error[0] = e;
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    thread.start();
+    borrowed.await();
+    pool.close();
+    assertEquals(0, pool.size());
+    closed.countDown();
+    thread.join();
+
+    // The owner released its recycled session and then found the pool
+    // closed.
+    assertNotNull(error[0]);
+    assertEquals(0, pool.size());
+  }
+
+  public void testExpiredSessionIsRecycled() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 0);
+    NotesSessionPool.PooledSession first = pool.borrowSession();
+    pool.returnSession(first);
+    Thread.sleep(10);
+
+    NotesSessionPool.PooledSession second = pool.borrowSession();
+    assertNotSame(first, second);
+    pool.returnSession(second);
+    assertEquals(1, pool.size());
+  }
+
+  public void testClose() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession pooled = pool.borrowSession();
+    pool.returnSession(pooled);
+    pool.close();
+    assertEquals(0, pool.size());
+    try {
+      pool.borrowSession();
+      fail("Expected an exception from a closed pool");
+    } catch (RepositoryException expected) {
+    }
+  }
+
+  public void testCloseWhileInUse() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession pooled = pool.borrowSession();
+    pool.close();
+    assertEquals(1, pool.size());
+    pool.returnSession(pooled);
+    assertEquals(0, pool.size());
+  }
+
+  public void testNestedBorrowAfterClose() throws Exception {
+    NotesSessionPool pool = new NotesSessionPool(connectorSession, 30);
+    NotesSessionPool.PooledSession pooled = pool.borrowSession();
+    pool.close();
+
+    // A session that is in use can still be borrowed by its owner.
+    assertSame(pooled, pool.borrowSession());
+    pool.returnSession(pooled);
+    assertEquals(1, pool.size());
+    pool.returnSession(pooled);
+    assertEquals(0, pool.size());
+  }
+}
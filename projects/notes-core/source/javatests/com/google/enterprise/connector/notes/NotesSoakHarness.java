@@ -0,0 +1,387 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.util.database.DatabaseConnectionPool;
+import com.google.enterprise.connector.util.database.JdbcDatabase;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a connector for many cycles against the mock client and checks
+ * that the resources it holds stop growing, to catch leaks before a
+ * release.
+ *
+ * Each cycle applies a round of synthetic changes to the source
+ * databases, runs traversal batches with their checkpoints, a deletion
+ * sweep and a forced directory refresh, and then samples the used
+ * heap after garbage collection, the live Notes objects counted by
+ * {@link NotesHandleTracker}, and the rows in the connector's tables.
+ * Handle tracking is enabled for the connector's work only, so the
+ * generated documents are not counted.
+ *
+ * The bounds apply to the growth from the first sample after the
+ * warm-up cycles, when the caches have filled, to the last sample.
+ * The directory cache, database ACL and crawl statistics tables do
+ * not track the number of documents, so by default they may not grow
+ * at all; the document tables grow with the change stream and are
+ * bounded only by the total row growth.
+ * Soak runs are long; the unit test runs a few cycles unless the
+ * "soak.minutes" system property is set.
+ */
+public class NotesSoakHarness {
+  private static final String CLASS_NAME = NotesSoakHarness.class.getName();
+  private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
+
+  /**
+   * The work done by the connector in one cycle, and the resources it
+   * held afterwards.
+   */
+  public static class Sample {
+    public final int cycle;
+    public final int documentsFed;
+    public final int deletionsFed;
+    public final long documentsChecked;
+    public final long heapBytes;
+    public final int liveHandles;
+    public final long leakedHandles;
+    public final Map<String, Long> tableRows;
+
+    public Sample(int cycle, int documentsFed, int deletionsFed,
+        long documentsChecked, long heapBytes, int liveHandles,
+        long leakedHandles, Map<String, Long> tableRows) {
+      this.cycle = cycle;
+      this.documentsFed = documentsFed;
+      this.deletionsFed = deletionsFed;
+      this.documentsChecked = documentsChecked;
+      this.heapBytes = heapBytes;
+      this.liveHandles = liveHandles;
+      this.leakedHandles = leakedHandles;
+      this.tableRows = tableRows;
+    }
+
+    public long getTotalRows() {
+      long total = 0;
+      for (Long rows : tableRows.values()) {
+        total += rows;
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      return "cycle: " + cycle + "; fed: " + documentsFed + "; deletions fed: "
+          + deletionsFed + "; checked for deletion: " + documentsChecked
+          + "; heap: " + heapBytes + "; live handles: "
+          + liveHandles + "; leaked handles: " + leakedHandles + "; rows: "
+          + tableRows;
+    }
+  }
+
+  private final NotesScenarioRunner runner;
+  private final SyntheticDataGenerator generator;
+  private final List<NotesDatabaseMock> sourceDatabases;
+
+  private int modifiedPerCycle = 10;
+  private int addedPerCycle = 10;
+  private int deletedPerCycle = 5;
+  private int batchHint = 100;
+  private int batchesPerCycle = 5;
+  private int warmupCycles = 2;
+  private long maxHeapGrowthBytes = 16L * 1024 * 1024;
+  private int maxHandleGrowth = 0;
+  private long maxLeakedHandles = 0;
+  private long maxRowGrowth = Long.MAX_VALUE;
+  private final Map<String, Long> maxTableGrowth =
+      new TreeMap<String, Long>(String.CASE_INSENSITIVE_ORDER);
+
+  private String lastDeletionDocId = "";
+
+  @VisibleForTesting
+  final List<Sample> samples = new ArrayList<Sample>();
+
+  /**
+   * @param runner a runner whose connector has logged in
+   * @param generator the generator that created the source databases
+   * @param sourceDatabases the source databases to change
+   */
+  public NotesSoakHarness(NotesScenarioRunner runner,
+      SyntheticDataGenerator generator,
+      List<NotesDatabaseMock> sourceDatabases) {
+    this.runner = runner;
+    this.generator = generator;
+    this.sourceDatabases = sourceDatabases;
+    for (String prefix : new String[] { "users_", "groups_", "roles_",
+        "usergroups_", "userroles_", "grouproles_", "groupchildren_",
+        "cachecheckpoint_", NCCONST.TABLE_DATABASEACL_PREFIX,
+        NCCONST.TABLE_DATABASESTATS_PREFIX }) {
+      maxTableGrowth.put(prefix, 0L);
+    }
+  }
+
+  /** Sets the number of documents changed before each cycle. */
+  public NotesSoakHarness setChanges(int modified, int added, int deleted) {
+    this.modifiedPerCycle = modified;
+    this.addedPerCycle = added;
+    this.deletedPerCycle = deleted;
+    return this;
+  }
+
+  /** Sets the traversal batches run in each cycle. */
+  public NotesSoakHarness setTraversal(int batchHint, int batches) {
+    this.batchHint = batchHint;
+    this.batchesPerCycle = batches;
+    return this;
+  }
+
+  public NotesSoakHarness setWarmupCycles(int cycles) {
+    this.warmupCycles = cycles;
+    return this;
+  }
+
+  public NotesSoakHarness setMaxHeapGrowthBytes(long bytes) {
+    this.maxHeapGrowthBytes = bytes;
+    return this;
+  }
+
+  /** Sets the allowed growth in live Notes objects. */
+  public NotesSoakHarness setMaxHandleGrowth(int handles) {
+    this.maxHandleGrowth = handles;
+    return this;
+  }
+
+  /**
+   * Sets the allowed number of Notes objects garbage collected
+   * without being recycled.
+   */
+  public NotesSoakHarness setMaxLeakedHandles(long handles) {
+    this.maxLeakedHandles = handles;
+    return this;
+  }
+
+  /**
+   * Sets the allowed growth in the total rows of the connector's
+   * tables. The default allows any growth, since the tables grow with
+   * the documents added by the change stream. Set a bound when the
+   * change stream adds and deletes the same number of documents.
+   */
+  public NotesSoakHarness setMaxRowGrowth(long rows) {
+    this.maxRowGrowth = rows;
+    return this;
+  }
+
+  /**
+   * Sets the allowed growth in the rows of the tables whose names
+   * start with the given prefix, ignoring case.
+   *
+   * @param tablePrefix a table name prefix, such as
+   *     {@link NCCONST#TABLE_DATABASEACL_PREFIX}
+   * @param rows the allowed growth, or {@code Long.MAX_VALUE} for any
+   */
+  public NotesSoakHarness setMaxTableGrowth(String tablePrefix, long rows) {
+    maxTableGrowth.put(tablePrefix, rows);
+    return this;
+  }
+
+  /**
+   * Runs cycles until the maximum number of cycles have run or the
+   * time limit has passed.
+   *
+   * @param maxCycles the maximum number of cycles
+   * @param maxMillis the time limit, or 0 for none
+   * @return the samples taken after each cycle
+   */
+  public List<Sample> run(int maxCycles, long maxMillis) throws Exception {
+    boolean wasTracking = NotesHandleTracker.isEnabled();
+    long timeEnd = (maxMillis > 0)
+        ? System.currentTimeMillis() + maxMillis : Long.MAX_VALUE;
+    try {
+      for (int cycle = samples.size(); cycle < maxCycles
+               && System.currentTimeMillis() < timeEnd; cycle++) {
+        NotesHandleTracker.setEnabled(false);
+        generator.applyChanges(sourceDatabases, modifiedPerCycle,
+            addedPerCycle, deletedPerCycle, new Date());
+        NotesHandleTracker.setEnabled(true);
+        int fed = runner.getDocumentsFed();
+        int deletionsFed = runner.getDeletionsFed();
+        long checked =
+            runner.getConnector().getMetrics().getDeletionSweep().getItems();
+        runCycle();
+        Sample sample = sample(cycle, runner.getDocumentsFed() - fed,
+            runner.getDeletionsFed() - deletionsFed,
+            runner.getConnector().getMetrics().getDeletionSweep().getItems()
+            - checked);
+        samples.add(sample);
+        LOGGER.log(Level.INFO, "Soak sample: {0}", sample);
+      }
+    } finally {
+      NotesHandleTracker.setEnabled(wasTracking);
+    }
+    return samples;
+  }
+
+  /**
+   * Gets descriptions of the bounds exceeded by the samples, or an
+   * empty list if there were none.
+   */
+  public List<String> getViolations() {
+    List<String> violations = new ArrayList<String>();
+    if (samples.isEmpty()) {
+      return violations;
+    }
+    Sample baseline = samples.get(Math.min(warmupCycles, samples.size() - 1));
+    Sample last = samples.get(samples.size() - 1);
+    long heapGrowth = last.heapBytes - baseline.heapBytes;
+    if (heapGrowth > maxHeapGrowthBytes) {
+      violations.add("Heap grew by " + heapGrowth + " bytes from cycle "
+          + baseline.cycle + " to cycle " + last.cycle + "; limit is "
+          + maxHeapGrowthBytes);
+    }
+    int handleGrowth = last.liveHandles - baseline.liveHandles;
+    if (handleGrowth > maxHandleGrowth) {
+      violations.add("Live Notes objects grew by " + handleGrowth
+          + " from cycle " + baseline.cycle + " to cycle " + last.cycle
+          + "; limit is " + maxHandleGrowth);
+    }
+    if (last.leakedHandles > maxLeakedHandles) {
+      violations.add(last.leakedHandles + " Notes objects were not recycled;"
+          + " limit is " + maxLeakedHandles);
+    }
+    long rowGrowth = last.getTotalRows() - baseline.getTotalRows();
+    if (rowGrowth > maxRowGrowth) {
+      violations.add("Connector tables grew by " + rowGrowth + " rows from "
+          + baseline.tableRows + " to " + last.tableRows + "; limit is "
+          + maxRowGrowth);
+    }
+    for (Map.Entry<String, Long> entry : last.tableRows.entrySet()) {
+      Long maxGrowth = getMaxTableGrowth(entry.getKey());
+      if (maxGrowth == null) {
+        continue;
+      }
+      Long baselineRows = baseline.tableRows.get(entry.getKey());
+      long tableGrowth = entry.getValue()
+          - ((baselineRows == null) ? 0 : baselineRows);
+      if (tableGrowth > maxGrowth) {
+        violations.add("Table " + entry.getKey() + " grew by " + tableGrowth
+            + " rows from cycle " + baseline.cycle + " to cycle "
+            + last.cycle + "; limit is " + maxGrowth);
+      }
+    }
+    return violations;
+  }
+
+  /**
+   * Gets the allowed growth of a table, or {@code null} if only the
+   * total row growth applies to it.
+   *
+   * @param table a quoted table name as "SCHEMA"."TABLE"
+   */
+  private Long getMaxTableGrowth(String table) {
+    int start = table.lastIndexOf(".\"") + 2;
+    String name = table.substring(start).replace("\"", "");
+    Long maxGrowth = null;
+    String longestPrefix = "";
+    for (Map.Entry<String, Long> entry : maxTableGrowth.entrySet()) {
+      String prefix = entry.getKey();
+      if (prefix.length() > longestPrefix.length()
+          && name.regionMatches(true, 0, prefix, 0, prefix.length())) {
+        longestPrefix = prefix;
+        maxGrowth = entry.getValue();
+      }
+    }
+    return maxGrowth;
+  }
+
+  private void runCycle() throws Exception {
+    runner.traverse(batchHint, batchesPerCycle);
+    NotesConnectorSession session = runner.getSession();
+    NotesMaintenanceThread maintenance =
+        new NotesMaintenanceThread(runner.getConnector(), session);
+    lastDeletionDocId = maintenance.checkForDeletions(lastDeletionDocId,
+        session.getDeletionBatchSize());
+    session.getUserGroupManager().updateUsersGroups(true);
+  }
+
+  private Sample sample(int cycle, int documentsFed, int deletionsFed,
+      long documentsChecked) {
+    System.gc();
+    System.gc();
+    long heap =
+        ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    return new Sample(cycle, documentsFed, deletionsFed, documentsChecked,
+        heap, NotesHandleTracker.getLiveCount(),
+        NotesHandleTracker.getLeakCount(), getTableRows());
+  }
+
+  /** Counts the rows in each of the connector's tables. */
+  private Map<String, Long> getTableRows() {
+    Map<String, Long> rows = new TreeMap<String, Long>();
+    JdbcDatabase jdbcDatabase = runner.getConnector().getJdbcDatabase();
+    DatabaseConnectionPool connectionPool =
+        (jdbcDatabase == null) ? null : jdbcDatabase.getConnectionPool();
+    if (connectionPool == null) {
+      return rows;
+    }
+    Connection connection = null;
+    try {
+      connection = connectionPool.getConnection();
+      List<String> tables = new ArrayList<String>();
+      DatabaseMetaData metaData = connection.getMetaData();
+      ResultSet rs = metaData.getTables(null, null, "%",
+          new String[] { "TABLE" });
+      try {
+        while (rs.next()) {
+          tables.add("\"" + rs.getString("TABLE_SCHEM") + "\".\""
+              + rs.getString("TABLE_NAME") + "\"");
+        }
+      } finally {
+        Util.close(rs);
+      }
+      for (String table : tables) {
+        Statement stmt = connection.createStatement();
+        try {
+          ResultSet count = stmt.executeQuery("select count(*) from " + table);
+          count.next();
+          rows.put(table, count.getLong(1));
+        } finally {
+          Util.close(stmt);
+        }
+      }
+    } catch (SQLException e) {
+      LOGGER.log(Level.WARNING, "Failed to count the connector table rows",
+          e);
+    } finally {
+      if (connection != null) {
+        connectionPool.releaseConnection(connection);
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.mock.LatencyProfile;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class NotesSoakHarnessTest extends TestCase {
+  public void testViolations() {
+    NotesSoakHarness harness = new NotesSoakHarness(null, null, null)
+        .setWarmupCycles(1).setMaxHeapGrowthBytes(1000)
+        .setMaxHandleGrowth(5).setMaxRowGrowth(10);
+    harness.samples.add(sample(0, 0, 0, 0));
+    harness.samples.add(sample(1, 5000, 10, 100));
+    harness.samples.add(sample(2, 5500, 15, 110));
+    assertEquals(Collections.emptyList(), harness.getViolations());
+
+    harness.samples.add(sample(3, 7000, 16, 111));
+    List<String> violations = harness.getViolations();
+    assertEquals(violations.toString(), 3, violations.size());
+    assertTrue(violations.get(0), violations.get(0).startsWith("Heap grew"));
+    assertTrue(violations.get(1),
+        violations.get(1).startsWith("Live Notes objects grew by 6"));
+    assertTrue(violations.get(2),
+        violations.get(2).startsWith("Connector tables grew by 11 rows"));
+  }
+
+  public void testTableViolations() {
+    NotesSoakHarness harness = new NotesSoakHarness(null, null, null)
+        .setWarmupCycles(0).setMaxTableGrowth("NCIndexed_", 100);
+    harness.samples.add(tableSample(0, 10, 10, 10));
+    harness.samples.add(tableSample(1, 11, 10, 200));
+    List<String> violations = harness.getViolations();
+    assertEquals(violations.toString(), 2, violations.size());
+    assertTrue(violations.get(0), violations.get(0).startsWith(
+        "Table \"PUBLIC\".\"NCDATABASEACL_TEST\" grew by 1 rows"));
+    assertTrue(violations.get(1), violations.get(1).startsWith(
+        "Table \"PUBLIC\".\"NCINDEXED_TEST\" grew by 190 rows"));
+  }
+
+  public void testSoak() throws Exception {
+    NotesConnector connector = NotesConnectorTest.getConnector();
+    SessionFactoryMock factory =
+        (SessionFactoryMock) connector.getSessionFactory();
+    NotesConnectorSessionTest.configureFactoryForSession(factory);
+    NotesScenarioRunner runner =
+        new NotesScenarioRunner(connector, new LatencyProfile(1));
+    runner.login();
+    try {
+      SyntheticDataGenerator generator = new SyntheticDataGenerator(1)
+          .setPersons(100).setGroups(20, 2, 5).setDatabases(2, 50);
+      generator.generateDirectory(factory.getDatabase("testnames.nsf"),
+          runner.getSession());
+      List<NotesDatabaseMock> databases = generator.generateDatabases(
+          factory, factory.getDatabase("testconfig.nsf"));
+
+      long minutes = Long.getLong("soak.minutes", 0);
+      // The crawler threads keep the current source database and its
+      // template open between documents, so allow for a few handles.
+      // As many documents are deleted as added, so the document tables
+      // only grow by the deletions the sweep has not reached yet. The
+      // first cycle's batches feed all of the documents.
+      NotesSoakHarness harness =
+          new NotesSoakHarness(runner, generator, databases)
+          .setChanges(5, 3, 3).setTraversal(50, 5).setWarmupCycles(1)
+          .setMaxHandleGrowth(10).setMaxRowGrowth(100);
+      List<NotesSoakHarness.Sample> samples = (minutes > 0)
+          ? harness.run(Integer.MAX_VALUE, minutes * 60000)
+          : harness.run(5, 0);
+      assertTrue(samples.size() >= 5 || minutes > 0);
+      assertEquals(Collections.emptyList(), harness.getViolations());
+
+      // A stalled crawl or deletion sweep fails the soak.
+      int deletionsFed = 0;
+      for (NotesSoakHarness.Sample sample : samples) {
+        assertTrue(sample.toString(), sample.documentsFed > 0);
+        assertTrue(sample.toString(), sample.documentsChecked > 0);
+        deletionsFed += sample.deletionsFed;
+      }
+      assertTrue(samples.toString(), deletionsFed > 0);
+    } finally {
+      runner.shutdown();
+    }
+  }
+
+  private NotesSoakHarness.Sample sample(int cycle, long heap,
+      int handles, long rows) {
+    Map<String, Long> tableRows = new TreeMap<String, Long>();
+    tableRows.put("\"PUBLIC\".\"DOCUMENTS\"", rows);
+    return new NotesSoakHarness.Sample(cycle, 1, 0, 1, heap, handles, 0,
+        tableRows);
+  }
+
+  private NotesSoakHarness.Sample tableSample(int cycle, long aclRows,
+      long statsRows, long indexedRows) {
+    Map<String, Long> tableRows = new TreeMap<String, Long>();
+    tableRows.put("\"PUBLIC\".\"NCDATABASEACL_TEST\"", aclRows);
+    tableRows.put("\"PUBLIC\".\"NCDATABASESTATS_TEST\"", statsRows);
+    tableRows.put("\"PUBLIC\".\"NCINDEXED_TEST\"", indexedRows);
+    return new NotesSoakHarness.Sample(cycle, 1, 0, 1, 0, 0, 0, tableRows);
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+public class NotesTraceTest extends TestCase {
+  /** A clock that only moves when the test advances it. */
+  private static class FakeClock implements NotesTrace.Clock {
+    private long nanos = 1000000000L;
+
+    @Override
+    public long nanoTime() {
+      return nanos;
+    }
+
+    void advance(long millis) {
+      nanos += millis * 1000000;
+    }
+  }
+
+  private final FakeClock clock = new FakeClock();
+
+  @Override
+  protected void setUp() {
+    NotesTrace.setClock(clock);
+  }
+
+  @Override
+  protected void tearDown() {
+    NotesTrace.setClock(null);
+    NotesTrace.configure(NCCONST.DEFAULT_SLOW_OPERATION_THRESHOLD,
+        NCCONST.DEFAULT_TRACE_SAMPLE_RATE);
+  }
+
+  public void testBreakdown() throws Exception {
+    NotesTrace trace = NotesTrace.start("prefetch");
+    clock.advance(5);
+    NotesTrace.enter("fields");
+    clock.advance(20);
+    NotesTrace.enter("formula");
+    clock.advance(30);
+    NotesTrace.exit();
+    NotesTrace.exit();
+    NotesTrace.enter("fields");
+    clock.advance(10);
+    NotesTrace.exit();
+    trace.end();
+
+    Map<String, Long> spans = trace.getSpanMillis();
+    assertEquals("[fields, formula, other]", spans.keySet().toString());
+    // The fields span isn't charged for the nested formula span.
+    assertEquals(spans.toString(), 30L, (long) spans.get("fields"));
+    assertEquals(spans.toString(), 30L, (long) spans.get("formula"));
+    assertEquals(spans.toString(), 5L, (long) spans.get("other"));
+    assertEquals(65, trace.getDurationMillis());
+    assertTrue(trace.getBreakdown(),
+        trace.getBreakdown().startsWith("fields="));
+    assertTrue(trace.getBreakdown(), trace.getBreakdown().contains("ms x2"));
+  }
+
+  public void testNestedOperation() throws Exception {
+    NotesTrace outer = NotesTrace.start("checkpoint");
+    NotesTrace inner = NotesTrace.start("document");
+    NotesTrace.enter("add");
+    clock.advance(10);
+    // The add span is left open, as if by an exception.
+    inner.end();
+    NotesTrace.enter("cleanup");
+    NotesTrace.exit();
+    outer.end();
+
+    Map<String, Long> spans = outer.getSpanMillis();
+    assertEquals("[document, add, cleanup, other]",
+        spans.keySet().toString());
+    assertEquals(spans.toString(), 10L, (long) spans.get("add"));
+
+    // The thread has no trace after the outer operation ends.
+    NotesTrace next = NotesTrace.start("next");
+    next.end();
+    assertEquals("[other]", next.getSpanMillis().keySet().toString());
+  }
+
+  public void testSpansWithoutTrace() {
+    NotesTrace.enter("orphan");
+    NotesTrace.exit();
+    NotesTrace.exit();
+    NotesTrace trace = NotesTrace.start("operation");
+    trace.end();
+    // Ending twice is harmless.
+    trace.end();
+    assertEquals("[other]", trace.getSpanMillis().keySet().toString());
+  }
+
+  public void testSlowOperationLogged() throws Exception {
+    List<String> slow = TestUtil.captureLogMessages(NotesTrace.class, "Slow");
+    List<String> sampled =
+        TestUtil.captureLogMessages(NotesTrace.class, "Sampled");
+
+    NotesTrace.configure(5, 0);
+    NotesTrace trace = NotesTrace.start("authorization");
+    trace.setSubject("testuser");
+    clock.advance(10);
+    trace.end();
+    NotesTrace.start("authorization").end();
+    assertEquals(1, slow.size());
+    assertEquals(0, sampled.size());
+
+    NotesTrace.configure(0, 2);
+    for (int i = 0; i < 4; i++) {
+      trace = NotesTrace.start("authorization");
+      clock.advance(10);
+      trace.end();
+    }
+    assertEquals(1, slow.size());
+    assertEquals(2, sampled.size());
+  }
+}
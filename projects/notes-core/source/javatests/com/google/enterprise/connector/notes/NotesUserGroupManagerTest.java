@@ -39,6 +39,7 @@ import junit.framework.TestSuite;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -335,6 +336,8 @@ public class NotesUserGroupManagerTest extends TestCase {
             userGroupManager.groupRolesTableName, null));
     assertTrue(jdbcDatabase.verifyTableExists(
             userGroupManager.groupChildrenTableName, null));
+    assertTrue(jdbcDatabase.verifyTableExists(
+            userGroupManager.checkpointTableName, null));
     userGroupManager.dropTables();
     assertFalse(jdbcDatabase.verifyTableExists(
             userGroupManager.userTableName, null));
@@ -350,6 +353,8 @@ public class NotesUserGroupManagerTest extends TestCase {
             userGroupManager.groupRolesTableName, null));
     assertFalse(jdbcDatabase.verifyTableExists(
             userGroupManager.groupChildrenTableName, null));
+    assertFalse(jdbcDatabase.verifyTableExists(
+            userGroupManager.checkpointTableName, null));
     // Re-initialize cache after this test for the tearDown.clearTables
     userGroupManager.initializeUserCache();
   }
@@ -404,6 +409,33 @@ public class NotesUserGroupManagerTest extends TestCase {
     assertGroupHasChild("jedi", "padawan learners");
   }
 
+  public void testUpdateGroupsFromView() throws Exception {
+    // Read ListName from the view and the other items from the
+    // documents, then read all of the items from the view.
+    userGroupManager.updateGroups(null);
+    getGroupData();
+    assertEquals(groups.toString(), GROUP_COUNT + 2, groups.size());
+    assertEquals(6, groupChildren.get(groups.get("good guys")).size());
+
+    namesDatabase.setViewFields(NCCONST.DIRVIEW_VIMGROUPS,
+        NCCONST.GITM_LISTNAME, NCCONST.ITMFORM, NCCONST.GITM_GROUPTYPE,
+        NCCONST.GITM_MEMBERS);
+    try {
+      userGroupManager.clearTables(conn);
+      groups.clear();
+      groupChildren.clear();
+      userGroupManager.updateGroups(null);
+      getGroupData();
+      assertEquals(groups.toString(), GROUP_COUNT + 2, groups.size());
+      assertEquals(6, groupChildren.get(groups.get("good guys")).size());
+      assertGroupHasChild("good guys", "padawan learners");
+      assertGroupHasChild("jedi", "masters");
+    } finally {
+      namesDatabase.setViewFields(NCCONST.DIRVIEW_VIMGROUPS,
+          NCCONST.GITM_LISTNAME);
+    }
+  }
+
   public void testSkipUpdateGroups() throws Exception {
     String nonExistentId = "group123";
     assertTrue(groupUnids.size() > 1);
@@ -439,6 +471,65 @@ public class NotesUserGroupManagerTest extends TestCase {
     assertUserHasGroup("palpatine", "o=tests");
   }
 
+  public void testUpdateGroupsPartitioned() throws Exception {
+    // Read the directory with more than one thread.
+    connectorSession.setDirectoryThreads(2);
+    try {
+      testUpdateGroups();
+    } finally {
+      connectorSession.setDirectoryThreads(NCCONST.DEFAULT_DIRECTORY_THREADS);
+    }
+  }
+
+  public void testUpdateUsersPartitioned() throws Exception {
+    connectorSession.setDirectoryThreads(2);
+    try {
+      testUpdateUsers();
+    } finally {
+      connectorSession.setDirectoryThreads(NCCONST.DEFAULT_DIRECTORY_THREADS);
+    }
+  }
+
+  public void testUpdateUsersSharedOUs() throws Exception {
+    // The OU groups are resolved once and reused for each user in the
+    // OU, including the group with the wildcard as a member.
+    setUpUsers();
+    for (String gsaName : new String[] { "ahsoka", "dooku", "rex", "echo" }) {
+      assertUserHasGroup(gsaName, "masters");
+      assertUserHasGroup(gsaName, "*/ou=tests/o=tests");
+      assertUserHasGroup(gsaName, "ou=tests/o=tests");
+      assertUserHasGroup(gsaName, "*/o=tests");
+      assertUserHasGroup(gsaName, "o=tests");
+      assertUserHasGroup(gsaName, "*");
+    }
+  }
+
+  public void testUpdateUsersFromView() throws Exception {
+    namesDatabase.setViewFields(NCCONST.DIRVIEW_VIMUSERS,
+        NCCONST.PITM_FULLNAME, NCCONST.ITMFORM);
+    try {
+      userGroupManager.updateGroups(null);
+      userGroupManager.updateUsers(null);
+      getGroupData();
+      getUserData();
+      assertEquals(USER_COUNT, notesUserNames.size());
+      assertUserHasGroup("ahsoka", "padawan learners");
+      assertUserHasGroup("ahsoka", "good guys");
+      assertUserHasGroup("palpatine", "bad guys");
+    } finally {
+      namesDatabase.setViewFields(NCCONST.DIRVIEW_VIMUSERS,
+          NCCONST.PITM_FULLNAME);
+    }
+  }
+
+  public void testIsItemName() {
+    assertTrue(NotesUserGroupManager.isItemName("ShortName"));
+    assertTrue(NotesUserGroupManager.isItemName("$Conflict"));
+    assertFalse(NotesUserGroupManager.isItemName("@Name([CN]; FullName)"));
+    assertFalse(NotesUserGroupManager.isItemName("Select Form = \"Person\""));
+    assertFalse(NotesUserGroupManager.isItemName(""));
+  }
+
   public void testSkipUpdateUsers() throws Exception {
     String nonExistentId = "user123";
     assertTrue(userUnids.size() > 1);
@@ -500,6 +591,40 @@ public class NotesUserGroupManagerTest extends TestCase {
     }
   }
 
+  public void testRolesAclEntryChanged() throws Exception {
+    setUpRoles();
+    Long creatorId = assertRoleExists("serreplicaid0123/[creator]");
+    Long removableId = assertRoleExists("serreplicaid0123/[removablerole]");
+
+    NotesDatabaseMock notesDatabase = (NotesDatabaseMock) session.getDatabase(
+        "SenateServer", "SenateExpenseReports.nsf");
+    NotesACLMock originalAcl = (NotesACLMock) notesDatabase.getACL();
+    try {
+      NotesACLMock acl = new NotesACLMock();
+      // Move Palpatine's role to the senators and add a new role.
+      acl.addAclEntry(new NotesACLEntryMock(
+          "cn=Chancellor Palpatine/ou=Tests/o=Tests",
+          NotesACLEntry.TYPE_PERSON, NotesACL.LEVEL_READER,
+          "[newrole]"));
+      acl.addAclEntry(new NotesACLEntryMock("senators",
+              NotesACLEntry.TYPE_PERSON_GROUP, NotesACL.LEVEL_AUTHOR,
+              "[creator]", "[duplicategroupname]", "[removablerole]"));
+      notesDatabase.setACL(acl);
+      setUpRoles();
+
+      // Unchanged roles keep their records.
+      assertEquals(creatorId, assertRoleExists("serreplicaid0123/[creator]"));
+      assertEquals(removableId,
+          assertRoleExists("serreplicaid0123/[removablerole]"));
+      assertGroupHasRole("senators", "serreplicaid0123/[removablerole]");
+      assertUserDoesNotHaveRole("palpatine",
+          "serreplicaid0123/[removablerole]");
+      assertUserHasRole("palpatine", "serreplicaid0123/[newrole]");
+    } finally {
+      notesDatabase.setACL(originalAcl);
+    }
+  }
+
   public void testDeleteRolesForDatabase() throws Exception {
     setUpRoles();
     assertRoleExists("serreplicaid0123/[removablerole]");
@@ -511,6 +636,53 @@ public class NotesUserGroupManagerTest extends TestCase {
     assertRoleDoesNotExist("serreplicaid0123/[removablerole]");
   }
 
+  public void testDeleteAclForDatabase() throws Exception {
+    NotesDocumentManager docManager =
+        connectorSession.getNotesDocumentManager();
+    NotesDocumentManager.DatabaseAcl acl = new NotesDocumentManager.DatabaseAcl(
+        Arrays.asList("cn=Yoda/ou=Tests/o=Tests"), new ArrayList<String>(),
+        new ArrayList<String>(), new ArrayList<String>());
+    assertTrue(docManager.setDatabaseAcl("serreplicaid0123", acl));
+    assertTrue(docManager.setDatabaseAcl("jtmreplicaid0123", acl));
+    try {
+      HashSet<String> currentDatabases = new HashSet<String>();
+      currentDatabases.add("jtmreplicaid0123");
+      userGroupManager.checkDatabaseDeletions(currentDatabases);
+
+      // Both the cached and the stored ACL are gone.
+      assertNull(docManager.getDatabaseAcl("serreplicaid0123"));
+      assertNull(new NotesDocumentManager(connectorSession)
+          .getDatabaseAcl("serreplicaid0123"));
+      assertNotNull(docManager.getDatabaseAcl("jtmreplicaid0123"));
+    } finally {
+      docManager.deleteDatabaseAcls(new HashSet<String>());
+    }
+  }
+
+  public void testDeleteStatisticsForDatabase() throws Exception {
+    NotesDocumentManager docManager =
+        connectorSession.getNotesDocumentManager();
+    NotesConnectorMetrics metrics =
+        connectorSession.getConnector().getMetrics();
+    metrics.recordDatabaseCrawlPoll("serreplicaid0123", "ser", 0, true, 1, 1,
+        0);
+    metrics.recordDatabaseCrawlPoll("jtmreplicaid0123", "jtm", 0, true, 1, 1,
+        0);
+    assertTrue(docManager.setDatabaseStatistics(
+        metrics.takeChangedCrawlByDatabase()));
+    try {
+      HashSet<String> currentDatabases = new HashSet<String>();
+      currentDatabases.add("jtmreplicaid0123");
+      userGroupManager.checkDatabaseDeletions(currentDatabases);
+
+      assertEquals(currentDatabases,
+          docManager.getDatabaseStatistics().keySet());
+      assertEquals(currentDatabases, metrics.getCrawlByDatabase().keySet());
+    } finally {
+      docManager.clearDatabaseStatistics();
+    }
+  }
+
   public void testUserDeletions() throws Exception {
     setUpRoles();
 
@@ -586,6 +758,18 @@ public class NotesUserGroupManagerTest extends TestCase {
     }
   }
 
+  public void testDeletionsKeepCurrentEntries() throws Exception {
+    setUpUsers();
+    userGroupManager.checkUserDeletions();
+    userGroupManager.checkGroupDeletions();
+    getGroupData();
+    getUserData();
+    assertEquals(USER_COUNT, notesUserNames.size());
+    assertGroupExists("jedi");
+    assertGroupExists("cn=west coast/ou=west/o=test");
+    assertUserHasGroup("ahsoka", "padawan learners");
+  }
+
   public void testUserNoLongerSelected() throws Exception {
     userGroupManager.updateGroups(groupUnids);
     userGroupManager.updateUsers(userUnids);
@@ -595,6 +779,9 @@ public class NotesUserGroupManagerTest extends TestCase {
     NotesDocumentMock doc = (NotesDocumentMock) nameView.getDocumentByKey(
         "cn=Anakin Skywalker/ou=Tests/o=Tests");
     assertNotNull("No anakin", doc);
+    // The default formula only checks the form, and isn't evaluated.
+    connectorSession.setUserSelectionFormula(
+        NCCONST.DEFAULT_USERSELECTIONFORMULA + " & Selected = 1");
     try {
       // Get the current user/group data and verify that the user is there.
       getGroupData();
@@ -623,6 +810,44 @@ public class NotesUserGroupManagerTest extends TestCase {
           new NotesItemMock("name",
               "evaluate_" + connectorSession.getUserSelectionFormula(),
               "type", NotesItem.TEXT, "values", 1.0));
+      connectorSession.setUserSelectionFormula(
+          NCCONST.DEFAULT_USERSELECTIONFORMULA);
+    }
+  }
+
+  public void testDefaultSelectionFormulaIsNotEvaluated() throws Exception {
+    assertEquals(NCCONST.DEFAULT_USERSELECTIONFORMULA,
+        connectorSession.getUserSelectionFormula());
+    userGroupManager.updateGroups(groupUnids);
+    userGroupManager.updateUsers(userUnids);
+
+    NotesView nameView = namesDatabase.getView("notesnamelookup");
+    NotesDocumentMock doc = (NotesDocumentMock) nameView.getDocumentByKey(
+        "cn=Anakin Skywalker/ou=Tests/o=Tests");
+    assertNotNull("No anakin", doc);
+    try {
+      // A formula result that would deselect the user is never read,
+      // since the person document isn't opened.
+      doc.replaceItemValue(
+          "evaluate_" + NCCONST.DEFAULT_USERSELECTIONFORMULA,
+          new NotesItemMock("name",
+              "evaluate_" + NCCONST.DEFAULT_USERSELECTIONFORMULA,
+              "type", NotesItem.TEXT, "values", 0.0));
+
+      userGroupManager.checkUserDeletions();
+      getGroupData();
+      getUserData();
+      assertUserExists("anakin");
+
+      userGroupManager.updateUsers(userUnids);
+      getUserData();
+      assertUserExists("anakin");
+    } finally {
+      doc.replaceItemValue(
+          "evaluate_" + NCCONST.DEFAULT_USERSELECTIONFORMULA,
+          new NotesItemMock("name",
+              "evaluate_" + NCCONST.DEFAULT_USERSELECTIONFORMULA,
+              "type", NotesItem.TEXT, "values", 1.0));
     }
   }
 
@@ -668,6 +893,144 @@ public class NotesUserGroupManagerTest extends TestCase {
     }
   }
 
+  public void testUpdateIntervalCheckedWithoutSession() throws Exception {
+    userGroupManager.updateUsersGroups(true);
+    assertNull(userGroupManager.getNotesSession());
+
+    // The interval has not elapsed since the update just saved.
+    assertFalse(userGroupManager.setUpResources(false));
+    assertNull(userGroupManager.getNotesSession());
+
+    assertTrue(userGroupManager.resetLastCacheUpdate());
+    assertTrue(userGroupManager.setUpResources(false));
+    assertNotNull(userGroupManager.getNotesSession());
+  }
+
+  public void testCancelUpdate() throws Exception {
+    userGroupManager.clearTables(conn);
+    userGroupManager.cancelUpdate();
+    userGroupManager.updateGroups(null);
+    userGroupManager.updateGroups(groupUnids);
+    getGroupData();
+    assertEquals(0, groups.size());
+
+    // A new update is not affected by the earlier cancellation.
+    userGroupManager.updateUsersGroups(true);
+    getGroupData();
+    getUserData();
+    assertEquals(USER_COUNT, notesUserNames.size());
+  }
+
+  public void testResumeFromCheckpoint() throws Exception {
+    // An update that stopped after the first person resumes with the
+    // rest of the people, skipping the groups.
+    userGroupManager.clearTables(conn);
+    userGroupManager.saveCheckpoint(NotesUserGroupManager.PASS_USERS,
+        userUnids.get(0));
+    userGroupManager.updateUsersGroups(true);
+    getGroupData();
+    getUserData();
+    assertEquals(notesUserNames.toString(), USER_COUNT - 1,
+        notesUserNames.size());
+    assertNull(userGroupManager.loadCheckpoint());
+
+    // The next update starts over.
+    userGroupManager.updateUsersGroups(true);
+    getUserData();
+    assertEquals(USER_COUNT, notesUserNames.size());
+  }
+
+  public void testResumeFromMissingEntry() throws Exception {
+    // The pass is read from the start if the last entry is gone.
+    userGroupManager.clearTables(conn);
+    userGroupManager.saveCheckpoint(NotesUserGroupManager.PASS_USERS,
+        "0123456789ABCDEF0123456789ABCDEF");
+    userGroupManager.updateUsersGroups(true);
+    getUserData();
+    assertEquals(USER_COUNT, notesUserNames.size());
+    assertNull(userGroupManager.loadCheckpoint());
+  }
+
+  public void testResumeDeletionPassesFromStart() throws Exception {
+    // A deletion pass that resumed after an entry would see only the
+    // rest of the view, and delete the entries before it.
+    userGroupManager.updateUsersGroups(true);
+    getGroupData();
+    getUserData();
+    HashMap<String, Long> groupIds = new HashMap<String, Long>(groups);
+    HashMap<String, Long> userIds =
+        new HashMap<String, Long>(notesUserNames);
+    assertEquals(USER_COUNT, userIds.size());
+
+    userGroupManager.saveCheckpoint(NotesUserGroupManager.PASS_USER_DELETIONS,
+        userUnids.get(userUnids.size() / 2));
+    userGroupManager.updateUsersGroups(true);
+    getGroupData();
+    getUserData();
+    assertEquals(userIds, notesUserNames);
+    assertEquals(groupIds, groups);
+    assertNull(userGroupManager.loadCheckpoint());
+
+    userGroupManager.saveCheckpoint(
+        NotesUserGroupManager.PASS_GROUP_DELETIONS,
+        groupUnids.get(groupUnids.size() / 2));
+    userGroupManager.updateUsersGroups(true);
+    getGroupData();
+    getUserData();
+    assertEquals(userIds, notesUserNames);
+    assertEquals(groupIds, groups);
+    assertNull(userGroupManager.loadCheckpoint());
+  }
+
+  public void testCancelDuringUserDeletions() throws Exception {
+    NotesUserGroupManager cancelling =
+        new NotesUserGroupManager(connectorSession) {
+          @Override
+          void checkUserDeletions() {
+            super.checkUserDeletions();
+            cancelUpdate();
+          }
+        };
+    cancelling.updateUsersGroups(true);
+
+    // The cancelled pass isn't checkpointed as done.
+    NotesUserGroupManager.Checkpoint checkpoint =
+        userGroupManager.loadCheckpoint();
+    assertNotNull(checkpoint);
+    assertEquals(NotesUserGroupManager.PASS_USER_DELETIONS, checkpoint.pass);
+  }
+
+  public void testCancelledUpdateKeepsCheckpoint() throws Exception {
+    userGroupManager.clearTables(conn);
+    userGroupManager.saveCheckpoint(NotesUserGroupManager.PASS_GROUPS, null);
+    userGroupManager.cancelUpdate();
+    userGroupManager.updateGroups(groupUnids);
+    NotesUserGroupManager.Checkpoint checkpoint =
+        userGroupManager.loadCheckpoint();
+    assertNotNull(checkpoint);
+    assertEquals(NotesUserGroupManager.PASS_GROUPS, checkpoint.pass);
+  }
+
+  public void testRepeatedUpdatesKeepIds() throws Exception {
+    // The second update finds the existing records through the cached
+    // ids and replaces the membership rows with batched inserts.
+    setUpRoles();
+    HashMap<String, Long> groupIds = new HashMap<String, Long>(groups);
+    HashMap<String, Long> userIds =
+        new HashMap<String, Long>(notesUserNames);
+    HashMap<Long, HashSet<Long>> memberships =
+        new HashMap<Long, HashSet<Long>>(userGroups);
+    HashMap<Long, HashSet<Long>> children =
+        new HashMap<Long, HashSet<Long>>(groupChildren);
+
+    setUpRoles();
+    assertEquals(groupIds, groups);
+    assertEquals(userIds, notesUserNames);
+    assertEquals(memberships, userGroups);
+    assertEquals(children, groupChildren);
+    assertUserHasRole("palpatine", "espreplicaid0123/[evilmastermind]");
+  }
+
   public void testGetUser() throws Exception {
     setUpRoles();
 
@@ -0,0 +1,394 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.NotesItem;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.NotesDateTimeMock;
+import com.google.enterprise.connector.notes.client.mock.NotesDocumentMock;
+import com.google.enterprise.connector.notes.client.mock.NotesItemMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * Populates the mock client with a large, seeded directory and set of
+ * source databases, for measuring how the connector scales.
+ *
+ * Persons are spread over organizational units. Groups are nested to
+ * a configurable depth: the first level lists persons and wildcard
+ * entries such as "*&#47;ou=unit 3/o=synthetic", and each later level
+ * lists groups from the level below. Documents have readers fields
+ * drawn from the persons, groups and roles, and some have
+ * attachments. The same seed and volumes always generate the same
+ * names, UNIDs and times.
+ *
+ * <pre>
+ *   SyntheticDataGenerator generator = new SyntheticDataGenerator(42)
+ *       .setPersons(200000).setGroups(20000, 5, 50)
+ *       .setDatabases(1000, 1000);
+ *   generator.generateDirectory(namesDatabase, connectorSession);
+ *   generator.generateDatabases(factory, configDatabase);
+ * </pre>
+ */
+public class SyntheticDataGenerator {
+  /** The organization of the generated names. */
+  public static final String ORGANIZATION = "synthetic";
+
+  /** The modification times are spread over the year before this. */
+  private static final long BASE_TIME = 1325376000000L; // 2012-01-01 UTC
+  private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+  private final long seed;
+  private final Random random;
+  private long unidSeq = 0;
+
+  private int persons = 1000;
+  private int organizationalUnits = 10;
+  private int groups = 100;
+  private int groupDepth = 3;
+  private int membersPerGroup = 20;
+  private double wildcardRate = 0.1;
+  private int databases = 10;
+  private int documentsPerDatabase = 100;
+  private int maxReadersPerDocument = 10;
+  private double publicRate = 0.3;
+  private double attachmentRate = 0.2;
+  private int roles = 5;
+
+  private final List<String> personNames = new ArrayList<String>();
+  private final List<String> groupNames = new ArrayList<String>();
+
+  public SyntheticDataGenerator(long seed) {
+    this.seed = seed;
+    this.random = new Random(seed);
+  }
+
+  /** Sets the number of persons and the OUs they are spread over. */
+  public SyntheticDataGenerator setPersons(int persons) {
+    this.persons = persons;
+    return this;
+  }
+
+  public SyntheticDataGenerator setOrganizationalUnits(int count) {
+    this.organizationalUnits = count;
+    return this;
+  }
+
+  /**
+   * Sets the number of groups, the number of nesting levels they are
+   * divided into, and the number of members of each group.
+   */
+  public SyntheticDataGenerator setGroups(int groups, int depth,
+      int membersPerGroup) {
+    this.groups = groups;
+    this.groupDepth = Math.max(1, depth);
+    this.membersPerGroup = membersPerGroup;
+    return this;
+  }
+
+  /** Sets the fraction of first-level groups with a wildcard member. */
+  public SyntheticDataGenerator setWildcardRate(double rate) {
+    this.wildcardRate = rate;
+    return this;
+  }
+
+  public SyntheticDataGenerator setDatabases(int databases,
+      int documentsPerDatabase) {
+    this.databases = databases;
+    this.documentsPerDatabase = documentsPerDatabase;
+    return this;
+  }
+
+  /**
+   * Sets the readers of the documents.
+   *
+   * @param maxReadersPerDocument the maximum length of a readers field
+   * @param publicRate the fraction of documents without readers
+   * @param roles the number of database roles used as readers
+   */
+  public SyntheticDataGenerator setReaders(int maxReadersPerDocument,
+      double publicRate, int roles) {
+    this.maxReadersPerDocument = maxReadersPerDocument;
+    this.publicRate = publicRate;
+    this.roles = roles;
+    return this;
+  }
+
+  /** Sets the fraction of documents with attachments. */
+  public SyntheticDataGenerator setAttachmentRate(double rate) {
+    this.attachmentRate = rate;
+    return this;
+  }
+
+  /** Gets the Notes names of the generated persons. */
+  public List<String> getPersonNames() {
+    return personNames;
+  }
+
+  /** Gets the names of the generated groups, first level first. */
+  public List<String> getGroupNames() {
+    return groupNames;
+  }
+
+  /**
+   * Adds the persons and groups to a names database, in the views
+   * that NotesUserGroupManager reads.
+   *
+   * @param namesDatabase the Domino directory
+   * @param connectorSession the session whose user name and user
+   * selection formulas the persons answer
+   */
+  public void generateDirectory(NotesDatabaseMock namesDatabase,
+      NotesConnectorSession connectorSession) throws Exception {
+    generateDirectory(namesDatabase,
+        connectorSession.getUserNameFormula(),
+        connectorSession.getUserSelectionFormula());
+  }
+
+  /**
+   * Adds the persons and groups to a names database, in the views
+   * that NotesUserGroupManager reads.
+   *
+   * @param namesDatabase the Domino directory
+   * @param userNameFormula the formula mapping Notes names to
+   * search appliance names
+   * @param userSelectionFormula the formula selecting the persons to
+   * cache
+   */
+  public void generateDirectory(NotesDatabaseMock namesDatabase,
+      String userNameFormula, String userSelectionFormula) throws Exception {
+    int units = Math.max(1, organizationalUnits);
+    for (int i = 0; i < persons; i++) {
+      String shortName = "user" + i;
+      String notesName = "cn=user " + i + "/ou=" + getUnit(i % units)
+          + "/o=" + ORGANIZATION;
+      personNames.add(notesName);
+
+      NotesDocumentMock person = new NotesDocumentMock();
+      String unid = nextUnid();
+      person.addItem(new NotesItemMock("name", NCCONST.NCITM_UNID,
+          "type", NotesItem.TEXT, "values", unid));
+      person.addItem(new NotesItemMock("name", NCCONST.PITM_FULLNAME,
+          "type", NotesItem.TEXT, "values", notesName));
+      person.addItem(new NotesItemMock("name", "HTTPPassword",
+          "type", NotesItem.TEXT, "values", "password"));
+      person.addItem(new NotesItemMock("name", NCCONST.ITMFORM,
+          "type", NotesItem.TEXT, "values", NCCONST.DIRFORM_PERSON));
+      person.addItem(new NotesItemMock("name", "evaluate_" + userNameFormula,
+          "type", NotesItem.TEXT, "values", shortName));
+      person.addItem(new NotesItemMock("name",
+          "evaluate_" + userSelectionFormula,
+          "type", NotesItem.TEXT, "values", 1.0));
+      namesDatabase.addDocument(person, NCCONST.DIRVIEW_USERS,
+          NCCONST.DIRVIEW_PEOPLEGROUPFLAT, NCCONST.DIRVIEW_SERVERACCESS,
+          NCCONST.DIRVIEW_VIMUSERS, "notesnamelookup");
+    }
+
+    // Each level after the first holds an equal share of the groups.
+    int perLevel = groups / groupDepth;
+    List<String> previousLevel = new ArrayList<String>();
+    for (int level = 0; level < groupDepth; level++) {
+      int count = (level == 0) ? groups - perLevel * (groupDepth - 1)
+          : perLevel;
+      List<String> thisLevel = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++) {
+        String groupName = "group " + level + "-" + i;
+        Set<String> members = new LinkedHashSet<String>();
+        for (int m = 0; m < membersPerGroup; m++) {
+          if (level > 0 && !previousLevel.isEmpty() && m % 2 == 0) {
+            members.add(pick(previousLevel));
+          } else if (!personNames.isEmpty()) {
+            members.add(pick(personNames));
+          }
+        }
+        if (level == 0 && random.nextDouble() < wildcardRate) {
+          members.add("*/ou=" + getUnit(random.nextInt(units)) + "/o="
+              + ORGANIZATION);
+        }
+        NotesUserGroupManagerTest.addNotesGroup(namesDatabase, groupName,
+            members.toArray(new String[members.size()]));
+        thisLevel.add(groupName);
+      }
+      groupNames.addAll(thisLevel);
+      previousLevel = thisLevel;
+    }
+  }
+
+  /**
+   * Creates the source databases, adds them to the session factory,
+   * and registers them with the connector's configuration database.
+   * The directory should be generated first so that the documents
+   * can list its persons and groups as readers.
+   *
+   * @param factory the session factory to add the databases to
+   * @param configDatabase the connector's configuration database
+   * @return the source databases
+   */
+  public List<NotesDatabaseMock> generateDatabases(SessionFactoryMock factory,
+      NotesDatabaseMock configDatabase) throws RepositoryException {
+    configDatabase.setViewFields(NCCONST.VIEWDATABASES, NCCONST.DITM_REPLICAID);
+    List<NotesDatabaseMock> sourceDatabases =
+        new ArrayList<NotesDatabaseMock>(databases);
+    for (int d = 0; d < databases; d++) {
+      String replicaId = String.format("%08X%08X", (int) seed, d);
+      String fileName = "synthetic/db" + d + ".nsf";
+      NotesDatabaseMock database = new NotesDatabaseMock(
+          TESTCONST.SERVER_DOMINO, fileName, replicaId);
+      for (int i = 0; i < documentsPerDatabase; i++) {
+        database.addDocument(newDocument(replicaId));
+      }
+      factory.addDatabase(database);
+      sourceDatabases.add(database);
+
+      NotesDocumentMock dbDoc = new NotesDocumentMock();
+      dbDoc.replaceItemValue(NCCONST.ITMFORM, "DATABASE");
+      dbDoc.replaceItemValue(NCCONST.NCITM_UNID, replicaId);
+      dbDoc.replaceItemValue(NCCONST.DITM_DBNAME, fileName);
+      dbDoc.replaceItemValue(NCCONST.DITM_SERVER, TESTCONST.SERVER_DOMINO);
+      dbDoc.replaceItemValue(NCCONST.DITM_REPLICAID, replicaId);
+      dbDoc.replaceItemValue(NCCONST.DITM_CRAWLENABLED, 1);
+      dbDoc.replaceItemValue(NCCONST.DITM_STOPPED, 0);
+      dbDoc.replaceItemValue(NCCONST.DITM_CHECKDELETIONS, "Yes");
+      dbDoc.replaceItemValue(NCCONST.DITM_AUTHTYPE, NCCONST.AUTH_CONNECTOR);
+      dbDoc.replaceItemValue(NCCONST.DITM_TEMPLATE, "Discussion");
+      configDatabase.addDocument(dbDoc, NCCONST.VIEWDATABASES);
+    }
+    return sourceDatabases;
+  }
+
+  /**
+   * Applies one round of a synthetic change stream to the source
+   * databases. Documents are chosen at random from all of the
+   * databases; modified and added documents get the given time.
+   *
+   * @param sourceDatabases the databases from {@link #generateDatabases}
+   * @param modified the number of documents to modify
+   * @param added the number of documents to add
+   * @param deleted the number of documents to delete
+   * @param now the modification time of the changed documents
+   */
+  public void applyChanges(List<NotesDatabaseMock> sourceDatabases,
+      int modified, int added, int deleted, Date now)
+      throws RepositoryException {
+    if (sourceDatabases.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < modified; i++) {
+      NotesDocumentMock document = pickDocument(sourceDatabases);
+      if (document != null) {
+        document.replaceItemValue("Subject",
+            "Synthetic document " + document.getUniversalID() + " edited");
+        document.setLastModified(new NotesDateTimeMock(now));
+      }
+    }
+    for (int i = 0; i < added; i++) {
+      NotesDatabaseMock database = sourceDatabases.get(
+          random.nextInt(sourceDatabases.size()));
+      NotesDocumentMock document = newDocument(database.getReplicaID());
+      document.setLastModified(new NotesDateTimeMock(now));
+      database.addDocument(document);
+    }
+    for (int i = 0; i < deleted; i++) {
+      NotesDocumentMock document = pickDocument(sourceDatabases);
+      if (document != null) {
+        document.remove(true);
+      }
+    }
+  }
+
+  private NotesDocumentMock pickDocument(
+      List<NotesDatabaseMock> sourceDatabases) {
+    List<NotesDocumentMock> documents = sourceDatabases.get(
+        random.nextInt(sourceDatabases.size()))
+        .getDocumentsByField(NCCONST.ITMFORM, "MainTopic");
+    return documents.isEmpty() ? null
+        : documents.get(random.nextInt(documents.size()));
+  }
+
+  private NotesDocumentMock newDocument(String replicaId)
+      throws RepositoryException {
+    String unid = nextUnid();
+    NotesDocumentMock document = new NotesDocumentMock();
+    document.replaceItemValue(NCCONST.NCITM_UNID, unid);
+    document.replaceItemValue(NCCONST.ITMFORM, "MainTopic");
+    document.replaceItemValue("Subject", "Synthetic document " + unid);
+    document.replaceItemValue(NCCONST.ITM_DOCID, "notes://"
+        + TESTCONST.SERVER_DOMINO + "/__" + replicaId + ".nsf/0/" + unid
+        + "?OpenDocument");
+    document.setLastModified(new NotesDateTimeMock(new Date(
+        BASE_TIME - (long) (random.nextDouble() * YEAR_MILLIS))));
+
+    if (random.nextDouble() >= publicRate && maxReadersPerDocument > 0) {
+      Vector<String> readers = new Vector<String>();
+      int count = 1 + random.nextInt(maxReadersPerDocument);
+      for (int i = 0; i < count; i++) {
+        String reader = pickReader();
+        if (!readers.contains(reader)) {
+          readers.add(reader);
+        }
+      }
+      NotesItemMock readersItem = new NotesItemMock("name", "DocReaders",
+          "type", NotesItem.READERS, "values", readers);
+      readersItem.setReaders(true);
+      document.addItem(readersItem);
+    }
+
+    if (random.nextDouble() < attachmentRate) {
+      int count = 1 + random.nextInt(3);
+      for (int i = 0; i < count; i++) {
+        byte[] content = new byte[64 + random.nextInt(4096)];
+        Arrays.fill(content, (byte) ('a' + i));
+        document.addAttachment("attachment" + i + ".txt", content);
+      }
+    }
+    return document;
+  }
+
+  /** Picks a reader: mostly persons, then groups, then roles. */
+  private String pickReader() {
+    double choice = random.nextDouble();
+    if (choice < 0.6 && !personNames.isEmpty()) {
+      return pick(personNames);
+    } else if (choice < 0.9 && !groupNames.isEmpty()) {
+      return pick(groupNames);
+    } else if (roles > 0) {
+      return "[role" + random.nextInt(roles) + "]";
+    } else {
+      return "LocalDomainAdmins";
+    }
+  }
+
+  private String pick(List<String> names) {
+    return names.get(random.nextInt(names.size()));
+  }
+
+  private String getUnit(int unit) {
+    return "unit " + unit;
+  }
+
+  /** Gets a UNID that is unique for the seed. */
+  private String nextUnid() {
+    return String.format("%016X%016X", seed, unidSeq++);
+  }
+}
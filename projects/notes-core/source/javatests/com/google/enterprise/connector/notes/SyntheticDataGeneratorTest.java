@@ -0,0 +1,160 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes;
+
+import com.google.enterprise.connector.notes.client.NotesEmbeddedObject;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.NotesDocumentMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+public class SyntheticDataGeneratorTest extends TestCase {
+  private static final String NAME_FORMULA = "name formula";
+  private static final String SELECTION_FORMULA = "selection formula";
+
+  public void testDirectory() throws Exception {
+    SyntheticDataGenerator generator = new SyntheticDataGenerator(7)
+        .setPersons(50).setOrganizationalUnits(5).setGroups(12, 3, 4)
+        .setWildcardRate(1.0);
+    NotesDatabaseMock namesDatabase =
+        new NotesDatabaseMock("testserver", "testnames.nsf");
+    generator.generateDirectory(namesDatabase, NAME_FORMULA,
+        SELECTION_FORMULA);
+
+    assertEquals(50, generator.getPersonNames().size());
+    assertEquals(12, generator.getGroupNames().size());
+    assertEquals(50,
+        namesDatabase.getView(NCCONST.DIRVIEW_USERS).getEntryCount());
+    assertEquals(12,
+        namesDatabase.getView(NCCONST.DIRVIEW_VIMGROUPS).getEntryCount());
+    assertEquals("cn=user 7/ou=unit 2/o=synthetic",
+        generator.getPersonNames().get(7));
+
+    // First-level groups have a wildcard member, later levels nest.
+    Vector<?> members = getGroup(namesDatabase, "group 0-0")
+        .getItemValue(NCCONST.GITM_MEMBERS);
+    assertTrue(members.toString(),
+        members.lastElement().toString().startsWith("*/ou=unit "));
+    members = getGroup(namesDatabase, "group 2-0")
+        .getItemValue(NCCONST.GITM_MEMBERS);
+    assertTrue(members.toString(),
+        members.firstElement().toString().startsWith("group 1-"));
+  }
+
+  public void testDatabases() throws Exception {
+    SyntheticDataGenerator generator = new SyntheticDataGenerator(7)
+        .setPersons(20).setGroups(5, 1, 3).setDatabases(3, 40)
+        .setReaders(4, 0.0, 2).setAttachmentRate(1.0);
+    generator.generateDirectory(
+        new NotesDatabaseMock("testserver", "testnames.nsf"),
+        NAME_FORMULA, SELECTION_FORMULA);
+    SessionFactoryMock factory = new SessionFactoryMock();
+    NotesDatabaseMock configDatabase =
+        new NotesDatabaseMock("testserver", "testconfig.nsf");
+    List<NotesDatabaseMock> databases =
+        generator.generateDatabases(factory, configDatabase);
+
+    assertEquals(3, databases.size());
+    assertEquals(3,
+        configDatabase.getView(NCCONST.VIEWDATABASES).getEntryCount());
+    NotesDatabaseMock database = databases.get(1);
+    assertSame(database, factory.getDatabase(database.getName()));
+    assertNotNull(configDatabase.getView(NCCONST.VIEWDATABASES)
+        .getDocumentByKey(database.getReplicaID(), true));
+
+    NotesDocumentMock document = (NotesDocumentMock)
+        database.search("", null, 0).getFirstDocument();
+    assertNotNull(document.getLastModified());
+    assertTrue(document.getNotesURL().contains(database.getReplicaID()));
+    assertTrue(document.getFirstItem("DocReaders").isReaders());
+    Vector<?> attachmentNames =
+        document.getItemValue("evaluate_@AttachmentNames");
+    assertTrue(attachmentNames.size() > 0);
+    NotesEmbeddedObject attachment =
+        document.getAttachment((String) attachmentNames.firstElement());
+    assertEquals(NotesEmbeddedObject.EMBED_ATTACHMENT, attachment.getType());
+    assertTrue(attachment.getFileSize() > 0);
+
+    File file = File.createTempFile("synthetic", ".txt");
+    try {
+      attachment.extractFile(file.getPath());
+      assertEquals(attachment.getFileSize(), file.length());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testApplyChanges() throws Exception {
+    SyntheticDataGenerator generator = new SyntheticDataGenerator(7)
+        .setPersons(5).setGroups(1, 1, 1).setDatabases(2, 10);
+    List<NotesDatabaseMock> databases = generator.generateDatabases(
+        new SessionFactoryMock(),
+        new NotesDatabaseMock("testserver", "testconfig.nsf"));
+    Date now = new Date();
+    generator.applyChanges(databases, 3, 4, 2, now);
+
+    int total = 0;
+    int changed = 0;
+    for (NotesDatabaseMock database : databases) {
+      for (NotesDocumentMock document : database.getDocumentsByField(
+          NCCONST.ITMFORM, "MainTopic")) {
+        total++;
+        if (document.getLastModified().toJavaDate().equals(now)) {
+          changed++;
+        }
+      }
+    }
+    assertEquals(22, total);
+    // A document can be picked twice, and changed documents deleted.
+    assertTrue(String.valueOf(changed), changed >= 2 && changed <= 7);
+  }
+
+  public void testSeed() throws Exception {
+    assertEquals(generateUnids(1), generateUnids(1));
+    assertFalse(generateUnids(1).equals(generateUnids(2)));
+  }
+
+  private List<String> generateUnids(long seed) throws Exception {
+    SyntheticDataGenerator generator = new SyntheticDataGenerator(seed)
+        .setPersons(10).setGroups(2, 1, 2).setDatabases(1, 5);
+    generator.generateDirectory(
+        new NotesDatabaseMock("testserver", "testnames.nsf"),
+        NAME_FORMULA, SELECTION_FORMULA);
+    NotesDatabaseMock database = generator.generateDatabases(
+        new SessionFactoryMock(),
+        new NotesDatabaseMock("testserver", "testconfig.nsf")).get(0);
+    List<String> values = new ArrayList<String>();
+    for (NotesDocumentMock document : database.getDocumentsByField(
+        NCCONST.ITMFORM, "MainTopic")) {
+      values.add(document.getUniversalID() + " "
+          + document.getItemValue("DocReaders") + " "
+          + document.getLastModified());
+    }
+    return values;
+  }
+
+  private NotesDocumentMock getGroup(NotesDatabaseMock namesDatabase,
+      String name) {
+    return namesDatabase.getDocumentsByField(NCCONST.GITM_LISTNAME, name)
+        .get(0);
+  }
+}
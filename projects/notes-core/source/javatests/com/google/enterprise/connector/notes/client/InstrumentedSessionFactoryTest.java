@@ -0,0 +1,121 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import com.google.enterprise.connector.notes.NCCONST;
+import com.google.enterprise.connector.notes.client.mock.LatencyProfile;
+import com.google.enterprise.connector.notes.client.mock.NotesDatabaseMock;
+import com.google.enterprise.connector.notes.client.mock.NotesDocumentMock;
+import com.google.enterprise.connector.notes.client.mock.NotesItemMock;
+import com.google.enterprise.connector.notes.client.mock.SessionFactoryMock;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+public class InstrumentedSessionFactoryTest extends TestCase {
+  private SessionFactoryMock mockFactory;
+  private InstrumentedSessionFactory factory;
+
+  @Override
+  protected void setUp() throws Exception {
+    mockFactory = new SessionFactoryMock();
+    NotesDatabaseMock database = new NotesDatabaseMock("server", "test.nsf");
+    for (String unid : new String[] { "first", "second" }) {
+      NotesDocumentMock document = new NotesDocumentMock();
+      document.addItem(new NotesItemMock("name", NCCONST.NCITM_UNID,
+              "type", NotesItem.TEXT, "values", unid));
+      database.addDocument(document, "documents");
+    }
+    mockFactory.addDatabase(database);
+    factory = new InstrumentedSessionFactory(mockFactory);
+  }
+
+  public void testCallsAreCounted() throws Exception {
+    NotesSession session = factory.createSessionWithFullAccess("password");
+    NotesDatabase database = session.getDatabase("server", "test.nsf");
+    assertTrue(Proxy.isProxyClass(database.getClass()));
+    NotesView view = database.getView("documents");
+    NotesDocument first = view.getFirstDocument();
+    assertTrue(Proxy.isProxyClass(first.getClass()));
+
+    // The mock view expects its own documents as arguments.
+    NotesDocument second = view.getNextDocument(first);
+    assertEquals("second", second.getUniversalID());
+    assertNull(view.getNextDocument(second));
+
+    assertEquals(1,
+        getStatistics("SessionFactory.createSessionWithFullAccess").getCount());
+    assertEquals(1, getStatistics("NotesSession.getDatabase").getCount());
+    assertEquals(2, getStatistics("NotesView.getNextDocument").getCount());
+    assertEquals(0, getStatistics("NotesView.getNextDocument").getFailures());
+    assertEquals(1, getStatistics("NotesDocument.getUniversalID").getCount());
+
+    factory.resetStatistics();
+    assertTrue(factory.getCallStatistics().isEmpty());
+  }
+
+  public void testStackedOnLatencyProfile() throws Exception {
+    // The mock's sessions are proxies that inject latency; the calls
+    // are still timed, and still reach the mocks.
+    LatencyProfile profile = new LatencyProfile(1)
+        .setLatency("NotesView.getNextDocument", 5, 0);
+    mockFactory.setLatencyProfile(profile);
+    NotesSession session = factory.createSessionWithFullAccess("password");
+    NotesView view =
+        session.getDatabase("server", "test.nsf").getView("documents");
+    NotesDocument first = view.getFirstDocument();
+    NotesDocument second = view.getNextDocument(first);
+    assertEquals("second", second.getUniversalID());
+    assertTrue(first.equals(view.getFirstDocument()));
+
+    assertEquals(1, getStatistics("NotesSession.getDatabase").getCount());
+    InstrumentedSessionFactory.CallStatistics next =
+        getStatistics("NotesView.getNextDocument");
+    assertEquals(1, next.getCount());
+    assertTrue(next.toString(), next.getTotalMillis() >= 5);
+    assertEquals(1, getStatistics("NotesDocument.getUniversalID").getCount());
+    assertEquals(1, profile.getCallCount("NotesView.getNextDocument"));
+    assertEquals(1, profile.getCallCount("NotesDocument.getUniversalID"));
+  }
+
+  public void testEquals() throws Exception {
+    NotesSession session = factory.createSessionWithFullAccess("password");
+    NotesView view =
+        session.getDatabase("server", "test.nsf").getView("documents");
+    NotesDocument first = view.getFirstDocument();
+    assertTrue(first.equals(view.getFirstDocument()));
+    assertFalse(first.equals(view.getNextDocument(first)));
+    assertEquals(first.hashCode(), view.getFirstDocument().hashCode());
+  }
+
+  /**
+   * Gets the statistics for a method. This test is in the client
+   * package, so the caller is the test runner.
+   */
+  private InstrumentedSessionFactory.CallStatistics getStatistics(
+      String method) {
+    for (Map.Entry<String, InstrumentedSessionFactory.CallStatistics> entry
+             : factory.getCallStatistics().entrySet()) {
+      if (entry.getKey().endsWith(" " + method)) {
+        return entry.getValue();
+      }
+    }
+    fail("No statistics for " + method + ": "
+        + factory.getCallStatistics().keySet());
+    return null;
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+public class NotesHandleArenaTest extends TestCase {
+  private final List<String> recycled = new ArrayList<String>();
+
+  /** Records the order in which handles are recycled. */
+  private class Handle implements NotesBase {
+    private final String name;
+
+    Handle(String name) {
+      this.name = name;
+      NotesHandleArena.track(this);
+    }
+
+    @Override
+    public void recycle() {
+      NotesHandleArena.untrack(this);
+      recycled.add(name);
+    }
+
+    @Override
+    public void recycle(Vector objects) {
+    }
+  }
+
+  public void testClose() {
+    new Handle("outside");
+    NotesHandleArena arena = NotesHandleArena.open();
+    new Handle("database");
+    new Handle("view");
+    new Handle("document");
+    assertEquals(3, arena.size());
+    arena.close();
+    assertEquals("[document, view, database]", recycled.toString());
+    assertEquals(0, arena.size());
+
+    // Objects created after the arena is closed aren't tracked.
+    arena.close();
+    new Handle("after");
+    assertEquals(3, recycled.size());
+  }
+
+  public void testRecycledHandlesAreUntracked() {
+    NotesHandleArena arena = NotesHandleArena.open();
+    Handle first = new Handle("first");
+    new Handle("second");
+    first.recycle();
+    assertEquals(1, arena.size());
+    arena.close();
+    assertEquals("[first, second]", recycled.toString());
+  }
+
+  public void testNestedArenas() {
+    NotesHandleArena outer = NotesHandleArena.open();
+    new Handle("outer");
+    NotesHandleArena inner = NotesHandleArena.open();
+    new Handle("inner");
+    assertEquals(1, outer.size());
+    assertEquals(1, inner.size());
+    inner.close();
+    assertEquals("[inner]", recycled.toString());
+
+    new Handle("outer2");
+    assertEquals(2, outer.size());
+    outer.close();
+    assertEquals("[inner, outer2, outer]", recycled.toString());
+  }
+
+  public void testCloseOuterClosesInner() {
+    NotesHandleArena outer = NotesHandleArena.open();
+    new Handle("outer");
+    NotesHandleArena.open();
+    new Handle("inner");
+    outer.close();
+    assertEquals("[inner, outer]", recycled.toString());
+
+    // The thread has no open arena.
+    new Handle("after");
+    assertEquals(2, recycled.size());
+  }
+}
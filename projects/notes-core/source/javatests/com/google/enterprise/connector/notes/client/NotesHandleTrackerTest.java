@@ -0,0 +1,94 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client;
+
+import com.google.enterprise.connector.notes.TestUtil;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+public class NotesHandleTrackerTest extends TestCase {
+
+  private static class Handle implements NotesBase {
+    private final Object token = NotesHandleTracker.track(this);
+
+    @Override
+    public void recycle() {
+      NotesHandleTracker.recycled(token);
+    }
+
+    @Override
+    public void recycle(Vector objects) {
+    }
+  }
+
+  @Override
+  protected void setUp() {
+    NotesHandleTracker.setEnabled(true);
+  }
+
+  @Override
+  protected void tearDown() {
+    NotesHandleTracker.setEnabled(false);
+  }
+
+  public void testDisabled() {
+    NotesHandleTracker.setEnabled(false);
+    long created = NotesHandleTracker.getCreatedCount();
+    Handle handle = new Handle();
+    assertNull(handle.token);
+    handle.recycle();
+    assertEquals(created, NotesHandleTracker.getCreatedCount());
+  }
+
+  public void testLiveCounts() {
+    int live = NotesHandleTracker.getLiveCount();
+    long recycled = NotesHandleTracker.getRecycledCount();
+    Handle first = new Handle();
+    Handle second = new Handle();
+    assertEquals(live + 2, NotesHandleTracker.getLiveCount());
+    Map<String, Integer> byType = NotesHandleTracker.getLiveCountsByType();
+    assertTrue(byType.toString(), byType.get("Handle") >= 2);
+
+    first.recycle();
+    first.recycle();
+    assertEquals(live + 1, NotesHandleTracker.getLiveCount());
+    assertEquals(recycled + 1, NotesHandleTracker.getRecycledCount());
+    second.recycle();
+    assertEquals(live, NotesHandleTracker.getLiveCount());
+  }
+
+  public void testLeak() throws Exception {
+    List<String> logs = TestUtil.captureLogMessages(NotesHandleTracker.class,
+        "was not recycled");
+    long leaks = NotesHandleTracker.getLeakCount();
+    int live = NotesHandleTracker.getLiveCount();
+    Handle handle = new Handle();
+    NotesHandleTracker.reportCollected(handle.token);
+    assertEquals(leaks + 1, NotesHandleTracker.getLeakCount());
+    assertEquals(live, NotesHandleTracker.getLiveCount());
+    assertEquals(logs.toString(), 1, logs.size());
+    assertTrue(logs.get(0), logs.get(0).startsWith("Notes Handle created by "));
+
+    // A leaked object that is later recycled isn't counted again.
+    long recycled = NotesHandleTracker.getRecycledCount();
+    handle.recycle();
+    assertEquals(recycled, NotesHandleTracker.getRecycledCount());
+    assertEquals(leaks + 1, NotesHandleTracker.getLeakCount());
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright 2012 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.enterprise.connector.notes.client.mock;
+
+import com.google.enterprise.connector.notes.client.ClientProxyFactory;
+import com.google.enterprise.connector.notes.client.NotesSession;
+import com.google.enterprise.connector.spi.RepositoryException;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Injects latency and failures into the calls made on the mock client,
+ * so that tests can measure the effect of Domino round trips without a
+ * Domino server.
+ *
+ * Rules are keyed by interface and method, such as "NotesView.refresh",
+ * by interface, such as "NotesView.*", or by "*" for every call. The
+ * most specific rule applies. A call is delayed by its base latency
+ * plus a uniformly distributed jitter, and some fraction of calls can
+ * be made slow to model a long latency tail. Calls that declare
+ * RepositoryException can be made to fail at a given rate.
+ *
+ * A profile is applied to the sessions created by a
+ * {@link SessionFactoryMock} with
+ * {@link SessionFactoryMock#setLatencyProfile}. The random numbers are
+ * seeded, so a single-threaded scenario injects the same delays and
+ * failures on every run.
+ */
+public class LatencyProfile {
+  private static final String CLASS_NAME = LatencyProfile.class.getName();
+
+  /** The logger for this class. */
+  private static final Logger LOGGER =
+      Logger.getLogger(CLASS_NAME);
+
+  private final Random random;
+  private final Map<String, Rule> rules = new ConcurrentHashMap<String, Rule>();
+  private final ConcurrentMap<String, AtomicLong> callCounts =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private final AtomicLong injectedFailures = new AtomicLong();
+  private final AtomicLong injectedDelayMillis = new AtomicLong();
+  private final ClientProxyFactory proxies = new ClientProxyFactory() {
+      @Override
+      protected Object intercept(String type, Method method, Call call)
+          throws Throwable {
+        beforeCall(type, method.getName(), Arrays.asList(
+            method.getExceptionTypes()).contains(RepositoryException.class));
+        return call.proceed();
+      }
+    };
+
+  /** The latency and failures injected into one method. */
+  private static class Rule {
+    long baseMillis;
+    long jitterMillis;
+    double slowRate;
+    long slowMillis;
+    double failureRate;
+
+    Rule copy() {
+      Rule rule = new Rule();
+      rule.baseMillis = baseMillis;
+      rule.jitterMillis = jitterMillis;
+      rule.slowRate = slowRate;
+      rule.slowMillis = slowMillis;
+      rule.failureRate = failureRate;
+      return rule;
+    }
+  }
+
+  public LatencyProfile(long seed) {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Sets the latency of the matching calls.
+   *
+   * @param key "Interface.method", "Interface.*" or "*"
+   * @param baseMillis the minimum latency
+   * @param jitterMillis the maximum latency added to the base
+   * @return this profile
+   */
+  public LatencyProfile setLatency(String key, long baseMillis,
+      long jitterMillis) {
+    Rule rule = getRuleForUpdate(key);
+    rule.baseMillis = baseMillis;
+    rule.jitterMillis = jitterMillis;
+    rules.put(key, rule);
+    return this;
+  }
+
+  /**
+   * Makes some of the matching calls slow.
+   *
+   * @param key "Interface.method", "Interface.*" or "*"
+   * @param rate the fraction of calls to slow down, from 0 to 1
+   * @param slowMillis the latency added to the slow calls
+   * @return this profile
+   */
+  public LatencyProfile setSlowCalls(String key, double rate,
+      long slowMillis) {
+    Rule rule = getRuleForUpdate(key);
+    rule.slowRate = rate;
+    rule.slowMillis = slowMillis;
+    rules.put(key, rule);
+    return this;
+  }
+
+  /**
+   * Makes some of the matching calls fail with a RepositoryException.
+   *
+   * @param key "Interface.method", "Interface.*" or "*"
+   * @param rate the fraction of calls to fail, from 0 to 1
+   * @return this profile
+   */
+  public LatencyProfile setFailureRate(String key, double rate) {
+    Rule rule = getRuleForUpdate(key);
+    rule.failureRate = rate;
+    rules.put(key, rule);
+    return this;
+  }
+
+  /**
+   * Gets the number of calls of each method, keyed by
+   * "Interface.method".
+   */
+  public Map<String, Long> getCallCounts() {
+    Map<String, Long> counts = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> entry : callCounts.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  public long getCallCount(String key) {
+    AtomicLong count = callCounts.get(key);
+    return (count == null) ? 0 : count.get();
+  }
+
+  public long getInjectedFailureCount() {
+    return injectedFailures.get();
+  }
+
+  /** Gets the total latency injected into all calls. */
+  public long getInjectedDelayMillis() {
+    return injectedDelayMillis.get();
+  }
+
+  /**
+   * Wraps a session so that its calls, and the calls of every client
+   * object it returns, are delayed and failed by this profile.
+   */
+  public NotesSession wrap(NotesSession session) {
+    return (NotesSession) proxies.wrap(session, NotesSession.class);
+  }
+
+  /**
+   * Applies the profile to a call.
+   *
+   * @param type the simple name of the client interface
+   * @param method the method name
+   * @param canFail true if the method declares RepositoryException
+   * @throws RepositoryException if the call is chosen to fail
+   */
+  void beforeCall(String type, String method, boolean canFail)
+      throws RepositoryException {
+    String key = type + "." + method;
+    AtomicLong count = callCounts.get(key);
+    if (count == null) {
+      callCounts.putIfAbsent(key, new AtomicLong());
+      count = callCounts.get(key);
+    }
+    count.incrementAndGet();
+
+    Rule rule = getRule(type, key);
+    if (rule == null) {
+      return;
+    }
+    long delay = rule.baseMillis;
+    if (rule.jitterMillis > 0) {
+      delay += (long) (random.nextDouble() * (rule.jitterMillis + 1));
+    }
+    if (rule.slowRate > 0 && random.nextDouble() < rule.slowRate) {
+      delay += rule.slowMillis;
+    }
+    if (delay > 0) {
+      injectedDelayMillis.addAndGet(delay);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (canFail && rule.failureRate > 0
+        && random.nextDouble() < rule.failureRate) {
+      injectedFailures.incrementAndGet();
+      LOGGER.log(Level.FINEST, "Injecting failure into {0}", key);
+      throw new RepositoryException("Injected failure: " + key);
+    }
+  }
+
+  private Rule getRule(String type, String key) {
+    Rule rule = rules.get(key);
+    if (rule == null) {
+      rule = rules.get(type + ".*");
+    }
+    if (rule == null) {
+      rule = rules.get("*");
+    }
+    return rule;
+  }
+
+  /** Rules are replaced rather than changed while calls read them. */
+  private Rule getRuleForUpdate(String key) {
+    Rule rule = rules.get(key);
+    return (rule == null) ? new Rule() : rule.copy();
+  }
+}
@@ -15,18 +15,26 @@
 package com.google.enterprise.connector.notes.client.mock;
 
 import com.google.enterprise.connector.notes.client.NotesBase;
+import com.google.enterprise.connector.notes.client.NotesHandleArena;
+import com.google.enterprise.connector.notes.client.NotesHandleTracker;
 import com.google.enterprise.connector.spi.RepositoryException;
 
 import java.util.Vector;
 
 class NotesBaseMock implements NotesBase {
 
+  private final Object trackingToken;
+
   NotesBaseMock() {
+    NotesHandleArena.track(this);
+    trackingToken = NotesHandleTracker.track(this);
   }
 
   /** {@inheritDoc} */
   @Override
   public void recycle() throws RepositoryException {
+    NotesHandleArena.untrack(this);
+    NotesHandleTracker.recycled(trackingToken);
   }
 
   /** {@inheritDoc} */
@@ -113,8 +113,8 @@ public class NotesDatabaseMock extends NotesBaseMock
         view = new ArrayList<NotesDocumentMock>();
         views.put(documentViewName, view);
       }
-      LOGGER.fine("Adding document " + document + " to view "
-          + documentViewName);
+      LOGGER.log(Level.FINE, "Adding document {0} to view {1}",
+          new Object[] {document, documentViewName});
       view.add(document);
     }
   }
@@ -28,7 +28,9 @@ import com.google.enterprise.connector.spi.RepositoryException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Logger;
 
@@ -50,6 +52,9 @@ public class NotesDocumentMock extends NotesBaseMock
 
   private NotesDateTime lastModified;
 
+  private final Map<String, NotesEmbeddedObjectMock> attachments =
+      new LinkedHashMap<String, NotesEmbeddedObjectMock>();
+
   /* The constructor's currently public for testing. At some
    * point, we might be able to build a more thorough test data
    * framework and remove the need for tests to construct mock
@@ -71,6 +76,21 @@ public class NotesDocumentMock extends NotesBaseMock
     this.responses.add(response);
   }
 
+  /**
+   * Attaches a file to the document. The attachment names are also
+   * returned when the session evaluates @AttachmentNames.
+   *
+   * @param filename the name of the attachment
+   * @param content the content of the attached file
+   */
+  public void addAttachment(String filename, byte[] content)
+      throws RepositoryException {
+    attachments.put(filename, new NotesEmbeddedObjectMock(
+        NotesEmbeddedObject.EMBED_ATTACHMENT, content));
+    replaceItemValue("evaluate_@AttachmentNames",
+        new Vector<String>(attachments.keySet()));
+  }
+
   @Override
   public boolean isDeleted() throws RepositoryException {
     return false;
@@ -280,7 +300,7 @@ public class NotesDocumentMock extends NotesBaseMock
   public NotesEmbeddedObject getAttachment(String filename)
       throws RepositoryException {
     LOGGER.entering(CLASS_NAME, "getAttachment");
-    return null;
+    return attachments.get(filename);
   }
 
   /** {@inheritDoc} */
@@ -17,6 +17,8 @@ package com.google.enterprise.connector.notes.client.mock;
 import com.google.enterprise.connector.notes.client.NotesEmbeddedObject;
 import com.google.enterprise.connector.spi.RepositoryException;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 class NotesEmbeddedObjectMock extends NotesBaseMock
@@ -28,28 +30,55 @@ class NotesEmbeddedObjectMock extends NotesBaseMock
   private static final Logger LOGGER =
       Logger.getLogger(CLASS_NAME);
 
+  private final int type;
+  private final byte[] content;
+
   NotesEmbeddedObjectMock() {
+    this(-1, null);
+  }
+
+  /**
+   * @param type the embedded object type, such as
+   * {@link NotesEmbeddedObject#EMBED_ATTACHMENT}
+   * @param content the attached file, or null if there is none
+   */
+  NotesEmbeddedObjectMock(int type, byte[] content) {
+    this.type = type;
+    this.content = content;
   }
 
   /** {@inheritDoc} */
   @Override
   public int getType() throws RepositoryException {
     LOGGER.entering(CLASS_NAME, "getType");
-    return -1;
+    return type;
   }
 
   /** {@inheritDoc} */
   @Override
   public int getFileSize() throws RepositoryException {
     LOGGER.entering(CLASS_NAME, "getFileSize");
-    return -1;
+    return (content == null) ? -1 : content.length;
   }
 
   /** {@inheritDoc} */
   @Override
   public void extractFile(String path) throws RepositoryException {
-     LOGGER.entering(CLASS_NAME, "extractFile");
- }
+    LOGGER.entering(CLASS_NAME, "extractFile");
+    if (content == null) {
+      return;
+    }
+    try {
+      FileOutputStream out = new FileOutputStream(path);
+      try {
+        out.write(content);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new RepositoryException("Failed to extract file to " + path, e);
+    }
+  }
 
   /* TODO: implement getName.
   @Override
@@ -44,8 +44,10 @@ class NotesViewEntryMock extends NotesBaseMock
     LOGGER.entering(CLASS_NAME, "getColumnValues");
     Vector<Object> values = new Vector<Object>();
     for (String field : view.getFields()) {
+      // Like Domino, return multiple values as a Vector.
       NotesItem item = document.getFirstItem(field);
-      values.add(item.getValues().get(0));
+      Vector itemValues = item.getValues();
+      values.add(itemValues.size() == 1 ? itemValues.get(0) : itemValues);
     }
     return values;
   }
@@ -56,4 +58,11 @@ class NotesViewEntryMock extends NotesBaseMock
     LOGGER.entering(CLASS_NAME, "getDocument");
     return document;
   }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getUniversalID() throws RepositoryException {
+    LOGGER.entering(CLASS_NAME, "getUniversalID");
+    return document.getUniversalID();
+  }
 }
@@ -23,6 +23,7 @@ import com.google.enterprise.connector.spi.RepositoryException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class NotesViewMock extends NotesBaseMock implements NotesView {
@@ -117,8 +118,8 @@ public class NotesViewMock extends NotesBaseMock implements NotesView {
     }
     for (NotesDocumentMock doc : documents) {
       String docValue = doc.getItemValueString(fields[0]).toLowerCase();
-      LOGGER.finest("checking doc item " + fields[0]
-          + " with value " + docValue);
+      LOGGER.log(Level.FINEST, "checking doc item {0} with value {1}",
+          new Object[] {fields[0], docValue});
       if (exact) {
         if (docValue.equalsIgnoreCase(key.toString())) {
           return doc;
@@ -167,6 +168,21 @@ public class NotesViewMock extends NotesBaseMock implements NotesView {
     return new NotesViewNavigatorMock(this);
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public int getColumnValuesIndex(String itemName)
+      throws RepositoryException {
+    LOGGER.entering(CLASS_NAME, "getColumnValuesIndex");
+    if (fields != null) {
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i].equalsIgnoreCase(itemName)) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
   /** {@inheritDoc} */
   @Override
   public void refresh() throws RepositoryException {
@@ -17,6 +17,7 @@ package com.google.enterprise.connector.notes.client.mock;
 import com.google.enterprise.connector.notes.client.NotesSession;
 import com.google.enterprise.connector.notes.client.NotesThread;
 import com.google.enterprise.connector.notes.client.SessionFactory;
+import com.google.enterprise.connector.spi.RepositoryException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -35,15 +36,24 @@ public class SessionFactoryMock implements SessionFactory {
   private final List<NotesDatabaseMock> databases =
       new ArrayList<NotesDatabaseMock>();
   private final Map<String, String> environment = new HashMap<String, String>();
+  private volatile LatencyProfile latencyProfile;
 
   public SessionFactoryMock() {
   }
 
   /** {@inheritDoc} */
   @Override
-  public NotesSession createSessionWithFullAccess(String password) {
+  public NotesSession createSessionWithFullAccess(String password)
+      throws RepositoryException {
     LOGGER.entering(CLASS_NAME, "createSessionWithFullAccess");
-    return new NotesSessionMock(databases, environment);
+    NotesSession session = new NotesSessionMock(databases, environment);
+    LatencyProfile profile = latencyProfile;
+    if (profile != null) {
+      profile.beforeCall("SessionFactory", "createSessionWithFullAccess",
+          true);
+      session = profile.wrap(session);
+    }
+    return session;
   }
 
   /** {@inheritDoc} */
@@ -66,6 +76,16 @@ public class SessionFactoryMock implements SessionFactory {
     return null;
   }
 
+  /**
+   * Sets the latency and failures injected into the sessions created
+   * after this call.
+   *
+   * @param latencyProfile the profile to apply, or null for none
+   */
+  public void setLatencyProfile(LatencyProfile latencyProfile) {
+    this.latencyProfile = latencyProfile;
+  }
+
   public void setEnvironmentProperty(String name, String value) {
     environment.put(name, value);
   }